@@ -7,6 +7,7 @@ plugins {
     alias(libs.plugins.defaults)
     alias(libs.plugins.oci)
     alias(libs.plugins.spotless)
+    alias(libs.plugins.jmh)
     idea
 }
 
@@ -158,6 +159,30 @@ testing {
     }
 }
 
+dependencies {
+    jmhCompileOnly(libs.jetbrains.annotations)
+    jmhImplementation(libs.hivemq.extensionSdk)
+    jmhRuntimeOnly(libs.logback.classic)
+}
+
+// run with ./gradlew jmh, select benchmarks with e.g. -PjmhIncludes=PayloadParseBenchmark
+jmh {
+    jmhVersion = libs.versions.jmh
+    profilers.add("gc")
+    providers.gradleProperty("jmhIncludes").orNull?.let { includes.add(it) }
+}
+
+// run with ./gradlew soak, configure the fleet with e.g. -Psoak.devices=100 -Psoak.rate=5 (see SoakHarness)
+tasks.register<JavaExec>("soak") {
+    group = "verification"
+    description = "Runs the end-to-end soak harness against an in-process InfluxDB stand-in."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass = "com.hivemq.extensions.sparkplug.influxdb.SoakHarness"
+    javaLauncher = javaToolchains.launcherFor(java.toolchain)
+    maxHeapSize = "1g"
+    systemProperties(providers.gradlePropertiesPrefixedBy("soak.").get())
+}
+
 spotless {
     java {
         targetExclude("build/generated/**")
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.sparkplug.influxdb;
+
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundInput;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import org.eclipse.tahu.protobuf.SparkplugBProto;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * Realistic Sparkplug payloads and publishes for the benchmarks.
+ * <p>
+ * The metrics cycle through the value types an edge node typically reports (int, long, double, float and boolean),
+ * carry a name, an alias, a datatype and a timestamp, like the payloads of common Sparkplug edge implementations.
+ */
+final class BenchmarkPayloads {
+
+    /**
+     * The interceptor does not modify publishes, so any use of the output is unexpected.
+     */
+    static final @NotNull PublishInboundOutput OUTPUT =
+            (PublishInboundOutput) Proxy.newProxyInstance(PublishInboundOutput.class.getClassLoader(),
+                    new Class<?>[]{PublishInboundOutput.class},
+                    (proxy, method, args) -> {
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+
+    // Sparkplug datatype codes, the proto only lists them in a comment
+    private static final int INT32 = 3;
+    private static final int INT64 = 4;
+    private static final int FLOAT = 9;
+    private static final int DOUBLE = 10;
+    private static final int BOOLEAN = 11;
+
+    private static final @NotNull String @NotNull [] GROUPS = {"Sensors", "Drives", "Status", "Counters"};
+
+    private BenchmarkPayloads() {
+    }
+
+    /**
+     * Creates a BIRTH or DATA payload with the given number of metrics.
+     *
+     * @param  metricCount the number of metrics
+     * @param  timestamp   the timestamp of the payload and its metrics
+     * @return             the encoded payload
+     */
+    static byte @NotNull [] payload(final int metricCount, final long timestamp) {
+        final var payload = SparkplugBProto.Payload.newBuilder().setTimestamp(timestamp).setSeq(timestamp & 0xFF);
+        for (var i = 0; i < metricCount; i++) {
+            final var metric = SparkplugBProto.Payload.Metric.newBuilder()
+                    .setName(metricName(i))
+                    .setAlias(i)
+                    .setTimestamp(timestamp);
+            switch (i % 5) {
+                case 0:
+                    metric.setDatatype(INT32).setIntValue((int) (timestamp + i));
+                    break;
+                case 1:
+                    metric.setDatatype(INT64).setLongValue(timestamp * i);
+                    break;
+                case 2:
+                    metric.setDatatype(DOUBLE).setDoubleValue(i + timestamp / 1000d);
+                    break;
+                case 3:
+                    metric.setDatatype(FLOAT).setFloatValue(i + timestamp / 1000f);
+                    break;
+                default:
+                    metric.setDatatype(BOOLEAN).setBooleanValue((timestamp & 1) == 0);
+            }
+            payload.addMetrics(metric);
+        }
+        return payload.build().toByteArray();
+    }
+
+    static @NotNull String metricName(final int index) {
+        return GROUPS[index % GROUPS.length] + "/Metric " + index;
+    }
+
+    /**
+     * Creates an interceptor input for a publish with the given topic and payload.
+     * <p>
+     * The SDK interfaces are implemented with plain dynamic proxies, so no mocking framework distorts the measured
+     * allocations. Like the broker, every call of {@link PublishPacket#getPayload()} returns a new read-only view.
+     *
+     * @param  topic   the topic of the publish
+     * @param  payload the payload of the publish
+     * @return         the interceptor input
+     */
+    static @NotNull PublishInboundInput publish(final @NotNull String topic, final byte @NotNull [] payload) {
+        final var buffer = ByteBuffer.wrap(payload);
+        final var packet = (PublishPacket) Proxy.newProxyInstance(PublishPacket.class.getClassLoader(),
+                new Class<?>[]{PublishPacket.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getTopic":
+                            return topic;
+                        case "getPayload":
+                            return Optional.of(buffer.asReadOnlyBuffer());
+                        case "getTimestamp":
+                            return System.currentTimeMillis();
+                        case "toString":
+                            return "PublishPacket{topic=" + topic + "}";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return (PublishInboundInput) Proxy.newProxyInstance(PublishInboundInput.class.getClassLoader(),
+                new Class<?>[]{PublishInboundInput.class},
+                (proxy, method, args) -> {
+                    if ("getPublishPacket".equals(method.getName())) {
+                        return packet;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
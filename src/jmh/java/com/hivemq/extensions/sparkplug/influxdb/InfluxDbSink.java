@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.sparkplug.influxdb;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-process stand-in for InfluxDB, accepting writes on the loopback interface.
+ * <p>
+ * Mimics the {@code /write} endpoint of InfluxDB 1.x and the {@code /api/v2/write} endpoint of InfluxDB 2.x (including
+ * gzip encoded bodies), answers every write with {@code 204 No Content} and only counts the received requests, points
+ * and bytes.
+ */
+class InfluxDbSink implements AutoCloseable {
+
+    private final @NotNull HttpServer server;
+    private final @NotNull ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final @NotNull LongAdder requests = new LongAdder();
+    private final @NotNull LongAdder points = new LongAdder();
+    private final @NotNull LongAdder bytes = new LongAdder();
+
+    InfluxDbSink() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/write", this::handleWrite);
+        server.createContext("/api/v2/write", this::handleWrite);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    long getRequests() {
+        return requests.sum();
+    }
+
+    long getPoints() {
+        return points.sum();
+    }
+
+    /**
+     * @return the number of received bytes of line protocol, after decompression
+     */
+    long getBytes() {
+        return bytes.sum();
+    }
+
+    private void handleWrite(final @NotNull HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final var gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            try (final InputStream in =
+                         gzip ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+                final var buffer = new byte[8192];
+                long lines = 0;
+                long length = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    for (var i = 0; i < read; i++) {
+                        if (buffer[i] == '\n') {
+                            lines++;
+                        }
+                    }
+                    length += read;
+                }
+                points.add(lines);
+                bytes.add(length);
+            }
+            requests.increment();
+            exchange.sendResponseHeaders(204, -1);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.sparkplug.influxdb;
+
+import org.eclipse.tahu.protobuf.SparkplugBProto;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding of Sparkplug payloads of different sizes from the read-only buffer the broker hands over.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadParseBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int metricCount;
+
+    private @NotNull ByteBuffer payload;
+
+    @Setup
+    public void setup() {
+        payload = ByteBuffer.wrap(BenchmarkPayloads.payload(metricCount, System.currentTimeMillis()))
+                .asReadOnlyBuffer();
+    }
+
+    @Benchmark
+    public @NotNull SparkplugBProto.Payload parseFrom() throws Exception {
+        return SparkplugBProto.Payload.parseFrom(payload.duplicate());
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.sparkplug.influxdb;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.UniformReservoir;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundInput;
+import com.hivemq.extensions.sparkplug.influxdb.configuration.SparkplugConfiguration;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.MetricsHolder;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import com.hivemq.extensions.sparkplug.influxdb.reporter.LineProtocolReporter;
+import com.hivemq.extensions.sparkplug.influxdb.sender.HttpLineProtocolSender;
+import com.hivemq.extensions.sparkplug.influxdb.sender.InfluxDbCloudSender;
+import com.hivemq.extensions.sparkplug.influxdb.sender.LineProtocolSender;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Soak test of the complete pipeline, without Docker or any network besides the loopback interface.
+ * <p>
+ * A synthetic fleet of groups, edge nodes and devices publishes DDATA messages at a fixed rate through the
+ * {@link SparkplugBInterceptor}. The {@link LineProtocolReporter} reports the resulting metrics to an in-process
+ * {@link InfluxDbSink}, either via the InfluxDB 1.x {@code /write} endpoint ({@code http}) or the InfluxDB 2.x
+ * {@code /api/v2/write} endpoint ({@code cloud}).
+ * <p>
+ * After the warmup, the harness prints the sustained messages and points per second, the latency percentiles of the
+ * interceptor, the heap growth and the GC time. The latency is measured from the time a message was due according to
+ * the configured rate, so a stalled pipeline shows up as latency instead of silently lowering the rate.
+ * <p>
+ * Run with {@code ./gradlew soak}, the fleet is configured with {@code -Psoak.<property>=<value>}:
+ * <ul>
+ * <li>{@code groups}, {@code edgeNodes} (per group), {@code devices} (per edge node), {@code metrics} (per device)</li>
+ * <li>{@code rate} - DDATA messages per second and device</li>
+ * <li>{@code threads} - publishing threads, like the threads of the broker calling the interceptor</li>
+ * <li>{@code duration} and {@code warmup} in seconds, {@code reportingInterval} in seconds</li>
+ * <li>{@code mode} - {@code http} or {@code cloud}, {@code pointFormat} - {@code single} or {@code multi}</li>
+ * </ul>
+ */
+public final class SoakHarness {
+
+    private static final @NotNull String NAMESPACE = "spBv1.0";
+    private static final int PAYLOAD_VARIANTS = 4;
+
+    private final int groups = Integer.getInteger("soak.groups", 2);
+    private final int edgeNodes = Integer.getInteger("soak.edgeNodes", 10);
+    private final int devices = Integer.getInteger("soak.devices", 10);
+    private final int metrics = Integer.getInteger("soak.metrics", 50);
+    private final double rate = Double.parseDouble(System.getProperty("soak.rate", "10"));
+    private final int threads = Integer.getInteger("soak.threads", Runtime.getRuntime().availableProcessors());
+    private final int duration = Integer.getInteger("soak.duration", 60);
+    private final int warmup = Integer.getInteger("soak.warmup", 10);
+    private final int reportingInterval = Integer.getInteger("soak.reportingInterval", 1);
+    private final @NotNull String mode = System.getProperty("soak.mode", "http");
+    private final boolean multiFieldPoints = "multi".equals(System.getProperty("soak.pointFormat", "single"));
+
+    private final @NotNull Histogram latency = new Histogram(new UniformReservoir(1 << 17));
+    private final @NotNull Histogram serviceTime = new Histogram(new UniformReservoir(1 << 17));
+    private final @NotNull LongAdder messages = new LongAdder();
+    private volatile boolean measuring;
+
+    private SoakHarness() {
+    }
+
+    public static void main(final @NotNull String @NotNull [] args) throws Exception {
+        new SoakHarness().run();
+    }
+
+    private void run() throws Exception {
+        final var deviceCount = groups * edgeNodes * devices;
+        System.out.printf("Fleet: %d groups x %d edge nodes x %d devices x %d metrics, %.1f msg/s per device " +
+                        "(%.0f msg/s, %.0f metric updates/s), %d threads, mode %s, %s point format%n",
+                groups,
+                edgeNodes,
+                devices,
+                metrics,
+                rate,
+                deviceCount * rate,
+                deviceCount * rate * metrics,
+                threads,
+                mode,
+                multiFieldPoints ? "multi" : "single");
+
+        try (final var sink = new InfluxDbSink()) {
+            final var metricsHolder = MetricsHolder.forRegistry(new MetricRegistry()).build();
+            final var interceptor = new SparkplugBInterceptor(metricsHolder,
+                    new SparkplugConfiguration(new File(System.getProperty("java.io.tmpdir"))));
+            final var reporter = LineProtocolReporter.forRegistry(metricsHolder.getMetricRegistry())
+                    .withTags(Map.of("host", "soak"))
+                    .multiFieldPoints(multiFieldPoints)
+                    .build(metricsHolder, createSender(sink.getPort(), metricsHolder.getPipelineMetrics()));
+
+            final var fleet = createFleet(interceptor);
+            reporter.start(reportingInterval, TimeUnit.SECONDS);
+
+            final var start = System.nanoTime();
+            final var end = start + TimeUnit.SECONDS.toNanos(warmup + duration);
+            final var workers = new ArrayList<Thread>();
+            for (var i = 0; i < threads; i++) {
+                final var slice = new ArrayList<PublishInboundInput[]>();
+                for (var device = i; device < fleet.size(); device += threads) {
+                    slice.add(fleet.get(device));
+                }
+                if (slice.isEmpty()) {
+                    continue;
+                }
+                final var worker = new Thread(() -> publish(interceptor, slice, start, end), "soak-publisher-" + i);
+                worker.start();
+                workers.add(worker);
+            }
+
+            TimeUnit.SECONDS.sleep(warmup);
+            System.gc();
+            final var memory = ManagementFactory.getMemoryMXBean();
+            final var heapBefore = memory.getHeapMemoryUsage().getUsed();
+            final var gcTimeBefore = gcTime();
+            final var gcCountBefore = gcCount();
+            final var messagesBefore = messages.sum();
+            final var pointsBefore = sink.getPoints();
+            final var bytesBefore = sink.getBytes();
+            final var measureStart = System.nanoTime();
+            measuring = true;
+
+            var lastMessages = messagesBefore;
+            var lastPoints = pointsBefore;
+            for (var elapsed = 10; elapsed <= duration; elapsed += 10) {
+                TimeUnit.SECONDS.sleep(10);
+                final var currentMessages = messages.sum();
+                final var currentPoints = sink.getPoints();
+                System.out.printf("%4ds: %10.0f msg/s %12.0f points/s %8d MiB heap used%n",
+                        elapsed,
+                        (currentMessages - lastMessages) / 10d,
+                        (currentPoints - lastPoints) / 10d,
+                        memory.getHeapMemoryUsage().getUsed() >> 20);
+                lastMessages = currentMessages;
+                lastPoints = currentPoints;
+            }
+            for (final var worker : workers) {
+                worker.join();
+            }
+            measuring = false;
+            final var measured = (System.nanoTime() - measureStart) / 1e9;
+            final var sentMessages = messages.sum() - messagesBefore;
+            // let the last report arrive before counting the points
+            reporter.report();
+            final var points = sink.getPoints() - pointsBefore;
+            final var bytes = sink.getBytes() - bytesBefore;
+            reporter.stop();
+
+            System.gc();
+            final var heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+            System.out.printf("%nSustained over %.1f s:%n", measured);
+            System.out.printf("  messages:     %12.0f msg/s (target %.0f msg/s)%n",
+                    sentMessages / measured,
+                    deviceCount * rate);
+            System.out.printf("  points:       %12.0f points/s, %.0f KiB/s line protocol, %d write requests total%n",
+                    points / measured,
+                    bytes / measured / 1024,
+                    sink.getRequests());
+            printLatency("  latency:      ", latency);
+            printLatency("  service time: ", serviceTime);
+            System.out.printf("  heap growth:  %12.1f MiB (%d MiB -> %d MiB after GC)%n",
+                    (heapAfter - heapBefore) / 1024d / 1024d,
+                    heapBefore >> 20,
+                    heapAfter >> 20);
+            System.out.printf("  GC:           %12d ms in %d collections (%.2f %% of the time)%n",
+                    gcTime() - gcTimeBefore,
+                    gcCount() - gcCountBefore,
+                    (gcTime() - gcTimeBefore) / measured / 10);
+        }
+    }
+
+    private @NotNull LineProtocolSender createSender(final int port, final @NotNull PipelineMetrics pipelineMetrics)
+            throws Exception {
+        if ("cloud".equals(mode)) {
+            return new InfluxDbCloudSender("http",
+                    "127.0.0.1",
+                    port,
+                    "soak-token",
+                    TimeUnit.SECONDS,
+                    5000,
+                    5000,
+                    "soak",
+                    "sparkplug",
+                    4,
+                    pipelineMetrics);
+        }
+        return new HttpLineProtocolSender("http",
+                "127.0.0.1",
+                port,
+                "sparkplug",
+                null,
+                TimeUnit.SECONDS,
+                5000,
+                5000,
+                4,
+                pipelineMetrics);
+    }
+
+    /**
+     * Births all edge nodes and devices and creates the DDATA publishes of every device.
+     *
+     * @return the DDATA publish variants per device
+     */
+    private @NotNull List<PublishInboundInput[]> createFleet(final @NotNull SparkplugBInterceptor interceptor) {
+        final var timestamp = System.currentTimeMillis();
+        final var birth = BenchmarkPayloads.payload(metrics, timestamp);
+        final var data = new byte[PAYLOAD_VARIANTS][];
+        for (var i = 0; i < PAYLOAD_VARIANTS; i++) {
+            data[i] = BenchmarkPayloads.payload(metrics, timestamp + i + 1);
+        }
+        final var fleet = new ArrayList<PublishInboundInput[]>();
+        for (var group = 0; group < groups; group++) {
+            for (var edgeNode = 0; edgeNode < edgeNodes; edgeNode++) {
+                final var nodeTopic = "group" + group + "/%s/edge" + group + "-" + edgeNode;
+                interceptor.onInboundPublish(BenchmarkPayloads.publish(NAMESPACE + "/" +
+                        String.format(nodeTopic, "NBIRTH"), birth), BenchmarkPayloads.OUTPUT);
+                for (var device = 0; device < devices; device++) {
+                    final var deviceTopic = NAMESPACE + "/" + nodeTopic + "/device" + device;
+                    interceptor.onInboundPublish(BenchmarkPayloads.publish(String.format(deviceTopic, "DBIRTH"),
+                            birth), BenchmarkPayloads.OUTPUT);
+                    final var publishes = new PublishInboundInput[PAYLOAD_VARIANTS];
+                    for (var i = 0; i < PAYLOAD_VARIANTS; i++) {
+                        publishes[i] = BenchmarkPayloads.publish(String.format(deviceTopic, "DDATA"), data[i]);
+                    }
+                    fleet.add(publishes);
+                }
+            }
+        }
+        return fleet;
+    }
+
+    /**
+     * Publishes the DDATA messages of the given devices round-robin at the configured rate until the end.
+     */
+    private void publish(
+            final @NotNull SparkplugBInterceptor interceptor,
+            final @NotNull List<PublishInboundInput[]> slice,
+            final long start,
+            final long end) {
+        final var interval = (long) (1e9 / (rate * slice.size()));
+        for (long i = 0; ; i++) {
+            final var due = start + i * interval;
+            if (due >= end) {
+                return;
+            }
+            var now = System.nanoTime();
+            if (now < due) {
+                LockSupport.parkNanos(due - now);
+            }
+            final var device = slice.get((int) (i % slice.size()));
+            final var publish = device[(int) ((i / slice.size()) % PAYLOAD_VARIANTS)];
+            final var begin = System.nanoTime();
+            interceptor.onInboundPublish(publish, BenchmarkPayloads.OUTPUT);
+            now = System.nanoTime();
+            messages.increment();
+            if (measuring) {
+                serviceTime.update(now - begin);
+                latency.update(now - due);
+            }
+        }
+    }
+
+    private static void printLatency(final @NotNull String label, final @NotNull Histogram histogram) {
+        final var snapshot = histogram.getSnapshot();
+        System.out.printf("%s%12.1f us p50, %.1f us p99, %.1f us p999, %.1f us max%n",
+                label,
+                snapshot.getMedian() / 1000,
+                snapshot.get99thPercentile() / 1000,
+                snapshot.get999thPercentile() / 1000,
+                snapshot.getMax() / 1000d);
+    }
+
+    private static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans()
+                .stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .sum();
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans()
+                .stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+                .sum();
+    }
+}
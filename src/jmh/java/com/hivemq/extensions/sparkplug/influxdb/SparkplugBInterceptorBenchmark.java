@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.sparkplug.influxdb;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundInput;
+import com.hivemq.extensions.sparkplug.influxdb.configuration.SparkplugConfiguration;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.MetricsHolder;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the complete per-message path of the interceptor for DDATA messages of a known device: topic parsing,
+ * payload decoding, alias resolution and the gauge lookup and update in the {@link MetricsHolder}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SparkplugBInterceptorBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int metricCount;
+
+    private @NotNull SparkplugBInterceptor interceptor;
+    private @NotNull PublishInboundInput data;
+
+    @Setup
+    public void setup() {
+        final var configuration = new SparkplugConfiguration(new File(System.getProperty("java.io.tmpdir")));
+        interceptor = new SparkplugBInterceptor(MetricsHolder.forRegistry(new MetricRegistry()).build(), configuration);
+        final var timestamp = System.currentTimeMillis();
+        // the birth establishes the aliases and registers all gauges, so only lookups are measured
+        interceptor.onInboundPublish(BenchmarkPayloads.publish("spBv1.0/group/DBIRTH/edgeNode/device",
+                BenchmarkPayloads.payload(metricCount, timestamp)), BenchmarkPayloads.OUTPUT);
+        data = BenchmarkPayloads.publish("spBv1.0/group/DDATA/edgeNode/device",
+                BenchmarkPayloads.payload(metricCount, timestamp + 1));
+        interceptor.onInboundPublish(data, BenchmarkPayloads.OUTPUT);
+    }
+
+    @Benchmark
+    public void onInboundPublish() {
+        interceptor.onInboundPublish(data, BenchmarkPayloads.OUTPUT);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the gauge lookup for an already registered Sparkplug metric, which happens for every metric of every DATA
+ * message, and the registration of new metrics, which happens for every metric of a newly born device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsHolderBenchmark {
+
+    private static final int METRIC_COUNT = 100;
+
+    private final @NotNull String @NotNull [] metricNames = new String[METRIC_COUNT];
+    private @NotNull MetricsHolder metricsHolder;
+
+    @Setup
+    public void setup() {
+        metricsHolder = MetricsHolder.forRegistry(new MetricRegistry()).build();
+        for (var i = 0; i < METRIC_COUNT; i++) {
+            metricNames[i] = "Sensors/Metric " + i;
+            metricsHolder.getDeviceInformationMetricsDouble("edgeNode", "device", metricNames[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(METRIC_COUNT)
+    public void lookup() {
+        for (var i = 0; i < METRIC_COUNT; i++) {
+            metricsHolder.getDeviceInformationMetricsDouble("edgeNode", "device", metricNames[i]).setValue(i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(METRIC_COUNT)
+    public @NotNull MetricsHolder register() {
+        final var holder = MetricsHolder.forRegistry(new MetricRegistry()).build();
+        for (var i = 0; i < METRIC_COUNT; i++) {
+            holder.getDeviceInformationMetricsDouble("edgeNode", "device", metricNames[i]).setValue(i);
+        }
+        return holder;
+    }
+}
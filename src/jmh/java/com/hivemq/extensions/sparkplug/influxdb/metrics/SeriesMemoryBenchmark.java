@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the memory retained per Sparkplug series: a fleet of devices with {@link #metricsPerDevice} metrics each is
+ * registered and updated once, and the heap retained by the {@link MetricsHolder} after a full GC as well as the
+ * off-heap {@link SeriesColumns} are reported per series as {@code heapBytesPerSeries} and
+ * {@code offHeapBytesPerSeries}. The time of the single shot is the registration time per series. With
+ * {@link #registerMetrics} disabled, the heap excludes the entries of the {@link MetricRegistry}.
+ * <p>
+ * There is only one measurement iteration, as JMH sums event counters over all iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SeriesMemoryBenchmark {
+
+    private static final int SERIES_COUNT = 200_000;
+
+    @Param({"10", "100"})
+    public int metricsPerDevice;
+
+    @Param({"true", "false"})
+    public boolean registerMetrics;
+
+    private final @NotNull String @NotNull [] metricNames = new String[1_000];
+
+    @Setup
+    public void setup() {
+        for (var i = 0; i < metricNames.length; i++) {
+            metricNames[i] = "Sensors/Metric " + i;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+
+        public long heapBytesPerSeries;
+        public long offHeapBytesPerSeries;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            heapBytesPerSeries = 0;
+            offHeapBytesPerSeries = 0;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SERIES_COUNT)
+    public @NotNull MetricsHolder register(final @NotNull Footprint footprint) {
+        final var before = usedHeap();
+        final var holder = MetricsHolder.forRegistry(new MetricRegistry()).registerMetrics(registerMetrics).build();
+        for (var i = 0; i < SERIES_COUNT; i++) {
+            final var device = "device" + i / metricsPerDevice;
+            holder.getDeviceInformationMetricsDouble("edgeNode", device, metricNames[i % metricsPerDevice])
+                    .setValue(i)
+                    .received(System.nanoTime(), 0, 0);
+        }
+        footprint.heapBytesPerSeries = (usedHeap() - before) / SERIES_COUNT;
+        footprint.offHeapBytesPerSeries =
+                holder.getSeriesTable().getColumns().getAllocatedBytes() / SERIES_COUNT;
+        return holder;
+    }
+
+    private static long usedHeap() {
+        final var memory = ManagementFactory.getMemoryMXBean();
+        memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ordering the updated series of a report by their series key, i.e. sorting their rank packed with their
+ * handle, with the {@link RadixSort} of the reporter and with {@link Arrays#sort(long[], int, int)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchSortBenchmark {
+
+    private static final int SERIES_COUNT = 1_000_000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int updated;
+
+    private final @NotNull RadixSort radixSort = new RadixSort();
+    private long @NotNull [] updates;
+    private long @NotNull [] batch;
+
+    @Setup
+    public void setup() {
+        final var random = new Random(42);
+        updates = new long[updated];
+        for (var i = 0; i < updated; i++) {
+            final var handle = random.nextInt(SERIES_COUNT);
+            // the ranks are a permutation of the handles
+            updates[i] = (long) (handle * 7_919 % SERIES_COUNT) << 32 | handle;
+        }
+        batch = new long[updated];
+    }
+
+    @Benchmark
+    public long @NotNull [] radixSort() {
+        System.arraycopy(updates, 0, batch, 0, updated);
+        radixSort.sort(batch, updated, SERIES_COUNT - 1);
+        return batch;
+    }
+
+    @Benchmark
+    public long @NotNull [] arraysSort() {
+        System.arraycopy(updates, 0, batch, 0, updated);
+        Arrays.sort(batch, 0, updated);
+        return batch;
+    }
+}
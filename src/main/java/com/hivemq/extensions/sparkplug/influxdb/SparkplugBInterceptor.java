@@ -21,15 +21,16 @@ import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInbound
 import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
 import com.hivemq.extensions.sparkplug.influxdb.configuration.SparkplugConfiguration;
 import com.hivemq.extensions.sparkplug.influxdb.metrics.MetricsHolder;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
 import com.hivemq.extensions.sparkplug.influxdb.topics.TopicStructure;
 import org.eclipse.tahu.protobuf.SparkplugBProto;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.hivemq.extensions.sparkplug.influxdb.topics.MessageType.STATE;
 
@@ -57,15 +58,20 @@ public class SparkplugBInterceptor implements PublishInboundInterceptor {
 
     /**
      * Maps Sparkplug metric aliases to their full metric names. Sparkplug uses aliases to reduce message size after
-     * initial BIRTH messages.
+     * initial BIRTH messages. The interceptor is shared by all clients, so it is called concurrently.
      */
-    private final @NotNull Map<Long, String> aliasToMetric = new HashMap<>();
+    private final @NotNull Map<Long, String> aliasToMetric = new ConcurrentHashMap<>();
 
     /**
      * Holder for managing and accessing Sparkplug metrics.
      */
     private final @NotNull MetricsHolder metricsHolder;
 
+    /**
+     * Metrics about the processing of the intercepted messages.
+     */
+    private final @NotNull PipelineMetrics pipelineMetrics;
+
     /**
      * The expected Sparkplug version namespace (e.g., "spBv1.0").
      */
@@ -81,6 +87,7 @@ public class SparkplugBInterceptor implements PublishInboundInterceptor {
             final @NotNull MetricsHolder metricsHolder,
             final @NotNull SparkplugConfiguration configuration) {
         this.metricsHolder = metricsHolder;
+        this.pipelineMetrics = metricsHolder.getPipelineMetrics();
         this.sparkplugVersion = configuration.getSparkplugVersion();
     }
 
@@ -96,6 +103,7 @@ public class SparkplugBInterceptor implements PublishInboundInterceptor {
     public void onInboundPublish(
             final @NotNull PublishInboundInput publishInboundInput,
             final @NotNull PublishInboundOutput publishInboundOutput) {
+        final var receivedNanos = System.nanoTime();
         if (LOG.isTraceEnabled()) {
             LOG.trace("Incoming publish from {}", publishInboundInput.getPublishPacket().getTopic());
         }
@@ -103,21 +111,47 @@ public class SparkplugBInterceptor implements PublishInboundInterceptor {
         final var topic = publishPacket.getTopic();
         final var payload = publishPacket.getPayload();
         final var topicStructure = new TopicStructure(topic);
+        pipelineMetrics.messageSeen();
         if (payload.isPresent() && topicStructure.isValid(sparkplugVersion)) {
             // it's a Sparkplug publish
+            pipelineMetrics.message(topicStructure.getMessageType());
             final var byteBuffer = payload.get();
+            final var payloadSize = byteBuffer.remaining();
+            final var decodeStart = System.nanoTime();
+            final SparkplugBProto.Payload spPayload;
+            try {
+                spPayload = SparkplugBProto.Payload.parseFrom(byteBuffer);
+            } catch (final Exception e) {
+                pipelineMetrics.parseError();
+                LOG.error("Could not parse MQTT payload to protobuf", e);
+                return;
+            }
+            pipelineMetrics.decoded(System.nanoTime() - decodeStart, spPayload.getMetricsCount());
+            if (topicStructure.getEonId() != null) {
+                pipelineMetrics.traffic(topicStructure.getGroupId(),
+                        topicStructure.getEonId(),
+                        topicStructure.getDeviceId(),
+                        payloadSize,
+                        spPayload.getMetricsCount());
+            }
             try {
-                final var spPayload = SparkplugBProto.Payload.parseFrom(byteBuffer);
                 final var metricsList = spPayload.getMetricsList();
                 for (final var metric : metricsList) {
-                    aliasToMetric.put(metric.getAlias(), metric.getName());
-                    if (LOG.isTraceEnabled()) {
-                        LOG.trace("Add Metric Mapping (Alias={}, MetricName={})", metric.getAlias(), metric.getName());
+                    if (metric.hasName() && metric.hasAlias()) {
+                        aliasToMetric.put(metric.getAlias(), metric.getName());
+                        if (LOG.isTraceEnabled()) {
+                            LOG.trace("Add Metric Mapping (Alias={}, MetricName={})",
+                                    metric.getAlias(),
+                                    metric.getName());
+                        }
                     }
                 }
-                generateMetricsFromMessage(topicStructure, metricsList);
+                final var received = new Received(receivedNanos,
+                        publishPacket.getTimestamp(),
+                        spPayload.hasTimestamp() ? spPayload.getTimestamp() : 0);
+                generateMetricsFromMessage(topicStructure, metricsList, received);
             } catch (final Exception e) {
-                LOG.error("Could not parse MQTT payload to protobuf", e);
+                LOG.error("Could not process Sparkplug payload", e);
             }
         } else {
             if (LOG.isTraceEnabled()) {
@@ -134,17 +168,19 @@ public class SparkplugBInterceptor implements PublishInboundInterceptor {
      *
      * @param topicStructure the parsed Sparkplug topic structure
      * @param metricsList    the list of metrics from the Sparkplug payload
+     * @param received       the times the Sparkplug payload was received
      */
     private void generateMetricsFromMessage(
             final @NotNull TopicStructure topicStructure,
-            final @NotNull List<SparkplugBProto.Payload.Metric> metricsList) {
+            final @NotNull List<SparkplugBProto.Payload.Metric> metricsList,
+            final @NotNull Received received) {
         if (LOG.isTraceEnabled()) {
             LOG.trace("Sparkplug Message type & structure {} ", topicStructure);
         }
         if (topicStructure.getScadaId() != null && STATE == topicStructure.getMessageType()) {
             metricsHolder.getStatusMetrics(topicStructure.getScadaId(), null).setValue(1);
         } else {
-            generateMetricForEdgesAndDevices(topicStructure, metricsList);
+            generateMetricForEdgesAndDevices(topicStructure, metricsList, received);
         }
     }
 
@@ -162,10 +198,12 @@ public class SparkplugBInterceptor implements PublishInboundInterceptor {
      *
      * @param topicStructure the parsed Sparkplug topic structure containing edge node and device IDs
      * @param metricsList    the list of metrics from the Sparkplug payload
+     * @param received       the times the Sparkplug payload was received, stamped on every data metric
      */
     private void generateMetricForEdgesAndDevices(
             final @NotNull TopicStructure topicStructure,
-            final @NotNull List<SparkplugBProto.Payload.Metric> metricsList) {
+            final @NotNull List<SparkplugBProto.Payload.Metric> metricsList,
+            final @NotNull Received received) {
         if (topicStructure.getEonId() == null) {
             LOG.error("Edge Node Id is null - Sparkplug Message structure {} ", topicStructure);
             return;
@@ -194,38 +232,62 @@ public class SparkplugBInterceptor implements PublishInboundInterceptor {
             case DDATA :
             case NDATA : {
                 for (final var metric : metricsList) {
-                    final var alias = metric.getAlias();
-                    final var metricName = aliasToMetric.get(alias);
+                    // DATA messages usually only carry the alias announced by the BIRTH message
+                    final var metricName = metric.hasName() ? metric.getName() : aliasToMetric.get(metric.getAlias());
+                    if (metricName == null) {
+                        pipelineMetrics.unknownAlias();
+                        if (LOG.isTraceEnabled()) {
+                            LOG.trace("Skip metric with unknown alias {} - Sparkplug Message structure {}",
+                                    metric.getAlias(),
+                                    topicStructure);
+                        }
+                        continue;
+                    }
+                    pipelineMetrics.metricUpdated(topicStructure.getGroupId(),
+                            topicStructure.getEonId(),
+                            topicStructure.getDeviceId(),
+                            metricName);
+                    final var sourceTimestamp = metric.hasTimestamp() ? metric.getTimestamp() : received.timestamp;
                     if (metric.hasIntValue()) {
                         metricsHolder
-                                .getDeviceInformationMetricsInt(topicStructure.getEonId(),
+                                .getDeviceInformationMetricsInt(topicStructure.getGroupId(),
+                                        topicStructure.getEonId(),
                                         topicStructure.getDeviceId(),
                                         metricName)
-                                .setValue(metric.getIntValue());
+                                .setValue(metric.getIntValue())
+                                .received(received.nanos, received.brokerTimestamp, sourceTimestamp);
                     } else if (metric.hasLongValue()) {
                         metricsHolder
-                                .getDeviceInformationMetricsLong(topicStructure.getEonId(),
+                                .getDeviceInformationMetricsLong(topicStructure.getGroupId(),
+                                        topicStructure.getEonId(),
                                         topicStructure.getDeviceId(),
                                         metricName)
-                                .setValue(metric.getLongValue());
+                                .setValue(metric.getLongValue())
+                                .received(received.nanos, received.brokerTimestamp, sourceTimestamp);
                     } else if (metric.hasDoubleValue()) {
                         metricsHolder
-                                .getDeviceInformationMetricsDouble(topicStructure.getEonId(),
+                                .getDeviceInformationMetricsDouble(topicStructure.getGroupId(),
+                                        topicStructure.getEonId(),
                                         topicStructure.getDeviceId(),
                                         metricName)
-                                .setValue(metric.getDoubleValue());
+                                .setValue(metric.getDoubleValue())
+                                .received(received.nanos, received.brokerTimestamp, sourceTimestamp);
                     } else if (metric.hasBooleanValue()) {
                         metricsHolder
-                                .getDeviceInformationMetricsBoolean(topicStructure.getEonId(),
+                                .getDeviceInformationMetricsBoolean(topicStructure.getGroupId(),
+                                        topicStructure.getEonId(),
                                         topicStructure.getDeviceId(),
                                         metricName)
-                                .setValue(metric.getBooleanValue());
+                                .setValue(metric.getBooleanValue())
+                                .received(received.nanos, received.brokerTimestamp, sourceTimestamp);
                     } else if (metric.hasFloatValue()) {
                         metricsHolder
-                                .getDeviceDataMetrics(topicStructure.getEonId(),
+                                .getDeviceInformationMetricsFloat(topicStructure.getGroupId(),
+                                        topicStructure.getEonId(),
                                         topicStructure.getDeviceId(),
                                         metricName)
-                                .setValue(metric.getFloatValue());
+                                .setValue(metric.getFloatValue())
+                                .received(received.nanos, received.brokerTimestamp, sourceTimestamp);
                     }
                 }
                 break;
@@ -235,4 +297,25 @@ public class SparkplugBInterceptor implements PublishInboundInterceptor {
             }
         }
     }
+
+    /**
+     * The times a Sparkplug payload was received, which are stamped on its data metrics to measure their latency.
+     */
+    private static final class Received {
+
+        private final long nanos;
+        private final long brokerTimestamp;
+        private final long timestamp;
+
+        /**
+         * @param nanos           the {@link System#nanoTime()} when the interceptor received the PUBLISH
+         * @param brokerTimestamp the time in milliseconds since epoch when the broker received the PUBLISH
+         * @param timestamp       the Sparkplug timestamp of the payload, or {@code 0} if not set
+         */
+        Received(final long nanos, final long brokerTimestamp, final long timestamp) {
+            this.nanos = nanos;
+            this.brokerTimestamp = brokerTimestamp;
+            this.timestamp = timestamp;
+        }
+    }
 }
@@ -16,9 +16,7 @@
 
 package com.hivemq.extensions.sparkplug.influxdb;
 
-import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
-import com.codahale.metrics.ScheduledReporter;
 import com.hivemq.extension.sdk.api.ExtensionMain;
 import com.hivemq.extension.sdk.api.parameter.ExtensionStartInput;
 import com.hivemq.extension.sdk.api.parameter.ExtensionStartOutput;
@@ -28,20 +26,28 @@ import com.hivemq.extension.sdk.api.services.Services;
 import com.hivemq.extensions.sparkplug.influxdb.configuration.ConfigResolver;
 import com.hivemq.extensions.sparkplug.influxdb.configuration.SparkplugConfiguration;
 import com.hivemq.extensions.sparkplug.influxdb.metrics.MetricsHolder;
-import com.izettle.metrics.influxdb.InfluxDbHttpSender;
-import com.izettle.metrics.influxdb.InfluxDbReporter;
-import com.izettle.metrics.influxdb.InfluxDbSender;
-import com.izettle.metrics.influxdb.InfluxDbTcpSender;
-import com.izettle.metrics.influxdb.InfluxDbUdpSender;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.RouteMatcher;
+import com.hivemq.extensions.sparkplug.influxdb.reporter.LineProtocolReporter;
+import com.hivemq.extensions.sparkplug.influxdb.sender.FanOutSender;
+import com.hivemq.extensions.sparkplug.influxdb.sender.HttpLineProtocolSender;
+import com.hivemq.extensions.sparkplug.influxdb.sender.InfluxDbCloudSender;
+import com.hivemq.extensions.sparkplug.influxdb.sender.LineProtocolSender;
+import com.hivemq.extensions.sparkplug.influxdb.sender.LoadBalancingSender;
+import com.hivemq.extensions.sparkplug.influxdb.sender.TcpLineProtocolSender;
+import com.hivemq.extensions.sparkplug.influxdb.sender.UdpLineProtocolSender;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Main entrypoint for Sparkplug extension. Starts InfluxDB reporter after validating the configuration. Initializes the
@@ -51,27 +57,11 @@ import java.util.concurrent.TimeUnit;
  */
 public class SparkplugExtensionMain implements ExtensionMain {
 
-    private static final @NotNull Set<String> METER_FIELDS =
-            Set.of("count", "m1_rate", "m5_rate", "m15_rate", "mean_rate");
-    private static final @NotNull Set<String> TIMER_FIELDS = Set.of("count",
-            "min",
-            "max",
-            "mean",
-            "stddev",
-            "p50",
-            "p75",
-            "p95",
-            "p98",
-            "p99",
-            "p999",
-            "m1_rate",
-            "m5_rate",
-            "m15_rate",
-            "mean_rate");
-
     private static final @NotNull Logger LOG = LoggerFactory.getLogger(SparkplugExtensionMain.class);
 
-    private @Nullable ScheduledReporter reporter;
+    // the sender of the default route, followed by the senders of the configured routes
+    private final @NotNull List<LineProtocolSender> senders = new ArrayList<>();
+    private @Nullable LineProtocolReporter reporter;
 
     @Override
     public void extensionStart(
@@ -84,17 +74,51 @@ public class SparkplugExtensionMain implements ExtensionMain {
             if (configuration == null) {
                 return;
             }
-            final var sender = setupSender(configuration);
+            final var routes = configuration.getRoutes();
+            final var metricsHolder = MetricsHolder.forRegistry(Services.metricRegistry())
+                    .topN(configuration.getTopN())
+                    .intervalAggregation(configuration.isIntervalAggregation() || !configuration.getRollups().isEmpty())
+                    .quantileMetrics(configuration.getQuantileMetrics())
+                    .conflation(configuration.isConflation())
+                    .routeMatcher(new RouteMatcher(routes.stream()
+                            .map(configuration::getRouteMatches)
+                            .collect(Collectors.toList())))
+                    .registerMetrics(configuration.isRegisterMetrics())
+                    .build();
+            final var sender = setupSender(configuration, metricsHolder.getPipelineMetrics());
             if (sender == null) {
                 extensionStartOutput.preventExtensionStartup(
                         "Couldn't create an InfluxDB sender. Please check that the configuration is correct");
                 return;
             }
-            reporter = setupReporter(Services.metricRegistry(), sender, configuration);
-            reporter.start(configuration.getReportingInterval(), TimeUnit.SECONDS);
-            initializeSparkplugMetricsInterceptor(configuration);
+            senders.add(sender);
+            for (final var route : routes) {
+                LOG.info("Creating InfluxDB sender of route {}", route);
+                final var routeSender = setupSender(configuration.getRoute(route), metricsHolder.getPipelineMetrics());
+                if (routeSender == null) {
+                    senders.forEach(LineProtocolSender::close);
+                    senders.clear();
+                    extensionStartOutput.preventExtensionStartup("Couldn't create the InfluxDB sender of route " +
+                            route + ". Please check that the configuration is correct");
+                    return;
+                }
+                senders.add(routeSender);
+            }
+            reporter = setupReporter(Services.metricRegistry(),
+                    metricsHolder,
+                    sender,
+                    senders.subList(1, senders.size()),
+                    configuration);
+            reporter.start(configuration.getReportingInterval(), configuration.getMaxReportingInterval());
+            initializeSparkplugMetricsInterceptor(metricsHolder, configuration);
         } catch (final Exception e) {
             LOG.warn("Start failed because of: ", e);
+            if (reporter != null) {
+                reporter.stop();
+                reporter = null;
+            }
+            senders.forEach(LineProtocolSender::close);
+            senders.clear();
             extensionStartOutput.preventExtensionStartup("Start failed because of an exception");
         }
     }
@@ -106,6 +130,7 @@ public class SparkplugExtensionMain implements ExtensionMain {
         if (reporter != null) {
             reporter.stop();
         }
+        senders.forEach(LineProtocolSender::close);
     }
 
     private @Nullable SparkplugConfiguration configurationValidated(
@@ -133,10 +158,12 @@ public class SparkplugExtensionMain implements ExtensionMain {
      * The interceptor will be added to all connecting clients and will process incoming Sparkplug B messages to extract
      * and register metrics.
      *
+     * @param metricsHolder the holder for the Sparkplug metrics
      * @param configuration the extension configuration
      */
-    private void initializeSparkplugMetricsInterceptor(final @NotNull SparkplugConfiguration configuration) {
-        final var metricsHolder = new MetricsHolder(Services.metricRegistry());
+    private void initializeSparkplugMetricsInterceptor(
+            final @NotNull MetricsHolder metricsHolder,
+            final @NotNull SparkplugConfiguration configuration) {
         final var sparkplugBInterceptor = new SparkplugBInterceptor(metricsHolder, configuration);
         Services.initializerRegistry()
                 .setClientInitializer((initializerInput, clientContext) -> clientContext
@@ -148,37 +175,115 @@ public class SparkplugExtensionMain implements ExtensionMain {
      * <p>
      * The reporter is configured to:
      * <ul>
-     * <li>Use tags from the configuration</li>
+     * <li>Use tags and measurement prefix from the configuration</li>
      * <li>Convert rates to seconds</li>
      * <li>Convert durations to milliseconds</li>
-     * <li>Include specific meter and timer fields</li>
+     * <li>Write one point per device instead of one point per metric, if {@code influxdb.pointFormat} is
+     * {@code multi}</li>
+     * <li>Write the aggregates since the previous report, if {@code influxdb.aggregation} is {@code interval}</li>
+     * <li>Write the rollups of {@code influxdb.rollups}</li>
+     * <li>Widen the reporting interval up to {@code influxdb.reportingInterval.max} while InfluxDB can't keep up</li>
+     * <li>Write only the last received value of every Sparkplug data metric, if {@code influxdb.conflation} is
+     * {@code true}</li>
+     * <li>Write the Sparkplug data of the edge nodes matched by a route of {@code influxdb.routes} to the sender of the
+     * route</li>
      * </ul>
      *
      * @param  metricRegistry the metric registry to report from
+     * @param  metricsHolder  the holder for the Sparkplug metrics
      * @param  sender         the InfluxDB sender to use for reporting
+     * @param  routeSenders   the InfluxDB senders of the routes of {@code influxdb.routes}
      * @param  configuration  the extension configuration
      * @return                the configured scheduled reporter
      */
-    private @NotNull ScheduledReporter setupReporter(
+    private @NotNull LineProtocolReporter setupReporter(
             final @NotNull MetricRegistry metricRegistry,
-            final @NotNull InfluxDbSender sender,
+            final @NotNull MetricsHolder metricsHolder,
+            final @NotNull LineProtocolSender sender,
+            final @NotNull List<LineProtocolSender> routeSenders,
             final @NotNull SparkplugConfiguration configuration) {
         Objects.requireNonNull(metricRegistry, "MetricRegistry for InfluxDB must not be null");
-        Objects.requireNonNull(sender, "InfluxDbSender for InfluxDB must not be null");
-        return InfluxDbReporter.forRegistry(metricRegistry)
+        Objects.requireNonNull(sender, "Sender for InfluxDB must not be null");
+        return LineProtocolReporter.forRegistry(metricRegistry)
                 .withTags(configuration.getTags())
-                .convertRatesTo(TimeUnit.SECONDS)
-                .convertDurationsTo(TimeUnit.MILLISECONDS)
-                .filter(MetricFilter.ALL)
-                .groupGauges(false)
-                .skipIdleMetrics(false)
-                .includeMeterFields(METER_FIELDS)
-                .includeTimerFields(TIMER_FIELDS)
-                .build(sender);
+                .prefixedWith(configuration.getPrefix())
+                .multiFieldPoints(configuration.isMultiFieldPoints())
+                .intervalAggregation(configuration.isIntervalAggregation())
+                .withRollups(configuration.getRollups())
+                .withHeartbeat(configuration.getHeartbeat())
+                .withRouteSenders(routeSenders)
+                .build(metricsHolder, sender);
+    }
+
+    /**
+     * Creates the InfluxDB sender. If named sinks are configured, the writes fan out to all of them by a
+     * {@link FanOutSender}.
+     *
+     * @param  configuration   the extension configuration
+     * @param  pipelineMetrics the metrics to record the requests in flight and the dropped data of the senders in
+     * @return                 the configured InfluxDB sender, or {@code null} if creation failed
+     */
+    private @Nullable LineProtocolSender setupSender(
+            final @NotNull SparkplugConfiguration configuration,
+            final @NotNull PipelineMetrics pipelineMetrics) {
+        final var created = new ArrayList<LineProtocolSender>();
+        try {
+            final var sinks = configuration.getSinks();
+            if (sinks.isEmpty()) {
+                return setupEndpoints(configuration, TimeUnit.SECONDS, pipelineMetrics, created);
+            }
+            // the lines are encoded once for all sinks, so the sinks must share the precision of the timestamps
+            final var timePrecision = sinks.stream()
+                    .map(sink -> configuration.getSink(sink).getMode())
+                    .anyMatch(mode -> "tcp".equals(mode) || "udp".equals(mode)) ?
+                    TimeUnit.NANOSECONDS :
+                    TimeUnit.SECONDS;
+            final var senders = new LinkedHashMap<String, LineProtocolSender>();
+            for (final var sink : sinks) {
+                LOG.info("Creating InfluxDB sink {}", sink);
+                senders.put(sink,
+                        setupEndpoints(configuration.getSink(sink), timePrecision, pipelineMetrics, created));
+            }
+            return new FanOutSender(senders, configuration.getQueueSize(), pipelineMetrics);
+        } catch (final Exception e) {
+            LOG.error("Not able to start InfluxDB sender, please check your configuration: {}", e.getMessage());
+            LOG.debug("Original Exception: ", e);
+            created.forEach(LineProtocolSender::close);
+        }
+        return null;
     }
 
     /**
-     * Creates the appropriate InfluxDB sender based on the configured mode.
+     * Creates the sender for the configured hosts. If several hosts are configured, the writes are balanced over them
+     * by a {@link LoadBalancingSender}.
+     *
+     * @param  configuration   the configuration of the InfluxDB or the sink
+     * @param  timePrecision   the precision of the timestamps in modes {@code http} and {@code cloud}
+     * @param  pipelineMetrics the metrics to record the requests in flight and the dropped data of the senders in
+     * @param  created         the created senders, to close them if creating another sender fails
+     * @return                 the configured sender
+     * @throws Exception       if a sender could not be created
+     */
+    private static @NotNull LineProtocolSender setupEndpoints(
+            final @NotNull SparkplugConfiguration configuration,
+            final @NotNull TimeUnit timePrecision,
+            final @NotNull PipelineMetrics pipelineMetrics,
+            final @NotNull List<LineProtocolSender> created) throws Exception {
+        final var senders = new LinkedHashMap<String, LineProtocolSender>();
+        for (final var host : configuration.getHosts()) {
+            final var sender = createSender(configuration, host, timePrecision, pipelineMetrics);
+            created.add(sender);
+            senders.put(host, sender);
+        }
+        if (senders.size() == 1) {
+            return senders.values().iterator().next();
+        }
+        LOG.info("Balancing the writes over the InfluxDB endpoints {}", senders.keySet());
+        return new LoadBalancingSender(senders, pipelineMetrics);
+    }
+
+    /**
+     * Creates the appropriate InfluxDB sender for a host based on the configured mode.
      * <p>
      * Supported modes:
      * <ul>
@@ -188,63 +293,71 @@ public class SparkplugExtensionMain implements ExtensionMain {
      * <li><b>cloud</b> - Cloud sender for InfluxDB Cloud with token authentication</li>
      * </ul>
      *
-     * @param  configuration the extension configuration
-     * @return               the configured InfluxDB sender, or {@code null} if creation failed
+     * @param  configuration   the extension configuration
+     * @param  host            the host to send to
+     * @param  timePrecision   the precision of the timestamps in modes {@code http} and {@code cloud}
+     * @param  pipelineMetrics the metrics to record the requests in flight and the dropped data of the sender in
+     * @return                 the configured InfluxDB sender
+     * @throws Exception       if the sender could not be created
      */
-    private @Nullable InfluxDbSender setupSender(final @NotNull SparkplugConfiguration configuration) {
-        final var host = configuration.getHost();
+    private static @NotNull LineProtocolSender createSender(
+            final @NotNull SparkplugConfiguration configuration,
+            final @NotNull String host,
+            final @NotNull TimeUnit timePrecision,
+            final @NotNull PipelineMetrics pipelineMetrics) throws Exception {
         final var port = configuration.getPort();
         final var protocol = configuration.getProtocol();
         final var database = configuration.getDatabase();
         final var auth = configuration.getAuth();
         final var connectTimeout = configuration.getConnectTimeout();
-        final var prefix = configuration.getPrefix();
 
         // cloud
         final var bucket = configuration.getBucket();
         final var organization = configuration.getOrganization();
 
-        try {
-            switch (configuration.getMode()) {
-                case "http" :
-                    LOG.info("Creating InfluxDB HTTP sender for server {}:{} and database {}", host, port, database);
-                    return new InfluxDbHttpSender(protocol,
-                            host,
-                            port,
-                            database,
-                            auth,
-                            TimeUnit.SECONDS,
-                            connectTimeout,
-                            connectTimeout,
-                            prefix);
-                case "tcp" :
-                    LOG.info("Creating InfluxDB TCP sender for server {}:{} and database {}", host, port, database);
-                    return new InfluxDbTcpSender(host, port, connectTimeout, database, prefix);
-                case "udp" :
-                    LOG.info("Creating InfluxDB UDP sender for server {}:{} and database {}", host, port, database);
-                    return new InfluxDbUdpSender(host, port, connectTimeout, database, prefix);
-                case "cloud" :
-                    LOG.info("Creating InfluxDB Cloud sender for endpoint {}, bucket {}, organization {}",
-                            host,
-                            bucket,
-                            organization);
-                    Objects.requireNonNull(bucket, "Bucket name must be defined in cloud mode");
-                    Objects.requireNonNull(organization, "Organization must be defined in cloud mode");
-                    return new InfluxDbCloudSender(protocol,
-                            host,
-                            port,
-                            auth,
-                            TimeUnit.SECONDS,
-                            connectTimeout,
-                            connectTimeout,
-                            prefix,
-                            organization,
-                            bucket);
-            }
-        } catch (final Exception e) {
-            LOG.error("Not able to start InfluxDB sender, please check your configuration: {}", e.getMessage());
-            LOG.debug("Original Exception: ", e);
+        switch (configuration.getMode()) {
+            case "http" :
+                LOG.info("Creating InfluxDB HTTP sender for server {}:{} and database {}", host, port, database);
+                return new HttpLineProtocolSender(protocol,
+                        host,
+                        port,
+                        database,
+                        auth,
+                        timePrecision,
+                        connectTimeout,
+                        connectTimeout,
+                        configuration.getHttpMaxInFlight(),
+                        pipelineMetrics);
+            case "tcp" :
+                LOG.info("Creating InfluxDB TCP sender for server {}:{} and database {}", host, port, database);
+                return new TcpLineProtocolSender(host,
+                        port,
+                        connectTimeout,
+                        configuration.getTcpBufferSize(),
+                        pipelineMetrics);
+            case "udp" :
+                LOG.info("Creating InfluxDB UDP sender for server {}:{} and database {}", host, port, database);
+                return new UdpLineProtocolSender(host, port, configuration.getUdpDatagramSize(), pipelineMetrics);
+            case "cloud" :
+                LOG.info("Creating InfluxDB Cloud sender for endpoint {}, bucket {}, organization {}",
+                        host,
+                        bucket,
+                        organization);
+                Objects.requireNonNull(bucket, "Bucket name must be defined in cloud mode");
+                Objects.requireNonNull(organization, "Organization must be defined in cloud mode");
+                return new InfluxDbCloudSender(protocol,
+                        host,
+                        port,
+                        auth,
+                        timePrecision,
+                        connectTimeout,
+                        connectTimeout,
+                        organization,
+                        bucket,
+                        configuration.getHttpMaxInFlight(),
+                        pipelineMetrics);
+            default :
+                throw new IllegalArgumentException("Unknown mode " + configuration.getMode());
         }
-        return null;
     }
 }
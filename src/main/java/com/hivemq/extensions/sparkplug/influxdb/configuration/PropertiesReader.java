@@ -38,7 +38,7 @@ class PropertiesReader {
 
     protected @Nullable Properties properties;
 
-    private final @NotNull File configFile;
+    protected final @NotNull File configFile;
 
     PropertiesReader(final @NotNull File configFile) {
         Objects.requireNonNull(configFile, "Config file must not be null");
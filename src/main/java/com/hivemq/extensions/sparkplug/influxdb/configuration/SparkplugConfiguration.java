@@ -23,10 +23,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Reads a property file containing influxdb properties and provides some utility methods for working with
@@ -43,11 +50,41 @@ public class SparkplugConfiguration extends PropertiesReader {
     private static final @NotNull String MODE = DB + "mode";
     private static final @NotNull String PROTOCOL = DB + "protocol";
     private static final @NotNull String REPORTING_INTERVAL = DB + "reportingInterval";
+    private static final @NotNull String REPORTING_INTERVAL_MAX = DB + "reportingInterval.max";
     private static final @NotNull String PREFIX = DB + "prefix";
     private static final @NotNull String DATABASE = DB + "database";
     private static final @NotNull String CONNECT_TIMEOUT = DB + "connectTimeout";
     private static final @NotNull String AUTH = DB + "auth";
     private static final @NotNull String TAGS = DB + "tags";
+    private static final @NotNull String POINT_FORMAT = DB + "pointFormat";
+    private static final @NotNull String AGGREGATION = DB + "aggregation";
+    private static final @NotNull String ROLLUPS = DB + "rollups";
+    private static final @NotNull String CONFLATION = DB + "conflation";
+    private static final @NotNull String HEARTBEAT = DB + "heartbeat";
+    private static final @NotNull String UDP_DATAGRAM_SIZE = DB + "udp.datagramSize";
+    private static final @NotNull String TCP_BUFFER_SIZE = DB + "tcp.bufferSize";
+    private static final @NotNull String HTTP_MAX_IN_FLIGHT = DB + "http.maxInFlight";
+    private static final @NotNull String SINKS = DB + "sinks";
+    private static final @NotNull String SINK = DB + "sink.";
+    private static final @NotNull String QUEUE_SIZE = DB + "queueSize";
+    // the properties of the transport, the encoding is shared by all sinks
+    private static final @NotNull Set<String> SINK_PROPERTIES = Set.of("mode",
+            "host",
+            "port",
+            "protocol",
+            "database",
+            "auth",
+            "connectTimeout",
+            "bucket",
+            "organization",
+            "udp.datagramSize",
+            "tcp.bufferSize",
+            "http.maxInFlight");
+    private static final @NotNull String ROUTES = DB + "routes";
+    private static final @NotNull String ROUTE = DB + "route.";
+    private static final @NotNull String ROUTE_MATCH = "match";
+    // the properties of the target of a route
+    private static final @NotNull Set<String> ROUTE_PROPERTIES = Set.of("database", "bucket", "organization");
     // InfluxDB Cloud
     private static final @NotNull String BUCKET = DB + "bucket";
     private static final @NotNull String ORGANIZATION = DB + "organization";
@@ -56,11 +93,28 @@ public class SparkplugConfiguration extends PropertiesReader {
     private static final @NotNull String PROTOCOL_DEFAULT = "http";
     private static final @NotNull String PREFIX_DEFAULT = "";
     private static final @NotNull String DATABASE_DEFAULT = "hivemq";
-    private static final int REPORTING_INTERVAL_DEFAULT = 1;
+    private static final @NotNull String POINT_FORMAT_SINGLE = "single";
+    private static final @NotNull String POINT_FORMAT_MULTI = "multi";
+    private static final @NotNull String AGGREGATION_LAST = "last";
+    private static final @NotNull String AGGREGATION_INTERVAL = "interval";
+    private static final @NotNull Duration REPORTING_INTERVAL_DEFAULT = Duration.ofSeconds(1);
+    private static final @NotNull Duration REPORTING_INTERVAL_MAX_DEFAULT = Duration.ofSeconds(60);
+    private static final @NotNull Pattern INTERVAL_FORMAT = Pattern.compile("(\\d{1,9})(ms|s)?");
+    private static final @NotNull Pattern ROLLUP_FORMAT = Pattern.compile("(\\d{1,9})([smhd])");
     private static final int CONNECT_TIMEOUT_DEFAULT = 5000;
+    // below the MTU of Ethernet minus the IP and UDP headers, leaving room for tunnels
+    private static final int UDP_DATAGRAM_SIZE_DEFAULT = 1400;
+    private static final int UDP_DATAGRAM_SIZE_MAX = 65507;
+    private static final int TCP_BUFFER_SIZE_DEFAULT = 8 * 1024 * 1024;
+    private static final int HTTP_MAX_IN_FLIGHT_DEFAULT = 4;
+    private static final int QUEUE_SIZE_DEFAULT = 16 * 1024 * 1024;
 
     private static final @NotNull String SPARKPLUG_VERSION = "sparkplug.version";
     private static final @NotNull String SPARKPLUG_VERSION_DEFAULT = "spBv1.0";
+    private static final @NotNull String TOP_N = "sparkplug.topN";
+    private static final @NotNull String QUANTILES = "sparkplug.quantiles";
+    private static final @NotNull String REGISTER_METRICS = "sparkplug.registerMetrics";
+    private static final int TOP_N_DEFAULT = 10;
 
     private static final @NotNull HashMap<String, String> TAGS_DEFAULT = new HashMap<>();
 
@@ -71,11 +125,33 @@ public class SparkplugConfiguration extends PropertiesReader {
     }
 
     /**
-     * Check if mandatory properties exist and are valid. Mandatory properties are port and host.
+     * Check if mandatory properties exist and are valid. Mandatory properties are port and host, of every sink if
+     * named sinks are configured, and the edge nodes of every route.
      *
      * @return <b>true</b> if all mandatory properties exist, else <b>false</b>.
      */
     public boolean validateConfiguration() {
+        var valid = true;
+        for (final var route : getRoutes()) {
+            if (getRouteMatches(route).isEmpty()) {
+                LOG.error("Mandatory property {}{}.{} is not set.", ROUTE, route, ROUTE_MATCH);
+                valid = false;
+            }
+        }
+        final var sinks = getSinks();
+        if (sinks.isEmpty()) {
+            return validateEndpoint() && valid;
+        }
+        for (final var sink : sinks) {
+            if (!getSink(sink).validateEndpoint()) {
+                LOG.error("Configuration of the sink {} is not valid.", sink);
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    private boolean validateEndpoint() {
         var countError = 0;
         countError += checkMandatoryProperty(HOST);
         countError += checkMandatoryProperty(PORT);
@@ -126,6 +202,21 @@ public class SparkplugConfiguration extends PropertiesReader {
         return getProperty(HOST);
     }
 
+    /**
+     * @return the hosts of the InfluxDB endpoints, configured as a comma-separated list to balance the writes over
+     *         several endpoints
+     */
+    public @NotNull List<String> getHosts() {
+        final var host = getHost();
+        if (host == null) {
+            return List.of();
+        }
+        return Arrays.stream(host.split(","))
+                .map(String::trim)
+                .filter(endpoint -> !endpoint.isEmpty())
+                .collect(Collectors.toList());
+    }
+
     public @NotNull String getDatabase() {
         return validateStringProperty(DATABASE, DATABASE_DEFAULT);
     }
@@ -139,8 +230,30 @@ public class SparkplugConfiguration extends PropertiesReader {
         }
     }
 
-    public int getReportingInterval() {
-        return validateIntProperty(REPORTING_INTERVAL, REPORTING_INTERVAL_DEFAULT);
+    /**
+     * The reporting interval, in seconds or as a duration with the unit {@code s} or {@code ms}, e.g. {@code 500ms}.
+     * It is the shortest interval, as the reporter widens the interval while InfluxDB can't keep up.
+     *
+     * @return the shortest reporting interval
+     */
+    public @NotNull Duration getReportingInterval() {
+        return validateIntervalProperty(REPORTING_INTERVAL, REPORTING_INTERVAL_DEFAULT);
+    }
+
+    /**
+     * @return the longest reporting interval the reporter widens the interval to, at least the
+     *         {@link #getReportingInterval() reporting interval}
+     */
+    public @NotNull Duration getMaxReportingInterval() {
+        final var floor = getReportingInterval();
+        final var ceiling = validateIntervalProperty(REPORTING_INTERVAL_MAX,
+                floor.compareTo(REPORTING_INTERVAL_MAX_DEFAULT) > 0 ? floor : REPORTING_INTERVAL_MAX_DEFAULT);
+        if (ceiling.compareTo(floor) < 0) {
+            LOG.warn("Value for the property '{}' is shorter than the reporting interval. Using the reporting interval",
+                    REPORTING_INTERVAL_MAX);
+            return floor;
+        }
+        return ceiling;
     }
 
     public int getConnectTimeout() {
@@ -182,6 +295,140 @@ public class SparkplugConfiguration extends PropertiesReader {
         return tagMap;
     }
 
+    /**
+     * The point format defines how Sparkplug data metrics are written:
+     * <ul>
+     * <li><b>single</b> - one point per metric with a single {@code value} field (default)</li>
+     * <li><b>multi</b> - one point per edge node or device with one field per metric</li>
+     * </ul>
+     *
+     * @return <b>true</b> if the metrics of a device are combined into a single multi-field point, else <b>false</b>.
+     */
+    public boolean isMultiFieldPoints() {
+        final var pointFormat = validateStringProperty(POINT_FORMAT, POINT_FORMAT_SINGLE);
+        if (POINT_FORMAT_MULTI.equalsIgnoreCase(pointFormat)) {
+            return true;
+        }
+        if (!POINT_FORMAT_SINGLE.equalsIgnoreCase(pointFormat)) {
+            LOG.warn("Unknown value '{}' for the property '{}'. Using default: {}",
+                    pointFormat,
+                    POINT_FORMAT,
+                    POINT_FORMAT_SINGLE);
+        }
+        return false;
+    }
+
+    /**
+     * The aggregation defines which values of the numeric Sparkplug data metrics are written:
+     * <ul>
+     * <li><b>last</b> - the last value at the time of the report (default)</li>
+     * <li><b>interval</b> - additionally the minimum, maximum, mean, count and first value since the previous
+     * report</li>
+     * </ul>
+     *
+     * @return <b>true</b> if all values between two reports are aggregated, else <b>false</b>.
+     */
+    public boolean isIntervalAggregation() {
+        final var aggregation = validateStringProperty(AGGREGATION, AGGREGATION_LAST);
+        if (AGGREGATION_INTERVAL.equalsIgnoreCase(aggregation)) {
+            return true;
+        }
+        if (!AGGREGATION_LAST.equalsIgnoreCase(aggregation)) {
+            LOG.warn("Unknown value '{}' for the property '{}'. Using default: {}",
+                    aggregation,
+                    AGGREGATION,
+                    AGGREGATION_LAST);
+        }
+        return false;
+    }
+
+    /**
+     * With conflation, only the Sparkplug data metrics received since the previous report are written, each with its
+     * last value and the timestamp of that value instead of the report timestamp. Repeated updates of a metric within
+     * a report interval are conflated to the last one.
+     *
+     * @return <b>true</b> if {@code influxdb.conflation} is {@code true}, else <b>false</b> (default).
+     */
+    public boolean isConflation() {
+        final var conflation = getProperty(CONFLATION);
+        if (conflation == null || "false".equalsIgnoreCase(conflation)) {
+            return false;
+        }
+        if ("true".equalsIgnoreCase(conflation)) {
+            return true;
+        }
+        LOG.warn("Unknown value '{}' for the property '{}'. Using default: false", conflation, CONFLATION);
+        return false;
+    }
+
+    /**
+     * The resolutions of the rollups, as a semicolon separated list of durations with the unit {@code s}, {@code m},
+     * {@code h} or {@code d}, e.g. {@code 1m;1h}. Resolutions shorter than the reporting interval are ignored.
+     *
+     * @return the resolutions of the rollups, empty if no rollups are written
+     */
+    public @NotNull List<Duration> getRollups() {
+        final var rollups = getProperty(ROLLUPS);
+        if (rollups == null) {
+            return List.of();
+        }
+        final var resolutions = new ArrayList<Duration>();
+        for (final var rollup : StringUtils.split(rollups, ";")) {
+            final var matcher = ROLLUP_FORMAT.matcher(rollup.trim());
+            if (!matcher.matches()) {
+                LOG.warn("Invalid rollup resolution '{}' for the property '{}'", rollup, ROLLUPS);
+                continue;
+            }
+            final var resolution = toDuration(Long.parseLong(matcher.group(1)), matcher.group(2));
+            if (resolution.compareTo(getReportingInterval()) < 0) {
+                LOG.warn("Rollup resolution '{}' is shorter than the reporting interval, ignoring it", rollup);
+                continue;
+            }
+            resolutions.add(resolution);
+        }
+        return resolutions;
+    }
+
+    /**
+     * The interval to write all Sparkplug data metrics in, as a duration with the unit {@code s}, {@code m}, {@code h}
+     * or {@code d}, e.g. {@code 5m}. In between, reports only write the Sparkplug data metrics updated since the
+     * previous report.
+     *
+     * @return the heartbeat interval, or {@code null} if all Sparkplug data metrics are written with every report
+     */
+    public @Nullable Duration getHeartbeat() {
+        final var heartbeat = getProperty(HEARTBEAT);
+        if (heartbeat == null) {
+            return null;
+        }
+        final var matcher = ROLLUP_FORMAT.matcher(heartbeat.trim());
+        if (!matcher.matches()) {
+            LOG.warn("Invalid heartbeat interval '{}' for the property '{}'. Writing all metrics with every report",
+                    heartbeat,
+                    HEARTBEAT);
+            return null;
+        }
+        final var interval = toDuration(Long.parseLong(matcher.group(1)), matcher.group(2));
+        if (interval.compareTo(getReportingInterval()) <= 0) {
+            LOG.warn("Heartbeat interval '{}' is not longer than the reporting interval, ignoring it", heartbeat);
+            return null;
+        }
+        return interval;
+    }
+
+    private static @NotNull Duration toDuration(final long amount, final @NotNull String unit) {
+        switch (unit) {
+            case "s" :
+                return Duration.ofSeconds(amount);
+            case "m" :
+                return Duration.ofMinutes(amount);
+            case "h" :
+                return Duration.ofHours(amount);
+            default :
+                return Duration.ofDays(amount);
+        }
+    }
+
     public @Nullable String getBucket() {
         return getProperty(BUCKET);
     }
@@ -247,7 +494,242 @@ public class SparkplugConfiguration extends PropertiesReader {
         return valueAsInt;
     }
 
+    /**
+     * Fetch the interval property with given <b>key</b>, which is a number of seconds or a duration with the unit
+     * {@code s} or {@code ms}.
+     *
+     * @param  key          Key of the property
+     * @param  defaultValue Default value as fallback, if property has no value
+     * @return              the actual value of the property if it is set and valid, else the <b>defaultValue</b>
+     */
+    private @NotNull Duration validateIntervalProperty(
+            final @NotNull String key,
+            final @NotNull Duration defaultValue) {
+        final var value = getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        final var matcher = INTERVAL_FORMAT.matcher(value.trim());
+        if (!matcher.matches()) {
+            LOG.warn("Value for the property '{}' is not a duration, original value {}. Using default: {}",
+                    key,
+                    value,
+                    defaultValue);
+            return defaultValue;
+        }
+        final var amount = Long.parseLong(matcher.group(1));
+        if (amount == 0) {
+            LOG.warn("Value for the property '{}' can't be zero. Using default: {}", key, defaultValue);
+            return defaultValue;
+        }
+        return "ms".equals(matcher.group(2)) ? Duration.ofMillis(amount) : Duration.ofSeconds(amount);
+    }
+
+    /**
+     * @return the largest size of the datagrams in mode {@code udp} in bytes, which should be below the path MTU
+     */
+    public int getUdpDatagramSize() {
+        final var datagramSize = validateIntProperty(UDP_DATAGRAM_SIZE, UDP_DATAGRAM_SIZE_DEFAULT);
+        if (datagramSize > UDP_DATAGRAM_SIZE_MAX) {
+            LOG.warn("Value for the property '{}' exceeds the size of a UDP datagram. Using maximum: {}",
+                    UDP_DATAGRAM_SIZE,
+                    UDP_DATAGRAM_SIZE_MAX);
+            return UDP_DATAGRAM_SIZE_MAX;
+        }
+        return datagramSize;
+    }
+
+    /**
+     * @return the number of bytes buffered at most in mode {@code tcp} while the listener is slow or unreachable
+     */
+    public int getTcpBufferSize() {
+        return validateIntProperty(TCP_BUFFER_SIZE, TCP_BUFFER_SIZE_DEFAULT);
+    }
+
+    /**
+     * @return the number of write requests in flight at most in modes {@code http} and {@code cloud}
+     */
+    public int getHttpMaxInFlight() {
+        return validateIntProperty(HTTP_MAX_IN_FLIGHT, HTTP_MAX_IN_FLIGHT_DEFAULT);
+    }
+
+    /**
+     * @return the names of the sinks the data is written to, or an empty list to write to the single InfluxDB
+     *         configured by the {@code influxdb.*} properties
+     */
+    public @NotNull List<String> getSinks() {
+        final var sinks = getProperty(SINKS);
+        if (sinks == null) {
+            return List.of();
+        }
+        return Arrays.stream(sinks.split(","))
+                .map(String::trim)
+                .filter(sink -> !sink.isEmpty())
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the configuration of a named sink, in which the properties {@code influxdb.sink.<name>.<property>}
+     * override the properties {@code influxdb.<property>}. Sinks only differ in their transport, so only its properties
+     * (e.g. the mode, host and credentials) can be set per sink; the encoding, e.g. the prefix, the tags and the point
+     * format, is shared by all sinks.
+     *
+     * @param  name the name of the sink
+     * @return      the configuration of the sink
+     */
+    public @NotNull SparkplugConfiguration getSink(final @NotNull String name) {
+        final var sink = new SparkplugConfiguration(configFile);
+        final var merged = new Properties();
+        if (properties != null) {
+            merged.putAll(properties);
+            final var prefix = SINK + name + ".";
+            for (final var key : properties.stringPropertyNames()) {
+                if (!key.startsWith(prefix)) {
+                    continue;
+                }
+                final var property = key.substring(prefix.length());
+                if (SINK_PROPERTIES.contains(property)) {
+                    merged.setProperty(DB + property, properties.getProperty(key));
+                } else {
+                    LOG.warn("Property '{}' can't be set per sink, as sinks only differ in their transport. " +
+                            "Ignoring it", key);
+                }
+            }
+        }
+        sink.properties = merged;
+        return sink;
+    }
+
+    /**
+     * @return the names of the routes, which write the Sparkplug data of the matching edge nodes to another database or
+     *         bucket, in the order they are matched
+     */
+    public @NotNull List<String> getRoutes() {
+        final var routes = getProperty(ROUTES);
+        if (routes == null) {
+            return List.of();
+        }
+        return Arrays.stream(routes.split(","))
+                .map(String::trim)
+                .filter(route -> !route.isEmpty())
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The edge nodes of a route, as a semicolon separated list of group IDs, optionally followed by {@code /} and an
+     * edge node ID. A {@code *} matches any characters, e.g. {@code Berlin;Munich/Line*}.
+     *
+     * @param  name the name of the route
+     * @return      the patterns of the route, empty if none is configured
+     */
+    public @NotNull List<String> getRouteMatches(final @NotNull String name) {
+        final var matches = getProperty(ROUTE + name + "." + ROUTE_MATCH);
+        if (matches == null) {
+            return List.of();
+        }
+        return Arrays.stream(StringUtils.split(matches, ";"))
+                .map(String::trim)
+                .filter(match -> !match.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the configuration of a route, in which the properties {@code influxdb.route.<name>.database},
+     * {@code bucket} and {@code organization} override the properties {@code influxdb.<property>}. They also override
+     * the same properties of the sinks, i.e. {@code influxdb.sink.<sink>.<property>}, so the data of the route is
+     * written to the database or bucket of the route by every sink.
+     *
+     * @param  name the name of the route
+     * @return      the configuration of the route
+     */
+    public @NotNull SparkplugConfiguration getRoute(final @NotNull String name) {
+        final var route = new SparkplugConfiguration(configFile);
+        final var merged = new Properties();
+        if (properties != null) {
+            merged.putAll(properties);
+            final var prefix = ROUTE + name + ".";
+            for (final var key : properties.stringPropertyNames()) {
+                if (!key.startsWith(prefix)) {
+                    continue;
+                }
+                final var property = key.substring(prefix.length());
+                if (ROUTE_PROPERTIES.contains(property)) {
+                    merged.setProperty(DB + property, properties.getProperty(key));
+                    for (final var sinkKey : properties.stringPropertyNames()) {
+                        if (sinkKey.startsWith(SINK) && sinkKey.endsWith("." + property)) {
+                            merged.remove(sinkKey);
+                        }
+                    }
+                } else if (!ROUTE_MATCH.equals(property)) {
+                    LOG.warn("Property '{}' can't be set per route, only the database, bucket and organization. " +
+                            "Ignoring it", key);
+                }
+            }
+        }
+        route.properties = merged;
+        return route;
+    }
+
+    /**
+     * @return the number of bytes queued at most per sink while it is slow or unreachable
+     */
+    public int getQueueSize() {
+        return validateIntProperty(QUEUE_SIZE, QUEUE_SIZE_DEFAULT);
+    }
+
     public @NotNull String getSparkplugVersion() {
         return validateStringProperty(SPARKPLUG_VERSION, SPARKPLUG_VERSION_DEFAULT);
     }
+
+    /**
+     * @return the number of edge nodes, devices and metrics with the most traffic, which are reported as points
+     */
+    public int getTopN() {
+        return validateIntProperty(TOP_N, TOP_N_DEFAULT);
+    }
+
+    /**
+     * The Sparkplug metrics to report quantiles for, as a semicolon separated list of metric names. A {@code *} in a
+     * name matches any characters, e.g. {@code Motor*Vibration}.
+     *
+     * @return the patterns matching the names of the metrics, empty if no quantiles are reported
+     */
+    public @NotNull List<Pattern> getQuantileMetrics() {
+        final var quantiles = getProperty(QUANTILES);
+        if (quantiles == null) {
+            return List.of();
+        }
+        final var patterns = new ArrayList<Pattern>();
+        for (final var name : StringUtils.split(quantiles, ";")) {
+            final var trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            final var regex = Arrays.stream(StringUtils.splitPreserveAllTokens(trimmed, "*"))
+                    .map(Pattern::quote)
+                    .collect(Collectors.joining(".*"));
+            patterns.add(Pattern.compile(regex));
+        }
+        return patterns;
+    }
+
+    /**
+     * If disabled, the gauges of the Sparkplug data metrics are not registered in the metric registry of HiveMQ, so
+     * they are neither exposed via JMX nor held by the registry. They are still written to InfluxDB.
+     *
+     * @return <b>true</b> if {@code sparkplug.registerMetrics} is {@code true} (default), else <b>false</b>.
+     */
+    public boolean isRegisterMetrics() {
+        final var registerMetrics = getProperty(REGISTER_METRICS);
+        if (registerMetrics == null || "true".equalsIgnoreCase(registerMetrics)) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(registerMetrics)) {
+            return false;
+        }
+        LOG.warn("Unknown value '{}' for the property '{}'. Using default: true", registerMetrics, REGISTER_METRICS);
+        return true;
+    }
 }
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.lineprotocol;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigInteger;
+
+/**
+ * Writes the shortest decimal representation of a {@code double} or {@code float} that parses back to exactly the same
+ * value, directly into a byte buffer.
+ * <p>
+ * The decimal is computed with the Schubfach algorithm by Raffaello Giulietti ("The Schubfach way to render doubles",
+ * 2020), the same algorithm {@link Double#toString(double)} uses since Java 19. Unlike {@link Double#toString(double)}
+ * on older Java versions it never produces superfluous digits, and as floats are rendered with float precision, a
+ * float {@code 21.3f} is written as {@code 21.3} and not as {@code 21.299999237060547}.
+ * <p>
+ * The layout follows the ECMAScript {@code Number.prototype.toString()} rules, which InfluxDB parses as float: plain
+ * notation for decimal exponents in {@code [-7, 21)}, otherwise scientific notation like {@code 1.5e-9}. Integral
+ * values are written without a fraction, e.g. {@code 42}. {@code NaN} and infinite values must be filtered by the
+ * caller, as InfluxDB cannot store them.
+ */
+final class FloatingPointFormatter {
+
+    /**
+     * Upper bound for the number of bytes written for a single value.
+     */
+    static final int MAX_LENGTH = 32;
+
+    // double: precision, min exponent and smallest normal significand
+    private static final int DOUBLE_P = 53;
+    private static final int DOUBLE_Q_MIN = -1074;
+    private static final long DOUBLE_C_MIN = 1L << (DOUBLE_P - 1);
+    private static final long DOUBLE_C_TINY = 3;
+
+    // float: precision, min exponent and smallest normal significand
+    private static final int FLOAT_P = 24;
+    private static final int FLOAT_Q_MIN = -149;
+    private static final int FLOAT_C_MIN = 1 << (FLOAT_P - 1);
+    private static final int FLOAT_C_TINY = 8;
+
+    private static final long MASK_63 = (1L << 63) - 1;
+    private static final long MASK_32 = (1L << 32) - 1;
+
+    /**
+     * Range of decimal exponents k for the tables of 10^-k.
+     */
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+
+    /**
+     * The 126-bit approximations g = floor(10^-k 2^-r) + 1 (with r such that 2^125 <= 10^-k 2^-r < 2^126), split into
+     * the higher 63 bits in {@code G1} and the lower 63 bits in {@code G0}.
+     */
+    private static final long @NotNull [] G1 = new long[K_MAX - K_MIN + 1];
+    private static final long @NotNull [] G0 = new long[K_MAX - K_MIN + 1];
+
+    static {
+        final var mask63 = BigInteger.ONE.shiftLeft(63).subtract(BigInteger.ONE);
+        for (var k = K_MIN; k <= K_MAX; k++) {
+            final var shift = 125 - flog2pow10(-k);
+            final BigInteger beta;
+            if (k <= 0) {
+                final var pow10 = BigInteger.TEN.pow(-k);
+                beta = shift >= 0 ? pow10.shiftLeft(shift) : pow10.shiftRight(-shift);
+            } else {
+                beta = BigInteger.ONE.shiftLeft(shift).divide(BigInteger.TEN.pow(k));
+            }
+            final var g = beta.add(BigInteger.ONE);
+            G1[k - K_MIN] = g.shiftRight(63).longValue();
+            G0[k - K_MIN] = g.and(mask63).longValue();
+        }
+    }
+
+    private FloatingPointFormatter() {
+    }
+
+    /**
+     * Writes the shortest decimal representation of a finite double.
+     *
+     * @param  value    the value to write
+     * @param  buffer   the buffer to write to, must have at least {@link #MAX_LENGTH} bytes left at {@code position}
+     * @param  position the position to start writing at
+     * @return          the position after the written value
+     */
+    static int writeDouble(final double value, final byte @NotNull [] buffer, int position) {
+        final var bits = Double.doubleToRawLongBits(value);
+        if (bits < 0) {
+            buffer[position++] = '-';
+        }
+        final var t = bits & (DOUBLE_C_MIN - 1);
+        final var bq = (int) (bits >>> (DOUBLE_P - 1)) & 0x7FF;
+        if (bq != 0) {
+            // normal value, mq = -q
+            final var mq = -DOUBLE_Q_MIN + 1 - bq;
+            final var c = DOUBLE_C_MIN | t;
+            // fast path for small integers
+            if (0 < mq && mq < DOUBLE_P) {
+                final var f = c >> mq;
+                if (f << mq == c) {
+                    return writeDecimal(f, 0, buffer, position);
+                }
+            }
+            return doubleToDecimal(-mq, c, 0, buffer, position);
+        }
+        if (t != 0) {
+            // subnormal value
+            return t < DOUBLE_C_TINY ?
+                    doubleToDecimal(DOUBLE_Q_MIN, 10 * t, -1, buffer, position) :
+                    doubleToDecimal(DOUBLE_Q_MIN, t, 0, buffer, position);
+        }
+        buffer[position++] = '0';
+        return position;
+    }
+
+    /**
+     * Writes the shortest decimal representation of a finite float.
+     *
+     * @param  value    the value to write
+     * @param  buffer   the buffer to write to, must have at least {@link #MAX_LENGTH} bytes left at {@code position}
+     * @param  position the position to start writing at
+     * @return          the position after the written value
+     */
+    static int writeFloat(final float value, final byte @NotNull [] buffer, int position) {
+        final var bits = Float.floatToRawIntBits(value);
+        if (bits < 0) {
+            buffer[position++] = '-';
+        }
+        final var t = bits & (FLOAT_C_MIN - 1);
+        final var bq = (bits >>> (FLOAT_P - 1)) & 0xFF;
+        if (bq != 0) {
+            // normal value, mq = -q
+            final var mq = -FLOAT_Q_MIN + 1 - bq;
+            final var c = FLOAT_C_MIN | t;
+            // fast path for small integers
+            if (0 < mq && mq < FLOAT_P) {
+                final var f = c >> mq;
+                if (f << mq == c) {
+                    return writeDecimal(f, 0, buffer, position);
+                }
+            }
+            return floatToDecimal(-mq, c, 0, buffer, position);
+        }
+        if (t != 0) {
+            // subnormal value
+            return t < FLOAT_C_TINY ?
+                    floatToDecimal(FLOAT_Q_MIN, 10 * t, -1, buffer, position) :
+                    floatToDecimal(FLOAT_Q_MIN, t, 0, buffer, position);
+        }
+        buffer[position++] = '0';
+        return position;
+    }
+
+    /**
+     * Computes the shortest decimal in the rounding interval of c 2^q, see figure 7 and 9 of the Schubfach paper.
+     */
+    private static int doubleToDecimal(
+            final int q,
+            final long c,
+            final int dk,
+            final byte @NotNull [] buffer,
+            final int position) {
+        final var out = (int) c & 0x1;
+        final var cb = c << 2;
+        final var cbr = cb + 2;
+        final long cbl;
+        final int k;
+        if (c != DOUBLE_C_MIN || q == DOUBLE_Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        final var h = q + flog2pow10(-k) + 2;
+        final var g1 = G1[k - K_MIN];
+        final var g0 = G0[k - K_MIN];
+
+        final var vb = rop(g1, g0, cb << h);
+        final var vbl = rop(g1, g0, cbl << h);
+        final var vbr = rop(g1, g0, cbr << h);
+
+        final var s = vb >> 2;
+        if (s >= 100) {
+            // s' = floor(s / 10), try the candidates with one digit less
+            final var sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            final var tp10 = sp10 + 10;
+            final var upin = vbl + out <= sp10 << 2;
+            final var wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                return writeDecimal(upin ? sp10 : tp10, k, buffer, position);
+            }
+        }
+        final var t = s + 1;
+        final var uin = vbl + out <= s << 2;
+        final var win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            return writeDecimal(uin ? s : t, k + dk, buffer, position);
+        }
+        // both candidates are in the rounding interval, pick the closer one (even on a tie)
+        final var cmp = vb - ((s + t) << 1);
+        return writeDecimal(cmp < 0 || (cmp == 0 && (s & 0x1) == 0) ? s : t, k + dk, buffer, position);
+    }
+
+    /**
+     * The float variant of {@link #doubleToDecimal(int, long, int, byte[], int)}, which only needs the higher 64 bits
+     * of g.
+     */
+    private static int floatToDecimal(
+            final int q,
+            final int c,
+            final int dk,
+            final byte @NotNull [] buffer,
+            final int position) {
+        final var out = c & 0x1;
+        final var cb = (long) c << 2;
+        final var cbr = cb + 2;
+        final long cbl;
+        final int k;
+        if (c != FLOAT_C_MIN || q == FLOAT_Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        final var h = q + flog2pow10(-k) + 33;
+        final var g = G1[k - K_MIN] + 1;
+
+        final var vb = rop(g, cb << h);
+        final var vbl = rop(g, cbl << h);
+        final var vbr = rop(g, cbr << h);
+
+        final var s = vb >> 2;
+        if (s >= 100) {
+            // s' = floor(s / 10), try the candidates with one digit less
+            final var sp10 = 10 * (int) (s * 1_717_986_919L >>> 34);
+            final var tp10 = sp10 + 10;
+            final var upin = vbl + out <= sp10 << 2;
+            final var wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                return writeDecimal(upin ? sp10 : tp10, k, buffer, position);
+            }
+        }
+        final var t = s + 1;
+        final var uin = vbl + out <= s << 2;
+        final var win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            return writeDecimal(uin ? s : t, k + dk, buffer, position);
+        }
+        // both candidates are in the rounding interval, pick the closer one (even on a tie)
+        final var cmp = vb - ((s + t) << 1);
+        return writeDecimal(cmp < 0 || (cmp == 0 && (s & 0x1) == 0) ? s : t, k + dk, buffer, position);
+    }
+
+    /**
+     * Computes rop(cp g 2^-127) with g = g1 2^63 + g0, see figure 8 of the Schubfach paper.
+     */
+    private static long rop(final long g1, final long g0, final long cp) {
+        final var x1 = Math.multiplyHigh(g0, cp);
+        final var y0 = g1 * cp;
+        final var y1 = Math.multiplyHigh(g1, cp);
+        final var z = (y0 >>> 1) + x1;
+        final var vbp = y1 + (z >>> 63);
+        return vbp | ((z & MASK_63) + MASK_63) >>> 63;
+    }
+
+    /**
+     * Computes rop(cp g 2^-95) for floats.
+     */
+    private static int rop(final long g, final long cp) {
+        final var x1 = Math.multiplyHigh(g, cp);
+        final var vbp = x1 >>> 31;
+        return (int) (vbp | ((x1 & MASK_32) + MASK_32) >>> 32);
+    }
+
+    /**
+     * Writes the decimal f 10^e. Trailing zeros of f are moved into the exponent before choosing the notation.
+     */
+    private static int writeDecimal(long f, int e, final byte @NotNull [] buffer, int position) {
+        while (f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+        // collect the digits of f in reverse order at the end of the reserved area
+        final var digitsEnd = position + MAX_LENGTH - 1;
+        var digitsStart = digitsEnd;
+        do {
+            buffer[--digitsStart] = (byte) ('0' + f % 10);
+            f /= 10;
+        } while (f != 0);
+        final var length = digitsEnd - digitsStart;
+        // position of the decimal point relative to the first digit
+        final var point = length + e;
+        if (length <= point && point <= 21) {
+            // integral value: digits followed by zeros
+            position = copy(buffer, digitsStart, length, position);
+            for (var i = length; i < point; i++) {
+                buffer[position++] = '0';
+            }
+        } else if (0 < point && point <= 21) {
+            // decimal point within the digits
+            position = copy(buffer, digitsStart, point, position);
+            buffer[position++] = '.';
+            position = copy(buffer, digitsStart + point, length - point, position);
+        } else if (-6 < point && point <= 0) {
+            // small value: leading zeros after the decimal point
+            buffer[position++] = '0';
+            buffer[position++] = '.';
+            for (var i = point; i < 0; i++) {
+                buffer[position++] = '0';
+            }
+            position = copy(buffer, digitsStart, length, position);
+        } else {
+            // scientific notation
+            buffer[position++] = buffer[digitsStart];
+            if (length > 1) {
+                buffer[position++] = '.';
+                position = copy(buffer, digitsStart + 1, length - 1, position);
+            }
+            buffer[position++] = 'e';
+            var exponent = point - 1;
+            if (exponent < 0) {
+                buffer[position++] = '-';
+                exponent = -exponent;
+            }
+            if (exponent >= 100) {
+                buffer[position++] = (byte) ('0' + exponent / 100);
+            }
+            if (exponent >= 10) {
+                buffer[position++] = (byte) ('0' + exponent / 10 % 10);
+            }
+            buffer[position++] = (byte) ('0' + exponent % 10);
+        }
+        return position;
+    }
+
+    private static int copy(final byte @NotNull [] buffer, final int from, final int length, final int position) {
+        System.arraycopy(buffer, from, buffer, position, length);
+        return position + length;
+    }
+
+    /**
+     * @return floor(e log10(2))
+     */
+    private static int flog10pow2(final int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    /**
+     * @return floor(log10(3/4 2^e))
+     */
+    private static int flog10threeQuartersPow2(final int e) {
+        return (int) ((e * 661_971_961_083L + -274_743_187_321L) >> 41);
+    }
+
+    /**
+     * @return floor(e log2(10))
+     */
+    private static int flog2pow10(final int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+}
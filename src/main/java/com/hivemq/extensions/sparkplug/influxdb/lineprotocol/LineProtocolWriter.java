@@ -0,0 +1,402 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.lineprotocol;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Encodes points in the InfluxDB line protocol directly into a reusable, growable byte buffer.
+ * <p>
+ * A line is written by calling {@link #measurement(String)}, any number of {@code tag} calls, one or more
+ * {@code field} calls and finally {@link #endLine(long)}:
+ *
+ * <pre>{@code
+ * writer.measurement("sparkplug.edgeNode.device1").tag("host", "localhost");
+ * writer.field("temperature", 21.5).field("speed", 100L);
+ * writer.endLine(timestamp);
+ * }</pre>
+ * <p>
+ * Measurements, tag keys, tag values and field keys are escaped according to the line protocol. The line protocol has
+ * no escape for line breaks, so line feeds, carriage returns and all other control characters are replaced with a
+ * space, in string field values as well; otherwise a Sparkplug metric name could inject lines. Numeric values are
+ * written as float fields (without the {@code i} suffix), as the izettle reporter this writer replaced did, so the
+ * field types of existing databases stay the same. A line without any field is discarded by {@link #endLine(long)}.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class LineProtocolWriter {
+
+    private static final int DEFAULT_CAPACITY = 4096;
+
+    private byte @NotNull [] buffer;
+    private int size;
+    private int lineStart;
+    private int fieldCount;
+    private int lineCount;
+
+    public LineProtocolWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LineProtocolWriter(final int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 64)];
+    }
+
+    /**
+     * Discards all encoded lines, the underlying buffer is kept for reuse.
+     */
+    public void reset() {
+        size = 0;
+        lineStart = 0;
+        fieldCount = 0;
+        lineCount = 0;
+    }
+
+    /**
+     * @return the number of encoded bytes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of finished lines, which is the number of points
+     */
+    public int lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the underlying buffer, only the first {@link #size()} bytes are valid
+     */
+    public byte @NotNull [] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return a copy of the encoded bytes
+     */
+    public byte @NotNull [] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Starts a new line with the given measurement.
+     *
+     * @param  measurement the measurement name
+     * @return             itself
+     */
+    public @NotNull LineProtocolWriter measurement(final @NotNull String measurement) {
+        lineStart = size;
+        fieldCount = 0;
+        writeEscaped(measurement, false);
+        return this;
+    }
+
+    /**
+     * Starts a new line with an already encoded series key, i.e. the escaped measurement and tags as written by
+     * {@link #measurement(String)} and the {@code tag} calls. Fields are appended as usual.
+     *
+     * @param  key the encoded series key
+     * @return     itself
+     */
+    public @NotNull LineProtocolWriter seriesKey(final byte @NotNull [] key) {
+        lineStart = size;
+        fieldCount = 0;
+        ensureCapacity(key.length);
+        System.arraycopy(key, 0, buffer, size, key.length);
+        size += key.length;
+        return this;
+    }
+
+    /**
+     * Appends to the measurement of the current line, so a measurement consisting of several parts (e.g. a prefix, the
+     * device and the metric name) is written without concatenating them. Must be called before the first tag or field
+     * is written.
+     *
+     * @param  part the next part of the measurement name
+     * @return      itself
+     */
+    public @NotNull LineProtocolWriter appendMeasurement(final @NotNull String part) {
+        writeEscaped(part, false);
+        return this;
+    }
+
+    /**
+     * Appends a tag to the current line. Must be called before the first field is written.
+     *
+     * @param  key   the tag key
+     * @param  value the tag value
+     * @return       itself
+     */
+    public @NotNull LineProtocolWriter tag(final @NotNull String key, final @NotNull String value) {
+        writeByte(',');
+        writeEscaped(key, true);
+        writeByte('=');
+        writeEscaped(value, true);
+        return this;
+    }
+
+    /**
+     * Appends all given tags to the current line.
+     *
+     * @param  tags the tags, written in the iteration order of the map
+     * @return      itself
+     */
+    public @NotNull LineProtocolWriter tags(final @NotNull Map<String, String> tags) {
+        for (final var tag : tags.entrySet()) {
+            tag(tag.getKey(), tag.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Appends a float field to the current line. {@code NaN} and infinite values are skipped, as InfluxDB cannot store
+     * them.
+     *
+     * @param  key   the field key
+     * @param  value the field value
+     * @return       itself
+     */
+    public @NotNull LineProtocolWriter field(final @NotNull String key, final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return this;
+        }
+        fieldKey(key);
+        ensureCapacity(FloatingPointFormatter.MAX_LENGTH);
+        size = FloatingPointFormatter.writeDouble(value, buffer, size);
+        return this;
+    }
+
+    /**
+     * Appends a float field to the current line, written with float precision (e.g. {@code 21.3} instead of the widened
+     * {@code 21.299999237060547}). {@code NaN} and infinite values are skipped, as InfluxDB cannot store them.
+     *
+     * @param  key   the field key
+     * @param  value the field value
+     * @return       itself
+     */
+    public @NotNull LineProtocolWriter field(final @NotNull String key, final float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return this;
+        }
+        fieldKey(key);
+        ensureCapacity(FloatingPointFormatter.MAX_LENGTH);
+        size = FloatingPointFormatter.writeFloat(value, buffer, size);
+        return this;
+    }
+
+    /**
+     * Appends an integral value as float field to the current line.
+     *
+     * @param  key   the field key
+     * @param  value the field value
+     * @return       itself
+     */
+    public @NotNull LineProtocolWriter field(final @NotNull String key, final long value) {
+        fieldKey(key);
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Appends a boolean field to the current line.
+     *
+     * @param  key   the field key
+     * @param  value the field value
+     * @return       itself
+     */
+    public @NotNull LineProtocolWriter field(final @NotNull String key, final boolean value) {
+        fieldKey(key);
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Appends a string field to the current line.
+     *
+     * @param  key   the field key
+     * @param  value the field value
+     * @return       itself
+     */
+    public @NotNull LineProtocolWriter field(final @NotNull String key, final @NotNull String value) {
+        fieldKey(key);
+        writeByte('"');
+        for (var i = 0; i < value.length(); ) {
+            final var c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writeByte('\\');
+            } else if (isControl(c)) {
+                writeByte(' ');
+                i++;
+                continue;
+            }
+            i += writeChar(value, i);
+        }
+        writeByte('"');
+        return this;
+    }
+
+    /**
+     * Appends a field for a gauge or counter value of unknown type. Numbers and booleans are written as their native
+     * field types, all other values as string fields.
+     *
+     * @param  key   the field key
+     * @param  value the field value
+     * @return       itself
+     */
+    public @NotNull LineProtocolWriter field(final @NotNull String key, final @NotNull Object value) {
+        if (value instanceof Double) {
+            return field(key, (double) (Double) value);
+        } else if (value instanceof Float) {
+            return field(key, (float) (Float) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short ||
+                value instanceof Byte) {
+            return field(key, ((Number) value).longValue());
+        } else if (value instanceof Number) {
+            return field(key, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            return field(key, (boolean) (Boolean) value);
+        }
+        return field(key, value.toString());
+    }
+
+    /**
+     * Finishes the current line with the given timestamp. If no field was written for the line, the line is discarded.
+     *
+     * @param  timestamp the timestamp in the precision the receiver expects
+     * @return           {@code true} if the line was written, {@code false} if it was discarded
+     */
+    public boolean endLine(final long timestamp) {
+        if (fieldCount == 0) {
+            size = lineStart;
+            return false;
+        }
+        writeByte(' ');
+        writeLong(timestamp);
+        writeByte('\n');
+        lineStart = size;
+        fieldCount = 0;
+        lineCount++;
+        return true;
+    }
+
+    private void fieldKey(final @NotNull String key) {
+        writeByte(fieldCount == 0 ? ' ' : ',');
+        writeEscaped(key, true);
+        writeByte('=');
+        fieldCount++;
+    }
+
+    private void writeEscaped(final @NotNull String value, final boolean escapeEquals) {
+        for (var i = 0; i < value.length(); ) {
+            final var c = value.charAt(i);
+            if (c == ',' || c == ' ' || (escapeEquals && c == '=')) {
+                writeByte('\\');
+            } else if (isControl(c)) {
+                writeByte('\\');
+                writeByte(' ');
+                i++;
+                continue;
+            }
+            i += writeChar(value, i);
+        }
+    }
+
+    private static boolean isControl(final char c) {
+        return c < 0x20 || c == 0x7F;
+    }
+
+    /**
+     * Writes the UTF-8 encoding of the char at the given index. A surrogate pair is encoded as a single code point.
+     *
+     * @return the number of consumed chars
+     */
+    private int writeChar(final @NotNull String value, final int index) {
+        final var c = value.charAt(index);
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            ensureCapacity(2);
+            buffer[size++] = (byte) (0xC0 | (c >> 6));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length() &&
+                Character.isLowSurrogate(value.charAt(index + 1))) {
+            final var codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            ensureCapacity(4);
+            buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            return 2;
+        } else if (Character.isSurrogate(c)) {
+            writeByte('?');
+        } else {
+            ensureCapacity(3);
+            buffer[size++] = (byte) (0xE0 | (c >> 12));
+            buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return 1;
+    }
+
+    private void writeAscii(final @NotNull String value) {
+        final var length = value.length();
+        ensureCapacity(length);
+        for (var i = 0; i < length; i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeLong(final long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensureCapacity(20);
+        var remaining = value;
+        if (remaining < 0) {
+            buffer[size++] = '-';
+            remaining = -remaining;
+        }
+        final var start = size;
+        do {
+            buffer[size++] = (byte) ('0' + (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        // digits were written in reverse order
+        for (int i = start, j = size - 1; i < j; i++, j--) {
+            final var tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+    }
+
+    private void writeByte(final int value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+    }
+
+    private void ensureCapacity(final int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + additional));
+        }
+    }
+}
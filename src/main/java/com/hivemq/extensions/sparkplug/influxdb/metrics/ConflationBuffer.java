@@ -0,0 +1,275 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps only the last value and timestamp of every series updated within a report interval.
+ * <p>
+ * Series are identified by their handle, a small int assigned when the series is registered. The values are kept in
+ * an open-addressed table with linear probing and one value and timestamp slot per series, so repeated updates of a
+ * series overwrite its slot in place and neither allocate nor box. The table always has at least twice as many slots
+ * as there are series, so a free slot is always found. If more series are registered, the table written to is
+ * replaced by a larger one and its values are carried over to the next swap.
+ * <p>
+ * Two tables are used alternately. {@link #swap()} switches the table written to and drains the previous one, so
+ * writers never wait for the reporter. Writers announce themselves in a counter of the table they write to, the
+ * reporter only waits for the writers which were already writing when the tables were switched.
+ */
+public class ConflationBuffer {
+
+    private static final int MIN_CAPACITY = 64;
+
+    private volatile @NotNull Table active = new Table(MIN_CAPACITY);
+    private @NotNull Table standby = new Table(MIN_CAPACITY);
+    private final @NotNull Conflated conflated = new Conflated();
+    // values of the tables replaced by a larger one since the previous swap
+    private final @NotNull Conflated carried = new Conflated();
+
+    /**
+     * Overwrites the value and timestamp of a series.
+     *
+     * @param handle    the handle of the series
+     * @param valueBits the bits of the value, as defined by the gauge of the series
+     * @param timestamp the time in milliseconds since epoch of the value
+     */
+    public void put(final int handle, final long valueBits, final long timestamp) {
+        var table = active;
+        table.writers.incrementAndGet();
+        while (table != active) {
+            // switched concurrently, the reporter might already drain this table
+            table.writers.decrementAndGet();
+            table = active;
+            table.writers.incrementAndGet();
+        }
+        try {
+            table.put(handle, valueBits, timestamp);
+        } finally {
+            table.writers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Ensures that the series with handles lower than the given count fit into the table. Must be called before a new
+     * series is updated for the first time.
+     *
+     * @param seriesCount the number of series
+     */
+    synchronized void ensureCapacity(final int seriesCount) {
+        final var capacity = capacityFor(seriesCount);
+        final var previous = active;
+        if (previous.capacity() >= capacity) {
+            return;
+        }
+        final var grown = new Table(capacity);
+        active = grown;
+        previous.awaitWriters();
+        previous.drainInto(carried);
+    }
+
+    /**
+     * Switches the table written to and returns the last values of all series which were updated since the previous
+     * swap. Must only be called by the reporter.
+     *
+     * @return the conflated values, valid until the next swap
+     */
+    public synchronized @NotNull Conflated swap() {
+        final var previous = active;
+        if (standby.capacity() < previous.capacity()) {
+            standby = new Table(previous.capacity());
+        }
+        active = standby;
+        previous.awaitWriters();
+        conflated.clear();
+        for (var i = 0; i < carried.size; i++) {
+            conflated.add(carried.handles[i], carried.valueBits[i], carried.timestamps[i]);
+        }
+        carried.clear();
+        // drained last, as its values are newer than the carried ones
+        previous.drainInto(conflated);
+        standby = previous;
+        return conflated;
+    }
+
+    /**
+     * Converts the value of a series, if it was updated since the previous swap, to the new type of the series. The
+     * reporter reads the conflated values with the current type of their series.
+     *
+     * @param handle the handle of the series
+     * @param from   the previous type of the series
+     * @param to     the new type of the series
+     */
+    synchronized void convert(final int handle, final @NotNull ValueType from, final @NotNull ValueType to) {
+        active.convert(handle, from, to);
+        final var index = carried.indexOf(handle);
+        if (index >= 0) {
+            carried.valueBits[index] = from.convert(carried.valueBits[index], to);
+        }
+    }
+
+    private static int capacityFor(final int seriesCount) {
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(seriesCount * 2 - 1) << 1);
+    }
+
+    /**
+     * The last values of the series updated within a report interval, in no particular order.
+     */
+    public static class Conflated {
+
+        // index + 1 of the values per handle, 0 if the series was not updated
+        private int @NotNull [] indexes = new int[MIN_CAPACITY];
+        private int @NotNull [] handles = new int[MIN_CAPACITY];
+        private long @NotNull [] valueBits = new long[MIN_CAPACITY];
+        private long @NotNull [] timestamps = new long[MIN_CAPACITY];
+        private int size;
+
+        /**
+         * @return the number of updated series
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param  handle the handle of a series
+         * @return        the index of the values of the series, or {@code -1} if it was not updated
+         */
+        public int indexOf(final int handle) {
+            return handle >= 0 && handle < indexes.length ? indexes[handle] - 1 : -1;
+        }
+
+        public int getHandle(final int index) {
+            return handles[index];
+        }
+
+        public long getValueBits(final int index) {
+            return valueBits[index];
+        }
+
+        public long getTimestamp(final int index) {
+            return timestamps[index];
+        }
+
+        private void add(final int handle, final long bits, final long timestamp) {
+            if (handle >= indexes.length) {
+                indexes = Arrays.copyOf(indexes, Math.max(handle + 1, indexes.length * 2));
+            }
+            var index = indexes[handle] - 1;
+            if (index < 0) {
+                if (size == handles.length) {
+                    handles = Arrays.copyOf(handles, size * 2);
+                    valueBits = Arrays.copyOf(valueBits, size * 2);
+                    timestamps = Arrays.copyOf(timestamps, size * 2);
+                }
+                index = size++;
+                handles[index] = handle;
+                indexes[handle] = index + 1;
+            }
+            valueBits[index] = bits;
+            timestamps[index] = timestamp;
+        }
+
+        private void clear() {
+            for (var i = 0; i < size; i++) {
+                indexes[handles[i]] = 0;
+            }
+            size = 0;
+        }
+    }
+
+    private static class Table {
+
+        // handle + 1 per slot, 0 marks a free slot
+        private final @NotNull AtomicIntegerArray keys;
+        private final @NotNull AtomicLongArray valueBits;
+        private final @NotNull AtomicLongArray timestamps;
+        private final int shift;
+        private final @NotNull AtomicInteger writers = new AtomicInteger();
+
+        private Table(final int capacity) {
+            keys = new AtomicIntegerArray(capacity);
+            valueBits = new AtomicLongArray(capacity);
+            timestamps = new AtomicLongArray(capacity);
+            shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        }
+
+        private int capacity() {
+            return keys.length();
+        }
+
+        private void put(final int handle, final long bits, final long timestamp) {
+            final var mask = keys.length() - 1;
+            final var key = handle + 1;
+            // Fibonacci hashing, the upper bits are well distributed even for consecutive handles
+            var slot = (handle * 0x9E3779B9) >>> shift;
+            while (true) {
+                var current = keys.get(slot);
+                if (current == 0) {
+                    if (keys.compareAndSet(slot, 0, key)) {
+                        break;
+                    }
+                    current = keys.get(slot);
+                }
+                if (current == key) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            valueBits.set(slot, bits);
+            timestamps.set(slot, timestamp);
+        }
+
+        private void convert(final int handle, final @NotNull ValueType from, final @NotNull ValueType to) {
+            final var mask = keys.length() - 1;
+            final var key = handle + 1;
+            var slot = (handle * 0x9E3779B9) >>> shift;
+            while (true) {
+                final var current = keys.get(slot);
+                if (current == 0) {
+                    return;
+                }
+                if (current == key) {
+                    valueBits.set(slot, from.convert(valueBits.get(slot), to));
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void awaitWriters() {
+            while (writers.get() != 0) {
+                Thread.onSpinWait();
+            }
+        }
+
+        private void drainInto(final @NotNull Conflated conflated) {
+            for (var slot = 0; slot < keys.length(); slot++) {
+                final var key = keys.get(slot);
+                if (key != 0) {
+                    conflated.add(key - 1, valueBits.get(slot), timestamps.get(slot));
+                    keys.set(slot, 0);
+                }
+            }
+        }
+    }
+}
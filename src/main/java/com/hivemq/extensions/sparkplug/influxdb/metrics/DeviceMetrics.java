@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * All Sparkplug data metrics of a single edge node or device.
+ * <p>
+ * The reporter uses this grouping to write all metrics of a device as fields of a single line protocol point, instead
+ * of writing one point per metric. The gauges are kept in an array sorted by field name, which is replaced when a
+ * metric is added, so the reporter walks them without locking or iterators.
+ */
+public class DeviceMetrics {
+
+    private static final @NotNull SparkplugGauge<?> @NotNull [] EMPTY = new SparkplugGauge<?>[0];
+    private static final @NotNull Comparator<SparkplugGauge<?>> FIELD_ORDER =
+            Comparator.comparing(SparkplugGauge::getField);
+
+    private final int index;
+    private final @NotNull String measurement;
+    private final @NotNull String group;
+    private final int route;
+    private volatile @NotNull SparkplugGauge<?> @NotNull [] gauges = EMPTY;
+
+    DeviceMetrics(final int index, final @NotNull String measurement, final @NotNull String group, final int route) {
+        this.index = index;
+        this.measurement = measurement;
+        this.group = group;
+        this.route = route;
+    }
+
+    /**
+     * @return the index of the device in the {@link SeriesTable}
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the measurement name of the device, e.g. {@code sparkplug.edgeNode.device1}
+     */
+    public @NotNull String getMeasurement() {
+        return measurement;
+    }
+
+    /**
+     * @return the Sparkplug group ID of the edge node or device, written as {@code group} tag; empty if unknown or if
+     *         no routes are configured
+     */
+    public @NotNull String getGroup() {
+        return group;
+    }
+
+    /**
+     * @return the route the data of the device is written to, {@link RouteMatcher#DEFAULT_ROUTE} unless routes are
+     *         configured
+     */
+    public int getRoute() {
+        return route;
+    }
+
+    /**
+     * @return the gauges of the device, sorted by {@link SparkplugGauge#getField() Sparkplug metric name}; the array
+     *         must not be modified
+     */
+    public @NotNull SparkplugGauge<?> @NotNull [] getGauges() {
+        return gauges;
+    }
+
+    /**
+     * @param  field the Sparkplug metric name
+     * @return       the gauge of the field, or {@code null} if the device has no such field
+     */
+    public @Nullable SparkplugGauge<?> getField(final @NotNull String field) {
+        final var gauges = this.gauges;
+        var low = 0;
+        var high = gauges.length - 1;
+        while (low <= high) {
+            final var middle = (low + high) >>> 1;
+            final var compared = gauges[middle].getField().compareTo(field);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return gauges[middle];
+            }
+        }
+        return null;
+    }
+
+    synchronized void addField(final @NotNull SparkplugGauge<?> gauge) {
+        final var gauges = this.gauges;
+        final var index = -Arrays.binarySearch(gauges, gauge, FIELD_ORDER) - 1;
+        final var added = Arrays.copyOf(gauges, gauges.length + 1);
+        System.arraycopy(gauges, index, added, index + 1, gauges.length - index);
+        added[index] = gauge;
+        this.gauges = added;
+    }
+
+    /**
+     * Replaces the gauge of a field, e.g. as the type of the Sparkplug metric changed.
+     */
+    synchronized void replaceField(final @NotNull SparkplugGauge<?> previous, final @NotNull SparkplugGauge<?> gauge) {
+        final var gauges = this.gauges.clone();
+        gauges[Arrays.binarySearch(gauges, previous, FIELD_ORDER)] = gauge;
+        this.gauges = gauges;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * The handles of the series which were updated since the previous report, drained from the dirty bits of the
+ * {@link SeriesColumns}.
+ * <p>
+ * The handles are kept in a list to walk them and in a bitset to test them, and clearing only resets the words of the
+ * drained handles, so the cost of a report is proportional to the number of updated series and not to the number of
+ * all series. Reused for every report, must only be used by the reporter thread.
+ */
+public class DirtySeries {
+
+    private int @NotNull [] handles = new int[64];
+    private int size;
+    private long @NotNull [] bits = new long[1];
+
+    /**
+     * @return the number of updated series
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param  index the index of the series, lower than {@link #size()}
+     * @return       the handle of the series
+     */
+    public int getHandle(final int index) {
+        return handles[index];
+    }
+
+    /**
+     * @return {@code true} if the series with the handle was updated since the previous report
+     */
+    public boolean contains(final int handle) {
+        final var word = handle >>> 6;
+        return word < bits.length && (bits[word] & (1L << handle)) != 0;
+    }
+
+    void clear() {
+        for (var i = 0; i < size; i++) {
+            bits[handles[i] >>> 6] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * Adds the series of a drained dirty word.
+     *
+     * @param firstHandle the handle of the lowest bit of the word, a multiple of 64
+     * @param word        the dirty bits
+     */
+    void add(final int firstHandle, final long word) {
+        final var index = firstHandle >>> 6;
+        if (index >= bits.length) {
+            bits = Arrays.copyOf(bits, Math.max(index + 1, bits.length * 2));
+        }
+        bits[index] |= word;
+        final var count = Long.bitCount(word);
+        if (size + count > handles.length) {
+            handles = Arrays.copyOf(handles, Math.max(size + count, handles.length * 2));
+        }
+        var remaining = word;
+        while (remaining != 0) {
+            handles[size++] = firstHandle + Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks the keys with the highest weight in bounded memory, e.g. the edge nodes sending the most bytes.
+ * <p>
+ * The weights of all keys are counted in a Count-Min sketch, which overestimates a weight by at most
+ * {@code e / WIDTH} of the total weight with a probability of {@code 1 - e^-DEPTH}, no matter how many keys there are.
+ * Next to the sketch, the top keys are kept as candidates. A key only needs to be compared with the candidates if its
+ * estimate exceeds the smallest estimate of the candidates, so adding a weight is lock-free for all keys which are
+ * not or already are candidates. To replace a candidate, a key must be heavier by an eighth, which avoids churning
+ * between keys of a similar weight.
+ * <p>
+ * Keys consist of up to four parts (group, edge node, device and metric), which are hashed without being
+ * concatenated. The key is only built when it becomes a candidate.
+ */
+public class HeavyHitters {
+
+    static final int WIDTH = 1024;
+    static final int DEPTH = 4;
+
+    private final int capacity;
+    private final @NotNull AtomicLongArray counts = new AtomicLongArray(WIDTH * DEPTH);
+
+    // candidates, written under the lock and published by replacing the volatile array of hashes
+    private final long @NotNull [] candidateHashes;
+    private final @Nullable String @NotNull [] candidateKeys;
+    private int candidateCount;
+    private volatile long @NotNull [] publishedHashes = new long[0];
+    private volatile long threshold;
+
+    /**
+     * @param capacity the number of top keys to track
+     */
+    public HeavyHitters(final int capacity) {
+        this.capacity = capacity;
+        candidateHashes = new long[capacity];
+        candidateKeys = new String[capacity];
+    }
+
+    /**
+     * Adds a weight to a key. The key consists of the given parts, separated by {@code /}, omitting {@code null}
+     * parts.
+     *
+     * @param group    the Sparkplug group
+     * @param edgeNode the edge node, or {@code null}
+     * @param device   the device, or {@code null}
+     * @param metric   the metric name, or {@code null}
+     * @param weight   the weight to add, e.g. a number of bytes
+     */
+    public void add(
+            final @NotNull String group,
+            final @Nullable String edgeNode,
+            final @Nullable String device,
+            final @Nullable String metric,
+            final long weight) {
+        final var hash = hash(group, edgeNode, device, metric);
+        final var estimate = increment(hash, weight);
+        if (estimate <= threshold) {
+            return;
+        }
+        for (final var candidate : publishedHashes) {
+            if (candidate == hash) {
+                return;
+            }
+        }
+        offer(hash, group, edgeNode, device, metric);
+    }
+
+    /**
+     * @return the top keys with their estimated weight since the last call, sorted by descending weight
+     */
+    public synchronized @NotNull List<Entry> drain() {
+        final var entries = new ArrayList<Entry>(candidateCount);
+        for (var i = 0; i < candidateCount; i++) {
+            //noinspection DataFlowIssue
+            entries.add(new Entry(candidateKeys[i], estimate(candidateHashes[i])));
+        }
+        entries.sort(Comparator.comparingLong(Entry::getWeight).reversed());
+        // weights added concurrently to the reset are partially lost, which is negligible for finding the top keys
+        for (var i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        Arrays.fill(candidateKeys, null);
+        candidateCount = 0;
+        threshold = 0;
+        publishedHashes = new long[0];
+        return entries;
+    }
+
+    private synchronized void offer(
+            final long hash,
+            final @NotNull String group,
+            final @Nullable String edgeNode,
+            final @Nullable String device,
+            final @Nullable String metric) {
+        var index = -1;
+        for (var i = 0; i < candidateCount; i++) {
+            if (candidateHashes[i] == hash) {
+                return;
+            }
+        }
+        if (candidateCount < capacity) {
+            index = candidateCount++;
+        } else {
+            // replace the smallest candidate if the key is heavier
+            var smallest = Long.MAX_VALUE;
+            for (var i = 0; i < candidateCount; i++) {
+                final var estimate = estimate(candidateHashes[i]);
+                if (estimate < smallest) {
+                    smallest = estimate;
+                    index = i;
+                }
+            }
+            if (estimate(hash) <= smallest + margin(smallest)) {
+                threshold = smallest + margin(smallest);
+                return;
+            }
+        }
+        candidateHashes[index] = hash;
+        candidateKeys[index] = key(group, edgeNode, device, metric);
+        if (candidateCount == capacity) {
+            var smallest = Long.MAX_VALUE;
+            for (var i = 0; i < candidateCount; i++) {
+                smallest = Math.min(smallest, estimate(candidateHashes[i]));
+            }
+            threshold = smallest + margin(smallest);
+        }
+        publishedHashes = Arrays.copyOf(candidateHashes, candidateCount);
+    }
+
+    private static long margin(final long weight) {
+        return weight >>> 3;
+    }
+
+    private long increment(final long hash, final long weight) {
+        var estimate = Long.MAX_VALUE;
+        for (var row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counts.addAndGet(index(hash, row), weight));
+        }
+        return estimate;
+    }
+
+    long estimate(final long hash) {
+        var estimate = Long.MAX_VALUE;
+        for (var row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counts.get(index(hash, row)));
+        }
+        return estimate;
+    }
+
+    private static int index(final long hash, final int row) {
+        // derives the hash of each row from the two halves of the 64 bit hash
+        final var rowHash = (int) hash + row * (int) (hash >>> 32);
+        return row * WIDTH + (rowHash & (WIDTH - 1));
+    }
+
+    static long hash(
+            final @NotNull String group,
+            final @Nullable String edgeNode,
+            final @Nullable String device,
+            final @Nullable String metric) {
+        var hash = (long) group.hashCode();
+        hash = hash * 0x9E3779B97F4A7C15L + (edgeNode == null ? 0 : edgeNode.hashCode());
+        hash = hash * 0x9E3779B97F4A7C15L + (device == null ? 0 : device.hashCode());
+        hash = hash * 0x9E3779B97F4A7C15L + (metric == null ? 0 : metric.hashCode());
+        // finalizer of MurmurHash3, spreads the bits of the string hashes over the whole long
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static @NotNull String key(
+            final @NotNull String group,
+            final @Nullable String edgeNode,
+            final @Nullable String device,
+            final @Nullable String metric) {
+        final var key = new StringBuilder(group);
+        for (final var part : new String[]{edgeNode, device, metric}) {
+            if (part != null) {
+                key.append('/').append(part);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * A top key with its estimated weight.
+     */
+    public static class Entry {
+
+        private final @NotNull String key;
+        private final long weight;
+
+        Entry(final @NotNull String key, final long weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+
+        /**
+         * @return the key, e.g. {@code group/edgeNode/device}
+         */
+        public @NotNull String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the estimated weight, which may be overestimated by collisions in the sketch
+         */
+        public long getWeight() {
+            return weight;
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return key + "=" + weight;
+        }
+    }
+}
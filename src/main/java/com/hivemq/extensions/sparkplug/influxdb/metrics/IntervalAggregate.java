@@ -0,0 +1,194 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Aggregates all values of a series between two reports, so changes between reports are not lost, e.g. a spike of a
+ * fast-changing value.
+ * <p>
+ * Recording does not lock and does not allocate: the minimum, maximum and sum are updated with compare-and-set, the
+ * count with an atomic increment. Two buffers are used alternately. {@link #roll()} switches the buffer recorded to,
+ * so the values of the completed interval can be read without resetting them concurrently to recording.
+ * <p>
+ * Every buffer counts the writers recording to it. A writer registers at the buffer before recording and checks that
+ * it is still the buffer recorded to, otherwise it retries with the new one. After switching the buffers,
+ * {@link #roll()} waits for the writers still registered at the completed buffer, which only takes as long as
+ * recording a single value. So every value is part of exactly one interval, and the values of the completed interval
+ * are neither changed while they are read nor after its buffer was reset.
+ */
+public class IntervalAggregate {
+
+    private static final @NotNull VarHandle WRITERS;
+    private static final @NotNull VarHandle COUNT;
+    private static final @NotNull VarHandle SUM;
+    private static final @NotNull VarHandle MIN;
+    private static final @NotNull VarHandle MAX;
+
+    static {
+        try {
+            final var lookup = MethodHandles.lookup();
+            WRITERS = lookup.findVarHandle(Buffer.class, "writers", int.class);
+            COUNT = lookup.findVarHandle(Buffer.class, "count", long.class);
+            SUM = lookup.findVarHandle(Buffer.class, "sum", double.class);
+            MIN = lookup.findVarHandle(Buffer.class, "min", double.class);
+            MAX = lookup.findVarHandle(Buffer.class, "max", double.class);
+        } catch (final ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile @NotNull Buffer recording = new Buffer();
+    private @NotNull Buffer completed = new Buffer();
+
+    /**
+     * Records a value of the current interval.
+     *
+     * @param value the value to record
+     */
+    public void record(final double value) {
+        var buffer = recording;
+        WRITERS.getAndAdd(buffer, 1);
+        while (buffer != recording) {
+            // rolled in between, the roll might not wait for this writer anymore
+            WRITERS.getAndAdd(buffer, -1);
+            buffer = recording;
+            WRITERS.getAndAdd(buffer, 1);
+        }
+        try {
+            record(buffer, value);
+        } finally {
+            WRITERS.getAndAdd(buffer, -1);
+        }
+    }
+
+    private static void record(final @NotNull Buffer buffer, final double value) {
+        if ((long) COUNT.getAndAdd(buffer, 1L) == 0) {
+            buffer.first = value;
+        }
+        buffer.last = value;
+        var sum = buffer.sum;
+        while (!SUM.weakCompareAndSet(buffer, sum, sum + value)) {
+            sum = buffer.sum;
+        }
+        var min = buffer.min;
+        while (value < min && !MIN.weakCompareAndSet(buffer, min, value)) {
+            min = buffer.min;
+        }
+        var max = buffer.max;
+        while (value > max && !MAX.weakCompareAndSet(buffer, max, value)) {
+            max = buffer.max;
+        }
+    }
+
+    /**
+     * Completes the current interval, its values are returned by the getters until the next roll. Must only be called
+     * by the reporter.
+     *
+     * @return {@code true} if values were recorded in the completed interval
+     */
+    public boolean roll() {
+        // no writer is registered at the completed buffer since the last roll
+        final var next = completed;
+        next.reset();
+        final var done = recording;
+        recording = next;
+        for (var spins = 0; (int) WRITERS.getVolatile(done) != 0; spins++) {
+            if (spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        completed = done;
+        return done.count > 0;
+    }
+
+    /**
+     * @return the number of values of the completed interval
+     */
+    public long getCount() {
+        return completed.count;
+    }
+
+    /**
+     * @return the smallest value of the completed interval
+     */
+    public double getMin() {
+        return completed.min;
+    }
+
+    /**
+     * @return the largest value of the completed interval
+     */
+    public double getMax() {
+        return completed.max;
+    }
+
+    /**
+     * @return the sum of the values of the completed interval
+     */
+    public double getSum() {
+        return completed.sum;
+    }
+
+    /**
+     * @return the mean of the values of the completed interval
+     */
+    public double getMean() {
+        final var buffer = completed;
+        return buffer.count == 0 ? 0 : buffer.sum / buffer.count;
+    }
+
+    /**
+     * @return the first value of the completed interval
+     */
+    public double getFirst() {
+        return completed.first;
+    }
+
+    /**
+     * @return the last value of the completed interval
+     */
+    public double getLast() {
+        return completed.last;
+    }
+
+    private static final class Buffer {
+
+        volatile int writers;
+        volatile long count;
+        volatile double sum;
+        volatile double min = Double.POSITIVE_INFINITY;
+        volatile double max = Double.NEGATIVE_INFINITY;
+        volatile double first;
+        volatile double last;
+
+        void reset() {
+            count = 0;
+            sum = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            first = 0;
+            last = 0;
+        }
+    }
+}
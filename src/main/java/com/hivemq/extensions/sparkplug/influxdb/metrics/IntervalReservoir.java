@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Reservoir} recording values into log-linear buckets like HdrHistogram, reporting the values of the last
+ * completed interval.
+ * <p>
+ * Values below 128 are counted exactly, larger values in 64 buckets per power of two. As percentiles are reported as
+ * the midpoint of their bucket, their relative error is below 1 %. Recording is lock-free and does not allocate, a
+ * value is counted with a single atomic increment of its bucket.
+ * <p>
+ * {@link #roll()} completes the current interval: the recorded values are moved into a new {@link Snapshot}, which
+ * {@link #getSnapshot()} returns until the next roll. So any number of readers see the same interval, and values
+ * recorded concurrently to a roll are never lost.
+ */
+public class IntervalReservoir implements Reservoir {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+    static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private final @NotNull AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final @NotNull LongAdder sum = new LongAdder();
+    private final @NotNull LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final @NotNull LongAccumulator max = new LongAccumulator(Math::max, 0);
+    private volatile @NotNull Snapshot snapshot = new IntervalSnapshot(new long[BUCKETS], 0, 0, 0, 0);
+
+    /**
+     * @return the number of values of the last completed interval
+     */
+    @Override
+    public int size() {
+        return snapshot.size();
+    }
+
+    /**
+     * Records a value, negative values are recorded as {@code 0}.
+     *
+     * @param value the value to record
+     */
+    @Override
+    public void update(final long value) {
+        final var positive = Math.max(value, 0);
+        counts.incrementAndGet(bucket(positive));
+        sum.add(positive);
+        min.accumulate(positive);
+        max.accumulate(positive);
+    }
+
+    /**
+     * @return the values of the last completed interval
+     */
+    @Override
+    public @NotNull Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Completes the current interval and starts a new one.
+     */
+    public void roll() {
+        final var intervalCounts = new long[BUCKETS];
+        long count = 0;
+        for (var i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                intervalCounts[i] = counts.getAndSet(i, 0);
+                count += intervalCounts[i];
+            }
+        }
+        final var intervalSum = sum.sumThenReset();
+        final var intervalMin = min.getThenReset();
+        final var intervalMax = max.getThenReset();
+        snapshot = count == 0 ?
+                new IntervalSnapshot(intervalCounts, 0, 0, 0, 0) :
+                new IntervalSnapshot(intervalCounts, count, intervalSum, intervalMin, intervalMax);
+    }
+
+    static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // the shift keeps the 7 highest bits, of which the highest is always set
+        final var shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    static long lowestValue(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final var shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        final var subBucket = (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return (long) subBucket << shift;
+    }
+
+    static long highestValue(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final var shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        return lowestValue(bucket) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import com.codahale.metrics.Snapshot;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The values of a completed interval of an {@link IntervalReservoir}.
+ * <p>
+ * Percentiles are the midpoint of the bucket containing the value, limited to the exactly tracked minimum and maximum.
+ */
+class IntervalSnapshot extends Snapshot {
+
+    private final long @NotNull [] counts;
+    private final long count;
+    private final long sum;
+    private final long min;
+    private final long max;
+
+    IntervalSnapshot(final long @NotNull [] counts, final long count, final long sum, final long min, final long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    @Override
+    public double getValue(final double quantile) {
+        if (quantile < 0 || quantile > 1 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        // the rank of the value, counting from 1
+        final var rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (var bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.min(max, Math.max(min, representative(bucket)));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public long @NotNull [] getValues() {
+        final var values = new long[size()];
+        var index = 0;
+        for (var bucket = 0; bucket < counts.length; bucket++) {
+            for (long i = 0; i < counts[bucket]; i++) {
+                values[index++] = representative(bucket);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    @Override
+    public long getMin() {
+        return min;
+    }
+
+    @Override
+    public double getStdDev() {
+        if (count <= 1) {
+            return 0;
+        }
+        final var mean = getMean();
+        var variance = 0d;
+        for (var bucket = 0; bucket < counts.length; bucket++) {
+            if (counts[bucket] != 0) {
+                final var difference = representative(bucket) - mean;
+                variance += counts[bucket] * difference * difference;
+            }
+        }
+        return Math.sqrt(variance / (count - 1));
+    }
+
+    @Override
+    public void dump(final @NotNull OutputStream output) {
+        try (final var out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+            for (final var value : getValues()) {
+                out.printf("%d%n", value);
+            }
+        }
+    }
+
+    private static long representative(final int bucket) {
+        final var lowest = IntervalReservoir.lowestValue(bucket);
+        return lowest + (IntervalReservoir.highestValue(bucket) - lowest) / 2;
+    }
+}
@@ -17,12 +17,19 @@
 package com.hivemq.extensions.sparkplug.influxdb.metrics;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+
 /**
  * Metric holder for all generic Sparkplug metrics
  *
@@ -35,74 +42,261 @@ public class MetricsHolder {
     private static final @NotNull Logger LOG = LoggerFactory.getLogger(MetricsHolder.class);
 
     private final @NotNull MetricRegistry metricRegistry;
+    private final @NotNull PipelineMetrics pipelineMetrics;
+    private final boolean intervalAggregation;
+    private final @NotNull List<Pattern> quantileMetrics;
+    private final @Nullable ConflationBuffer conflationBuffer;
+    private final @NotNull RouteMatcher routeMatcher;
+    private final boolean registerMetrics;
+    // edge nodes are only told apart by their group if routes are configured, so existing series keep their identity
+    private final boolean separateGroups;
+    private final @NotNull SeriesTable seriesTable = new SeriesTable();
+
+    /**
+     * Sparkplug data metrics grouped by their edge node or device, keyed by the measurement name of the device, which
+     * is qualified by the group if routes are configured.
+     */
+    private final @NotNull Map<String, DeviceMetrics> deviceMetrics = new ConcurrentHashMap<>();
+
+    /**
+     * @param  registry the registry to register all metrics with
+     * @return          a builder of a holder registering its metrics with the registry
+     */
+    public static @NotNull Builder forRegistry(final @NotNull MetricRegistry registry) {
+        return new Builder(registry);
+    }
 
-    public MetricsHolder(final @NotNull MetricRegistry registry) {
-        metricRegistry = registry;
+    private MetricsHolder(final @NotNull Builder builder) {
+        metricRegistry = builder.registry;
+        pipelineMetrics = new PipelineMetrics(builder.registry, builder.topN);
+        intervalAggregation = builder.intervalAggregation;
+        quantileMetrics = builder.quantileMetrics;
+        conflationBuffer = builder.conflation ? new ConflationBuffer() : null;
+        routeMatcher = builder.routeMatcher;
+        separateGroups = builder.routeMatcher.size() > 1;
+        registerMetrics = builder.registerMetrics;
     }
 
     public @NotNull MetricRegistry getMetricRegistry() {
         return metricRegistry;
     }
 
+    public @NotNull PipelineMetrics getPipelineMetrics() {
+        return pipelineMetrics;
+    }
+
     public @NotNull SettableDoubleGauge getStatusMetrics(final @NotNull String eonId, final @Nullable String deviceId) {
         final var metricName = getMetricName(eonId, deviceId, "status");
         return getSettableDoubleGauge(metricName);
     }
 
+    /**
+     * @return the buffer of the last received values of the Sparkplug data metrics, or {@code null} if conflation is
+     *         disabled
+     */
+    public @Nullable ConflationBuffer getConflationBuffer() {
+        return conflationBuffer;
+    }
+
+    /**
+     * @return the Sparkplug data metrics of all edge nodes and devices
+     */
+    public @NotNull SeriesTable getSeriesTable() {
+        return seriesTable;
+    }
+
+    /**
+     * @param  metric a metric of the {@link MetricRegistry}
+     * @return        {@code true} if the metric is a Sparkplug data metric and thus part of {@link #getSeriesTable()}
+     */
+    public static boolean isDeviceMetric(final @NotNull Metric metric) {
+        return metric instanceof SparkplugGauge && ((SparkplugGauge<?>) metric).getHandle() >= 0;
+    }
+
     private @NotNull String getMetricName(
             final @NotNull String eonId,
             final @Nullable String deviceId,
             final @Nullable String postfix) {
-        var metricName = METRIC_ROOT + "." + eonId + ".";
+        return getDeviceMeasurement(eonId, deviceId) + "." + postfix;
+    }
+
+    /**
+     * @return the key of an edge node or device, which is qualified by the group if routes are configured, so edge
+     *         nodes with the same ID in different groups are separate series and routed by their own group
+     */
+    private @NotNull String getDeviceKey(
+            final @NotNull String groupId,
+            final @NotNull String eonId,
+            final @Nullable String deviceId) {
+        if (!separateGroups || groupId.isEmpty()) {
+            return getDeviceMeasurement(eonId, deviceId);
+        }
+        var key = METRIC_ROOT + "." + groupId + "/" + eonId;
+        if (deviceId != null) {
+            key += "." + deviceId;
+        }
+        return key;
+    }
+
+    /**
+     * Looks up the gauge of a Sparkplug data metric in its device instead of the {@link MetricRegistry}, so the
+     * metric is found whether or not it is registered.
+     *
+     * @return the gauge of the metric, or {@code null} if it was not registered yet
+     */
+    private @Nullable SparkplugGauge<?> findDeviceMetric(
+            final @NotNull String deviceKey,
+            final @Nullable String information) {
+        final var device = deviceMetrics.get(deviceKey);
+        return device == null ? null : device.getField(String.valueOf(information));
+    }
+
+    private @NotNull String getDeviceMeasurement(final @NotNull String eonId, final @Nullable String deviceId) {
+        var measurement = METRIC_ROOT + "." + eonId;
         if (deviceId != null) {
-            metricName += deviceId + ".";
+            measurement += "." + deviceId;
         }
-        metricName += postfix;
-        return metricName;
+        return measurement;
     }
 
     public @NotNull SettableDoubleGauge getDeviceInformationMetricsDouble(
             final @NotNull String eonId,
             final @Nullable String deviceId,
             final @Nullable String information) {
-        final var metricName = getMetricName(eonId, deviceId, information);
-        return getSettableDoubleGauge(metricName);
+        return getDeviceInformationMetricsDouble("", eonId, deviceId, information);
+    }
+
+    /**
+     * Returns the gauge of a Sparkplug data metric and registers it, if it does not exist yet.
+     *
+     * @param  groupId     the Sparkplug group ID, which decides the route of an edge node or device seen for the first
+     *                     time
+     * @param  eonId       the Sparkplug edge node ID
+     * @param  deviceId    the Sparkplug device ID, or {@code null} for a metric of the edge node
+     * @param  information the name of the Sparkplug metric
+     * @return             the gauge of the metric
+     */
+    public @NotNull SettableDoubleGauge getDeviceInformationMetricsDouble(
+            final @NotNull String groupId,
+            final @NotNull String eonId,
+            final @Nullable String deviceId,
+            final @Nullable String information) {
+        final var deviceKey = getDeviceKey(groupId, eonId, deviceId);
+        final var metric = findDeviceMetric(deviceKey, information);
+        if (metric instanceof SettableDoubleGauge) {
+            return (SettableDoubleGauge) metric;
+        }
+        return registerDeviceMetric(groupId,
+                eonId,
+                deviceId,
+                information,
+                deviceKey,
+                ValueType.DOUBLE,
+                SettableDoubleGauge::new);
+    }
+
+    public @NotNull SettableFloatGauge getDeviceInformationMetricsFloat(
+            final @NotNull String eonId,
+            final @Nullable String deviceId,
+            final @Nullable String information) {
+        return getDeviceInformationMetricsFloat("", eonId, deviceId, information);
+    }
+
+    public @NotNull SettableFloatGauge getDeviceInformationMetricsFloat(
+            final @NotNull String groupId,
+            final @NotNull String eonId,
+            final @Nullable String deviceId,
+            final @Nullable String information) {
+        final var deviceKey = getDeviceKey(groupId, eonId, deviceId);
+        final var metric = findDeviceMetric(deviceKey, information);
+        if (metric instanceof SettableFloatGauge) {
+            return (SettableFloatGauge) metric;
+        }
+        return registerDeviceMetric(groupId,
+                eonId,
+                deviceId,
+                information,
+                deviceKey,
+                ValueType.FLOAT,
+                SettableFloatGauge::new);
     }
 
     public @NotNull SettableIntGauge getDeviceInformationMetricsInt(
             final @NotNull String eonId,
             final @Nullable String deviceId,
             final @Nullable String information) {
-        final var metricName = getMetricName(eonId, deviceId, information);
-        if (getMetricRegistry().getMetrics().containsKey(metricName)) {
-            return (SettableIntGauge) getMetricRegistry().getMetrics().get(metricName);
+        return getDeviceInformationMetricsInt("", eonId, deviceId, information);
+    }
+
+    public @NotNull SettableIntGauge getDeviceInformationMetricsInt(
+            final @NotNull String groupId,
+            final @NotNull String eonId,
+            final @Nullable String deviceId,
+            final @Nullable String information) {
+        final var deviceKey = getDeviceKey(groupId, eonId, deviceId);
+        final var metric = findDeviceMetric(deviceKey, information);
+        if (metric instanceof SettableIntGauge) {
+            return (SettableIntGauge) metric;
         }
-        LOG.debug("Register SettableIntGauge metric for: {} ", metricName);
-        return getMetricRegistry().register(metricName, new SettableIntGauge());
+        return registerDeviceMetric(groupId,
+                eonId,
+                deviceId,
+                information,
+                deviceKey,
+                ValueType.INT,
+                SettableIntGauge::new);
     }
 
     public @NotNull SettableLongGauge getDeviceInformationMetricsLong(
             final @NotNull String eonId,
             final @Nullable String deviceId,
             final @Nullable String information) {
-        final var metricName = getMetricName(eonId, deviceId, information);
-        if (getMetricRegistry().getMetrics().containsKey(metricName)) {
-            return (SettableLongGauge) getMetricRegistry().getMetrics().get(metricName);
+        return getDeviceInformationMetricsLong("", eonId, deviceId, information);
+    }
+
+    public @NotNull SettableLongGauge getDeviceInformationMetricsLong(
+            final @NotNull String groupId,
+            final @NotNull String eonId,
+            final @Nullable String deviceId,
+            final @Nullable String information) {
+        final var deviceKey = getDeviceKey(groupId, eonId, deviceId);
+        final var metric = findDeviceMetric(deviceKey, information);
+        if (metric instanceof SettableLongGauge) {
+            return (SettableLongGauge) metric;
         }
-        LOG.debug("Register SettableLongGauge metric for: {} ", metricName);
-        return getMetricRegistry().register(metricName, new SettableLongGauge());
+        return registerDeviceMetric(groupId,
+                eonId,
+                deviceId,
+                information,
+                deviceKey,
+                ValueType.LONG,
+                SettableLongGauge::new);
     }
 
     public @NotNull SettableBooleanGauge getDeviceInformationMetricsBoolean(
             final @NotNull String eonId,
             final @Nullable String deviceId,
             final @Nullable String information) {
-        final var metricName = getMetricName(eonId, deviceId, information);
-        if (getMetricRegistry().getMetrics().containsKey(metricName)) {
-            return (SettableBooleanGauge) getMetricRegistry().getMetrics().get(metricName);
+        return getDeviceInformationMetricsBoolean("", eonId, deviceId, information);
+    }
+
+    public @NotNull SettableBooleanGauge getDeviceInformationMetricsBoolean(
+            final @NotNull String groupId,
+            final @NotNull String eonId,
+            final @Nullable String deviceId,
+            final @Nullable String information) {
+        final var deviceKey = getDeviceKey(groupId, eonId, deviceId);
+        final var metric = findDeviceMetric(deviceKey, information);
+        if (metric instanceof SettableBooleanGauge) {
+            return (SettableBooleanGauge) metric;
         }
-        LOG.debug("Register SettableBooleanGauge metric for: {} ", metricName);
-        return getMetricRegistry().register(metricName, new SettableBooleanGauge());
+        return registerDeviceMetric(groupId,
+                eonId,
+                deviceId,
+                information,
+                deviceKey,
+                ValueType.BOOLEAN,
+                SettableBooleanGauge::new);
     }
 
     public @NotNull Counter getCurrentDeviceOnline() {
@@ -113,12 +307,100 @@ public class MetricsHolder {
         return getMetricRegistry().counter(METRIC_ROOT + ".eons.current.count");
     }
 
-    public @NotNull SettableDoubleGauge getDeviceDataMetrics(
+    /**
+     * Adds the gauge of a Sparkplug data metric to the series table and, unless disabled, registers it. If the metric
+     * already exists with another type, the gauge is replaced by a gauge of the requested type for the same series,
+     * which is recorded as schema change.
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized <T extends SparkplugGauge<?>> @NotNull T registerDeviceMetric(
+            final @NotNull String groupId,
             final @NotNull String eonId,
             final @Nullable String deviceId,
-            final @NotNull String metric) {
-        final var metricName = getMetricName(eonId, deviceId, metric);
-        return getSettableDoubleGauge(metricName);
+            final @Nullable String information,
+            final @NotNull String deviceKey,
+            final @NotNull ValueType type,
+            final @NotNull BiFunction<SeriesColumns, Integer, T> factory) {
+        final var metricName = deviceKey + "." + information;
+        // registered concurrently by another thread
+        final var existing = findDeviceMetric(deviceKey, information);
+        if (existing != null && existing.getType() == type) {
+            return (T) existing;
+        }
+        if (existing != null) {
+            return changeType(deviceKey, information, metricName, existing, factory);
+        }
+        if (registerMetrics && getMetricRegistry().getMetrics().containsKey(metricName)) {
+            throw new IllegalArgumentException("Metric " + metricName + " is not a Sparkplug data metric");
+        }
+        final var gauge = factory.apply(seriesTable.getColumns(), seriesTable.getSeriesCount());
+        LOG.debug("Register {} metric for: {} ", gauge.getClass().getSimpleName(), metricName);
+        gauge.field(seriesTable.intern(String.valueOf(information)));
+        configure(gauge, information);
+        final var device = deviceMetrics.computeIfAbsent(deviceKey,
+                key -> seriesTable.addDevice(getDeviceMeasurement(eonId, deviceId),
+                        separateGroups ? groupId : "",
+                        routeMatcher.route(groupId, eonId)));
+        seriesTable.addSeries(gauge, device);
+        if (conflationBuffer != null) {
+            conflationBuffer.ensureCapacity(gauge.getHandle() + 1);
+            gauge.conflate(conflationBuffer);
+        }
+        if (registerMetrics) {
+            getMetricRegistry().register(metricName, gauge);
+        }
+        device.addField(gauge);
+        return gauge;
+    }
+
+    /**
+     * Replaces the gauge of a Sparkplug data metric whose type changed. The series keeps its handle, so its
+     * aggregates, rollups and conflated value carry over. The current and the conflated value are converted to the new
+     * type, until the next value is set they are reported as such. A value which is set concurrently through the
+     * previous gauge may still be reported once with the bits of the previous type.
+     */
+    private <T extends SparkplugGauge<?>> @NotNull T changeType(
+            final @NotNull String deviceKey,
+            final @Nullable String information,
+            final @NotNull String metricName,
+            final @NotNull SparkplugGauge<?> previous,
+            final @NotNull BiFunction<SeriesColumns, Integer, T> factory) {
+        final var gauge = factory.apply(seriesTable.getColumns(), previous.getHandle());
+        LOG.warn("Type of Sparkplug metric {} changed from {} to {}", metricName, previous.getType(), gauge.getType());
+        gauge.inherit(previous);
+        configure(gauge, information);
+        if (conflationBuffer != null) {
+            conflationBuffer.convert(gauge.getHandle(), previous.getType(), gauge.getType());
+        }
+        seriesTable.replaceSeries(gauge);
+        deviceMetrics.get(deviceKey).replaceField(previous, gauge);
+        if (registerMetrics) {
+            getMetricRegistry().remove(metricName);
+            getMetricRegistry().register(metricName, gauge);
+        }
+        pipelineMetrics.schemaChanged();
+        return gauge;
+    }
+
+    private void configure(final @NotNull SparkplugGauge<?> gauge, final @Nullable String information) {
+        if (gauge.getType() == ValueType.BOOLEAN) {
+            return;
+        }
+        if (intervalAggregation) {
+            gauge.aggregate();
+        }
+        if (information != null && isQuantileMetric(information)) {
+            gauge.quantiles();
+        }
+    }
+
+    private boolean isQuantileMetric(final @NotNull String metricName) {
+        for (final var pattern : quantileMetrics) {
+            if (pattern.matcher(metricName).matches()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private @NotNull SettableDoubleGauge getSettableDoubleGauge(final @NotNull String metricName) {
@@ -128,4 +410,85 @@ public class MetricsHolder {
         LOG.debug("Register SettableDoubleGauge metric for: {} ", metricName);
         return getMetricRegistry().register(metricName, new SettableDoubleGauge());
     }
+
+    /**
+     * Builds a {@link MetricsHolder}. By default, the values are neither aggregated nor conflated, no quantiles are
+     * computed, all edge nodes and devices belong to the default route and the Sparkplug data metrics are registered.
+     */
+    public static class Builder {
+
+        private final @NotNull MetricRegistry registry;
+        private int topN = PipelineMetrics.TOP_N_DEFAULT;
+        private boolean intervalAggregation;
+        private @NotNull List<Pattern> quantileMetrics = List.of();
+        private boolean conflation;
+        private @NotNull RouteMatcher routeMatcher = RouteMatcher.NONE;
+        private boolean registerMetrics = true;
+
+        private Builder(final @NotNull MetricRegistry registry) {
+            this.registry = registry;
+        }
+
+        /**
+         * @param  topN the number of heaviest edge nodes, devices and metrics to report
+         * @return      itself
+         */
+        public @NotNull Builder topN(final int topN) {
+            this.topN = topN;
+            return this;
+        }
+
+        /**
+         * @param  intervalAggregation {@code true} to aggregate all values of the numeric data metrics between two
+         *                             reports
+         * @return                     itself
+         */
+        public @NotNull Builder intervalAggregation(final boolean intervalAggregation) {
+            this.intervalAggregation = intervalAggregation;
+            return this;
+        }
+
+        /**
+         * @param  quantileMetrics the patterns of the Sparkplug metric names to report quantiles for
+         * @return                 itself
+         */
+        public @NotNull Builder quantileMetrics(final @NotNull List<Pattern> quantileMetrics) {
+            this.quantileMetrics = quantileMetrics;
+            return this;
+        }
+
+        /**
+         * @param  conflation {@code true} to keep the last received value and timestamp of every data metric in a
+         *                    {@link ConflationBuffer}
+         * @return            itself
+         */
+        public @NotNull Builder conflation(final boolean conflation) {
+            this.conflation = conflation;
+            return this;
+        }
+
+        /**
+         * @param  routeMatcher the matcher assigning every edge node and device to its route
+         * @return              itself
+         */
+        public @NotNull Builder routeMatcher(final @NotNull RouteMatcher routeMatcher) {
+            this.routeMatcher = routeMatcher;
+            return this;
+        }
+
+        /**
+         * @param  registerMetrics {@code false} to keep the gauges of the Sparkplug data metrics out of the
+         *                         {@link MetricRegistry}, so they are only held by the {@link SeriesTable} and not
+         *                         exposed via JMX
+         * @return                 itself
+         */
+        public @NotNull Builder registerMetrics(final boolean registerMetrics) {
+            this.registerMetrics = registerMetrics;
+            return this;
+        }
+
+        public @NotNull MetricsHolder build() {
+            return new MetricsHolder(this);
+        }
+    }
 }
@@ -0,0 +1,492 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hivemq.extensions.sparkplug.influxdb.topics.MessageType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics about the extension itself, from decoding the Sparkplug payloads to sending the points to InfluxDB.
+ * <p>
+ * All metrics are registered under {@link #PREFIX}, so they can't clash with the Sparkplug data metrics. They are
+ * {@link Counter counters}, which are backed by a striped {@link java.util.concurrent.atomic.LongAdder}, so
+ * recording from the many threads calling the interceptor does not add contention. Durations are recorded as the sum
+ * of nanoseconds next to the number of operations, e.g. the mean decode latency of a time range is the difference of
+ * {@code decode.nanos} divided by the difference of {@code decode.count}.
+ * <p>
+ * The latencies of the Sparkplug data are recorded as {@link Timer timers} backed by an {@link IntervalReservoir}, so
+ * their percentiles describe the last reporting interval:
+ * <ul>
+ * <li>{@code latency.queue} - from receiving a value to encoding it in a report</li>
+ * <li>{@code latency.encode} - encoding a report, or a chunk of it</li>
+ * <li>{@code latency.network} - sending a report or chunk until InfluxDB acknowledged it</li>
+ * <li>{@code latency.broker} - from the broker receiving a value to the acknowledgment of InfluxDB</li>
+ * <li>{@code latency.source} - from the Sparkplug timestamp of a value to the acknowledgment of InfluxDB</li>
+ * </ul>
+ * {@link #rollLatencies()} completes the interval, it is called by the reporter before every report.
+ * <p>
+ * The gauge {@code report.interval} is the current reporting interval in milliseconds, which the reporter widens while
+ * InfluxDB can't keep up.
+ * <p>
+ * To find the publishers causing the most load, the heaviest edge nodes, devices and metrics by bytes and metric
+ * updates are tracked in {@link HeavyHitters}, which the reporter exports and resets with every report.
+ */
+public class PipelineMetrics {
+
+    public static final @NotNull String PREFIX = "com.hivemq.extensions.sparkplug";
+    public static final int TOP_N_DEFAULT = 10;
+
+    private final @NotNull MetricRegistry registry;
+    private final @NotNull Counter messagesSeen;
+    private final @NotNull Map<MessageType, Counter> messagesPerType = new EnumMap<>(MessageType.class);
+    private final @NotNull Counter decodeCount;
+    private final @NotNull Counter decodeNanos;
+    private final @NotNull Counter metricsDecoded;
+    private final @NotNull Counter unknownAliases;
+    private final @NotNull Counter parseErrors;
+    private final @NotNull Counter schemaChanges;
+    private final @NotNull Counter pointsProduced;
+    private final @NotNull Counter bytesEncoded;
+    private final @NotNull Counter bytesSent;
+    private final @NotNull Counter sendCount;
+    private final @NotNull Counter sendNanos;
+    private final @NotNull Counter sendFailures;
+    private final @NotNull Counter udpDatagramsSent;
+    private final @NotNull Counter udpDatagramsDropped;
+    private final @NotNull Counter udpLinesDropped;
+    private final @NotNull Counter tcpConnects;
+    private final @NotNull Counter tcpBytesDropped;
+    private final @NotNull Counter endpointEjections;
+    private final @NotNull Counter endpointRetries;
+    private final @NotNull AtomicLong httpRequestsInFlight = new AtomicLong();
+    private final @NotNull AtomicLong httpBytesInFlight = new AtomicLong();
+    private volatile int httpWindow;
+    private volatile long reportIntervalMillis;
+
+    private final @NotNull IntervalReservoir @NotNull [] latencyReservoirs = new IntervalReservoir[5];
+    private final @NotNull Timer queueLatency;
+    private final @NotNull Timer encodeLatency;
+    private final @NotNull Timer networkLatency;
+    private final @NotNull Timer brokerLatency;
+    private final @NotNull Timer sourceLatency;
+
+    private final @NotNull Map<String, HeavyHitters> heavyHitters = new LinkedHashMap<>();
+    private final @NotNull HeavyHitters topEdgeNodeBytes;
+    private final @NotNull HeavyHitters topEdgeNodeUpdates;
+    private final @NotNull HeavyHitters topDeviceBytes;
+    private final @NotNull HeavyHitters topDeviceUpdates;
+    private final @NotNull HeavyHitters topMetricUpdates;
+
+    public PipelineMetrics(final @NotNull MetricRegistry registry) {
+        this(registry, TOP_N_DEFAULT);
+    }
+
+    /**
+     * @param registry the registry to register the metrics with
+     * @param topN     the number of heaviest edge nodes, devices and metrics to track
+     */
+    public PipelineMetrics(final @NotNull MetricRegistry registry, final int topN) {
+        this.registry = registry;
+        messagesSeen = registry.counter(PREFIX + ".messages.seen");
+        for (final var messageType : MessageType.values()) {
+            messagesPerType.put(messageType, registry.counter(PREFIX + ".messages." + messageType));
+        }
+        decodeCount = registry.counter(PREFIX + ".decode.count");
+        decodeNanos = registry.counter(PREFIX + ".decode.nanos");
+        metricsDecoded = registry.counter(PREFIX + ".decode.metrics");
+        unknownAliases = registry.counter(PREFIX + ".aliases.unknown");
+        parseErrors = registry.counter(PREFIX + ".decode.errors");
+        schemaChanges = registry.counter(PREFIX + ".schema.changes");
+        pointsProduced = registry.counter(PREFIX + ".points.produced");
+        bytesEncoded = registry.counter(PREFIX + ".bytes.encoded");
+        bytesSent = registry.counter(PREFIX + ".bytes.sent");
+        sendCount = registry.counter(PREFIX + ".send.count");
+        sendNanos = registry.counter(PREFIX + ".send.nanos");
+        sendFailures = registry.counter(PREFIX + ".send.failures");
+        udpDatagramsSent = registry.counter(PREFIX + ".udp.datagrams.sent");
+        udpDatagramsDropped = registry.counter(PREFIX + ".udp.datagrams.dropped");
+        udpLinesDropped = registry.counter(PREFIX + ".udp.lines.dropped");
+        tcpConnects = registry.counter(PREFIX + ".tcp.connects");
+        tcpBytesDropped = registry.counter(PREFIX + ".tcp.bytes.dropped");
+        endpointEjections = registry.counter(PREFIX + ".endpoint.ejections");
+        endpointRetries = registry.counter(PREFIX + ".endpoint.retries");
+        registerGauge(registry, "report.interval", () -> reportIntervalMillis);
+        registerGauge(registry, "http.window", () -> httpWindow);
+        registerGauge(registry, "http.inflight.requests", httpRequestsInFlight::get);
+        registerGauge(registry, "http.inflight.bytes", httpBytesInFlight::get);
+        queueLatency = registerLatency(registry, 0, "queue");
+        encodeLatency = registerLatency(registry, 1, "encode");
+        networkLatency = registerLatency(registry, 2, "network");
+        brokerLatency = registerLatency(registry, 3, "broker");
+        sourceLatency = registerLatency(registry, 4, "source");
+        topEdgeNodeBytes = heavyHitters("top.edgenodes.bytes", topN);
+        topEdgeNodeUpdates = heavyHitters("top.edgenodes.updates", topN);
+        topDeviceBytes = heavyHitters("top.devices.bytes", topN);
+        topDeviceUpdates = heavyHitters("top.devices.updates", topN);
+        topMetricUpdates = heavyHitters("top.metrics.updates", topN);
+    }
+
+    private @NotNull HeavyHitters heavyHitters(final @NotNull String name, final int topN) {
+        final var tracker = new HeavyHitters(topN);
+        heavyHitters.put(PREFIX + "." + name, tracker);
+        return tracker;
+    }
+
+    private @NotNull Timer registerLatency(
+            final @NotNull MetricRegistry registry,
+            final int index,
+            final @NotNull String stage) {
+        final var name = PREFIX + ".latency." + stage;
+        latencyReservoirs[index] = new IntervalReservoir();
+        // replace a timer of a previous start of the extension, which would not be rolled
+        registry.remove(name);
+        return registry.register(name, new Timer(latencyReservoirs[index]));
+    }
+
+    private static <T> void registerGauge(
+            final @NotNull MetricRegistry registry,
+            final @NotNull String name,
+            final @NotNull Gauge<T> gauge) {
+        // replace the gauge of a previous start of the extension, which would report stale values
+        registry.remove(PREFIX + "." + name);
+        registry.register(PREFIX + "." + name, gauge);
+    }
+
+    /**
+     * Records an intercepted publish, Sparkplug or not.
+     */
+    public void messageSeen() {
+        messagesSeen.inc();
+    }
+
+    /**
+     * Records a publish on a valid Sparkplug topic.
+     *
+     * @param messageType the message type of the topic
+     */
+    public void message(final @NotNull MessageType messageType) {
+        messagesPerType.get(messageType).inc();
+    }
+
+    /**
+     * Records a successfully decoded Sparkplug payload.
+     *
+     * @param nanos       the time it took to decode the payload
+     * @param metricCount the number of metrics in the payload
+     */
+    public void decoded(final long nanos, final int metricCount) {
+        decodeCount.inc();
+        decodeNanos.inc(nanos);
+        metricsDecoded.inc(metricCount);
+    }
+
+    /**
+     * Records a payload that is not a valid Sparkplug protobuf payload.
+     */
+    public void parseError() {
+        parseErrors.inc();
+    }
+
+    /**
+     * Records a DATA metric without name whose alias was not announced by a BIRTH message.
+     */
+    public void unknownAlias() {
+        unknownAliases.inc();
+    }
+
+    /**
+     * Records a Sparkplug data metric which was received with another type than before.
+     */
+    public void schemaChanged() {
+        schemaChanges.inc();
+    }
+
+    /**
+     * Records the encoded points of a report.
+     *
+     * @param points the number of encoded points
+     * @param bytes  the size of the encoded points
+     */
+    public void encoded(final long points, final long bytes) {
+        pointsProduced.inc(points);
+        bytesEncoded.inc(bytes);
+    }
+
+    /**
+     * Records a successful write to InfluxDB.
+     *
+     * @param nanos the time it took to send the data
+     * @param bytes the number of sent bytes
+     */
+    public void sent(final long nanos, final long bytes) {
+        sendCount.inc();
+        sendNanos.inc(nanos);
+        bytesSent.inc(bytes);
+    }
+
+    /**
+     * Records the traffic of a Sparkplug message of an edge node or device.
+     *
+     * @param group       the Sparkplug group
+     * @param edgeNode    the edge node
+     * @param device      the device, or {@code null} for messages of the edge node
+     * @param bytes       the size of the payload
+     * @param metricCount the number of metrics in the payload
+     */
+    public void traffic(
+            final @NotNull String group,
+            final @NotNull String edgeNode,
+            final @Nullable String device,
+            final int bytes,
+            final int metricCount) {
+        topEdgeNodeBytes.add(group, edgeNode, null, null, bytes);
+        topEdgeNodeUpdates.add(group, edgeNode, null, null, metricCount);
+        if (device != null) {
+            topDeviceBytes.add(group, edgeNode, device, null, bytes);
+            topDeviceUpdates.add(group, edgeNode, device, null, metricCount);
+        }
+    }
+
+    /**
+     * Records an update of a Sparkplug data metric.
+     *
+     * @param group    the Sparkplug group
+     * @param edgeNode the edge node
+     * @param device   the device, or {@code null} for metrics of the edge node
+     * @param metric   the name of the metric
+     */
+    public void metricUpdated(
+            final @NotNull String group,
+            final @NotNull String edgeNode,
+            final @Nullable String device,
+            final @NotNull String metric) {
+        topMetricUpdates.add(group, edgeNode, device, metric, 1);
+    }
+
+    /**
+     * @return the heavy hitter trackers, keyed by their measurement name
+     */
+    public @NotNull Map<String, HeavyHitters> getHeavyHitters() {
+        return heavyHitters;
+    }
+
+    /**
+     * Records a failed write to InfluxDB.
+     */
+    public void sendFailed() {
+        sendFailures.inc();
+    }
+
+    /**
+     * Records a datagram sent to the UDP listener of InfluxDB.
+     */
+    public void udpDatagramSent() {
+        udpDatagramsSent.inc();
+    }
+
+    /**
+     * Records a datagram which could not be sent to the UDP listener of InfluxDB.
+     */
+    public void udpDatagramDropped() {
+        udpDatagramsDropped.inc();
+    }
+
+    /**
+     * Records a line which was not sent, as it does not fit into a datagram.
+     */
+    public void udpLineDropped() {
+        udpLinesDropped.inc();
+    }
+
+    /**
+     * Records an established connection to the TCP listener of InfluxDB.
+     */
+    public void tcpConnected() {
+        tcpConnects.inc();
+    }
+
+    /**
+     * Records data which was not sent, as the buffer of the TCP sender was full.
+     *
+     * @param bytes the number of dropped bytes
+     */
+    public void tcpBytesDropped(final long bytes) {
+        tcpBytesDropped.inc(bytes);
+    }
+
+    /**
+     * Records an InfluxDB endpoint which was ejected from the load balancing after failed writes.
+     */
+    public void endpointEjected() {
+        endpointEjections.inc();
+    }
+
+    /**
+     * Records a failed write which was retried on another InfluxDB endpoint.
+     */
+    public void endpointRetried() {
+        endpointRetries.inc();
+    }
+
+    /**
+     * Registers the metrics of a named sink, which has its own queue of chunks to write.
+     *
+     * @param  sink        the name of the sink
+     * @param  queuedBytes the number of bytes queued or in flight for the sink
+     * @return             the metrics to record the writes of the sink in
+     */
+    public @NotNull SinkMetrics sinkRegistered(final @NotNull String sink, final @NotNull Gauge<Long> queuedBytes) {
+        registerGauge(registry, "sink." + sink + ".queued.bytes", queuedBytes);
+        return new SinkMetrics(registry, PREFIX + ".sink." + sink);
+    }
+
+    /**
+     * Records the number of write requests the HTTP sender keeps in flight at most.
+     *
+     * @param size the size of the window
+     */
+    public void httpWindow(final int size) {
+        httpWindow = size;
+    }
+
+    /**
+     * Records a write request sent to InfluxDB, which is in flight until it is completed.
+     *
+     * @param bytes the size of the request body
+     */
+    public void httpRequestStarted(final long bytes) {
+        httpRequestsInFlight.incrementAndGet();
+        httpBytesInFlight.addAndGet(bytes);
+    }
+
+    /**
+     * Records a write request which was answered by InfluxDB or failed.
+     *
+     * @param bytes the size of the request body
+     */
+    public void httpRequestCompleted(final long bytes) {
+        httpRequestsInFlight.decrementAndGet();
+        httpBytesInFlight.addAndGet(-bytes);
+    }
+
+    /**
+     * Records the current reporting interval.
+     *
+     * @param millis the interval in milliseconds
+     */
+    public void reportInterval(final long millis) {
+        reportIntervalMillis = millis;
+    }
+
+    /**
+     * Completes the current interval of all latencies, so the next report exports the latencies recorded since the
+     * previous call.
+     */
+    public void rollLatencies() {
+        for (final var reservoir : latencyReservoirs) {
+            reservoir.roll();
+        }
+    }
+
+    /**
+     * Records how long a value waited in its gauge until it was encoded.
+     *
+     * @param nanos the time between receiving and encoding the value
+     */
+    public void queueLatency(final long nanos) {
+        queueLatency.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param nanos the time it took to encode a report
+     */
+    public void encodeLatency(final long nanos) {
+        encodeLatency.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param nanos the time between starting to send a report and the acknowledgment of InfluxDB
+     */
+    public void networkLatency(final long nanos) {
+        networkLatency.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param millis the time between the broker receiving a value and the acknowledgment of InfluxDB
+     */
+    public void brokerLatency(final long millis) {
+        brokerLatency.update(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param millis the time between the Sparkplug timestamp of a value and the acknowledgment of InfluxDB
+     */
+    public void sourceLatency(final long millis) {
+        sourceLatency.update(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The counters of a named sink, which are looked up once when the sink is registered.
+     */
+    public static class SinkMetrics {
+
+        private final @NotNull Counter bytesSent;
+        private final @NotNull Counter failures;
+        private final @NotNull Counter bytesDropped;
+
+        private SinkMetrics(final @NotNull MetricRegistry registry, final @NotNull String prefix) {
+            bytesSent = registry.counter(prefix + ".bytes.sent");
+            failures = registry.counter(prefix + ".failures");
+            bytesDropped = registry.counter(prefix + ".bytes.dropped");
+        }
+
+        /**
+         * Records a chunk written to the sink.
+         *
+         * @param bytes the size of the chunk
+         */
+        public void sent(final long bytes) {
+            bytesSent.inc(bytes);
+        }
+
+        /**
+         * Records a failed write to the sink, which is retried or dropped.
+         */
+        public void failed() {
+            failures.inc();
+        }
+
+        /**
+         * Records a chunk which was not written to the sink, as its queue was full or all attempts failed.
+         *
+         * @param bytes the size of the chunk
+         */
+        public void dropped(final long bytes) {
+            bytesDropped.inc(bytes);
+        }
+    }
+}
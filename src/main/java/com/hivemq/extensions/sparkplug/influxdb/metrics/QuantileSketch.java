@@ -0,0 +1,272 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * A mergeable quantile sketch with a relative error of 1 %, following DDSketch.
+ * <p>
+ * Values are counted in logarithmic bins: bin {@code i} counts the values in {@code (gamma^(i-1), gamma^i]} with
+ * {@code gamma = 1.01 / 0.99}, so any value returned for a quantile is within 1 % of an actual value of that rank.
+ * Positive and negative values are counted in separate stores, values close to zero in a single counter.
+ * <p>
+ * The memory is bounded by {@value #MAX_BINS} bins per store, which cover values spanning 8 orders of magnitude.
+ * If the values span more, the lowest bins are collapsed, which only affects the accuracy of the lowest quantiles.
+ * Recording a value is a logarithm and an increment, the bins are only reallocated if the range of the values grows.
+ * <p>
+ * The sketch is synchronized, as the values of a series are usually recorded by a single thread at a time, the locks
+ * are uncontended.
+ */
+public class QuantileSketch {
+
+    static final double RELATIVE_ACCURACY = 0.01;
+    static final int MAX_BINS = 1024;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    // values below are counted as zero, so the bin indices stay far from overflowing
+    private static final double MIN_INDEXABLE = 1e-300;
+
+    private final @NotNull Store positive = new Store();
+    private final @NotNull Store negative = new Store();
+    private long zeroCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param value the value to record, {@code NaN} is ignored
+     */
+    public synchronized void record(final double value) {
+        if (value > MIN_INDEXABLE) {
+            positive.add(index(value), 1);
+        } else if (value < -MIN_INDEXABLE) {
+            negative.add(index(-value), 1);
+        } else if (value == value) {
+            zeroCount++;
+        } else {
+            return;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds all values of another sketch to this sketch.
+     *
+     * @param other the sketch to merge
+     */
+    public void merge(final @NotNull QuantileSketch other) {
+        // locks in the order of the identity hash codes, so merging two sketches into each other can't dead lock
+        final var first = System.identityHashCode(this) <= System.identityHashCode(other) ? this : other;
+        synchronized (first) {
+            synchronized (first == this ? other : this) {
+                positive.merge(other.positive);
+                negative.merge(other.negative);
+                zeroCount += other.zeroCount;
+                count += other.count;
+                min = Math.min(min, other.min);
+                max = Math.max(max, other.max);
+            }
+        }
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @param  quantile the quantile between {@code 0} and {@code 1}
+     * @return          the value of the quantile, or {@code NaN} if no values were recorded. The quantiles {@code 0}
+     *                  and {@code 1} are the exact minimum and maximum.
+     */
+    public synchronized double getValue(final double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (quantile <= 0) {
+            return min;
+        }
+        if (quantile >= 1) {
+            return max;
+        }
+        final var rank = (long) (quantile * (count - 1));
+        double value;
+        if (rank < negative.count) {
+            // the largest index of the negative store holds the smallest values
+            value = -value(negative.indexOfRank(negative.count - 1 - rank));
+        } else if (rank < negative.count + zeroCount) {
+            value = 0;
+        } else {
+            value = value(positive.indexOfRank(rank - negative.count - zeroCount));
+        }
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * Reads the given quantiles and resets the sketch, so the next values start a new interval.
+     *
+     * @param  quantiles the quantiles to read
+     * @param  values    the array receiving the values of the quantiles
+     * @return           the number of values the quantiles were read from, or {@code 0} if no values were recorded,
+     *                   in which case {@code values} is not changed
+     */
+    public synchronized long roll(final double @NotNull [] quantiles, final double @NotNull [] values) {
+        final var intervalCount = count;
+        if (intervalCount > 0) {
+            for (var i = 0; i < quantiles.length; i++) {
+                values[i] = getValue(quantiles[i]);
+            }
+            reset();
+        }
+        return intervalCount;
+    }
+
+    /**
+     * Removes all values, the bins are kept to be reused.
+     */
+    public synchronized void reset() {
+        positive.reset();
+        negative.reset();
+        zeroCount = 0;
+        count = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    static int index(final double value) {
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    static double value(final int index) {
+        // the value in the middle of the bin (gamma^(index-1), gamma^index] with respect to the relative error
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /**
+     * The counts of contiguous bins, of which at most {@link #MAX_BINS} are used.
+     */
+    private static final class Store {
+
+        private long @NotNull [] counts = new long[0];
+        // counts[i] is the count of bin offset + i
+        private int offset;
+        private int minIndex = Integer.MAX_VALUE;
+        private int maxIndex = Integer.MIN_VALUE;
+        private long count;
+
+        void add(final int index, final long binCount) {
+            var bin = index;
+            if (bin < minIndex || bin > maxIndex) {
+                bin = extend(bin);
+            }
+            counts[bin - offset] += binCount;
+            count += binCount;
+        }
+
+        void merge(final @NotNull Store other) {
+            for (var index = other.minIndex; index <= other.maxIndex; index++) {
+                final var binCount = other.counts[index - other.offset];
+                if (binCount > 0) {
+                    add(index, binCount);
+                }
+            }
+        }
+
+        int indexOfRank(final long rank) {
+            var cumulated = 0L;
+            for (var index = minIndex; index <= maxIndex; index++) {
+                cumulated += counts[index - offset];
+                if (cumulated > rank) {
+                    return index;
+                }
+            }
+            return maxIndex;
+        }
+
+        void reset() {
+            if (minIndex <= maxIndex) {
+                Arrays.fill(counts, minIndex - offset, maxIndex - offset + 1, 0);
+            }
+            minIndex = Integer.MAX_VALUE;
+            maxIndex = Integer.MIN_VALUE;
+            count = 0;
+        }
+
+        /**
+         * Extends the range of used bins to the given index and collapses the lowest bins if the range gets too
+         * large.
+         *
+         * @return the index of the bin to count the value in
+         */
+        private int extend(final int index) {
+            final var empty = minIndex > maxIndex;
+            var bin = index;
+            var newMin = empty ? index : Math.min(minIndex, index);
+            final var newMax = empty ? index : Math.max(maxIndex, index);
+            var collapsed = 0L;
+            if (newMax - newMin >= MAX_BINS) {
+                newMin = newMax - MAX_BINS + 1;
+                if (index < minIndex) {
+                    bin = newMin;
+                } else {
+                    // collapse the lowest bins into the new lowest bin
+                    for (var i = minIndex; i < newMin && i <= maxIndex; i++) {
+                        collapsed += counts[i - offset];
+                        counts[i - offset] = 0;
+                    }
+                    if (newMin <= maxIndex) {
+                        minIndex = newMin;
+                    } else {
+                        // all used bins are collapsed, so none need to be kept
+                        minIndex = Integer.MAX_VALUE;
+                        maxIndex = Integer.MIN_VALUE;
+                    }
+                }
+            }
+            ensureCapacity(newMin, newMax);
+            counts[newMin - offset] += collapsed;
+            minIndex = newMin;
+            maxIndex = newMax;
+            return bin;
+        }
+
+        private void ensureCapacity(final int newMin, final int newMax) {
+            if (newMin >= offset && newMax < offset + counts.length) {
+                return;
+            }
+            final var needed = newMax - newMin + 1;
+            final var size = Math.min(MAX_BINS, Math.max(32, needed * 2));
+            final var newOffset = newMin - (size - needed) / 2;
+            final var newCounts = new long[size];
+            if (minIndex <= maxIndex) {
+                for (var index = Math.max(minIndex, newMin); index <= Math.min(maxIndex, newMax); index++) {
+                    newCounts[index - newOffset] = counts[index - offset];
+                }
+            }
+            counts = newCounts;
+            offset = newOffset;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Assigns Sparkplug edge nodes to routes by their group and edge node ID, e.g. to write the data of every plant to its
+ * own InfluxDB database or bucket.
+ * <p>
+ * A pattern is a group ID, optionally followed by {@code /} and an edge node ID, e.g. {@code Berlin} or
+ * {@code Berlin/Line1}. A {@code *} matches any characters within the group or edge node ID, e.g. {@code Plant*} or
+ * {@code Berlin/Line*}. The first route with a matching pattern wins, edge nodes matching no pattern take the
+ * {@link #DEFAULT_ROUTE default route}.
+ * <p>
+ * All patterns are compiled once: patterns without a {@code *} are looked up in maps, all others are combined into a
+ * single regular expression with one capturing group per route. The {@link MetricsHolder} matches an edge node or
+ * device when it is added, so routing costs nothing per message.
+ */
+public class RouteMatcher {
+
+    /**
+     * The route of the edge nodes which match no pattern, and of all metrics other than the Sparkplug data metrics.
+     */
+    public static final int DEFAULT_ROUTE = 0;
+
+    static final @NotNull RouteMatcher NONE = new RouteMatcher(List.of());
+
+    private final @NotNull Map<String, Integer> groups = new HashMap<>();
+    private final @NotNull Map<String, Integer> edgeNodes = new HashMap<>();
+    private final @Nullable Pattern pattern;
+    // the route of every capturing group of the pattern
+    private final int @NotNull [] patternRoutes;
+    private final int size;
+
+    /**
+     * @param routes the patterns of the routes, the patterns at index {@code i} are the ones of route {@code i + 1}
+     */
+    public RouteMatcher(final @NotNull List<List<String>> routes) {
+        final var alternatives = new ArrayList<String>();
+        final var patternRoutes = new ArrayList<Integer>();
+        for (var i = 0; i < routes.size(); i++) {
+            final var route = i + 1;
+            for (final var routePattern : routes.get(i)) {
+                final var separator = routePattern.indexOf('/');
+                final var group = separator < 0 ? routePattern : routePattern.substring(0, separator);
+                final var edgeNode = separator < 0 ? "*" : routePattern.substring(separator + 1);
+                if (group.contains("*") || (edgeNode.contains("*") && !edgeNode.equals("*"))) {
+                    alternatives.add("(" + toRegex(group) + "/" + toRegex(edgeNode) + ")");
+                    patternRoutes.add(route);
+                } else if (edgeNode.equals("*")) {
+                    groups.putIfAbsent(group, route);
+                } else {
+                    edgeNodes.putIfAbsent(group + "/" + edgeNode, route);
+                }
+            }
+        }
+        pattern = alternatives.isEmpty() ? null : Pattern.compile(String.join("|", alternatives));
+        this.patternRoutes = patternRoutes.stream().mapToInt(Integer::intValue).toArray();
+        size = routes.size() + 1;
+    }
+
+    /**
+     * @return the number of routes including the default route
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param  groupId the Sparkplug group ID
+     * @param  eonId   the Sparkplug edge node ID
+     * @return         the first route with a pattern matching the edge node, or {@link #DEFAULT_ROUTE}
+     */
+    public int route(final @NotNull String groupId, final @NotNull String eonId) {
+        var route = Integer.MAX_VALUE;
+        final var group = groups.get(groupId);
+        if (group != null) {
+            route = group;
+        }
+        final var edgeNode = edgeNodes.get(groupId + "/" + eonId);
+        if (edgeNode != null) {
+            route = Math.min(route, edgeNode);
+        }
+        if (pattern != null) {
+            final var matcher = pattern.matcher(groupId + "/" + eonId);
+            if (matcher.matches()) {
+                // the alternatives are tried in order, so the first matching one belongs to the first route
+                for (var i = 0; i < patternRoutes.length; i++) {
+                    if (matcher.start(i + 1) >= 0) {
+                        route = Math.min(route, patternRoutes[i]);
+                        break;
+                    }
+                }
+            }
+        }
+        return route == Integer.MAX_VALUE ? DEFAULT_ROUTE : route;
+    }
+
+    private static @NotNull String toRegex(final @NotNull String pattern) {
+        final var regex = new StringBuilder();
+        var start = 0;
+        for (var star = pattern.indexOf('*'); star >= 0; star = pattern.indexOf('*', start)) {
+            if (star > start) {
+                regex.append(Pattern.quote(pattern.substring(start, star)));
+            }
+            regex.append("[^/]*");
+            start = star + 1;
+        }
+        if (start < pattern.length()) {
+            regex.append(Pattern.quote(pattern.substring(start)));
+        }
+        return regex.toString();
+    }
+}
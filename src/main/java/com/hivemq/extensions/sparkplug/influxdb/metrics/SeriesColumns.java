@@ -0,0 +1,252 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Off-heap columns holding the state of the Sparkplug series: the current value and its {@link ValueType type}, the
+ * times it was received and whether it was updated since the last report.
+ * <p>
+ * The columns are indexed by the handle of the series and stored in direct buffers of {@code 2^segmentShift} series
+ * each, so growing never copies existing values and the state of millions of series adds neither objects nor heap for
+ * the garbage collector to trace. Within a segment every column is contiguous, so the reporter reads e.g. all values
+ * sequentially. The type tags are stored as ints and the dirty bits are packed into 64 bit words. A summary word per
+ * segment marks its dirty words, so {@link #drainDirty(int, DirtySeries) draining} skips segments without updates and
+ * its cost is proportional to the number of updated series.
+ * <p>
+ * All values are read and written with volatile semantics. Segments are only added, the capacity must be ensured
+ * before a handle is used.
+ */
+public class SeriesColumns {
+
+    static final int SEGMENT_SHIFT = 10;
+
+    private static final @NotNull VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final @NotNull VarHandle INTS =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final int VALUE = 0;
+    private static final int RECEIVED = 1;
+    private static final int BROKER_TIMESTAMP = 2;
+    private static final int SOURCE_TIMESTAMP = 3;
+    private static final int TYPE = 4;
+
+    private final int segmentShift;
+    private final int segmentMask;
+    private final int columnBytes;
+    private final int dirtyOffset;
+    private final int summaryOffset;
+    private final int segmentBytes;
+    private volatile @NotNull ByteBuffer @NotNull [] segments = new ByteBuffer[0];
+
+    SeriesColumns() {
+        this(SEGMENT_SHIFT);
+    }
+
+    /**
+     * @param segmentShift the number of series per segment as a power of two
+     */
+    SeriesColumns(final int segmentShift) {
+        this.segmentShift = segmentShift;
+        segmentMask = (1 << segmentShift) - 1;
+        columnBytes = Long.BYTES << segmentShift;
+        // padded, so the dirty words stay aligned
+        final var typeBytes = Math.max(Long.BYTES, Integer.BYTES << segmentShift);
+        final var dirtyBytes = Long.BYTES * Math.max(1, (1 << segmentShift) >>> 6);
+        dirtyOffset = TYPE * columnBytes + typeBytes;
+        summaryOffset = dirtyOffset + dirtyBytes;
+        segmentBytes = summaryOffset + Long.BYTES;
+    }
+
+    /**
+     * Adds segments until the columns hold at least the given number of series.
+     */
+    synchronized void ensureCapacity(final int seriesCount) {
+        final var required = (seriesCount + segmentMask) >>> segmentShift;
+        var segments = this.segments;
+        if (segments.length >= required) {
+            return;
+        }
+        final var length = segments.length;
+        segments = Arrays.copyOf(segments, required);
+        for (var i = length; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentBytes).order(ByteOrder.nativeOrder());
+        }
+        this.segments = segments;
+    }
+
+    /**
+     * @return the number of off-heap bytes allocated for the columns
+     */
+    public long getAllocatedBytes() {
+        return (long) segments.length * segmentBytes;
+    }
+
+    public long getValueBits(final int handle) {
+        return get(handle, VALUE);
+    }
+
+    void setValueBits(final int handle, final long valueBits) {
+        set(handle, VALUE, valueBits);
+    }
+
+    /**
+     * @return the type of the current value, which determines how its bits are interpreted
+     */
+    public @NotNull ValueType getType(final int handle) {
+        return ValueType.of((int) INTS.getVolatile(segments[handle >>> segmentShift],
+                TYPE * columnBytes + ((handle & segmentMask) << 2)));
+    }
+
+    void setType(final int handle, final @NotNull ValueType type) {
+        INTS.setVolatile(segments[handle >>> segmentShift],
+                TYPE * columnBytes + ((handle & segmentMask) << 2),
+                type.getTag());
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} when the current value was received, or {@code 0} if it was never stamped
+     */
+    public long getReceivedNanos(final int handle) {
+        return get(handle, RECEIVED);
+    }
+
+    /**
+     * @return the time in milliseconds since epoch when the broker received the current value, or {@code 0}
+     */
+    public long getBrokerTimestamp(final int handle) {
+        return get(handle, BROKER_TIMESTAMP);
+    }
+
+    /**
+     * @return the time in milliseconds since epoch of the Sparkplug metric or payload of the current value, or
+     *         {@code 0}
+     */
+    public long getSourceTimestamp(final int handle) {
+        return get(handle, SOURCE_TIMESTAMP);
+    }
+
+    /**
+     * Stamps the current value with the times it was received and marks it as updated.
+     */
+    void received(
+            final int handle,
+            final long receivedNanos,
+            final long brokerTimestamp,
+            final long sourceTimestamp) {
+        final var segment = segments[handle >>> segmentShift];
+        final var offset = (handle & segmentMask) << 3;
+        LONGS.setVolatile(segment, BROKER_TIMESTAMP * columnBytes + offset, brokerTimestamp);
+        LONGS.setVolatile(segment, SOURCE_TIMESTAMP * columnBytes + offset, sourceTimestamp);
+        LONGS.setVolatile(segment, RECEIVED * columnBytes + offset, receivedNanos);
+        final var wordOffset = dirtyWordOffset(handle);
+        final var bit = 1L << handle;
+        // most updates hit an already dirty series, which must not contend for the word
+        if (((long) LONGS.getVolatile(segment, wordOffset) & bit) == 0) {
+            LONGS.getAndBitwiseOr(segment, wordOffset, bit);
+            final var summaryBit = 1L << ((handle & segmentMask) >>> 6);
+            if (((long) LONGS.getVolatile(segment, summaryOffset) & summaryBit) == 0) {
+                LONGS.getAndBitwiseOr(segment, summaryOffset, summaryBit);
+            }
+        }
+    }
+
+    /**
+     * Clears the dirty bits of all series with a handle lower than the given count and collects them. The dirty bits of
+     * series added concurrently are kept for the next drain.
+     *
+     * @param seriesCount the number of series to drain
+     * @param dirty       the set to collect the updated series in, which is cleared first
+     */
+    public void drainDirty(final int seriesCount, final @NotNull DirtySeries dirty) {
+        dirty.clear();
+        final var segments = this.segments;
+        final var segmentCount = Math.min(segments.length, (seriesCount + segmentMask) >>> segmentShift);
+        for (var s = 0; s < segmentCount; s++) {
+            final var segment = segments[s];
+            if ((long) LONGS.getVolatile(segment, summaryOffset) == 0) {
+                continue;
+            }
+            var summary = (long) LONGS.getAndSet(segment, summaryOffset, 0L);
+            while (summary != 0) {
+                final var word = Long.numberOfTrailingZeros(summary);
+                summary &= summary - 1;
+                final var firstHandle = (s << segmentShift) + (word << 6);
+                final var remaining = seriesCount - firstHandle;
+                if (remaining <= 0) {
+                    LONGS.getAndBitwiseOr(segment, summaryOffset, 1L << word);
+                    continue;
+                }
+                final var mask = remaining >= 64 ? -1L : (1L << remaining) - 1;
+                final var wordOffset = dirtyOffset + (word << 3);
+                final var bits = (long) LONGS.getAndBitwiseAnd(segment, wordOffset, ~mask);
+                if ((bits & ~mask) != 0) {
+                    LONGS.getAndBitwiseOr(segment, summaryOffset, 1L << word);
+                }
+                if ((bits & mask) != 0) {
+                    dirty.add(firstHandle, bits & mask);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the value of the series was updated since it was last marked as reported
+     */
+    public boolean isDirty(final int handle) {
+        final var segment = segments[handle >>> segmentShift];
+        return ((long) LONGS.getVolatile(segment, dirtyWordOffset(handle)) & (1L << handle)) != 0;
+    }
+
+    /**
+     * Clears the dirty bit of the series.
+     *
+     * @return {@code true} if the value of the series was updated since it was last marked as reported
+     */
+    public boolean markReported(final int handle) {
+        final var segment = segments[handle >>> segmentShift];
+        final var bit = 1L << handle;
+        final var wordOffset = dirtyWordOffset(handle);
+        if (((long) LONGS.getVolatile(segment, wordOffset) & bit) == 0) {
+            return false;
+        }
+        return ((long) LONGS.getAndBitwiseAnd(segment, wordOffset, ~bit) & bit) != 0;
+    }
+
+    private int dirtyWordOffset(final int handle) {
+        return dirtyOffset + (((handle & segmentMask) >>> 6) << 3);
+    }
+
+    private long get(final int handle, final int column) {
+        return (long) LONGS.getVolatile(segments[handle >>> segmentShift],
+                column * columnBytes + ((handle & segmentMask) << 3));
+    }
+
+    private void set(final int handle, final int column, final long value) {
+        LONGS.setVolatile(segments[handle >>> segmentShift],
+                column * columnBytes + ((handle & segmentMask) << 3),
+                value);
+    }
+}
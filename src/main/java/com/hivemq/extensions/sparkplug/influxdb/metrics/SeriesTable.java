@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dense, index-addressed table of all Sparkplug data metrics, so the reporter can walk them without building maps.
+ * <p>
+ * Every series is addressed by its handle, which is assigned in order of registration, and every edge node or device
+ * by its index. Both are only appended, so the reporter reads the arrays up to the published count without locking.
+ * Appending is synchronized; the count is published after the array, so a reader which read the count sees all
+ * entries below it.
+ * <p>
+ * The state of the series lives in the off-heap {@link SeriesColumns} of the table, the gauges only hold their handle
+ * and their metadata. The names of the Sparkplug metrics are interned, so all devices with a metric of the same name
+ * share a single string.
+ */
+public class SeriesTable {
+
+    private volatile @Nullable DeviceMetrics @NotNull [] devices = new DeviceMetrics[16];
+    private volatile int deviceCount;
+    private volatile @Nullable SparkplugGauge<?> @NotNull [] series = new SparkplugGauge<?>[64];
+    private volatile int @NotNull [] seriesDevices = new int[64];
+    private volatile int seriesCount;
+    private final @NotNull SeriesColumns columns = new SeriesColumns();
+    private final @NotNull Map<String, String> fields = new HashMap<>();
+
+    /**
+     * @return the number of edge nodes and devices
+     */
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    /**
+     * @param  index the index of the edge node or device, lower than {@link #getDeviceCount()}
+     * @return       the data metrics of the edge node or device
+     */
+    public @NotNull DeviceMetrics getDevice(final int index) {
+        return devices[index];
+    }
+
+    /**
+     * @return the number of series, all handles are lower
+     */
+    public int getSeriesCount() {
+        return seriesCount;
+    }
+
+    /**
+     * @param  handle the handle of the series, lower than {@link #getSeriesCount()}
+     * @return        the gauge of the series
+     */
+    public @NotNull SparkplugGauge<?> getSeries(final int handle) {
+        return series[handle];
+    }
+
+    /**
+     * @param  handle the handle of the series, lower than {@link #getSeriesCount()}
+     * @return        the index of the edge node or device of the series
+     */
+    public int getDeviceIndex(final int handle) {
+        return seriesDevices[handle];
+    }
+
+    /**
+     * @return the columns holding the values, timestamps and dirty bits of all series, indexed by their handle
+     */
+    public @NotNull SeriesColumns getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the interned instance of the field name
+     */
+    synchronized @NotNull String intern(final @NotNull String field) {
+        final var interned = fields.putIfAbsent(field, field);
+        return interned != null ? interned : field;
+    }
+
+    synchronized @NotNull DeviceMetrics addDevice(
+            final @NotNull String measurement,
+            final @NotNull String group,
+            final int route) {
+        final var device = new DeviceMetrics(deviceCount, measurement, group, route);
+        var devices = this.devices;
+        if (deviceCount == devices.length) {
+            devices = Arrays.copyOf(devices, deviceCount * 2);
+        }
+        devices[deviceCount] = device;
+        this.devices = devices;
+        deviceCount++;
+        return device;
+    }
+
+    /**
+     * Adds the gauge, which must have been created for the columns of the table with the next handle, i.e.
+     * {@link #getSeriesCount()}. Must be called before the gauge is updated for the first time.
+     *
+     * @param gauge  the gauge of the series
+     * @param device the edge node or device of the series, which was added to the table
+     */
+    synchronized void addSeries(final @NotNull SparkplugGauge<?> gauge, final @NotNull DeviceMetrics device) {
+        if (gauge.getHandle() != seriesCount) {
+            throw new IllegalArgumentException(
+                    "Expected handle " + seriesCount + " but gauge has handle " + gauge.getHandle());
+        }
+        columns.ensureCapacity(seriesCount + 1);
+        columns.setType(seriesCount, gauge.getType());
+        var series = this.series;
+        var seriesDevices = this.seriesDevices;
+        if (seriesCount == series.length) {
+            series = Arrays.copyOf(series, seriesCount * 2);
+            seriesDevices = Arrays.copyOf(seriesDevices, seriesCount * 2);
+        }
+        series[seriesCount] = gauge;
+        seriesDevices[seriesCount] = device.getIndex();
+        this.series = series;
+        this.seriesDevices = seriesDevices;
+        seriesCount++;
+    }
+
+    /**
+     * Replaces the gauge of a series with a gauge of another type for the same handle. The current value is converted
+     * to the new type, so a report before the next value is set does not misread its bits.
+     */
+    synchronized void replaceSeries(final @NotNull SparkplugGauge<?> gauge) {
+        final var handle = gauge.getHandle();
+        if (handle < 0 || handle >= seriesCount) {
+            throw new IllegalArgumentException("Unknown handle " + handle);
+        }
+        // converted before the type is published, the reporter reads the value bits with the published type
+        final var previousType = columns.getType(handle);
+        columns.setValueBits(handle, previousType.convert(columns.getValueBits(handle), gauge.getType()));
+        columns.setType(handle, gauge.getType());
+        final var series = this.series;
+        series[handle] = gauge;
+        // publishes the replaced entry
+        this.series = series;
+    }
+}
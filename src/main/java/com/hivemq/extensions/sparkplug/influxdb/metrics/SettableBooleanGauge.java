@@ -17,19 +17,28 @@
 package com.hivemq.extensions.sparkplug.influxdb.metrics;
 
 import com.codahale.metrics.Gauge;
-import com.codahale.metrics.Metric;
 import org.jetbrains.annotations.NotNull;
 
-public class SettableBooleanGauge implements Metric, Gauge<Boolean> {
+public class SettableBooleanGauge extends SparkplugGauge<Boolean> {
 
-    private volatile boolean value = false;
+    public SettableBooleanGauge() {
+    }
+
+    SettableBooleanGauge(final @NotNull SeriesColumns columns, final int handle) {
+        super(columns, handle);
+    }
+
+    @Override
+    public @NotNull ValueType getType() {
+        return ValueType.BOOLEAN;
+    }
 
     public @NotNull Boolean getValue() {
-        return value;
+        return getValueBits() != 0;
     }
 
     public @NotNull SettableBooleanGauge setValue(final boolean value) {
-        this.value = value;
+        setValueBits(value ? 1 : 0);
         return this;
     }
 }
@@ -17,7 +17,6 @@
 package com.hivemq.extensions.sparkplug.influxdb.metrics;
 
 import com.codahale.metrics.Gauge;
-import com.codahale.metrics.Metric;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -38,13 +37,19 @@ import org.jetbrains.annotations.NotNull;
  * }
  *     </pre>
  */
-public class SettableDoubleGauge implements Metric, Gauge<Double> {
+public class SettableDoubleGauge extends SparkplugGauge<Double> {
 
-    /**
-     * Current value. Assignment will be atomic.
-     * <a href="http://docs.oracle.com/javase/specs/jls/se7/html/jls-17.html#jls-17.7">See 17.7</a>
-     */
-    private volatile double value;
+    public SettableDoubleGauge() {
+    }
+
+    SettableDoubleGauge(final @NotNull SeriesColumns columns, final int handle) {
+        super(columns, handle);
+    }
+
+    @Override
+    public @NotNull ValueType getType() {
+        return ValueType.DOUBLE;
+    }
 
     /**
      * The last value set by {@link #setValue(double)}}
@@ -52,7 +57,7 @@ public class SettableDoubleGauge implements Metric, Gauge<Double> {
      * @return Last set value, or zero.
      */
     public @NotNull Double getValue() {
-        return value;
+        return Double.longBitsToDouble(getValueBits());
     }
 
     /**
@@ -62,7 +67,8 @@ public class SettableDoubleGauge implements Metric, Gauge<Double> {
      * @return       itself
      */
     public @NotNull SettableDoubleGauge setValue(final double value) {
-        this.value = value;
+        setValueBits(Double.doubleToRawLongBits(value));
+        aggregate(value);
         return this;
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import com.codahale.metrics.Gauge;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * Works like a Gauge, but rather than getting its value from a callback, the value is set when needed. This can be
+ * somewhat convienent, but direct use of a Gauge is likely better
+ * </p>
+ * <p>
+ * Usage example:
+ *
+ * <pre>{@code
+ * MetricRegister metricRegistry;
+ * SettableFloatGauge settable = metricRegistry.register("metric.name", new SettableFloatGauge());
+ * // ...
+ * settable.setValue(1.234f);
+ * // ...
+ * settable.setValue(3.156f);
+ * }
+ *     </pre>
+ */
+public class SettableFloatGauge extends SparkplugGauge<Float> {
+
+    public SettableFloatGauge() {
+    }
+
+    SettableFloatGauge(final @NotNull SeriesColumns columns, final int handle) {
+        super(columns, handle);
+    }
+
+    @Override
+    public @NotNull ValueType getType() {
+        return ValueType.FLOAT;
+    }
+
+    /**
+     * The last value set by {@link #setValue(float)}}
+     *
+     * @return Last set value, or zero.
+     */
+    public @NotNull Float getValue() {
+        return Float.intBitsToFloat((int) getValueBits());
+    }
+
+    /**
+     * Set the current value the {@link Gauge} will return to something else.
+     *
+     * @param  value last set value
+     * @return       itself
+     */
+    public @NotNull SettableFloatGauge setValue(final float value) {
+        setValueBits(Float.floatToRawIntBits(value));
+        aggregate(value);
+        return this;
+    }
+}
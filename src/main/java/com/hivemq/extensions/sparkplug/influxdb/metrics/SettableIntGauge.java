@@ -17,7 +17,6 @@
 package com.hivemq.extensions.sparkplug.influxdb.metrics;
 
 import com.codahale.metrics.Gauge;
-import com.codahale.metrics.Metric;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -38,13 +37,19 @@ import org.jetbrains.annotations.NotNull;
  *
  *     </pre>
  */
-public class SettableIntGauge implements Metric, Gauge<Integer> {
+public class SettableIntGauge extends SparkplugGauge<Integer> {
 
-    /**
-     * Current value. Assignment will be atomic.
-     * <a href="http://docs.oracle.com/javase/specs/jls/se7/html/jls-17.html#jls-17.7">See 17.7</a>
-     */
-    private volatile int value = 0;
+    public SettableIntGauge() {
+    }
+
+    SettableIntGauge(final @NotNull SeriesColumns columns, final int handle) {
+        super(columns, handle);
+    }
+
+    @Override
+    public @NotNull ValueType getType() {
+        return ValueType.INT;
+    }
 
     /**
      * The last value set by {@link #setValue(int)}}
@@ -52,7 +57,7 @@ public class SettableIntGauge implements Metric, Gauge<Integer> {
      * @return Last set value, or zero.
      */
     public @NotNull Integer getValue() {
-        return value;
+        return (int) getValueBits();
     }
 
     /**
@@ -62,7 +67,8 @@ public class SettableIntGauge implements Metric, Gauge<Integer> {
      * @return       itself
      */
     public @NotNull SettableIntGauge setValue(final int value) {
-        this.value = value;
+        setValueBits(value);
+        aggregate(value);
         return this;
     }
 }
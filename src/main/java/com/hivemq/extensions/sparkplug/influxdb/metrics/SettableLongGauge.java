@@ -17,7 +17,6 @@
 package com.hivemq.extensions.sparkplug.influxdb.metrics;
 
 import com.codahale.metrics.Gauge;
-import com.codahale.metrics.Metric;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -38,13 +37,19 @@ import org.jetbrains.annotations.NotNull;
  *
  *     </pre>
  */
-public class SettableLongGauge implements Metric, Gauge<Long> {
+public class SettableLongGauge extends SparkplugGauge<Long> {
 
-    /**
-     * Current value. Assignment will be atomic.
-     * <a href="http://docs.oracle.com/javase/specs/jls/se7/html/jls-17.html#jls-17.7">See 17.7</a>
-     */
-    private volatile long value = 0;
+    public SettableLongGauge() {
+    }
+
+    SettableLongGauge(final @NotNull SeriesColumns columns, final int handle) {
+        super(columns, handle);
+    }
+
+    @Override
+    public @NotNull ValueType getType() {
+        return ValueType.LONG;
+    }
 
     /**
      * The last value set by {@link #setValue(long)}}
@@ -52,7 +57,7 @@ public class SettableLongGauge implements Metric, Gauge<Long> {
      * @return Last set value, or zero.
      */
     public @NotNull Long getValue() {
-        return value;
+        return getValueBits();
     }
 
     /**
@@ -62,7 +67,8 @@ public class SettableLongGauge implements Metric, Gauge<Long> {
      * @return       itself
      */
     public @NotNull SettableLongGauge setValue(final long value) {
-        this.value = value;
+        setValueBits(value);
+        aggregate(value);
         return this;
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base of the settable gauges, which remembers when the value of a Sparkplug metric was last received.
+ * <p>
+ * The reporter uses these timestamps to measure how stale the data is when InfluxDB acknowledges it. Every update marks
+ * the value as dirty, so the reporter also detects which values were updated since the last report.
+ * <p>
+ * The value, the timestamps and the dirty bit are not kept in the gauge, but in the off-heap {@link SeriesColumns} of
+ * the {@link SeriesTable} at the handle of the gauge. The gauges which are not part of a series table, e.g. the status
+ * of a device, share detached columns, in which every such gauge gets its own slot for its lifetime. The gauges are
+ * typed views of the series: if the type of a Sparkplug metric changes, the {@link MetricsHolder} replaces the gauge
+ * with one of the new type for the same handle.
+ * <p>
+ * The columns only move the state off the heap: every series still retains its gauge, its slot in the
+ * {@link DeviceMetrics} and, unless disabled in the {@link MetricsHolder}, its entry in the metric registry.
+ * <p>
+ * If interval aggregation is enabled, numeric gauges additionally record every value in an {@link IntervalAggregate}.
+ * If quantiles are enabled for the metric, they record every value in a {@link QuantileSketch}.
+ * <p>
+ * If conflation is enabled, every received value is written with its timestamp to the {@link ConflationBuffer}, keyed
+ * by the handle of the gauge.
+ *
+ * @param <T> the type of the value
+ */
+public abstract class SparkplugGauge<T> implements Metric, Gauge<T> {
+
+    private static final int DETACHED_SEGMENT_SHIFT = 6;
+    private static final @NotNull SeriesColumns DETACHED_COLUMNS = new SeriesColumns(DETACHED_SEGMENT_SHIFT);
+    // slots are not reused, the detached gauges are created once per edge node or device
+    private static final @NotNull AtomicInteger DETACHED_SLOTS = new AtomicInteger();
+
+    private final @NotNull SeriesColumns columns;
+    private final int slot;
+    private final int handle;
+    private @NotNull String field = "";
+    private @Nullable IntervalAggregate aggregate;
+    private @Nullable QuantileSketch quantiles;
+    private @Nullable ConflationBuffer conflation;
+
+    protected SparkplugGauge() {
+        columns = DETACHED_COLUMNS;
+        slot = DETACHED_SLOTS.getAndIncrement();
+        columns.ensureCapacity(slot + 1);
+        handle = -1;
+    }
+
+    /**
+     * @param columns the columns of the {@link SeriesTable} the gauge is added to
+     * @param handle  the handle of the series, which must be the next handle of the series table
+     */
+    SparkplugGauge(final @NotNull SeriesColumns columns, final int handle) {
+        this.columns = columns;
+        slot = handle;
+        this.handle = handle;
+    }
+
+    /**
+     * Stamps the current value with the times it was received. Must be called after the value is set.
+     *
+     * @param receivedNanos   the {@link System#nanoTime()} when the interceptor received the value
+     * @param brokerTimestamp the time in milliseconds since epoch when the broker received the PUBLISH, or {@code 0}
+     *                        if unknown
+     * @param sourceTimestamp the time in milliseconds since epoch of the Sparkplug metric or payload, or {@code 0} if
+     *                        unknown
+     */
+    public void received(final long receivedNanos, final long brokerTimestamp, final long sourceTimestamp) {
+        columns.received(slot, receivedNanos, brokerTimestamp, sourceTimestamp);
+        final var conflation = this.conflation;
+        if (conflation != null) {
+            final long timestamp;
+            if (sourceTimestamp > 0) {
+                timestamp = sourceTimestamp;
+            } else if (brokerTimestamp > 0) {
+                timestamp = brokerTimestamp;
+            } else {
+                timestamp = System.currentTimeMillis();
+            }
+            conflation.put(handle, getValueBits(), timestamp);
+        }
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} when the current value was received, or {@code 0} if it was never stamped
+     */
+    public long getReceivedNanos() {
+        return columns.getReceivedNanos(slot);
+    }
+
+    /**
+     * @return the time in milliseconds since epoch when the broker received the current value, or {@code 0}
+     */
+    public long getBrokerTimestamp() {
+        return columns.getBrokerTimestamp(slot);
+    }
+
+    /**
+     * @return the time in milliseconds since epoch of the Sparkplug metric or payload of the current value, or
+     *         {@code 0}
+     */
+    public long getSourceTimestamp() {
+        return columns.getSourceTimestamp(slot);
+    }
+
+    /**
+     * @return the aggregate of all values since the last report, or {@code null} if interval aggregation is disabled
+     */
+    public @Nullable IntervalAggregate getAggregate() {
+        return aggregate;
+    }
+
+    /**
+     * Enables interval aggregation, must be called before the gauge is registered.
+     */
+    void aggregate() {
+        if (aggregate == null) {
+            aggregate = new IntervalAggregate();
+        }
+    }
+
+    /**
+     * @return the quantile sketch of all values since the last report, or {@code null} if quantiles are not enabled
+     *         for the metric
+     */
+    public @Nullable QuantileSketch getQuantiles() {
+        return quantiles;
+    }
+
+    /**
+     * Enables quantiles, must be called before the gauge is registered.
+     */
+    void quantiles() {
+        if (quantiles == null) {
+            quantiles = new QuantileSketch();
+        }
+    }
+
+    /**
+     * @return the handle of the series in the {@link SeriesTable}, or {@code -1} if the gauge is not a Sparkplug data
+     *         metric
+     */
+    public int getHandle() {
+        return handle;
+    }
+
+    /**
+     * @return the name of the Sparkplug data metric, which is the field name in multi-field points, or an empty string
+     *         if the gauge is not a Sparkplug data metric
+     */
+    public @NotNull String getField() {
+        return field;
+    }
+
+    void field(final @NotNull String field) {
+        this.field = field;
+    }
+
+    /**
+     * Enables conflation, must be called before the gauge is registered.
+     *
+     * @param conflation the buffer to write the received values to, keyed by the handle
+     */
+    void conflate(final @NotNull ConflationBuffer conflation) {
+        this.conflation = conflation;
+    }
+
+    /**
+     * Takes over the metadata, the aggregate, the quantile sketch and the conflation buffer of the gauge of the
+     * previous type of the series. Must be called before the gauge replaces the previous one.
+     */
+    void inherit(final @NotNull SparkplugGauge<?> previous) {
+        field = previous.field;
+        aggregate = previous.aggregate;
+        quantiles = previous.quantiles;
+        conflation = previous.conflation;
+    }
+
+    /**
+     * @return the type of the value, which determines how {@link #getValueBits()} is interpreted
+     */
+    public abstract @NotNull ValueType getType();
+
+    /**
+     * @return the current value as bits, e.g. {@link Double#doubleToRawLongBits(double)} for a double, {@code 1} and
+     *         {@code 0} for a boolean
+     */
+    public long getValueBits() {
+        return columns.getValueBits(slot);
+    }
+
+    /**
+     * Sets the current value. Called by the gauges when their value is set.
+     *
+     * @param valueBits the new value as bits, see {@link #getValueBits()}
+     */
+    protected void setValueBits(final long valueBits) {
+        columns.setValueBits(slot, valueBits);
+    }
+
+    /**
+     * Records a value in the aggregate and the quantile sketch, if enabled. Called by the numeric gauges when their
+     * value is set.
+     *
+     * @param value the new value
+     */
+    protected void aggregate(final double value) {
+        final var aggregate = this.aggregate;
+        if (aggregate != null) {
+            aggregate.record(value);
+        }
+        final var quantiles = this.quantiles;
+        if (quantiles != null) {
+            quantiles.record(value);
+        }
+    }
+
+    /**
+     * Marks the current value as reported. Must only be called by the reporter.
+     *
+     * @return {@code true} if the value was received since the last call
+     */
+    public boolean markReported() {
+        return columns.markReported(slot);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The type of the value of a Sparkplug series, stored as tag next to the value bits in the {@link SeriesColumns}.
+ * <p>
+ * The tag determines how the value bits are interpreted, see {@link SparkplugGauge#getValueBits()}.
+ */
+public enum ValueType {
+
+    DOUBLE,
+    FLOAT,
+    INT,
+    LONG,
+    BOOLEAN;
+
+    private static final @NotNull ValueType @NotNull [] TAGS = values();
+
+    /**
+     * @return the tag of the type as stored in the {@link SeriesColumns}
+     */
+    public int getTag() {
+        return ordinal();
+    }
+
+    /**
+     * @param  tag the tag as stored in the {@link SeriesColumns}
+     * @return     the type with the tag
+     */
+    public static @NotNull ValueType of(final int tag) {
+        return TAGS[tag];
+    }
+
+    /**
+     * @param  valueBits the bits of a value of this type
+     * @param  type      the type to convert the value to
+     * @return           the bits of the value as the given type, rounded or truncated if it does not fit
+     */
+    public long convert(final long valueBits, final @NotNull ValueType type) {
+        if (type == this) {
+            return valueBits;
+        }
+        switch (type) {
+            case DOUBLE :
+                return Double.doubleToRawLongBits(toDouble(valueBits));
+            case FLOAT :
+                return Float.floatToRawIntBits((float) toDouble(valueBits));
+            case INT :
+                return (int) toLong(valueBits);
+            case LONG :
+                return toLong(valueBits);
+            default :
+                return toDouble(valueBits) != 0 ? 1 : 0;
+        }
+    }
+
+    private double toDouble(final long valueBits) {
+        switch (this) {
+            case DOUBLE :
+                return Double.longBitsToDouble(valueBits);
+            case FLOAT :
+                return Float.intBitsToFloat((int) valueBits);
+            default :
+                return valueBits;
+        }
+    }
+
+    private long toLong(final long valueBits) {
+        switch (this) {
+            case DOUBLE :
+            case FLOAT :
+                return (long) toDouble(valueBits);
+            default :
+                return valueBits;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+/**
+ * Adapts the reporting interval to how fast InfluxDB accepts the writes.
+ * <p>
+ * The duration of a flush, encoding and sending a report until InfluxDB acknowledged it, is smoothed with an
+ * exponentially weighted moving average. If the flushes take more than half of the interval or a flush failed, the
+ * sink is considered saturated and the interval is doubled, up to the ceiling. Once the flushes take less than a
+ * quarter of the interval, it shrinks by a quarter per report, down to the floor. Widening fast and shrinking slowly
+ * keeps the interval from oscillating around the capacity of the sink. Must only be used by the reporter thread.
+ */
+class AdaptiveInterval {
+
+    private static final double SMOOTHING = 0.3;
+
+    private final long floorMillis;
+    private final long ceilingMillis;
+    private long intervalMillis;
+    private double flushMillis;
+
+    /**
+     * @param floorMillis   the shortest interval in milliseconds, used while the sink keeps up
+     * @param ceilingMillis the longest interval in milliseconds
+     */
+    AdaptiveInterval(final long floorMillis, final long ceilingMillis) {
+        this.floorMillis = floorMillis;
+        this.ceilingMillis = Math.max(floorMillis, ceilingMillis);
+        this.intervalMillis = floorMillis;
+    }
+
+    /**
+     * @return the current interval in milliseconds
+     */
+    long getMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * Adapts the interval to the duration of the last flush.
+     *
+     * @param  flushNanos the duration of the last flush in nanoseconds
+     * @param  failed     {@code true} if the last flush failed
+     * @return            the next interval in milliseconds
+     */
+    long update(final long flushNanos, final boolean failed) {
+        flushMillis += SMOOTHING * (flushNanos / 1_000_000.0 - flushMillis);
+        if (failed || flushMillis > intervalMillis / 2.0) {
+            intervalMillis = Math.min(ceilingMillis, intervalMillis * 2);
+        } else if (flushMillis < intervalMillis / 4.0) {
+            intervalMillis = Math.max(floorMillis, intervalMillis - Math.max(1, intervalMillis / 4));
+        }
+        return intervalMillis;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * The order of series or devices by their encoded key, i.e. the order in which InfluxDB stores them.
+ * <p>
+ * The ids are dense and only added, like the handles of the series and the indexes of the devices in the
+ * {@link com.hivemq.extensions.sparkplug.influxdb.metrics.SeriesTable SeriesTable}. Added ids are sorted among
+ * themselves and merged into the existing order, so following a growing table costs time linear in the number of ids
+ * plus sorting the added ones. Besides the sorted ids, the rank of every id is kept to sort any subset of the ids, e.g.
+ * the updated series, by a {@link RadixSort radix sort} of their ranks. Must only be used by the reporter thread.
+ */
+class KeyOrder {
+
+    private int @NotNull [] order = new int[0];
+    private int @NotNull [] ranks = new int[0];
+    private int count;
+
+    /**
+     * @return the number of ordered ids
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @param  rank the position in the order, lower than {@link #size()}
+     * @return      the id at the position
+     */
+    int get(final int rank) {
+        return order[rank];
+    }
+
+    /**
+     * @param  id the id, lower than {@link #size()}
+     * @return    the position of the id in the order
+     */
+    int rank(final int id) {
+        return ranks[id];
+    }
+
+    /**
+     * Adds the ids from {@link #size()} up to the given count to the order.
+     *
+     * @param count the number of ids
+     * @param keys  the encoded keys of the ids, compared as unsigned bytes
+     */
+    void update(final int count, final @NotNull IntFunction<byte @NotNull []> keys) {
+        if (count <= this.count) {
+            return;
+        }
+        final var added = new Integer[count - this.count];
+        for (var i = 0; i < added.length; i++) {
+            added[i] = this.count + i;
+        }
+        Arrays.sort(added, (a, b) -> Arrays.compareUnsigned(keys.apply(a), keys.apply(b)));
+        final var merged = new int[count];
+        var i = 0;
+        var j = 0;
+        for (var k = 0; k < count; k++) {
+            if (j == added.length ||
+                    (i < this.count && Arrays.compareUnsigned(keys.apply(order[i]), keys.apply(added[j])) <= 0)) {
+                merged[k] = order[i++];
+            } else {
+                merged[k] = added[j++];
+            }
+        }
+        ranks = Arrays.copyOf(ranks, count);
+        for (var k = 0; k < count; k++) {
+            ranks[merged[k]] = k;
+        }
+        order = merged;
+        this.count = count;
+    }
+}
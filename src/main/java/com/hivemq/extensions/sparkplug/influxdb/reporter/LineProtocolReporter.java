@@ -0,0 +1,1056 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Timer;
+import com.hivemq.extensions.sparkplug.influxdb.lineprotocol.LineProtocolWriter;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.ConflationBuffer;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.DeviceMetrics;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.DirtySeries;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.HeavyHitters;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.MetricsHolder;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.QuantileSketch;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.RouteMatcher;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.SeriesColumns;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.SeriesTable;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.SparkplugGauge;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.ValueType;
+import com.hivemq.extensions.sparkplug.influxdb.sender.LineProtocolSender;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports all metrics of a {@link MetricRegistry} to InfluxDB using the line protocol.
+ * <p>
+ * Gauges are written with a single {@code value} field, counters with a {@code count} field, meters, histograms and
+ * timers with their rates and snapshot values as fields. The configured tags are added to every line.
+ * <p>
+ * If multi-field points are enabled, the Sparkplug data metrics of an edge node or device are not written as one point
+ * per metric. Instead, all metrics of a device are combined into a single point with the device as measurement (e.g.
+ * {@code sparkplug.edgeNode.device1}) and one field per Sparkplug metric name. As all metrics share the report
+ * timestamp, this saves repeating the measurement, the tags and the timestamp for every metric.
+ * <p>
+ * If the {@link MetricsHolder#getConflationBuffer() conflation buffer} is enabled, only the Sparkplug data metrics
+ * received since the previous report are written, each with its last value and the timestamp of that value, e.g. its
+ * Sparkplug timestamp. Multi-field points then only contain the received metrics of a device and take the latest of
+ * their timestamps.
+ * <p>
+ * If interval aggregation is enabled, the numeric Sparkplug data metrics updated since the previous report are written
+ * with the {@code min}, {@code max}, {@code mean}, {@code count} and {@code first} of all values of the interval next
+ * to the last value, as {@code min} etc. fields of single-field points or as {@code <metric>_min} etc. fields of
+ * multi-field points.
+ * <p>
+ * Rollups aggregate the Sparkplug data metrics in windows of a fixed resolution, e.g. 1 minute and 1 hour. When a
+ * window closes, its {@code min}, {@code max}, {@code mean}, {@code count}, {@code first} and {@code last} value are
+ * written with the start of the window as timestamp to separate measurements, e.g.
+ * {@code rollup.1m.sparkplug.edgeNode.device1}, so InfluxDB does not need to downsample the raw data.
+ * <p>
+ * For the Sparkplug data metrics with enabled quantiles, the {@code p50}, {@code p90} and {@code p99} of the values
+ * since the previous report are written in the same way.
+ * <p>
+ * The encoded points and bytes as well as the duration and failures of sending are recorded in the
+ * {@link PipelineMetrics}, as well as the latencies of the Sparkplug data metrics which were updated since the previous
+ * report: how long they waited for the report, how long encoding and sending took and how old they were when InfluxDB
+ * acknowledged the write, measured from the broker receiving them and from their Sparkplug timestamp.
+ * <p>
+ * The {@link PipelineMetrics#getHeavyHitters() heavy hitters} are written as one point per rank with a {@code rank}
+ * tag and the {@code key} and {@code weight} as fields, so their number of series stays bounded.
+ * <p>
+ * The reporter does not take a snapshot of the registry for every report. The metrics other than the Sparkplug data
+ * metrics are kept sorted by a listener of the registry, the Sparkplug data metrics are walked in the dense
+ * {@link SeriesTable} without building any maps, and their values, timestamps and dirty bits are read from its
+ * off-heap {@link SeriesColumns} by handle. Their measurements and tags are escaped and encoded once per series and
+ * device and copied into every line. As recommended by InfluxDB, they are written ordered by these series keys: the
+ * order of all keys is kept up to date as series are added, and the updated series of a report are ordered by a radix
+ * sort of their rank in it. Rollups are ordered by device. The lines are sent in chunks of {@value #CHUNK_LINES}
+ * lines, so the encoding buffer stays small no matter how many series there are. Senders which keep several writes in
+ * flight send the next chunk while the previous ones are still being written; the report waits for all of its chunks
+ * before the values count as acknowledged, and fails if any chunk failed.
+ * <p>
+ * If routes are configured, the Sparkplug data metrics of every edge node and device are written to the sender of its
+ * {@link DeviceMetrics#getRoute() route}, e.g. the database of its plant. Every route encodes and sends its lines in
+ * chunks of its own, all other lines are written to the default route.
+ * <p>
+ * When started with {@link #start(Duration, Duration)}, the reporting interval adapts to InfluxDB: it is widened while
+ * the flushes take too long or fail and shrinks back to the configured interval once InfluxDB recovers. Every report
+ * is scheduled after the previous one, so reports never overlap or pile up.
+ *
+ * @see MetricsHolder#getSeriesTable()
+ */
+public class LineProtocolReporter extends ScheduledReporter {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(LineProtocolReporter.class);
+    private static final double @NotNull [] QUANTILES = {0.5, 0.9, 0.99};
+    private static final @NotNull String @NotNull [] QUANTILE_FIELDS = {"p50", "p90", "p99"};
+    // the fields of an interval aggregate are the first five, a rollup adds the last value
+    private static final @NotNull String @NotNull [] AGGREGATE_FIELDS =
+            {"min", "max", "mean", "count", "first", "last"};
+    // InfluxDB recommends batches of 5000 lines
+    static final int CHUNK_LINES = 5_000;
+
+    private final @NotNull ScheduledExecutorService executor;
+    private final @NotNull MetricRegistry registry;
+    private final @NotNull RegistryMetrics registryMetrics = new RegistryMetrics();
+    private final @NotNull MetricsHolder metricsHolder;
+    private final @NotNull PipelineMetrics pipelineMetrics;
+    private final @NotNull LineProtocolSender sender;
+    private final @NotNull Map<String, String> tags;
+    private final @NotNull String prefix;
+    private final boolean multiFieldPoints;
+    private final boolean intervalAggregation;
+    private final long heartbeatMillis;
+    private final @NotNull List<Rollup> rollups = new ArrayList<>();
+    private final @NotNull SeriesKeys seriesKeys;
+    private final @NotNull KeyOrder seriesOrder = new KeyOrder();
+    private final @NotNull KeyOrder deviceOrder = new KeyOrder();
+    // the route and the writer of the current line
+    private final @NotNull Route @NotNull [] routes;
+    private @NotNull Route route;
+    private @NotNull LineProtocolWriter writer;
+    private final @NotNull List<Map<String, String>> rankTags = new ArrayList<>();
+    private final double @NotNull [] quantileValues = new double[QUANTILES.length];
+    // the keys of the aggregate and quantile fields in multi-field points, by the field name of the metric
+    private final @NotNull Map<String, String[]> aggregateFieldKeys = new HashMap<>();
+    private final @NotNull Map<String, String[]> quantileFieldKeys = new HashMap<>();
+
+    // the series updated since the previous report, and their rank and handle sorted by series key
+    private final @NotNull DirtySeries dirty = new DirtySeries();
+    private final @NotNull RadixSort batchSort = new RadixSort();
+    private long @NotNull [] batch = new long[64];
+    private long lastSweepMillis;
+
+    // timestamps of the reported values, kept to record their latency when InfluxDB acknowledged the write
+    private long @NotNull [] brokerTimestamps = new long[64];
+    private int brokerTimestampCount;
+    private long @NotNull [] sourceTimestamps = new long[64];
+    private int sourceTimestampCount;
+
+    private final @NotNull List<CompletableFuture<Void>> chunks = new ArrayList<>();
+
+    private @Nullable AdaptiveInterval interval;
+    private long flushNanos;
+    private boolean flushFailed;
+
+    /**
+     * @param  registry the registry to report
+     * @return          a builder of a reporter for the registry
+     */
+    public static @NotNull Builder forRegistry(final @NotNull MetricRegistry registry) {
+        return new Builder(registry);
+    }
+
+    private LineProtocolReporter(
+            final @NotNull Builder builder,
+            final @NotNull MetricsHolder metricsHolder,
+            final @NotNull LineProtocolSender sender,
+            final @NotNull ScheduledExecutorService executor) {
+        super(builder.registry,
+                "influxdb-reporter",
+                MetricFilter.ALL,
+                TimeUnit.SECONDS,
+                TimeUnit.MILLISECONDS,
+                executor,
+                true);
+        this.executor = executor;
+        registry = builder.registry;
+        this.metricsHolder = metricsHolder;
+        this.pipelineMetrics = metricsHolder.getPipelineMetrics();
+        this.sender = sender;
+        // InfluxDB recommends sorting tags by key
+        tags = new TreeMap<>(builder.tags);
+        prefix = builder.prefix;
+        seriesKeys = new SeriesKeys(prefix, tags);
+        multiFieldPoints = builder.multiFieldPoints;
+        intervalAggregation = builder.intervalAggregation;
+        heartbeatMillis = builder.heartbeat == null ? 0 : builder.heartbeat.toMillis();
+        for (final var resolution : builder.rollups) {
+            rollups.add(new Rollup(resolution));
+        }
+        final var routeSenders = builder.routeSenders;
+        routes = new Route[routeSenders.size() + 1];
+        routes[RouteMatcher.DEFAULT_ROUTE] = new Route(sender);
+        for (var i = 0; i < routeSenders.size(); i++) {
+            if (routeSenders.get(i).getTimePrecision() != sender.getTimePrecision()) {
+                throw new IllegalArgumentException("All routes must use the same time precision");
+            }
+            routes[i + 1] = new Route(routeSenders.get(i));
+        }
+        route = routes[RouteMatcher.DEFAULT_ROUTE];
+        writer = route.writer;
+        registry.addListener(registryMetrics);
+    }
+
+    private static @NotNull ScheduledExecutorService createExecutor() {
+        final var executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final var thread = new Thread(runnable, "influxdb-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // a pending report must not delay stopping the reporter
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+    }
+
+    /**
+     * Starts reporting with a fixed interval.
+     */
+    @Override
+    public synchronized void start(final long initialDelay, final long period, final @NotNull TimeUnit unit) {
+        final var fixed = Duration.ofMillis(unit.toMillis(period));
+        start(Duration.ofMillis(unit.toMillis(initialDelay)), fixed, fixed);
+    }
+
+    /**
+     * Starts reporting with an interval adapting to how fast InfluxDB accepts the writes.
+     *
+     * @param floor   the shortest and initial reporting interval
+     * @param ceiling the longest reporting interval
+     */
+    public void start(final @NotNull Duration floor, final @NotNull Duration ceiling) {
+        start(floor, floor, ceiling);
+    }
+
+    private synchronized void start(
+            final @NotNull Duration initialDelay,
+            final @NotNull Duration floor,
+            final @NotNull Duration ceiling) {
+        if (interval != null) {
+            throw new IllegalArgumentException("Reporter already started");
+        }
+        interval = new AdaptiveInterval(floor.toMillis(), ceiling.toMillis());
+        pipelineMetrics.reportInterval(interval.getMillis());
+        executor.schedule(this::scheduledReport, initialDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduledReport() {
+        final var start = System.nanoTime();
+        try {
+            report();
+        } catch (final Throwable t) {
+            LOG.error("Exception thrown from {}#report. Exception was suppressed.", getClass().getSimpleName(), t);
+        }
+        final var interval = this.interval;
+        if (interval == null) {
+            return;
+        }
+        final var nextMillis = interval.update(flushNanos, flushFailed);
+        pipelineMetrics.reportInterval(nextMillis);
+        final var elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        try {
+            executor.schedule(this::scheduledReport,
+                    Math.max(0, nextMillis - elapsedMillis),
+                    TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            // the reporter was stopped
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        registry.removeListener(registryMetrics);
+    }
+
+    /**
+     * Reports all metrics of the registry, without taking a snapshot of it.
+     */
+    @Override
+    public void report() {
+        synchronized (this) {
+            report(registryMetrics.gauges,
+                    registryMetrics.counters,
+                    registryMetrics.histograms,
+                    registryMetrics.meters,
+                    registryMetrics.timers);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void report(
+            final @NotNull SortedMap<String, Gauge> gauges,
+            final @NotNull SortedMap<String, Counter> counters,
+            final @NotNull SortedMap<String, Histogram> histograms,
+            final @NotNull SortedMap<String, Meter> meters,
+            final @NotNull SortedMap<String, Timer> timers) {
+        final var nowMillis = System.currentTimeMillis();
+        final var timestamp = sender.getTimePrecision().convert(nowMillis, TimeUnit.MILLISECONDS);
+        pipelineMetrics.rollLatencies();
+        final var encodeStart = System.nanoTime();
+        chunks.clear();
+        flushFailed = false;
+        try {
+            collectUpdatedValues(encodeStart);
+            final var conflationBuffer = metricsHolder.getConflationBuffer();
+            final var conflated = conflationBuffer == null ? null : conflationBuffer.swap();
+            updateOrder();
+            for (final var route : routes) {
+                route.writer.reset();
+                route.chunkStart = encodeStart;
+            }
+            route(RouteMatcher.DEFAULT_ROUTE);
+            for (final var entry : gauges.entrySet()) {
+                // written from the series table
+                if (MetricsHolder.isDeviceMetric(entry.getValue())) {
+                    continue;
+                }
+                reportGauge(entry.getKey(), entry.getValue(), timestamp);
+            }
+            if (conflated != null) {
+                reportConflated(conflated);
+            } else if (!isSweep(nowMillis)) {
+                reportUpdated(timestamp);
+            } else if (multiFieldPoints) {
+                reportDeviceMetrics(timestamp);
+            } else {
+                reportSeries(timestamp);
+            }
+            route(RouteMatcher.DEFAULT_ROUTE);
+            for (final var entry : counters.entrySet()) {
+                startLine(entry.getKey()).field("count", entry.getValue().getCount());
+                writer.endLine(timestamp);
+            }
+            for (final var entry : histograms.entrySet()) {
+                reportHistogram(entry.getKey(), entry.getValue(), timestamp);
+            }
+            for (final var entry : meters.entrySet()) {
+                reportMeter(entry.getKey(), entry.getValue(), timestamp);
+            }
+            for (final var entry : timers.entrySet()) {
+                reportTimer(entry.getKey(), entry.getValue(), timestamp);
+            }
+            for (final var entry : pipelineMetrics.getHeavyHitters().entrySet()) {
+                reportHeavyHitters(entry.getKey(), entry.getValue(), timestamp);
+            }
+            for (final var rollup : rollups) {
+                if (rollup.isClosed(nowMillis)) {
+                    reportRollup(rollup);
+                    rollup.next(nowMillis);
+                }
+            }
+            for (final var route : routes) {
+                flushChunk(route);
+            }
+            if (!chunks.isEmpty()) {
+                LineProtocolSender.await(CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new)));
+                recordAcknowledged(System.currentTimeMillis());
+            }
+        } catch (final ConnectException e) {
+            flushFailed = true;
+            pipelineMetrics.sendFailed();
+            LOG.warn("Unable to connect to InfluxDB. Discarding data.");
+        } catch (final Exception e) {
+            flushFailed = true;
+            pipelineMetrics.sendFailed();
+            LOG.warn("Unable to report to InfluxDB with error '{}'. Discarding data.", e.getMessage());
+            LOG.debug("Original Exception: ", e);
+        }
+        flushNanos = System.nanoTime() - encodeStart;
+    }
+
+    /**
+     * Drains the series which were updated since the previous report. Completes their interval aggregates and adds
+     * them to the rollups, records the queue latency of their values and keeps their broker and Sparkplug timestamps
+     * until the write is acknowledged.
+     */
+    private void collectUpdatedValues(final long encodeStart) {
+        brokerTimestampCount = 0;
+        sourceTimestampCount = 0;
+        final var table = metricsHolder.getSeriesTable();
+        final var columns = table.getColumns();
+        columns.drainDirty(table.getSeriesCount(), dirty);
+        for (var i = 0; i < dirty.size(); i++) {
+            final var handle = dirty.getHandle(i);
+            final var gauge = table.getSeries(handle);
+            final var aggregate = gauge.getAggregate();
+            if (aggregate != null && aggregate.roll()) {
+                for (final var rollup : rollups) {
+                    rollup.add(handle, aggregate);
+                }
+            }
+            pipelineMetrics.queueLatency(encodeStart - columns.getReceivedNanos(handle));
+            final var brokerTimestamp = columns.getBrokerTimestamp(handle);
+            if (brokerTimestamp > 0) {
+                if (brokerTimestampCount == brokerTimestamps.length) {
+                    brokerTimestamps = Arrays.copyOf(brokerTimestamps, brokerTimestampCount * 2);
+                }
+                brokerTimestamps[brokerTimestampCount++] = brokerTimestamp;
+            }
+            final var sourceTimestamp = columns.getSourceTimestamp(handle);
+            if (sourceTimestamp > 0) {
+                if (sourceTimestampCount == sourceTimestamps.length) {
+                    sourceTimestamps = Arrays.copyOf(sourceTimestamps, sourceTimestampCount * 2);
+                }
+                sourceTimestamps[sourceTimestampCount++] = sourceTimestamp;
+            }
+        }
+    }
+
+    private void recordAcknowledged(final long ackMillis) {
+        for (var i = 0; i < brokerTimestampCount; i++) {
+            pipelineMetrics.brokerLatency(ackMillis - brokerTimestamps[i]);
+        }
+        for (var i = 0; i < sourceTimestampCount; i++) {
+            pipelineMetrics.sourceLatency(ackMillis - sourceTimestamps[i]);
+        }
+    }
+
+    private void reportGauge(final @NotNull String name, final @NotNull Gauge<?> gauge, final long timestamp) {
+        if (gauge instanceof SparkplugGauge) {
+            final var sparkplugGauge = (SparkplugGauge<?>) gauge;
+            startLine(name);
+            valueField("value", sparkplugGauge.getType(), sparkplugGauge.getValueBits());
+            writer.endLine(timestamp);
+            return;
+        }
+        final var value = gauge.getValue();
+        if (value != null) {
+            startLine(name).field("value", value);
+            writer.endLine(timestamp);
+        }
+    }
+
+    /**
+     * @return {@code true} if all Sparkplug data metrics must be written, as the heartbeat is due or disabled
+     */
+    private boolean isSweep(final long nowMillis) {
+        if (heartbeatMillis == 0) {
+            return true;
+        }
+        if (nowMillis - lastSweepMillis < heartbeatMillis) {
+            return false;
+        }
+        lastSweepMillis = nowMillis;
+        return true;
+    }
+
+    /**
+     * Adds the series and devices added since the previous report to their order by key. Must be called after the
+     * updated series were drained, so the order contains all of them.
+     */
+    private void updateOrder() {
+        final var table = metricsHolder.getSeriesTable();
+        deviceOrder.update(table.getDeviceCount(), index -> seriesKeys.device(table.getDevice(index)));
+        if (!multiFieldPoints) {
+            seriesOrder.update(table.getSeriesCount(), handle -> {
+                final var device = table.getDevice(table.getDeviceIndex(handle));
+                return seriesKeys.series(device, table.getSeries(handle));
+            });
+        }
+    }
+
+    /**
+     * Writes only the Sparkplug data metrics updated since the previous report, ordered by their series key.
+     * Multi-field points only contain the updated metrics of a device.
+     */
+    private void reportUpdated(final long timestamp) throws Exception {
+        final var table = metricsHolder.getSeriesTable();
+        final var columns = table.getColumns();
+        final var count = dirty.size();
+        if (batch.length < count) {
+            batch = new long[Math.max(count, batch.length * 2)];
+        }
+        for (var i = 0; i < count; i++) {
+            final var handle = dirty.getHandle(i);
+            batch[i] = (long) rank(handle) << 32 | handle;
+        }
+        sortBatch(count);
+        var deviceIndex = -1;
+        for (var i = 0; i < count; i++) {
+            final var handle = (int) batch[i];
+            if (multiFieldPoints) {
+                // all updated metrics of the device are written at its first one, in the order of their names
+                if (table.getDeviceIndex(handle) == deviceIndex) {
+                    continue;
+                }
+                deviceIndex = table.getDeviceIndex(handle);
+                final var device = table.getDevice(deviceIndex);
+                route(device.getRoute());
+                writer.seriesKey(seriesKeys.device(device));
+                for (final var gauge : device.getGauges()) {
+                    final var gaugeHandle = gauge.getHandle();
+                    if (dirty.contains(gaugeHandle)) {
+                        final var field = gauge.getField();
+                        valueField(field, columns.getType(gaugeHandle), columns.getValueBits(gaugeHandle));
+                        reportAggregate(gauge, field);
+                        reportQuantiles(gauge.getQuantiles(), field);
+                    }
+                }
+                endLine(timestamp);
+            } else {
+                final var gauge = table.getSeries(handle);
+                startSeriesLine(table.getDevice(table.getDeviceIndex(handle)), gauge);
+                valueField("value", columns.getType(handle), columns.getValueBits(handle));
+                reportAggregate(gauge, null);
+                reportQuantiles(gauge.getQuantiles(), null);
+                endLine(timestamp);
+            }
+        }
+    }
+
+    /**
+     * @return the rank of the series in the order of the series keys, or of its device for multi-field points
+     */
+    private int rank(final int handle) {
+        return multiFieldPoints ?
+                deviceOrder.rank(metricsHolder.getSeriesTable().getDeviceIndex(handle)) :
+                seriesOrder.rank(handle);
+    }
+
+    /**
+     * Sorts the first entries of the batch by their {@link #rank(int) rank} in the upper 32 bits.
+     */
+    private void sortBatch(final int count) {
+        batchSort.sort(batch, count, multiFieldPoints ? deviceOrder.size() : seriesOrder.size());
+    }
+
+    private void reportSeries(final long timestamp) throws Exception {
+        final var table = metricsHolder.getSeriesTable();
+        final var columns = table.getColumns();
+        final var seriesCount = seriesOrder.size();
+        for (var i = 0; i < seriesCount; i++) {
+            final var handle = seriesOrder.get(i);
+            final var gauge = table.getSeries(handle);
+            startSeriesLine(table.getDevice(table.getDeviceIndex(handle)), gauge);
+            valueField("value", columns.getType(handle), columns.getValueBits(handle));
+            reportAggregate(gauge, null);
+            reportQuantiles(gauge.getQuantiles(), null);
+            endLine(timestamp);
+        }
+    }
+
+    private void reportDeviceMetrics(final long timestamp) throws Exception {
+        final var table = metricsHolder.getSeriesTable();
+        final var columns = table.getColumns();
+        final var deviceCount = deviceOrder.size();
+        for (var i = 0; i < deviceCount; i++) {
+            final var device = table.getDevice(deviceOrder.get(i));
+            route(device.getRoute());
+            writer.seriesKey(seriesKeys.device(device));
+            for (final var gauge : device.getGauges()) {
+                final var field = gauge.getField();
+                final var handle = gauge.getHandle();
+                valueField(field, columns.getType(handle), columns.getValueBits(handle));
+                reportAggregate(gauge, field);
+                reportQuantiles(gauge.getQuantiles(), field);
+            }
+            endLine(timestamp);
+        }
+    }
+
+    /**
+     * Writes the last received value of the conflated series, ordered by their series key like
+     * {@link #reportUpdated(long)}.
+     */
+    private void reportConflated(final @NotNull ConflationBuffer.Conflated conflated) throws Exception {
+        final var count = conflated.size();
+        if (count == 0) {
+            return;
+        }
+        final var precision = sender.getTimePrecision();
+        final var table = metricsHolder.getSeriesTable();
+        final var columns = table.getColumns();
+        if (batch.length < count) {
+            batch = new long[Math.max(count, batch.length * 2)];
+        }
+        for (var i = 0; i < count; i++) {
+            batch[i] = (long) rank(conflated.getHandle(i)) << 32 | i;
+        }
+        sortBatch(count);
+        var deviceIndex = -1;
+        for (var i = 0; i < count; i++) {
+            final var handle = conflated.getHandle((int) batch[i]);
+            if (multiFieldPoints) {
+                if (table.getDeviceIndex(handle) == deviceIndex) {
+                    continue;
+                }
+                deviceIndex = table.getDeviceIndex(handle);
+                final var device = table.getDevice(deviceIndex);
+                route(device.getRoute());
+                writer.seriesKey(seriesKeys.device(device));
+                var latest = -1L;
+                for (final var gauge : device.getGauges()) {
+                    final var index = conflated.indexOf(gauge.getHandle());
+                    if (index >= 0) {
+                        final var field = gauge.getField();
+                        valueField(field, columns.getType(gauge.getHandle()), conflated.getValueBits(index));
+                        reportAggregate(gauge, field);
+                        reportQuantiles(gauge.getQuantiles(), field);
+                        latest = Math.max(latest, conflated.getTimestamp(index));
+                    }
+                }
+                endLine(precision.convert(latest, TimeUnit.MILLISECONDS));
+            } else {
+                final var index = (int) batch[i];
+                final var gauge = table.getSeries(handle);
+                startSeriesLine(table.getDevice(table.getDeviceIndex(handle)), gauge);
+                valueField("value", columns.getType(handle), conflated.getValueBits(index));
+                reportAggregate(gauge, null);
+                reportQuantiles(gauge.getQuantiles(), null);
+                endLine(precision.convert(conflated.getTimestamp(index), TimeUnit.MILLISECONDS));
+            }
+        }
+    }
+
+    /**
+     * Writes the value of a series from its bits, without boxing.
+     */
+    private void valueField(final @NotNull String key, final @NotNull ValueType type, final long valueBits) {
+        switch (type) {
+            case DOUBLE :
+                writer.field(key, Double.longBitsToDouble(valueBits));
+                break;
+            case FLOAT :
+                writer.field(key, Float.intBitsToFloat((int) valueBits));
+                break;
+            case BOOLEAN :
+                writer.field(key, valueBits != 0);
+                break;
+            default :
+                writer.field(key, valueBits);
+        }
+    }
+
+    /**
+     * Writes the aggregate of the interval, if the series was updated in it. The aggregates of the other series are not
+     * rolled and still hold an earlier interval.
+     *
+     * @param field the field name of the metric in a multi-field point, or {@code null} for a single-field point
+     */
+    private void reportAggregate(final @NotNull SparkplugGauge<?> gauge, final @Nullable String field) {
+        final var aggregate = gauge.getAggregate();
+        if (!intervalAggregation ||
+                aggregate == null ||
+                !dirty.contains(gauge.getHandle()) ||
+                aggregate.getCount() == 0) {
+            return;
+        }
+        final var keys = fieldKeys(aggregateFieldKeys, field, AGGREGATE_FIELDS);
+        writer.field(keys[0], aggregate.getMin())
+                .field(keys[1], aggregate.getMax())
+                .field(keys[2], aggregate.getMean())
+                .field(keys[3], aggregate.getCount())
+                .field(keys[4], aggregate.getFirst());
+    }
+
+    private void reportHistogram(final @NotNull String name, final @NotNull Histogram histogram, final long timestamp) {
+        final var snapshot = histogram.getSnapshot();
+        startLine(name).field("count", histogram.getCount())
+                .field("min", snapshot.getMin())
+                .field("max", snapshot.getMax())
+                .field("mean", snapshot.getMean())
+                .field("stddev", snapshot.getStdDev())
+                .field("p50", snapshot.getMedian())
+                .field("p75", snapshot.get75thPercentile())
+                .field("p95", snapshot.get95thPercentile())
+                .field("p98", snapshot.get98thPercentile())
+                .field("p99", snapshot.get99thPercentile())
+                .field("p999", snapshot.get999thPercentile());
+        writer.endLine(timestamp);
+    }
+
+    private void reportMeter(final @NotNull String name, final @NotNull Meter meter, final long timestamp) {
+        startLine(name).field("count", meter.getCount())
+                .field("m1_rate", convertRate(meter.getOneMinuteRate()))
+                .field("m5_rate", convertRate(meter.getFiveMinuteRate()))
+                .field("m15_rate", convertRate(meter.getFifteenMinuteRate()))
+                .field("mean_rate", convertRate(meter.getMeanRate()));
+        writer.endLine(timestamp);
+    }
+
+    private void reportTimer(final @NotNull String name, final @NotNull Timer timer, final long timestamp) {
+        final var snapshot = timer.getSnapshot();
+        startLine(name).field("count", timer.getCount())
+                .field("min", convertDuration(snapshot.getMin()))
+                .field("max", convertDuration(snapshot.getMax()))
+                .field("mean", convertDuration(snapshot.getMean()))
+                .field("stddev", convertDuration(snapshot.getStdDev()))
+                .field("p50", convertDuration(snapshot.getMedian()))
+                .field("p75", convertDuration(snapshot.get75thPercentile()))
+                .field("p95", convertDuration(snapshot.get95thPercentile()))
+                .field("p98", convertDuration(snapshot.get98thPercentile()))
+                .field("p99", convertDuration(snapshot.get99thPercentile()))
+                .field("p999", convertDuration(snapshot.get999thPercentile()))
+                .field("m1_rate", convertRate(timer.getOneMinuteRate()))
+                .field("m5_rate", convertRate(timer.getFiveMinuteRate()))
+                .field("m15_rate", convertRate(timer.getFifteenMinuteRate()))
+                .field("mean_rate", convertRate(timer.getMeanRate()));
+        writer.endLine(timestamp);
+    }
+
+    private void reportRollup(final @NotNull Rollup rollup) throws Exception {
+        final var timestamp = sender.getTimePrecision().convert(rollup.getWindowStart(), TimeUnit.MILLISECONDS);
+        final var measurementPrefix = "rollup." + rollup.getLabel() + ".";
+        final var table = metricsHolder.getSeriesTable();
+        final var deviceCount = deviceOrder.size();
+        for (var i = 0; i < deviceCount; i++) {
+            final var device = table.getDevice(deviceOrder.get(i));
+            route(device.getRoute());
+            var lineStarted = false;
+            for (final var gauge : device.getGauges()) {
+                final var accumulator = rollup.get(gauge.getHandle());
+                if (accumulator == null) {
+                    continue;
+                }
+                final String[] keys;
+                if (multiFieldPoints) {
+                    if (!lineStarted) {
+                        writer.measurement(prefix)
+                                .appendMeasurement(measurementPrefix)
+                                .appendMeasurement(device.getMeasurement())
+                                .tags(seriesKeys.tags(device));
+                        lineStarted = true;
+                    }
+                    keys = fieldKeys(aggregateFieldKeys, gauge.getField(), AGGREGATE_FIELDS);
+                } else {
+                    writer.measurement(prefix)
+                            .appendMeasurement(measurementPrefix)
+                            .appendMeasurement(device.getMeasurement())
+                            .appendMeasurement(".")
+                            .appendMeasurement(gauge.getField())
+                            .tags(seriesKeys.tags(device));
+                    keys = AGGREGATE_FIELDS;
+                }
+                writer.field(keys[0], accumulator.getMin())
+                        .field(keys[1], accumulator.getMax())
+                        .field(keys[2], accumulator.getMean())
+                        .field(keys[3], accumulator.getCount())
+                        .field(keys[4], accumulator.getFirst())
+                        .field(keys[5], accumulator.getLast());
+                if (!multiFieldPoints) {
+                    endLine(timestamp);
+                }
+            }
+            if (lineStarted) {
+                endLine(timestamp);
+            }
+        }
+    }
+
+    /**
+     * @param field the field name of the metric in a multi-field point, or {@code null} for a single-field point
+     */
+    private void reportQuantiles(final @Nullable QuantileSketch quantiles, final @Nullable String field) {
+        if (quantiles == null || quantiles.roll(QUANTILES, quantileValues) == 0) {
+            return;
+        }
+        final var keys = fieldKeys(quantileFieldKeys, field, QUANTILE_FIELDS);
+        for (var i = 0; i < QUANTILES.length; i++) {
+            writer.field(keys[i], quantileValues[i]);
+        }
+    }
+
+    /**
+     * @param  cache the keys by field name, extended by this call
+     * @param  field the field name of the metric in a multi-field point, or {@code null} for a single-field point
+     * @param  names the names of the fields
+     * @return       the names prefixed with the field name of the metric, created once per field name
+     */
+    private static @NotNull String @NotNull [] fieldKeys(
+            final @NotNull Map<String, String[]> cache,
+            final @Nullable String field,
+            final @NotNull String @NotNull [] names) {
+        if (field == null) {
+            return names;
+        }
+        var keys = cache.get(field);
+        if (keys == null) {
+            keys = new String[names.length];
+            for (var i = 0; i < names.length; i++) {
+                keys[i] = field + "_" + names[i];
+            }
+            cache.put(field, keys);
+        }
+        return keys;
+    }
+
+    private void reportHeavyHitters(
+            final @NotNull String name,
+            final @NotNull HeavyHitters heavyHitters,
+            final long timestamp) {
+        final var top = heavyHitters.drain();
+        for (var i = 0; i < top.size(); i++) {
+            writer.measurement(prefix + name).tags(rankTags(i + 1));
+            writer.field("key", top.get(i).getKey()).field("weight", top.get(i).getWeight());
+            writer.endLine(timestamp);
+        }
+    }
+
+    private @NotNull Map<String, String> rankTags(final int rank) {
+        while (rankTags.size() < rank) {
+            final var rankTag = new TreeMap<>(tags);
+            rankTag.put("rank", Integer.toString(rankTags.size() + 1));
+            rankTags.add(rankTag);
+        }
+        return rankTags.get(rank - 1);
+    }
+
+    private @NotNull LineProtocolWriter startLine(final @NotNull String name) {
+        return writer.measurement(prefix).appendMeasurement(name).tags(tags);
+    }
+
+    private void startSeriesLine(final @NotNull DeviceMetrics device, final @NotNull SparkplugGauge<?> gauge) {
+        route(device.getRoute());
+        writer.seriesKey(seriesKeys.series(device, gauge));
+    }
+
+    /**
+     * Writes the next lines to the given route. Must not be called within a line.
+     */
+    private void route(final int index) {
+        final var next = index < routes.length ? routes[index] : routes[RouteMatcher.DEFAULT_ROUTE];
+        if (next != route) {
+            route = next;
+            writer = next.writer;
+        }
+    }
+
+    private void endLine(final long timestamp) throws Exception {
+        writer.endLine(timestamp);
+        if (writer.lineCount() >= CHUNK_LINES) {
+            flushChunk(route);
+        }
+    }
+
+    /**
+     * Sends the lines encoded so far for the route and starts its next chunk.
+     */
+    private void flushChunk(final @NotNull Route route) throws Exception {
+        final var writer = route.writer;
+        if (writer.size() == 0) {
+            return;
+        }
+        final var sendStart = System.nanoTime();
+        pipelineMetrics.encodeLatency(sendStart - route.chunkStart);
+        pipelineMetrics.encoded(writer.lineCount(), writer.size());
+        final var size = writer.size();
+        chunks.add(route.sender.sendAsync(writer.buffer(), size).thenRun(() -> {
+            final var sendDuration = System.nanoTime() - sendStart;
+            pipelineMetrics.sent(sendDuration, size);
+            pipelineMetrics.networkLatency(sendDuration);
+        }));
+        writer.reset();
+        route.chunkStart = System.nanoTime();
+    }
+
+    /**
+     * Builds a {@link LineProtocolReporter}. By default, every Sparkplug data metric is written as a single-field point
+     * with every report, without tags, prefix, aggregates or routes.
+     */
+    public static class Builder {
+
+        private final @NotNull MetricRegistry registry;
+        private @NotNull Map<String, String> tags = Map.of();
+        private @NotNull String prefix = "";
+        private boolean multiFieldPoints;
+        private boolean intervalAggregation;
+        private @NotNull List<Duration> rollups = List.of();
+        private @Nullable Duration heartbeat;
+        private @NotNull List<LineProtocolSender> routeSenders = List.of();
+
+        private Builder(final @NotNull MetricRegistry registry) {
+            this.registry = registry;
+        }
+
+        /**
+         * @param  tags the tags added to every line
+         * @return      itself
+         */
+        public @NotNull Builder withTags(final @NotNull Map<String, String> tags) {
+            this.tags = tags;
+            return this;
+        }
+
+        /**
+         * @param  prefix the prefix for every measurement name
+         * @return        itself
+         */
+        public @NotNull Builder prefixedWith(final @NotNull String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * @param  multiFieldPoints {@code true} to combine all Sparkplug data metrics of a device into a single point
+         * @return                  itself
+         */
+        public @NotNull Builder multiFieldPoints(final boolean multiFieldPoints) {
+            this.multiFieldPoints = multiFieldPoints;
+            return this;
+        }
+
+        /**
+         * Requires that the {@link MetricsHolder} aggregates the numeric Sparkplug data metrics.
+         *
+         * @param  intervalAggregation {@code true} to write the aggregates of the values since the previous report
+         * @return                     itself
+         */
+        public @NotNull Builder intervalAggregation(final boolean intervalAggregation) {
+            this.intervalAggregation = intervalAggregation;
+            return this;
+        }
+
+        /**
+         * Requires that the {@link MetricsHolder} aggregates the numeric Sparkplug data metrics.
+         *
+         * @param  rollups the resolutions of the rollups to write
+         * @return         itself
+         */
+        public @NotNull Builder withRollups(final @NotNull List<Duration> rollups) {
+            this.rollups = rollups;
+            return this;
+        }
+
+        /**
+         * @param  heartbeat the interval to write all Sparkplug data metrics in, or {@code null} to write all of them
+         *                   with every report; with a heartbeat, the other reports only write the updated ones
+         * @return           itself
+         */
+        public @NotNull Builder withHeartbeat(final @Nullable Duration heartbeat) {
+            this.heartbeat = heartbeat;
+            return this;
+        }
+
+        /**
+         * @param  routeSenders the senders of the routes, the sender at index {@code i} is the one of route
+         *                      {@code i + 1}; they must use the time precision of the sender of the reporter
+         * @return              itself
+         */
+        public @NotNull Builder withRouteSenders(final @NotNull List<LineProtocolSender> routeSenders) {
+            this.routeSenders = routeSenders;
+            return this;
+        }
+
+        /**
+         * @param  metricsHolder the holder of the Sparkplug data metrics
+         * @param  sender        the sender to write the encoded lines of the default route to
+         * @return               the reporter
+         */
+        public @NotNull LineProtocolReporter build(
+                final @NotNull MetricsHolder metricsHolder,
+                final @NotNull LineProtocolSender sender) {
+            return new LineProtocolReporter(this, metricsHolder, sender, createExecutor());
+        }
+    }
+
+    /**
+     * The sender of a route and the lines encoded for it, so every route is sent in chunks of its own.
+     */
+    private static class Route {
+
+        private final @NotNull LineProtocolSender sender;
+        private final @NotNull LineProtocolWriter writer = new LineProtocolWriter();
+        private long chunkStart;
+
+        private Route(final @NotNull LineProtocolSender sender) {
+            this.sender = sender;
+        }
+    }
+
+    /**
+     * Sorted views of all metrics of the registry except the Sparkplug data metrics, which are maintained on
+     * registration instead of being copied for every report.
+     */
+    @SuppressWarnings("rawtypes")
+    private static class RegistryMetrics extends MetricRegistryListener.Base {
+
+        private final @NotNull SortedMap<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+        private final @NotNull SortedMap<String, Counter> counters = new ConcurrentSkipListMap<>();
+        private final @NotNull SortedMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+        private final @NotNull SortedMap<String, Meter> meters = new ConcurrentSkipListMap<>();
+        private final @NotNull SortedMap<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+        @Override
+        public void onGaugeAdded(final @NotNull String name, final @NotNull Gauge<?> gauge) {
+            if (!MetricsHolder.isDeviceMetric(gauge)) {
+                gauges.put(name, gauge);
+            }
+        }
+
+        @Override
+        public void onGaugeRemoved(final @NotNull String name) {
+            gauges.remove(name);
+        }
+
+        @Override
+        public void onCounterAdded(final @NotNull String name, final @NotNull Counter counter) {
+            counters.put(name, counter);
+        }
+
+        @Override
+        public void onCounterRemoved(final @NotNull String name) {
+            counters.remove(name);
+        }
+
+        @Override
+        public void onHistogramAdded(final @NotNull String name, final @NotNull Histogram histogram) {
+            histograms.put(name, histogram);
+        }
+
+        @Override
+        public void onHistogramRemoved(final @NotNull String name) {
+            histograms.remove(name);
+        }
+
+        @Override
+        public void onMeterAdded(final @NotNull String name, final @NotNull Meter meter) {
+            meters.put(name, meter);
+        }
+
+        @Override
+        public void onMeterRemoved(final @NotNull String name) {
+            meters.remove(name);
+        }
+
+        @Override
+        public void onTimerAdded(final @NotNull String name, final @NotNull Timer timer) {
+            timers.put(name, timer);
+        }
+
+        @Override
+        public void onTimerRemoved(final @NotNull String name) {
+            timers.remove(name);
+        }
+    }
+}
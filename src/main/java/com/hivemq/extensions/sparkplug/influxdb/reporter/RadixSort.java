@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Sorts longs by their upper 32 bits, e.g. the rank of a series packed with its handle, in time linear to their number.
+ * <p>
+ * A least significant digit radix sort with 11 bit digits, so up to two million distinct keys take two passes. Only as
+ * many digits as the keys use are sorted, and small arrays are sorted with {@link Arrays#sort(long[], int, int)}. The
+ * scratch buffer and the digit counts are reused for every sort, so sorting does not allocate once the buffer fits.
+ * Must only be used by a single thread.
+ */
+class RadixSort {
+
+    private static final int DIGIT_BITS = 11;
+    private static final int DIGIT_MASK = (1 << DIGIT_BITS) - 1;
+    private static final int SMALL = 256;
+
+    private final int @NotNull [] counts = new int[1 << DIGIT_BITS];
+    private long @NotNull [] scratch = new long[SMALL];
+
+    /**
+     * Sorts the values by their upper 32 bits, the order of values with equal upper bits is unspecified.
+     *
+     * @param values the values to sort
+     * @param count  the number of values to sort, starting at index {@code 0}
+     * @param maxKey the largest key, i.e. upper 32 bits, of all values, which must not be negative
+     */
+    void sort(final long @NotNull [] values, final int count, final int maxKey) {
+        if (count < SMALL) {
+            Arrays.sort(values, 0, count);
+            return;
+        }
+        if (scratch.length < count) {
+            scratch = new long[Math.max(count, scratch.length * 2)];
+        }
+        final var keyBits = 32 - Integer.numberOfLeadingZeros(maxKey);
+        var source = values;
+        var target = scratch;
+        for (var shift = 32; shift < 32 + keyBits; shift += DIGIT_BITS) {
+            Arrays.fill(counts, 0);
+            for (var i = 0; i < count; i++) {
+                counts[(int) (source[i] >>> shift) & DIGIT_MASK]++;
+            }
+            var offset = 0;
+            for (var digit = 0; digit < counts.length; digit++) {
+                final var digitCount = counts[digit];
+                counts[digit] = offset;
+                offset += digitCount;
+            }
+            for (var i = 0; i < count; i++) {
+                final var value = source[i];
+                target[counts[(int) (value >>> shift) & DIGIT_MASK]++] = value;
+            }
+            final var swap = source;
+            source = target;
+            target = swap;
+        }
+        if (source != values) {
+            System.arraycopy(source, 0, values, 0, count);
+        }
+    }
+}
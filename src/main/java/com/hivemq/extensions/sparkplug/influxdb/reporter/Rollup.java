@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+import com.hivemq.extensions.sparkplug.influxdb.metrics.IntervalAggregate;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.SeriesTable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * The aggregates of all Sparkplug data metrics in a window of a fixed resolution, e.g. 1 minute.
+ * <p>
+ * The windows are aligned to the epoch, so the windows of all series and all HiveMQ nodes have the same boundaries.
+ * The aggregates are not computed from the raw values, but from the {@link IntervalAggregate interval aggregates} of
+ * every report, so rolling up is done by the reporter and does not add any work to the interceptor. The accumulators
+ * are indexed by the handle of the series in the {@link SeriesTable}. Must only be used by the reporter thread.
+ */
+class Rollup {
+
+    private final @NotNull String label;
+    private final long resolutionMillis;
+    private @Nullable Accumulator @NotNull [] series = new Accumulator[64];
+    private long windowStart = Long.MIN_VALUE;
+
+    /**
+     * @param resolution the length of the windows, at least one second
+     */
+    Rollup(final @NotNull Duration resolution) {
+        this.label = label(resolution);
+        this.resolutionMillis = resolution.toMillis();
+    }
+
+    /**
+     * @return the label of the resolution, e.g. {@code 1m}, which is part of the measurement names
+     */
+    @NotNull String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the start of the current window in milliseconds since epoch
+     */
+    long getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * Adds the completed interval of a series to the current window.
+     *
+     * @param handle    the handle of the series
+     * @param aggregate the aggregate of the series with a completed interval
+     */
+    void add(final int handle, final @NotNull IntervalAggregate aggregate) {
+        if (handle >= series.length) {
+            series = Arrays.copyOf(series, Math.max(handle + 1, series.length * 2));
+        }
+        var accumulator = series[handle];
+        if (accumulator == null) {
+            accumulator = new Accumulator();
+            series[handle] = accumulator;
+        }
+        accumulator.add(aggregate);
+    }
+
+    /**
+     * Starts the first window, or checks if the current window is closed at the given time.
+     *
+     * @param  nowMillis the current time in milliseconds since epoch
+     * @return           {@code true} if the current window is closed and must be written
+     */
+    boolean isClosed(final long nowMillis) {
+        if (windowStart == Long.MIN_VALUE) {
+            windowStart = nowMillis - Math.floorMod(nowMillis, resolutionMillis);
+        }
+        return nowMillis >= windowStart + resolutionMillis;
+    }
+
+    /**
+     * @param  handle the handle of the series
+     * @return        the aggregate of the series in the current window, or {@code null} if there are no values
+     */
+    @Nullable Accumulator get(final int handle) {
+        if (handle >= series.length) {
+            return null;
+        }
+        final var accumulator = series[handle];
+        return accumulator == null || accumulator.count == 0 ? null : accumulator;
+    }
+
+    /**
+     * Starts the window containing the given time, the accumulators are kept to be reused.
+     *
+     * @param nowMillis the current time in milliseconds since epoch
+     */
+    void next(final long nowMillis) {
+        windowStart = nowMillis - Math.floorMod(nowMillis, resolutionMillis);
+        for (final var accumulator : series) {
+            if (accumulator != null) {
+                accumulator.reset();
+            }
+        }
+    }
+
+    private static @NotNull String label(final @NotNull Duration resolution) {
+        final var seconds = resolution.getSeconds();
+        if (seconds % 86_400 == 0) {
+            return seconds / 86_400 + "d";
+        }
+        if (seconds % 3_600 == 0) {
+            return seconds / 3_600 + "h";
+        }
+        if (seconds % 60 == 0) {
+            return seconds / 60 + "m";
+        }
+        return seconds + "s";
+    }
+
+    /**
+     * The aggregate of a series in a window.
+     */
+    static class Accumulator {
+
+        private long count;
+        private double sum;
+        private double min;
+        private double max;
+        private double first;
+        private double last;
+
+        void add(final @NotNull IntervalAggregate aggregate) {
+            if (count == 0) {
+                min = aggregate.getMin();
+                max = aggregate.getMax();
+                first = aggregate.getFirst();
+            } else {
+                min = Math.min(min, aggregate.getMin());
+                max = Math.max(max, aggregate.getMax());
+            }
+            count += aggregate.getCount();
+            sum += aggregate.getSum();
+            last = aggregate.getLast();
+        }
+
+        void reset() {
+            count = 0;
+            sum = 0;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        double getMin() {
+            return min;
+        }
+
+        double getMax() {
+            return max;
+        }
+
+        double getMean() {
+            return sum / count;
+        }
+
+        double getFirst() {
+            return first;
+        }
+
+        double getLast() {
+            return last;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+import com.hivemq.extensions.sparkplug.influxdb.lineprotocol.LineProtocolWriter;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.DeviceMetrics;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.SeriesTable;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.SparkplugGauge;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The encoded series keys of the Sparkplug data metrics, i.e. the escaped measurement and the sorted tags of a line
+ * as UTF-8 bytes.
+ * <p>
+ * A key is encoded when the series is written for the first time, after that starting a line is a copy of its bytes.
+ * The keys of single-field points are indexed by the handle of the series, the keys of multi-field points by the index
+ * of the device in the {@link SeriesTable}. Both never change, as series and devices are only added and the type of a
+ * series does not change its key. The keys depend on the prefix and the tags, which are fixed for the lifetime of the
+ * cache, so a new configuration requires a new cache. Must only be used by the reporter thread.
+ * <p>
+ * If routes are configured, edge nodes and devices carry the ID of their Sparkplug group as {@value #GROUP_TAG} tag,
+ * so edge nodes with the same ID in different groups are separate series.
+ */
+class SeriesKeys {
+
+    static final @NotNull String GROUP_TAG = "group";
+    private static final byte @NotNull [] @Nullable [] EMPTY = new byte[0][];
+
+    private final @NotNull String prefix;
+    private final @NotNull Map<String, String> tags;
+    private final @NotNull Map<String, Map<String, String>> groupTags = new HashMap<>();
+    private final @NotNull LineProtocolWriter encoder = new LineProtocolWriter(256);
+    private byte @NotNull [] @Nullable [] series = EMPTY;
+    private byte @NotNull [] @Nullable [] devices = EMPTY;
+
+    /**
+     * @param prefix the prefix of all measurements
+     * @param tags   the tags added to every line, in the order they are written
+     */
+    SeriesKeys(final @NotNull String prefix, final @NotNull Map<String, String> tags) {
+        this.prefix = prefix;
+        this.tags = tags;
+    }
+
+    /**
+     * @return the key of the single-field points of the series, e.g. {@code sparkplug.edgeNode.device1.speed,host=a}
+     */
+    byte @NotNull [] series(final @NotNull DeviceMetrics device, final @NotNull SparkplugGauge<?> gauge) {
+        final var handle = gauge.getHandle();
+        if (handle >= series.length) {
+            series = Arrays.copyOf(series, Math.max(handle + 1, series.length * 2));
+        }
+        var key = series[handle];
+        if (key == null) {
+            encoder.reset();
+            encoder.measurement(prefix)
+                    .appendMeasurement(device.getMeasurement())
+                    .appendMeasurement(".")
+                    .appendMeasurement(gauge.getField())
+                    .tags(tags(device));
+            key = encoder.toByteArray();
+            series[handle] = key;
+        }
+        return key;
+    }
+
+    /**
+     * @return the key of the multi-field points of the device, e.g. {@code sparkplug.edgeNode.device1,host=a}
+     */
+    byte @NotNull [] device(final @NotNull DeviceMetrics device) {
+        final var index = device.getIndex();
+        if (index >= devices.length) {
+            devices = Arrays.copyOf(devices, Math.max(index + 1, devices.length * 2));
+        }
+        var key = devices[index];
+        if (key == null) {
+            encoder.reset();
+            encoder.measurement(prefix).appendMeasurement(device.getMeasurement()).tags(tags(device));
+            key = encoder.toByteArray();
+            devices[index] = key;
+        }
+        return key;
+    }
+
+    /**
+     * @return the tags of the lines of the device, i.e. the tags added to every line and the {@value #GROUP_TAG} tag of
+     *         its Sparkplug group, sorted by key
+     */
+    @NotNull Map<String, String> tags(final @NotNull DeviceMetrics device) {
+        final var group = device.getGroup();
+        if (group.isEmpty()) {
+            return tags;
+        }
+        var deviceTags = groupTags.get(group);
+        if (deviceTags == null) {
+            deviceTags = new TreeMap<>(tags);
+            deviceTags.put(GROUP_TAG, group);
+            groupTags.put(group, deviceTags);
+        }
+        return deviceTags;
+    }
+}
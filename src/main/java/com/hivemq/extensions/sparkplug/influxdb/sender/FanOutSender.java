@@ -0,0 +1,352 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the same lines to several named sinks, e.g. an on-premises InfluxDB and an InfluxDB Cloud bucket.
+ * <p>
+ * The sinks only differ in their transport: the lines are encoded once, with the same prefix, tags, point format and
+ * time precision, and every chunk is shared by all sinks. Each sink has its own bounded queue and a thread
+ * handing the chunks to its sender, so a slow or unreachable sink does not hold back the others: once its queue is
+ * full, the chunks are dropped for this sink only. A failed write is retried up to {@value #ATTEMPTS} times in total
+ * with an exponential backoff before the chunk is dropped; the thread of the sink also schedules its retries.
+ * <p>
+ * Sending a chunk completes once the first sink has written it, so the reporter measures the latency of an actual
+ * write and widens its interval while no sink keeps up. It fails if no sink could write the chunk, i.e. it was dropped
+ * by all of them. The written, failed and dropped chunks and the queued bytes of every sink are recorded in the
+ * {@link PipelineMetrics}; the dropped chunks are logged at most once per {@value #DROP_LOG_INTERVAL_SECONDS} seconds
+ * and sink, so a sink which is down for long does not flood the log.
+ */
+public class FanOutSender implements LineProtocolSender {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(FanOutSender.class);
+
+    static final int ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final long DROP_LOG_INTERVAL_SECONDS = 60;
+
+    private final @NotNull Sink @NotNull [] sinks;
+    private final @NotNull TimeUnit timePrecision;
+
+    /**
+     * @param senders         the senders of the sinks by the name of the sink
+     * @param queueSize       the number of bytes queued at most per sink
+     * @param pipelineMetrics the metrics to record the writes of the sinks in
+     */
+    public FanOutSender(
+            final @NotNull Map<String, LineProtocolSender> senders,
+            final long queueSize,
+            final @NotNull PipelineMetrics pipelineMetrics) {
+        this(senders, queueSize, RETRY_DELAY_MILLIS, pipelineMetrics);
+    }
+
+    FanOutSender(
+            final @NotNull Map<String, LineProtocolSender> senders,
+            final long queueSize,
+            final long retryDelayMillis,
+            final @NotNull PipelineMetrics pipelineMetrics) {
+        if (senders.isEmpty()) {
+            throw new IllegalArgumentException("At least one sink is required");
+        }
+        final var precisions = senders.values().stream().map(LineProtocolSender::getTimePrecision).distinct().count();
+        if (precisions > 1) {
+            throw new IllegalArgumentException("All sinks must use the same time precision");
+        }
+        timePrecision = senders.values().iterator().next().getTimePrecision();
+        sinks = senders.entrySet()
+                .stream()
+                .map(entry -> new Sink(entry.getKey(), entry.getValue(), queueSize, retryDelayMillis, pipelineMetrics))
+                .toArray(Sink[]::new);
+        for (final var sink : sinks) {
+            sink.start();
+        }
+    }
+
+    @Override
+    public @NotNull TimeUnit getTimePrecision() {
+        return timePrecision;
+    }
+
+    @Override
+    public void send(final byte @NotNull [] lines, final int length) throws Exception {
+        LineProtocolSender.await(sendAsync(lines, length));
+    }
+
+    @Override
+    public @NotNull CompletableFuture<Void> sendAsync(final byte @NotNull [] lines, final int length) {
+        final var chunk = new Chunk(Arrays.copyOf(lines, length), sinks.length);
+        for (final var sink : sinks) {
+            if (!sink.offer(chunk)) {
+                chunk.dropped(new IOException("The queue of the sink " + sink.name + " is full"));
+            }
+        }
+        return chunk.written;
+    }
+
+    /**
+     * Stops the threads of the sinks and closes their senders, chunks which were not written yet are discarded.
+     */
+    @Override
+    public void close() {
+        for (final var sink : sinks) {
+            sink.close();
+        }
+    }
+
+    /**
+     * A chunk shared by all sinks, whose future completes when the first sink wrote it or all sinks dropped it.
+     */
+    private static final class Chunk {
+
+        private final byte @NotNull [] bytes;
+        private final @NotNull CompletableFuture<Void> written = new CompletableFuture<>();
+        // the sinks which neither wrote nor dropped the chunk yet
+        private final @NotNull AtomicInteger pending;
+
+        private Chunk(final byte @NotNull [] bytes, final int sinks) {
+            this.bytes = bytes;
+            pending = new AtomicInteger(sinks);
+        }
+
+        private void written() {
+            pending.decrementAndGet();
+            written.complete(null);
+        }
+
+        private void dropped(final @NotNull Throwable cause) {
+            if (pending.decrementAndGet() == 0) {
+                written.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * A chunk whose write failed, to be written again at the given time.
+     */
+    private static final class Retry {
+
+        private final @NotNull Chunk chunk;
+        private final int attempt;
+        private final long dueNanos;
+
+        private Retry(final @NotNull Chunk chunk, final int attempt, final long dueNanos) {
+            this.chunk = chunk;
+            this.attempt = attempt;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    /**
+     * A named sink with its own queue of chunks, which are handed to its sender by its own thread.
+     */
+    private static class Sink implements Runnable {
+
+        private final @NotNull String name;
+        private final @NotNull LineProtocolSender sender;
+        private final long queueSize;
+        private final long retryDelayMillis;
+        private final @NotNull PipelineMetrics.SinkMetrics metrics;
+        private final @NotNull Thread thread;
+
+        // guarded by this
+        private final @NotNull ArrayDeque<Chunk> queue = new ArrayDeque<>();
+        private final @NotNull PriorityQueue<Retry> retries =
+                new PriorityQueue<>(Comparator.comparingLong(retry -> retry.dueNanos));
+        // the bytes of the queued chunks and the chunks being written or retried
+        private long queuedBytes;
+        private boolean closed;
+        // the chunks dropped since the previous log
+        private long droppedChunks;
+        private long droppedLoggedNanos = System.nanoTime() - TimeUnit.SECONDS.toNanos(DROP_LOG_INTERVAL_SECONDS);
+
+        private Sink(
+                final @NotNull String name,
+                final @NotNull LineProtocolSender sender,
+                final long queueSize,
+                final long retryDelayMillis,
+                final @NotNull PipelineMetrics pipelineMetrics) {
+            this.name = name;
+            this.sender = sender;
+            this.queueSize = queueSize;
+            this.retryDelayMillis = retryDelayMillis;
+            thread = new Thread(this, "influxdb-sink-" + name);
+            thread.setDaemon(true);
+            metrics = pipelineMetrics.sinkRegistered(name, this::getQueuedBytes);
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private synchronized long getQueuedBytes() {
+            return queuedBytes;
+        }
+
+        private synchronized boolean offer(final @NotNull Chunk chunk) {
+            if (closed || queuedBytes + chunk.bytes.length > queueSize) {
+                metrics.dropped(chunk.bytes.length);
+                logDropped("its queue is full");
+                return false;
+            }
+            queue.add(chunk);
+            queuedBytes += chunk.bytes.length;
+            notifyAll();
+            return true;
+        }
+
+        private void close() {
+            final var discarded = new ArrayDeque<Chunk>();
+            synchronized (this) {
+                closed = true;
+                discarded.addAll(queue);
+                retries.forEach(retry -> discarded.add(retry.chunk));
+                queue.clear();
+                retries.clear();
+                for (final var chunk : discarded) {
+                    queuedBytes -= chunk.bytes.length;
+                }
+                notifyAll();
+            }
+            // stops waiting for the sender, e.g. for a full window
+            thread.interrupt();
+            sender.close();
+            final var cause = new IOException("The sink " + name + " was closed");
+            discarded.forEach(chunk -> chunk.dropped(cause));
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final var retry = next();
+                    if (retry == null) {
+                        return;
+                    }
+                    // blocks this thread only, e.g. while the window of an HTTP sender is full
+                    write(retry.chunk, retry.attempt);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Waits for the next chunk to write, retries which are due take precedence over the queued chunks.
+         *
+         * @return the next chunk and its attempt, or {@code null} if the sink was closed
+         */
+        private synchronized @Nullable Retry next() throws InterruptedException {
+            while (!closed) {
+                final var retry = retries.peek();
+                final var waitNanos = retry == null ? Long.MAX_VALUE : retry.dueNanos - System.nanoTime();
+                if (waitNanos <= 0) {
+                    return retries.poll();
+                }
+                final var chunk = queue.poll();
+                if (chunk != null) {
+                    return new Retry(chunk, 1, 0);
+                }
+                if (retry == null) {
+                    wait();
+                } else {
+                    TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                }
+            }
+            return null;
+        }
+
+        private void write(final @NotNull Chunk chunk, final int attempt) {
+            CompletableFuture<Void> future;
+            try {
+                future = sender.sendAsync(chunk.bytes, chunk.bytes.length);
+            } catch (final Exception e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenComplete((result, throwable) -> {
+                if (throwable == null) {
+                    metrics.sent(chunk.bytes.length);
+                    release(chunk);
+                    chunk.written();
+                    return;
+                }
+                metrics.failed();
+                if (attempt == ATTEMPTS || !retry(chunk, attempt + 1)) {
+                    metrics.dropped(chunk.bytes.length);
+                    logDropped("writing failed with error '" + throwable.getMessage() + "'");
+                    release(chunk);
+                    chunk.dropped(throwable);
+                }
+            });
+        }
+
+        /**
+         * Schedules the next attempt to write the chunk with an exponential backoff.
+         *
+         * @return {@code false} if the sink was closed
+         */
+        private synchronized boolean retry(final @NotNull Chunk chunk, final int attempt) {
+            if (closed) {
+                return false;
+            }
+            final var delayNanos = TimeUnit.MILLISECONDS.toNanos(retryDelayMillis << (attempt - 2));
+            retries.add(new Retry(chunk, attempt, System.nanoTime() + delayNanos));
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * Logs a dropped chunk, unless a dropped chunk was logged within the last
+         * {@value #DROP_LOG_INTERVAL_SECONDS} seconds. The log states how many chunks were dropped since the previous
+         * log.
+         *
+         * @param reason why the last chunk was dropped
+         */
+        private synchronized void logDropped(final @NotNull String reason) {
+            droppedChunks++;
+            final var now = System.nanoTime();
+            if (now - droppedLoggedNanos < TimeUnit.SECONDS.toNanos(DROP_LOG_INTERVAL_SECONDS)) {
+                return;
+            }
+            LOG.warn("Unable to write to the sink {}, as {}. Discarded {} chunk(s) since the previous warning.",
+                    name,
+                    reason,
+                    droppedChunks);
+            droppedChunks = 0;
+            droppedLoggedNanos = now;
+        }
+
+        private synchronized void release(final @NotNull Chunk chunk) {
+            queuedBytes -= chunk.bytes.length;
+        }
+    }
+}
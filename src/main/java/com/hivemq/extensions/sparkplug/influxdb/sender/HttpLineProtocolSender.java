@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import com.izettle.metrics.influxdb.utils.TimeUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP sender for the {@code /write} endpoint of InfluxDB 1.x (or the 1.x compatibility API of InfluxDB 2.x).
+ * <p>
+ * Authenticates with HTTP basic authentication if credentials are given, in the format {@code user:password}.
+ */
+public class HttpLineProtocolSender extends PipelinedHttpSender {
+
+    /**
+     * @param  protocol        the protocol to use (http or https)
+     * @param  host            the InfluxDB host
+     * @param  port            the port number
+     * @param  database        the database to write to
+     * @param  authString      the credentials as {@code user:password}, or {@code null} to not authenticate
+     * @param  timePrecision   the precision of the timestamps in the written lines
+     * @param  connectTimeout  the connect timeout in milliseconds
+     * @param  readTimeout     the read timeout in milliseconds
+     * @param  maxInFlight     the number of write requests in flight at most
+     * @param  pipelineMetrics the metrics to record the requests in flight in
+     * @throws Exception       if the URL cannot be constructed
+     */
+    public HttpLineProtocolSender(
+            final @NotNull String protocol,
+            final @NotNull String host,
+            final int port,
+            final @NotNull String database,
+            final @Nullable String authString,
+            final @NotNull TimeUnit timePrecision,
+            final int connectTimeout,
+            final int readTimeout,
+            final int maxInFlight,
+            final @NotNull PipelineMetrics pipelineMetrics) throws Exception {
+        super(new URL(protocol,
+                        host,
+                        port,
+                        "/write?db=" + URLEncoder.encode(database, StandardCharsets.UTF_8) + "&precision=" +
+                                TimeUtils.toTimePrecision(timePrecision)).toURI(),
+                authString == null || authString.isEmpty() ?
+                        null :
+                        "Basic " + Base64.getEncoder().encodeToString(authString.getBytes(StandardCharsets.UTF_8)),
+                false,
+                timePrecision,
+                connectTimeout,
+                readTimeout,
+                maxInFlight,
+                pipelineMetrics);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import java.io.IOException;
+
+/**
+ * Thrown when InfluxDB answers a write request with a status code other than 2xx.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    /**
+     * @param statusCode the status code of the response
+     * @param message    the detail message
+     */
+    public HttpStatusException(final int statusCode, final String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return the status code of the response
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return whether the server failed or is overloaded ({@code 429} or {@code 5xx}), so the same write may succeed
+     *         later or on another server; other codes like {@code 400} or {@code 413} reject the write itself
+     */
+    public boolean isServerFailure() {
+        return statusCode == 429 || statusCode / 100 == 5;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import com.izettle.metrics.influxdb.utils.TimeUtils;
+
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP sender implementation for InfluxDB Cloud using the InfluxDB 2.x API.
+ * <p>
+ * This sender extends {@link PipelinedHttpSender} to support InfluxDB Cloud's authentication and API requirements:
+ * <ul>
+ * <li>Uses the {@code /api/v2/write} endpoint instead of the legacy write endpoint</li>
+ * <li>Authenticates using Bearer tokens via the {@code Authorization} header</li>
+ * <li>Supports organization and bucket parameters required by InfluxDB 2.x</li>
+ * <li>Compresses data using GZIP for efficient transmission</li>
+ * </ul>
+ * <p>
+ * The sender is thread-safe and can be used concurrently by multiple threads.
+ *
+ * @author David Sondermann
+ * @see    PipelinedHttpSender
+ */
+public class InfluxDbCloudSender extends PipelinedHttpSender {
+
+    /**
+     * Constructs a new InfluxDbCloudSender for sending metrics to InfluxDB Cloud.
+     *
+     * @param  protocol        the protocol to use (http or https)
+     * @param  host            the InfluxDB Cloud host
+     * @param  port            the port number
+     * @param  authToken       the authentication token for InfluxDB Cloud
+     * @param  timePrecision   the time precision for timestamps
+     * @param  connectTimeout  the connection timeout in milliseconds
+     * @param  readTimeout     the read timeout in milliseconds
+     * @param  organization    the InfluxDB Cloud organization name
+     * @param  bucket          the InfluxDB Cloud bucket name
+     * @param  maxInFlight     the number of write requests in flight at most
+     * @param  pipelineMetrics the metrics to record the requests in flight in
+     * @throws Exception       if the URL cannot be constructed
+     */
+    public InfluxDbCloudSender(
+            final @NotNull String protocol,
+            final @NotNull String host,
+            final int port,
+            final @NotNull String authToken,
+            final @NotNull TimeUnit timePrecision,
+            final int connectTimeout,
+            final int readTimeout,
+            final @NotNull String organization,
+            final @NotNull String bucket,
+            final int maxInFlight,
+            final @NotNull PipelineMetrics pipelineMetrics) throws Exception {
+        super(url(protocol, host, port, timePrecision, organization, bucket).toURI(),
+                "Token " + authToken,
+                true,
+                timePrecision,
+                connectTimeout,
+                readTimeout,
+                maxInFlight,
+                pipelineMetrics);
+    }
+
+    /**
+     * Constructs the URL of the InfluxDB Cloud write endpoint.
+     */
+    private static @NotNull URL url(
+            final @NotNull String protocol,
+            final @NotNull String host,
+            final int port,
+            final @NotNull TimeUnit timePrecision,
+            final @NotNull String organization,
+            final @NotNull String bucket) throws Exception {
+        final var endpoint = new URL(protocol, host, port, "/api/v2/write").toString();
+        final var queryPrecision = String.format("precision=%s", TimeUtils.toTimePrecision(timePrecision));
+        final var orgParameter = String.format("org=%s", URLEncoder.encode(organization, StandardCharsets.UTF_8));
+        final var bucketParameter = String.format("bucket=%s", URLEncoder.encode(bucket, StandardCharsets.UTF_8));
+        return new URL(endpoint + "?" + queryPrecision + "&" + orgParameter + "&" + bucketParameter);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport for already encoded InfluxDB line protocol.
+ * <p>
+ * The reporter encodes all points itself and only hands over the finished bytes, so a sender is not involved in
+ * building points and does not need to hold any state besides its connection.
+ */
+public interface LineProtocolSender {
+
+    /**
+     * @return the precision the timestamps of the written lines must have
+     */
+    @NotNull TimeUnit getTimePrecision();
+
+    /**
+     * Sends the first {@code length} bytes of the given buffer to InfluxDB.
+     *
+     * @param  lines     the encoded lines, terminated by a line feed each
+     * @param  length    the number of valid bytes in {@code lines}
+     * @throws Exception if the data could not be sent
+     */
+    void send(byte @NotNull [] lines, int length) throws Exception;
+
+    /**
+     * Starts sending the first {@code length} bytes of the given buffer to InfluxDB. The bytes are copied before this
+     * method returns, so the caller may reuse the buffer right away. Senders that can have several writes in flight
+     * return before the write completes, by default the lines are sent synchronously.
+     *
+     * @param  lines     the encoded lines, terminated by a line feed each
+     * @param  length    the number of valid bytes in {@code lines}
+     * @return           a future completed once InfluxDB accepted the lines, or completed exceptionally if the data
+     *                   could not be sent
+     * @throws Exception if the data could not be sent
+     */
+    default @NotNull CompletableFuture<Void> sendAsync(final byte @NotNull [] lines, final int length)
+            throws Exception {
+        send(lines, length);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Releases the connection and any background resources of the sender, called when the extension stops.
+     */
+    default void close() {
+    }
+
+    /**
+     * Waits for a write started with {@link #sendAsync(byte[], int)} to complete.
+     *
+     * @param  future    the future of the write
+     * @throws Exception the exception the write failed with
+     */
+    static void await(final @NotNull CompletableFuture<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads the writes over several InfluxDB endpoints, e.g. the data nodes of an InfluxDB Enterprise cluster, with one
+ * sender per endpoint.
+ * <p>
+ * Every chunk is sent to the healthy endpoint with the least load, which is the number of bytes in flight to the
+ * endpoint weighted with the moving average of its write latency; endpoints with the same load take turns. The health
+ * of the endpoints is checked passively: after {@value #EJECT_FAILURES} consecutive failed writes, an endpoint is
+ * ejected for 10 seconds. Once readmitted, a single failed write ejects it again for twice as long, up to 5 minutes. A
+ * failed write is retried once on another healthy endpoint. If all endpoints are ejected, the endpoint which will be
+ * readmitted first is used. Only failures of the endpoint count: connect errors, timeouts and the HTTP status codes
+ * {@code 429} and {@code 5xx}. A write rejected with another status code, e.g. {@code 400} for a malformed line or
+ * {@code 413} for a too large body, would be rejected by every endpoint, so it fails without a retry.
+ * <p>
+ * The ejections and retries are recorded in the {@link PipelineMetrics}.
+ */
+public class LoadBalancingSender implements LineProtocolSender {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(LoadBalancingSender.class);
+
+    static final int EJECT_FAILURES = 3;
+    private static final long EJECT_MIN_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long EJECT_MAX_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final @NotNull Endpoint @NotNull [] endpoints;
+    private final @NotNull PipelineMetrics pipelineMetrics;
+    // guarded by this
+    private int next;
+
+    /**
+     * @param senders         the senders of the endpoints by the name of the endpoint, in the order of the
+     *                        configuration
+     * @param pipelineMetrics the metrics to record the ejections and retries in
+     */
+    public LoadBalancingSender(
+            final @NotNull Map<String, LineProtocolSender> senders,
+            final @NotNull PipelineMetrics pipelineMetrics) {
+        if (senders.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        endpoints = senders.entrySet()
+                .stream()
+                .map(entry -> new Endpoint(entry.getKey(), entry.getValue()))
+                .toArray(Endpoint[]::new);
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    @Override
+    public @NotNull TimeUnit getTimePrecision() {
+        return endpoints[0].sender.getTimePrecision();
+    }
+
+    @Override
+    public void send(final byte @NotNull [] lines, final int length) throws Exception {
+        LineProtocolSender.await(sendAsync(lines, length));
+    }
+
+    @Override
+    public @NotNull CompletableFuture<Void> sendAsync(final byte @NotNull [] lines, final int length) {
+        // kept for a retry after the caller reused the buffer
+        final var body = Arrays.copyOf(lines, length);
+        final var endpoint = select(length, null);
+        assert endpoint != null;
+        return send(endpoint, body).handle((result, throwable) -> {
+            if (throwable == null) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            if (!isEndpointFailure(throwable)) {
+                return CompletableFuture.<Void>failedFuture(throwable);
+            }
+            final var retry = select(length, endpoint);
+            if (retry == null) {
+                return CompletableFuture.<Void>failedFuture(throwable);
+            }
+            pipelineMetrics.endpointRetried();
+            LOG.debug("Write to InfluxDB endpoint {} failed, retrying on {}", endpoint.name, retry.name);
+            return send(retry, body);
+        }).thenCompose(future -> future);
+    }
+
+    @Override
+    public void close() {
+        for (final var endpoint : endpoints) {
+            endpoint.sender.close();
+        }
+    }
+
+    /**
+     * Selects the healthy endpoint with the least load.
+     *
+     * @param  length   the number of bytes to send
+     * @param  excluded the endpoint a write failed on, or {@code null} for the first attempt
+     * @return          the endpoint, the endpoint readmitted first if all endpoints are ejected, or {@code null} if no
+     *                  other healthy endpoint is left for a retry
+     */
+    private synchronized @Nullable Endpoint select(final int length, final @Nullable Endpoint excluded) {
+        final var now = System.nanoTime();
+        // an endpoint without any write yet is assumed to be as fast as the fastest one
+        var fastest = Double.MAX_VALUE;
+        for (final var endpoint : endpoints) {
+            if (endpoint.latencyNanos > 0) {
+                fastest = Math.min(fastest, endpoint.latencyNanos);
+            }
+        }
+        if (fastest == Double.MAX_VALUE) {
+            fastest = 1;
+        }
+        Endpoint selected = null;
+        var selectedLoad = Double.MAX_VALUE;
+        Endpoint readmittedFirst = null;
+        for (var i = 0; i < endpoints.length; i++) {
+            final var endpoint = endpoints[(next + i) % endpoints.length];
+            if (endpoint == excluded) {
+                continue;
+            }
+            if (endpoint.isEjected(now)) {
+                if (readmittedFirst == null || endpoint.ejectedUntil - readmittedFirst.ejectedUntil < 0) {
+                    readmittedFirst = endpoint;
+                }
+                continue;
+            }
+            final var latency = endpoint.latencyNanos > 0 ? endpoint.latencyNanos : fastest;
+            final var load = (endpoint.inFlightBytes + length) * latency;
+            if (load < selectedLoad) {
+                selected = endpoint;
+                selectedLoad = load;
+            }
+        }
+        next = (next + 1) % endpoints.length;
+        return selected != null || excluded != null ? selected : readmittedFirst;
+    }
+
+    private @NotNull CompletableFuture<Void> send(final @NotNull Endpoint endpoint, final byte @NotNull [] body) {
+        synchronized (this) {
+            endpoint.inFlightBytes += body.length;
+        }
+        final var start = System.nanoTime();
+        CompletableFuture<Void> future;
+        try {
+            future = endpoint.sender.sendAsync(body, body.length);
+        } catch (final Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, throwable) -> completed(endpoint,
+                body.length,
+                System.nanoTime() - start,
+                throwable));
+    }
+
+    private synchronized void completed(
+            final @NotNull Endpoint endpoint,
+            final int length,
+            final long nanos,
+            final @Nullable Throwable throwable) {
+        endpoint.inFlightBytes -= length;
+        if (throwable != null && !isEndpointFailure(throwable)) {
+            // the write was rejected, which says nothing about the health of the endpoint
+            return;
+        }
+        if (throwable == null) {
+            endpoint.latencyNanos = endpoint.latencyNanos == 0 ?
+                    nanos :
+                    endpoint.latencyNanos + LATENCY_WEIGHT * (nanos - endpoint.latencyNanos);
+            endpoint.failures = 0;
+            endpoint.probation = false;
+            endpoint.ejectionNanos = EJECT_MIN_NANOS;
+            return;
+        }
+        endpoint.failures++;
+        final var now = System.nanoTime();
+        if (!endpoint.isEjected(now) && (endpoint.probation || endpoint.failures >= EJECT_FAILURES)) {
+            endpoint.ejectedUntil = now + endpoint.ejectionNanos;
+            endpoint.probation = true;
+            pipelineMetrics.endpointEjected();
+            LOG.warn("Ejecting InfluxDB endpoint {} for {} s after {} failed writes",
+                    endpoint.name,
+                    TimeUnit.NANOSECONDS.toSeconds(endpoint.ejectionNanos),
+                    endpoint.failures);
+            endpoint.ejectionNanos = Math.min(endpoint.ejectionNanos * 2, EJECT_MAX_NANOS);
+        }
+    }
+
+    /**
+     * @param  throwable the cause of a failed write
+     * @return           whether the write failed because of the endpoint, i.e. it is unreachable, timed out or
+     *                   answered with {@code 429} or {@code 5xx}
+     */
+    private static boolean isEndpointFailure(final @NotNull Throwable throwable) {
+        final var cause = throwable instanceof CompletionException && throwable.getCause() != null ?
+                throwable.getCause() :
+                throwable;
+        return !(cause instanceof HttpStatusException) || ((HttpStatusException) cause).isServerFailure();
+    }
+
+    /**
+     * The load and health of an endpoint, guarded by the {@link LoadBalancingSender}.
+     */
+    private static class Endpoint {
+
+        private final @NotNull String name;
+        private final @NotNull LineProtocolSender sender;
+        private long inFlightBytes;
+        private double latencyNanos;
+        private int failures;
+        private long ejectedUntil;
+        private long ejectionNanos = EJECT_MIN_NANOS;
+        // set when ejected, an endpoint on probation is ejected again on the first failure after being readmitted
+        private boolean probation;
+
+        private Endpoint(final @NotNull String name, final @NotNull LineProtocolSender sender) {
+            this.name = name;
+            this.sender = sender;
+        }
+
+        private boolean isEjected(final long now) {
+            return probation && now - ejectedUntil < 0;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Base class of the HTTP senders, which keeps several write requests in flight instead of waiting for the response
+ * of each request before sending the next one.
+ * <p>
+ * The requests are sent with the asynchronous {@link HttpClient}, which multiplexes them as HTTP/2 streams for
+ * {@code https} (if the server supports it) and otherwise spreads them over a pool of reused HTTP/1.1 connections. The
+ * number of requests in flight is limited by a window: {@link #sendAsync(byte[], int)} blocks the reporter while the
+ * window is full, so a slow server still slows down the reporter. The window size, the requests and the bytes in
+ * flight are recorded in the {@link PipelineMetrics}.
+ * <p>
+ * The client runs on an executor of its own, which {@link #close()} shuts down after cancelling the requests in flight,
+ * so a closed sender leaves no threads behind.
+ */
+public abstract class PipelinedHttpSender implements LineProtocolSender {
+
+    private final @NotNull ExecutorService executor;
+    private final @NotNull HttpClient client;
+    private final @NotNull URI uri;
+    private final @Nullable String authorization;
+    private final boolean gzip;
+    private final @NotNull TimeUnit timePrecision;
+    private final @NotNull Duration readTimeout;
+    private final @NotNull Semaphore window;
+    private final @NotNull PipelineMetrics pipelineMetrics;
+    private final @NotNull Set<CompletableFuture<HttpResponse<String>>> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * @param uri             the URI of the write endpoint, including the query parameters
+     * @param authorization   the value of the {@code Authorization} header, or {@code null} to send none
+     * @param gzip            whether the lines are sent compressed with GZIP
+     * @param timePrecision   the precision of the timestamps in the written lines
+     * @param connectTimeout  the connect timeout in milliseconds
+     * @param readTimeout     the time to wait for a response in milliseconds
+     * @param maxInFlight     the number of requests in flight at most
+     * @param pipelineMetrics the metrics to record the window and the requests in flight in
+     */
+    protected PipelinedHttpSender(
+            final @NotNull URI uri,
+            final @Nullable String authorization,
+            final boolean gzip,
+            final @NotNull TimeUnit timePrecision,
+            final int connectTimeout,
+            final int readTimeout,
+            final int maxInFlight,
+            final @NotNull PipelineMetrics pipelineMetrics) {
+        this.uri = uri;
+        this.authorization = authorization;
+        this.gzip = gzip;
+        this.timePrecision = timePrecision;
+        this.readTimeout = Duration.ofMillis(readTimeout);
+        this.pipelineMetrics = pipelineMetrics;
+        executor = Executors.newCachedThreadPool(runnable -> {
+            final var thread = new Thread(runnable, "influxdb-http-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // HTTP/2 is negotiated with ALPN, an upgrade from plain HTTP/1.1 is not attempted
+        client = HttpClient.newBuilder()
+                .executor(executor)
+                .version("https".equals(uri.getScheme()) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .build();
+        window = new Semaphore(maxInFlight);
+        pipelineMetrics.httpWindow(maxInFlight);
+    }
+
+    @Override
+    public @NotNull TimeUnit getTimePrecision() {
+        return timePrecision;
+    }
+
+    @Override
+    public void send(final byte @NotNull [] lines, final int length) throws Exception {
+        LineProtocolSender.await(sendAsync(lines, length));
+    }
+
+    @Override
+    public @NotNull CompletableFuture<Void> sendAsync(final byte @NotNull [] lines, final int length)
+            throws Exception {
+        final var body = gzip ? gzip(lines, length) : Arrays.copyOf(lines, length);
+        final var request = HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .header("Content-Type", "text/plain; charset=utf-8")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        if (authorization != null) {
+            request.header("Authorization", authorization);
+        }
+        if (gzip) {
+            request.header("Content-Encoding", "gzip");
+        }
+        if (closed) {
+            throw new IOException("HTTP sender is closed");
+        }
+        window.acquire();
+        pipelineMetrics.httpRequestStarted(body.length);
+        try {
+            final var response = client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString());
+            inFlight.add(response);
+            return response.handle((result, throwable) -> {
+                inFlight.remove(response);
+                window.release();
+                pipelineMetrics.httpRequestCompleted(body.length);
+                if (throwable != null) {
+                    throw throwable instanceof CompletionException ?
+                            (CompletionException) throwable :
+                            new CompletionException(throwable);
+                }
+                // check if non 2XX response code
+                if (result.statusCode() / 100 != 2) {
+                    throw new CompletionException(new HttpStatusException(result.statusCode(),
+                            String.format("Server returned HTTP response code: %d for URL: %s with content: '%s'",
+                                    result.statusCode(),
+                                    uri,
+                                    result.body())));
+                }
+                return null;
+            });
+        } catch (final RuntimeException e) {
+            window.release();
+            pipelineMetrics.httpRequestCompleted(body.length);
+            throw e;
+        }
+    }
+
+    /**
+     * Cancels the requests in flight, which fail with a {@link java.util.concurrent.CancellationException}, and shuts
+     * down the executor of the client.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (final var response : inFlight) {
+            response.cancel(true);
+        }
+        executor.shutdownNow();
+    }
+
+    private static byte @NotNull [] gzip(final byte @NotNull [] lines, final int length) throws IOException {
+        // line protocol usually compresses to well below a quarter
+        final var out = new ByteArrayOutputStream(length / 4 + 64);
+        try (final var gzipOutputStream = new GZIPOutputStream(out)) {
+            gzipOutputStream.write(lines, 0, length);
+        }
+        return out.toByteArray();
+    }
+}
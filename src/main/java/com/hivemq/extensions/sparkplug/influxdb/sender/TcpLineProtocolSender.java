@@ -0,0 +1,328 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * TCP sender writing line protocol to a plain socket listener (e.g. Telegraf's {@code socket_listener}).
+ * <p>
+ * Sending never blocks the reporter: the lines are appended to a bounded buffer and written by a background thread
+ * with a non-blocking {@link SocketChannel}. The thread coalesces all pending chunks into a single gathering write,
+ * and continues partial writes once the socket is writable again. If the listener is unreachable or closes the
+ * connection, or its host can not be resolved, the thread reconnects with an exponential backoff, while the lines keep
+ * being buffered. A chunk which was only partially written is written again completely after reconnecting; InfluxDB
+ * overwrites the points it already received. The listener may still have received a truncated line just before the
+ * connection broke, which it rejects as malformed.
+ * <p>
+ * When the buffer is full, e.g. as the listener does not keep up, the chunk is dropped and sending fails, so the
+ * reporter records the failure and widens its interval. As TCP has no acknowledgments, a chunk counts as sent once it
+ * was buffered. The connects and the dropped bytes are recorded in the {@link PipelineMetrics}.
+ */
+public class TcpLineProtocolSender implements LineProtocolSender {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(TcpLineProtocolSender.class);
+
+    private static final long BACKOFF_MIN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long BACKOFF_MAX_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int MAX_GATHER = 64;
+
+    private final @NotNull String host;
+    private final int port;
+    private final @NotNull Supplier<InetSocketAddress> address;
+    private final long connectTimeoutNanos;
+    private final long bufferSize;
+    private final @NotNull PipelineMetrics pipelineMetrics;
+    private final @NotNull Selector selector;
+
+    // guarded by pending
+    private final @NotNull ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    private long pendingBytes;
+    private boolean closed;
+
+    // only used by the I/O thread
+    private final @NotNull ByteBuffer @NotNull [] batch = new ByteBuffer[MAX_GATHER];
+    private final @NotNull ByteBuffer discarded = ByteBuffer.allocate(1024);
+    private int batchSize;
+    private @Nullable SocketChannel channel;
+    private @Nullable SelectionKey key;
+    private long connectDeadline;
+    private long reconnectAt;
+    private long backoffNanos = BACKOFF_MIN_NANOS;
+
+    /**
+     * @param host            the host of the socket listener
+     * @param port            the port of the socket listener
+     * @param connectTimeout  the connect timeout in milliseconds
+     * @param bufferSize      the number of bytes buffered at most while the listener is slow or unreachable
+     * @param pipelineMetrics the metrics to record the connects and dropped bytes in
+     * @throws IOException    if the selector could not be opened
+     */
+    public TcpLineProtocolSender(
+            final @NotNull String host,
+            final int port,
+            final int connectTimeout,
+            final long bufferSize,
+            final @NotNull PipelineMetrics pipelineMetrics) throws IOException {
+        // resolved again for every connect, so a changed address of the host is picked up
+        this(host, port, connectTimeout, bufferSize, pipelineMetrics, () -> new InetSocketAddress(host, port));
+    }
+
+    TcpLineProtocolSender(
+            final @NotNull String host,
+            final int port,
+            final int connectTimeout,
+            final long bufferSize,
+            final @NotNull PipelineMetrics pipelineMetrics,
+            final @NotNull Supplier<InetSocketAddress> address) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.address = address;
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeout);
+        this.bufferSize = bufferSize;
+        this.pipelineMetrics = pipelineMetrics;
+        selector = Selector.open();
+        final var thread = new Thread(this::run, "influxdb-tcp-sender");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public @NotNull TimeUnit getTimePrecision() {
+        return TimeUnit.NANOSECONDS;
+    }
+
+    @Override
+    public void send(final byte @NotNull [] lines, final int length) throws IOException {
+        synchronized (pending) {
+            if (closed) {
+                throw new IOException("TCP sender is closed");
+            }
+            if (pendingBytes + length > bufferSize) {
+                pipelineMetrics.tcpBytesDropped(length);
+                throw new IOException("Buffer of the TCP sender is full, " + host + ":" + port + " does not keep up");
+            }
+            pending.add(ByteBuffer.wrap(Arrays.copyOf(lines, length)));
+            pendingBytes += length;
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * @return the number of buffered bytes which were not written yet
+     */
+    public long getPendingBytes() {
+        synchronized (pending) {
+            return pendingBytes;
+        }
+    }
+
+    /**
+     * Stops the background thread and closes the connection, lines which were not written yet are discarded.
+     */
+    @Override
+    public void close() {
+        synchronized (pending) {
+            closed = true;
+            pending.clear();
+            pendingBytes = 0;
+        }
+        selector.wakeup();
+    }
+
+    private boolean isClosed() {
+        synchronized (pending) {
+            return closed;
+        }
+    }
+
+    private void run() {
+        try {
+            while (!isClosed()) {
+                try {
+                    final var channel = this.channel;
+                    if (channel == null) {
+                        connect();
+                    } else if (!channel.isConnected()) {
+                        finishConnect(channel);
+                    } else {
+                        write(channel);
+                    }
+                } catch (final IOException e) {
+                    disconnect(e);
+                }
+            }
+        } catch (final RuntimeException e) {
+            LOG.error("TCP sender for {}:{} failed, no more lines are written", host, port, e);
+        } finally {
+            closeChannel();
+            try {
+                selector.close();
+            } catch (final IOException ignored) {
+            }
+        }
+    }
+
+    private void connect() throws IOException {
+        final var now = System.nanoTime();
+        if (now - reconnectAt < 0) {
+            select(reconnectAt - now);
+            return;
+        }
+        final var address = this.address.get();
+        if (address.isUnresolved()) {
+            throw new UnknownHostException(host);
+        }
+        final var channel = SocketChannel.open();
+        this.channel = channel;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        connectDeadline = now + connectTimeoutNanos;
+        final boolean connected;
+        try {
+            connected = channel.connect(address);
+        } catch (final RuntimeException e) {
+            // e.g. an unsupported address type, retried like an unreachable listener instead of ending the thread
+            throw new IOException("Unable to connect: " + e, e);
+        }
+        if (connected) {
+            connected(channel);
+        } else {
+            key = channel.register(selector, SelectionKey.OP_CONNECT);
+        }
+    }
+
+    private void finishConnect(final @NotNull SocketChannel channel) throws IOException {
+        final var now = System.nanoTime();
+        if (now - connectDeadline >= 0) {
+            throw new SocketTimeoutException("Connect timed out");
+        }
+        select(connectDeadline - now);
+        if (channel.finishConnect()) {
+            connected(channel);
+        }
+    }
+
+    private void connected(final @NotNull SocketChannel channel) throws IOException {
+        // reading detects a connection closed by the listener
+        key = channel.register(selector, SelectionKey.OP_READ);
+        backoffNanos = BACKOFF_MIN_NANOS;
+        pipelineMetrics.tcpConnected();
+        LOG.debug("Connected to {}:{}", host, port);
+    }
+
+    private void write(final @NotNull SocketChannel channel) throws IOException {
+        if (batchSize == 0) {
+            synchronized (pending) {
+                while (batchSize < MAX_GATHER && !pending.isEmpty()) {
+                    batch[batchSize++] = pending.poll();
+                }
+            }
+        }
+        if (batchSize > 0) {
+            final var written = channel.write(batch, 0, batchSize);
+            synchronized (pending) {
+                pendingBytes -= written;
+            }
+            var completed = 0;
+            while (completed < batchSize && !batch[completed].hasRemaining()) {
+                completed++;
+            }
+            System.arraycopy(batch, completed, batch, 0, batchSize - completed);
+            Arrays.fill(batch, batchSize - completed, batchSize, null);
+            batchSize -= completed;
+            if (batchSize == 0) {
+                // more chunks may be pending than fit into a single gathering write
+                return;
+            }
+        }
+        final var key = this.key;
+        assert key != null;
+        // wait for the socket to accept more data, for more data to send, or for the listener to close
+        key.interestOps(batchSize > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        if ((select(0) & SelectionKey.OP_READ) != 0) {
+            discarded.clear();
+            if (channel.read(discarded) < 0) {
+                throw new EOFException("Connection closed by the listener");
+            }
+        }
+    }
+
+    /**
+     * Waits for the channel to become ready, for {@link #send(byte[], int)} or {@link #close()} to wake up the
+     * selector, or for the timeout to elapse.
+     *
+     * @param  timeoutNanos the timeout, or {@code 0} to wait without timeout
+     * @return              the ready operations of the channel, or {@code 0}
+     */
+    private int select(final long timeoutNanos) throws IOException {
+        selector.select(timeoutNanos == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+        final var key = this.key;
+        final var selected = key != null && selector.selectedKeys().remove(key);
+        selector.selectedKeys().clear();
+        return selected ? key.readyOps() : 0;
+    }
+
+    private void disconnect(final @NotNull IOException e) {
+        closeChannel();
+        if (batchSize > 0) {
+            // only the first chunk can be partially written, it is written again completely
+            synchronized (pending) {
+                pendingBytes += batch[0].position();
+            }
+            batch[0].rewind();
+        }
+        LOG.warn("Unable to write to {}:{}: {}. Reconnecting in {} ms",
+                host,
+                port,
+                e.getMessage(),
+                TimeUnit.NANOSECONDS.toMillis(backoffNanos));
+        reconnectAt = System.nanoTime() + backoffNanos;
+        backoffNanos = Math.min(backoffNanos * 2, BACKOFF_MAX_NANOS);
+    }
+
+    private void closeChannel() {
+        final var channel = this.channel;
+        this.channel = null;
+        key = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (final IOException ignored) {
+            }
+        }
+    }
+}
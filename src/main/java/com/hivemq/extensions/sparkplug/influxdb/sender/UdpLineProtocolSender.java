@@ -0,0 +1,159 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UDP sender writing line protocol to the UDP listener of InfluxDB.
+ * <p>
+ * As many complete lines as fit are packed into every datagram, so a report takes a few datagrams of the configured
+ * size instead of one per line, and no line is split across datagrams, which InfluxDB could not parse. The size should
+ * stay below the path MTU, so the datagrams are not fragmented: a single lost fragment loses the whole datagram.
+ * Lines longer than the datagram size can't be sent and are dropped.
+ * <p>
+ * A single connected {@link DatagramChannel} is reused for all datagrams, and the lines are copied into a direct
+ * buffer, so sending neither allocates nor copies the data again. After an I/O error the channel is closed and opened
+ * again by the next send, which also resolves the host again. The sent datagrams, the datagrams which could not be
+ * delivered (e.g. as nothing listens on the port) and the dropped lines are recorded in the {@link PipelineMetrics}.
+ * <p>
+ * This class is not thread-safe, it is only used by the reporter thread.
+ */
+public class UdpLineProtocolSender implements LineProtocolSender {
+
+    // the largest payload of a UDP datagram over IPv4
+    static final int DATAGRAM_SIZE_MAX = 65507;
+
+    private final @NotNull String host;
+    private final int port;
+    private final @NotNull PipelineMetrics pipelineMetrics;
+    private final @NotNull ByteBuffer datagram;
+    private @Nullable DatagramChannel channel;
+
+    /**
+     * @param host            the host of the UDP listener
+     * @param port            the port of the UDP listener
+     * @param datagramSize    the largest size of a datagram in bytes, at most {@value #DATAGRAM_SIZE_MAX}
+     * @param pipelineMetrics the metrics to record the sent and dropped datagrams in
+     */
+    public UdpLineProtocolSender(
+            final @NotNull String host,
+            final int port,
+            final int datagramSize,
+            final @NotNull PipelineMetrics pipelineMetrics) {
+        if (datagramSize <= 0 || datagramSize > DATAGRAM_SIZE_MAX) {
+            throw new IllegalArgumentException("Datagram size must be between 1 and " + DATAGRAM_SIZE_MAX);
+        }
+        this.host = host;
+        this.port = port;
+        this.pipelineMetrics = pipelineMetrics;
+        datagram = ByteBuffer.allocateDirect(datagramSize);
+    }
+
+    @Override
+    public @NotNull TimeUnit getTimePrecision() {
+        return TimeUnit.NANOSECONDS;
+    }
+
+    @Override
+    public void send(final byte @NotNull [] lines, final int length) throws Exception {
+        final var datagramSize = datagram.capacity();
+        var datagramStart = 0;
+        var lineStart = 0;
+        while (lineStart < length) {
+            var lineEnd = lineStart;
+            while (lineEnd < length && lines[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            // including the line feed, if any
+            lineEnd = Math.min(lineEnd + 1, length);
+            if (lineEnd - lineStart > datagramSize) {
+                write(lines, datagramStart, lineStart - datagramStart);
+                pipelineMetrics.udpLineDropped();
+                datagramStart = lineEnd;
+            } else if (lineEnd - datagramStart > datagramSize) {
+                write(lines, datagramStart, lineStart - datagramStart);
+                datagramStart = lineStart;
+            }
+            lineStart = lineEnd;
+        }
+        write(lines, datagramStart, length - datagramStart);
+    }
+
+    /**
+     * Closes the channel, a later send opens it again.
+     */
+    @Override
+    public void close() {
+        closeChannel();
+    }
+
+    private void write(final byte @NotNull [] lines, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        datagram.clear();
+        datagram.put(lines, offset, length).flip();
+        try {
+            channel().write(datagram);
+            pipelineMetrics.udpDatagramSent();
+        } catch (final PortUnreachableException e) {
+            // an earlier datagram was rejected as nothing listens on the port, the channel stays usable
+            pipelineMetrics.udpDatagramDropped();
+        } catch (final IOException e) {
+            pipelineMetrics.udpDatagramDropped();
+            closeChannel();
+            throw e;
+        }
+    }
+
+    private @NotNull DatagramChannel channel() throws IOException {
+        var channel = this.channel;
+        if (channel == null) {
+            channel = DatagramChannel.open();
+            try {
+                // resolved again for every new channel, so a changed address of the host is picked up
+                channel.connect(new InetSocketAddress(host, port));
+            } catch (final IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            this.channel = channel;
+        }
+        return channel;
+    }
+
+    private void closeChannel() {
+        final var channel = this.channel;
+        this.channel = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (final IOException ignored) {
+            }
+        }
+    }
+}
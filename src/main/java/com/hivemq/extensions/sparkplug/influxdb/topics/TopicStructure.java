@@ -90,6 +90,10 @@ public class TopicStructure {
         return namespace;
     }
 
+    public @NotNull String getGroupId() {
+        return groupId;
+    }
+
     public @NotNull MessageType getMessageType() {
         return messageType;
     }
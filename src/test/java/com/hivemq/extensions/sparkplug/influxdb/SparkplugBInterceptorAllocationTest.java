@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.sparkplug.influxdb;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundInput;
+import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import com.hivemq.extensions.sparkplug.influxdb.configuration.SparkplugConfiguration;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.MetricsHolder;
+import org.eclipse.tahu.protobuf.SparkplugBProto;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assumptions.assumeThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Guards the allocation per message of the interceptor, measured with the allocated bytes of the current thread.
+ * <p>
+ * The SDK interfaces are implemented with dynamic proxies instead of mocks, as Mockito records every invocation. The
+ * budgets are generous enough for JIT and JDK differences, but catch a regression like a new copy of the payload or a
+ * per-metric string concatenation. Lower them when the per-message path gets cheaper.
+ */
+class SparkplugBInterceptorAllocationTest {
+
+    private static final int WARMUP_MESSAGES = 20_000;
+    private static final int MEASURED_MESSAGES = 2_000;
+
+    private final @NotNull com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final @NotNull Logger interceptorLogger = (Logger) LoggerFactory.getLogger(SparkplugBInterceptor.class);
+    private final @NotNull PublishInboundOutput output = mock();
+
+    private @NotNull SparkplugBInterceptor interceptor;
+    private @NotNull Level interceptorLogLevel;
+
+    @BeforeEach
+    void setUp() {
+        assumeThat(threadMXBean.isThreadAllocatedMemorySupported()).isTrue();
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        // trace logging of every message would dominate the measurement
+        interceptorLogLevel = interceptorLogger.getLevel();
+        interceptorLogger.setLevel(Level.INFO);
+
+        final SparkplugConfiguration configuration = mock();
+        when(configuration.getSparkplugVersion()).thenReturn("spBv1.0");
+        interceptor = new SparkplugBInterceptor(MetricsHolder.forRegistry(new MetricRegistry()).build(), configuration);
+    }
+
+    @AfterEach
+    void tearDown() {
+        interceptorLogger.setLevel(interceptorLogLevel);
+    }
+
+    @Test
+    void ndata_with_10_metrics_within_budget() {
+        interceptor.onInboundPublish(publish("spBv1.0/group/NBIRTH/edgeNode", payload(10)), output);
+
+        assertThat(allocatedBytesPerMessage(publish("spBv1.0/group/NDATA/edgeNode", payload(10)))).isLessThan(10_000);
+    }
+
+    @Test
+    void ddata_with_100_metrics_within_budget() {
+        interceptor.onInboundPublish(publish("spBv1.0/group/DBIRTH/edgeNode/device", payload(100)), output);
+
+        assertThat(allocatedBytesPerMessage(publish("spBv1.0/group/DDATA/edgeNode/device", payload(100)))).isLessThan(
+                75_000);
+    }
+
+    @Test
+    void non_sparkplug_publish_within_budget() {
+        assertThat(allocatedBytesPerMessage(publish("home/livingroom/temperature", payload(10)))).isLessThan(1_000);
+    }
+
+    private long allocatedBytesPerMessage(final @NotNull PublishInboundInput publish) {
+        for (var i = 0; i < WARMUP_MESSAGES; i++) {
+            interceptor.onInboundPublish(publish, output);
+        }
+        final var threadId = Thread.currentThread().threadId();
+        final var before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (var i = 0; i < MEASURED_MESSAGES; i++) {
+            interceptor.onInboundPublish(publish, output);
+        }
+        final var allocated = (threadMXBean.getThreadAllocatedBytes(threadId) - before) / MEASURED_MESSAGES;
+        System.out.printf("Allocated %d bytes per message for %s%n",
+                allocated,
+                publish.getPublishPacket().getTopic());
+        return allocated;
+    }
+
+    private static byte @NotNull [] payload(final int metricCount) {
+        final var payload = SparkplugBProto.Payload.newBuilder().setTimestamp(1_700_000_000_000L).setSeq(1);
+        for (var i = 0; i < metricCount; i++) {
+            final var metric = SparkplugBProto.Payload.Metric.newBuilder().setName("metric" + i).setAlias(i);
+            switch (i % 4) {
+                case 0 -> metric.setIntValue(i);
+                case 1 -> metric.setLongValue(i * 1000L);
+                case 2 -> metric.setDoubleValue(i / 3d);
+                default -> metric.setBooleanValue(i % 2 == 0);
+            }
+            payload.addMetrics(metric);
+        }
+        return payload.build().toByteArray();
+    }
+
+    private static @NotNull PublishInboundInput publish(final @NotNull String topic, final byte @NotNull [] payload) {
+        final var buffer = ByteBuffer.wrap(payload);
+        final var packet = (PublishPacket) Proxy.newProxyInstance(PublishPacket.class.getClassLoader(),
+                new Class<?>[]{PublishPacket.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getTopic" -> topic;
+                    case "getPayload" -> Optional.of(buffer.asReadOnlyBuffer());
+                    case "getTimestamp" -> System.currentTimeMillis();
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        return (PublishInboundInput) Proxy.newProxyInstance(PublishInboundInput.class.getClassLoader(),
+                new Class<?>[]{PublishInboundInput.class},
+                (proxy, method, args) -> {
+                    if ("getPublishPacket".equals(method.getName())) {
+                        return packet;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -21,11 +21,15 @@ import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInbound
 import com.hivemq.extension.sdk.api.interceptor.publish.parameter.PublishInboundOutput;
 import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
 import com.hivemq.extensions.sparkplug.influxdb.configuration.SparkplugConfiguration;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.HeavyHitters;
 import com.hivemq.extensions.sparkplug.influxdb.metrics.MetricsHolder;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
 import com.hivemq.extensions.sparkplug.influxdb.metrics.SettableBooleanGauge;
 import com.hivemq.extensions.sparkplug.influxdb.metrics.SettableDoubleGauge;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.SettableFloatGauge;
 import com.hivemq.extensions.sparkplug.influxdb.metrics.SettableIntGauge;
 import com.hivemq.extensions.sparkplug.influxdb.metrics.SettableLongGauge;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.SparkplugGauge;
 import org.eclipse.tahu.protobuf.SparkplugBProto;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.BeforeEach;
@@ -33,6 +37,8 @@ import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -52,7 +58,7 @@ class SparkplugBInterceptorTest {
     @BeforeEach
     void setUp() {
         metricRegistry = new MetricRegistry();
-        metricsHolder = new MetricsHolder(metricRegistry);
+        metricsHolder = MetricsHolder.forRegistry(metricRegistry).build();
 
         when(publishInboundInput.getPublishPacket()).thenReturn(publishPacket);
         when(configuration.getSparkplugVersion()).thenReturn("spBv1.0");
@@ -67,7 +73,9 @@ class SparkplugBInterceptorTest {
 
         interceptor.onInboundPublish(publishInboundInput, publishInboundOutput);
 
-        assertThat(metricRegistry.getMetrics()).isEmpty();
+        assertThat(sparkplugMetrics()).isEmpty();
+        assertThat(pipelineCounter("messages.seen")).isEqualTo(1);
+        assertThat(pipelineCounter("decode.count")).isZero();
     }
 
     @Test
@@ -77,7 +85,7 @@ class SparkplugBInterceptorTest {
 
         interceptor.onInboundPublish(publishInboundInput, publishInboundOutput);
 
-        assertThat(metricRegistry.getMetrics()).isEmpty();
+        assertThat(sparkplugMetrics()).isEmpty();
     }
 
     @Test
@@ -247,9 +255,9 @@ class SparkplugBInterceptorTest {
         publishWith("spBv1.0/group/NDATA/edgeNode", dataPayload);
 
         assertThat(metricRegistry.getMetrics().get("sparkplug.edgeNode.pressure"))
-                .isInstanceOf(SettableDoubleGauge.class);
-        assertThat(((SettableDoubleGauge) metricRegistry.getMetrics().get("sparkplug.edgeNode.pressure")).getValue())
-                .isEqualTo((double) 1.5f);
+                .isInstanceOf(SettableFloatGauge.class);
+        assertThat(((SettableFloatGauge) metricRegistry.getMetrics().get("sparkplug.edgeNode.pressure")).getValue())
+                .isEqualTo(1.5f);
     }
 
     @Test
@@ -307,7 +315,105 @@ class SparkplugBInterceptorTest {
         interceptor.onInboundPublish(publishInboundInput, publishInboundOutput);
 
         // no status metrics should be registered from invalid payload
-        assertThat(metricRegistry.getMetrics()).isEmpty();
+        assertThat(sparkplugMetrics()).isEmpty();
+        assertThat(pipelineCounter("decode.errors")).isEqualTo(1);
+    }
+
+    @Test
+    void ddata_with_alias_only_resolves_name_from_dbirth() {
+        final var birthPayload = SparkplugBProto.Payload.newBuilder()
+                .addMetrics(SparkplugBProto.Payload.Metric.newBuilder().setName("speed").setAlias(20).build())
+                .addMetrics(SparkplugBProto.Payload.Metric.newBuilder().setName("rpm").setAlias(21).build())
+                .build();
+        publishWith("spBv1.0/group/DBIRTH/edgeNode/device1", birthPayload);
+
+        final var dataPayload = SparkplugBProto.Payload.newBuilder()
+                .addMetrics(SparkplugBProto.Payload.Metric.newBuilder().setAlias(20).setIntValue(100).build())
+                .addMetrics(SparkplugBProto.Payload.Metric.newBuilder().setAlias(99).setIntValue(5).build())
+                .build();
+        publishWith("spBv1.0/group/DDATA/edgeNode/device1", dataPayload);
+
+        assertThat(((SettableIntGauge) metricRegistry.getMetrics().get("sparkplug.edgeNode.device1.speed")).getValue())
+                .isEqualTo(100);
+        assertThat(sparkplugMetrics()).noneMatch(name -> name.endsWith(".null") || name.endsWith("."));
+        assertThat(pipelineCounter("aliases.unknown")).isEqualTo(1);
+    }
+
+    @Test
+    void pipeline_metrics_recorded() {
+        final var birthPayload = SparkplugBProto.Payload.newBuilder()
+                .addMetrics(SparkplugBProto.Payload.Metric.newBuilder().setName("speed").setAlias(20).build())
+                .build();
+        publishWith("spBv1.0/group/DBIRTH/edgeNode/device1", birthPayload);
+        final var dataPayload = SparkplugBProto.Payload.newBuilder()
+                .addMetrics(SparkplugBProto.Payload.Metric.newBuilder().setAlias(20).setIntValue(1).build())
+                .addMetrics(SparkplugBProto.Payload.Metric.newBuilder().setAlias(20).setIntValue(2).build())
+                .build();
+        publishWith("spBv1.0/group/DDATA/edgeNode/device1", dataPayload);
+
+        assertThat(pipelineCounter("messages.seen")).isEqualTo(2);
+        assertThat(pipelineCounter("messages.DBIRTH")).isEqualTo(1);
+        assertThat(pipelineCounter("messages.DDATA")).isEqualTo(1);
+        assertThat(pipelineCounter("decode.count")).isEqualTo(2);
+        assertThat(pipelineCounter("decode.metrics")).isEqualTo(3);
+        assertThat(pipelineCounter("decode.nanos")).isPositive();
+        assertThat(pipelineCounter("aliases.unknown")).isZero();
+    }
+
+    @Test
+    void data_metrics_stamped_with_received_times() {
+        when(publishPacket.getTimestamp()).thenReturn(1_700_000_000_500L);
+        final var dataPayload = SparkplugBProto.Payload.newBuilder()
+                .setTimestamp(1_700_000_000_000L)
+                .addMetrics(SparkplugBProto.Payload.Metric.newBuilder().setName("speed").setIntValue(1).build())
+                .addMetrics(SparkplugBProto.Payload.Metric.newBuilder()
+                        .setName("temperature")
+                        .setTimestamp(1_700_000_000_200L)
+                        .setDoubleValue(21.5)
+                        .build())
+                .build();
+        final var before = System.nanoTime();
+        publishWith("spBv1.0/group/DDATA/edgeNode/device1", dataPayload);
+
+        final var speed = (SparkplugGauge<?>) metricRegistry.getMetrics().get("sparkplug.edgeNode.device1.speed");
+        assertThat(speed.getReceivedNanos()).isBetween(before, System.nanoTime());
+        assertThat(speed.getBrokerTimestamp()).isEqualTo(1_700_000_000_500L);
+        assertThat(speed.getSourceTimestamp()).isEqualTo(1_700_000_000_000L);
+        final var temperature =
+                (SparkplugGauge<?>) metricRegistry.getMetrics().get("sparkplug.edgeNode.device1.temperature");
+        assertThat(temperature.getSourceTimestamp()).isEqualTo(1_700_000_000_200L);
+        assertThat(temperature.markReported()).isTrue();
+        assertThat(temperature.markReported()).isFalse();
+    }
+
+    @Test
+    void traffic_tracked_per_edge_node_device_and_metric() {
+        final var dataPayload = SparkplugBProto.Payload.newBuilder()
+                .addMetrics(SparkplugBProto.Payload.Metric.newBuilder().setName("speed").setIntValue(1).build())
+                .addMetrics(SparkplugBProto.Payload.Metric.newBuilder().setName("speed").setIntValue(2).build())
+                .build();
+        publishWith("spBv1.0/group/DDATA/edgeNode/device1", dataPayload);
+        publishWith("spBv1.0/group/NDATA/edgeNode", dataPayload);
+
+        final var heavyHitters = metricsHolder.getPipelineMetrics().getHeavyHitters();
+        assertThat(heavyHitters.get(PipelineMetrics.PREFIX + ".top.edgenodes.bytes").drain()).extracting(
+                HeavyHitters.Entry::toString).containsExactly("group/edgeNode=" + 2 * dataPayload.getSerializedSize());
+        assertThat(heavyHitters.get(PipelineMetrics.PREFIX + ".top.devices.updates").drain()).extracting(
+                HeavyHitters.Entry::toString).containsExactly("group/edgeNode/device1=2");
+        assertThat(heavyHitters.get(PipelineMetrics.PREFIX + ".top.metrics.updates").drain()).extracting(
+                        HeavyHitters.Entry::toString)
+                .containsExactlyInAnyOrder("group/edgeNode/device1/speed=2", "group/edgeNode/speed=2");
+    }
+
+    private @NotNull Set<String> sparkplugMetrics() {
+        return metricRegistry.getNames()
+                .stream()
+                .filter(name -> !name.startsWith(PipelineMetrics.PREFIX))
+                .collect(Collectors.toSet());
+    }
+
+    private long pipelineCounter(final @NotNull String name) {
+        return metricRegistry.counter(PipelineMetrics.PREFIX + "." + name).getCount();
     }
 
     private void publishWith(final @NotNull String topic, final @NotNull SparkplugBProto.Payload payload) {
@@ -23,6 +23,7 @@ import org.junit.jupiter.api.io.TempDir;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -120,7 +121,7 @@ class SparkplugConfigurationTest {
         assertThat(sparkplugConfiguration.getProtocol()).isEqualTo("http");
         assertThat(sparkplugConfiguration.getDatabase()).isEqualTo("hivemq");
         assertThat(sparkplugConfiguration.getConnectTimeout()).isEqualTo(5000);
-        assertThat(sparkplugConfiguration.getReportingInterval()).isEqualTo(1);
+        assertThat(sparkplugConfiguration.getReportingInterval()).isEqualTo(Duration.ofSeconds(1));
         assertThat(sparkplugConfiguration.getAuth()).isNull();
         assertThat(sparkplugConfiguration.getHost()).isNull();
     }
@@ -138,9 +139,17 @@ class SparkplugConfigurationTest {
         assertThat(sparkplugConfiguration.getProtocol()).isEqualTo("http");
         assertThat(sparkplugConfiguration.getDatabase()).isEqualTo("hivemq");
         assertThat(sparkplugConfiguration.getConnectTimeout()).isEqualTo(5000);
-        assertThat(sparkplugConfiguration.getReportingInterval()).isEqualTo(1);
+        assertThat(sparkplugConfiguration.getReportingInterval()).isEqualTo(Duration.ofSeconds(1));
         assertThat(sparkplugConfiguration.getAuth()).isNull();
         assertThat(sparkplugConfiguration.getHost()).isNull();
+        assertThat(sparkplugConfiguration.isMultiFieldPoints()).isFalse();
+        assertThat(sparkplugConfiguration.getTopN()).isEqualTo(10);
+        assertThat(sparkplugConfiguration.isIntervalAggregation()).isFalse();
+        assertThat(sparkplugConfiguration.getQuantileMetrics()).isEmpty();
+        assertThat(sparkplugConfiguration.getRollups()).isEmpty();
+        assertThat(sparkplugConfiguration.isConflation()).isFalse();
+        assertThat(sparkplugConfiguration.isRegisterMetrics()).isTrue();
+        assertThat(sparkplugConfiguration.getMaxReportingInterval()).isEqualTo(Duration.ofSeconds(60));
     }
 
     @Test
@@ -168,12 +177,350 @@ class SparkplugConfigurationTest {
         assertThat(sparkplugConfiguration.getProtocol()).isEqualTo("tcp");
         assertThat(sparkplugConfiguration.getDatabase()).isEqualTo("test-hivemq");
         assertThat(sparkplugConfiguration.getConnectTimeout()).isEqualTo(10000);
-        assertThat(sparkplugConfiguration.getReportingInterval()).isEqualTo(5);
+        assertThat(sparkplugConfiguration.getReportingInterval()).isEqualTo(Duration.ofSeconds(5));
         assertThat(sparkplugConfiguration.getAuth()).isEqualTo("username:password");
         assertThat(sparkplugConfiguration.getHost()).isEqualTo("hivemq.monitoring.com");
         assertThat(sparkplugConfiguration.getPort()).isEqualTo(3000);
     }
 
+    @Test
+    void topN_configured() throws Exception {
+        Files.write(file, List.of("sparkplug.topN:25"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getTopN()).isEqualTo(25);
+    }
+
+    @Test
+    void aggregation_interval() throws Exception {
+        Files.write(file, List.of("influxdb.aggregation:interval"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.isIntervalAggregation()).isTrue();
+    }
+
+    @Test
+    void aggregation_invalid() throws Exception {
+        Files.write(file, List.of("influxdb.aggregation:average"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.isIntervalAggregation()).isFalse();
+        assertThat(sparkplugConfiguration.getQuantileMetrics()).isEmpty();
+        assertThat(sparkplugConfiguration.getRollups()).isEmpty();
+    }
+
+    @Test
+    void reportingInterval_in_milliseconds() throws Exception {
+        Files.write(file, List.of("influxdb.reportingInterval:250ms", "influxdb.reportingInterval.max:10s"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getReportingInterval()).isEqualTo(Duration.ofMillis(250));
+        assertThat(sparkplugConfiguration.getMaxReportingInterval()).isEqualTo(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void reportingInterval_max_at_least_reportingInterval() throws Exception {
+        Files.write(file, List.of("influxdb.reportingInterval:90", "influxdb.reportingInterval.max:500ms"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getMaxReportingInterval()).isEqualTo(Duration.ofSeconds(90));
+    }
+
+    @Test
+    void reportingInterval_invalid() throws Exception {
+        Files.write(file, List.of("influxdb.reportingInterval:1m", "influxdb.reportingInterval.max:fast"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getReportingInterval()).isEqualTo(Duration.ofSeconds(1));
+        assertThat(sparkplugConfiguration.getMaxReportingInterval()).isEqualTo(Duration.ofSeconds(60));
+    }
+
+    @Test
+    void conflation_enabled() throws Exception {
+        Files.write(file, List.of("influxdb.conflation:true"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.isConflation()).isTrue();
+    }
+
+    @Test
+    void conflation_invalid() throws Exception {
+        Files.write(file, List.of("influxdb.conflation:yes"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.isConflation()).isFalse();
+    }
+
+    @Test
+    void register_metrics_disabled() throws Exception {
+        Files.write(file, List.of("sparkplug.registerMetrics:false"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.isRegisterMetrics()).isFalse();
+    }
+
+    @Test
+    void register_metrics_invalid() throws Exception {
+        Files.write(file, List.of("sparkplug.registerMetrics:no"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.isRegisterMetrics()).isTrue();
+    }
+
+    @Test
+    void heartbeat_unset() throws Exception {
+        Files.write(file, List.of("influxdb.heartbeat:"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getHeartbeat()).isNull();
+    }
+
+    @Test
+    void heartbeat_minutes() throws Exception {
+        Files.write(file, List.of("influxdb.heartbeat:5m"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getHeartbeat()).isEqualTo(Duration.ofMinutes(5));
+    }
+
+    @Test
+    void heartbeat_invalid() throws Exception {
+        Files.write(file, List.of("influxdb.heartbeat:often"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getHeartbeat()).isNull();
+    }
+
+    @Test
+    void heartbeat_not_longer_than_reporting_interval() throws Exception {
+        Files.write(file, List.of("influxdb.reportingInterval:60", "influxdb.heartbeat:1m"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getHeartbeat()).isNull();
+    }
+
+    @Test
+    void udpDatagramSize_default() throws Exception {
+        Files.write(file, List.of("influxdb.mode:udp"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getUdpDatagramSize()).isEqualTo(1400);
+    }
+
+    @Test
+    void udpDatagramSize_limited_to_datagram() throws Exception {
+        Files.write(file, List.of("influxdb.udp.datagramSize:100000"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getUdpDatagramSize()).isEqualTo(65507);
+
+        Files.write(file, List.of("influxdb.udp.datagramSize:8972"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getUdpDatagramSize()).isEqualTo(8972);
+    }
+
+    @Test
+    void hosts_comma_separated() throws Exception {
+        Files.write(file, List.of("influxdb.host: node1 ,node2,,node3"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getHosts()).containsExactly("node1", "node2", "node3");
+
+        Files.write(file, List.of("influxdb.host:localhost"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getHosts()).containsExactly("localhost");
+    }
+
+    @Test
+    void tcpBufferSize() throws Exception {
+        Files.write(file, List.of("influxdb.mode:tcp"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getTcpBufferSize()).isEqualTo(8 * 1024 * 1024);
+
+        Files.write(file, List.of("influxdb.tcp.bufferSize:65536"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getTcpBufferSize()).isEqualTo(65536);
+    }
+
+    @Test
+    void httpMaxInFlight() throws Exception {
+        Files.write(file, List.of("influxdb.mode:cloud"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getHttpMaxInFlight()).isEqualTo(4);
+
+        Files.write(file, List.of("influxdb.http.maxInFlight:0"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getHttpMaxInFlight()).isEqualTo(4);
+
+        Files.write(file, List.of("influxdb.http.maxInFlight:16"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getHttpMaxInFlight()).isEqualTo(16);
+    }
+
+    @Test
+    void sinks_override_transport_properties() throws Exception {
+        Files.write(file,
+                List.of("influxdb.host:localhost",
+                        "influxdb.port:8086",
+                        "influxdb.prefix:plant",
+                        "influxdb.sinks: onPrem , cloud",
+                        "influxdb.sink.cloud.mode:cloud",
+                        "influxdb.sink.cloud.host:eu-central-1.aws.cloud2.influxdata.com",
+                        "influxdb.sink.cloud.port:443",
+                        "influxdb.sink.cloud.bucket:sparkplug",
+                        "influxdb.sink.cloud.prefix:ignored"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getSinks()).containsExactly("onPrem", "cloud");
+
+        final var onPrem = sparkplugConfiguration.getSink("onPrem");
+        assertThat(onPrem.getMode()).isEqualTo("http");
+        assertThat(onPrem.getHost()).isEqualTo("localhost");
+        assertThat(onPrem.getPort()).isEqualTo(8086);
+
+        final var cloud = sparkplugConfiguration.getSink("cloud");
+        assertThat(cloud.getMode()).isEqualTo("cloud");
+        assertThat(cloud.getHost()).isEqualTo("eu-central-1.aws.cloud2.influxdata.com");
+        assertThat(cloud.getPort()).isEqualTo(443);
+        assertThat(cloud.getBucket()).isEqualTo("sparkplug");
+        assertThat(cloud.getPrefix()).isEqualTo("plant");
+        assertThat(sparkplugConfiguration.validateConfiguration()).isTrue();
+    }
+
+    @Test
+    void validateConfiguration_sink_port_invalid() throws Exception {
+        Files.write(file,
+                List.of("influxdb.host:localhost",
+                        "influxdb.port:8086",
+                        "influxdb.sinks:first,second",
+                        "influxdb.sink.second.port:-1"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.validateConfiguration()).isFalse();
+    }
+
+    @Test
+    void routes_override_target() throws Exception {
+        Files.write(file,
+                List.of("influxdb.host:localhost",
+                        "influxdb.port:8086",
+                        "influxdb.database:hivemq",
+                        "influxdb.routes: berlin , munich",
+                        "influxdb.route.berlin.match: Berlin ; Plant*/Line1 ;",
+                        "influxdb.route.berlin.database:berlin",
+                        "influxdb.route.berlin.port:1234",
+                        "influxdb.route.munich.match:Munich",
+                        "influxdb.route.munich.bucket:munich",
+                        "influxdb.route.munich.organization:plants"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.validateConfiguration()).isTrue();
+        assertThat(sparkplugConfiguration.getRoutes()).containsExactly("berlin", "munich");
+        assertThat(sparkplugConfiguration.getRouteMatches("berlin")).containsExactly("Berlin", "Plant*/Line1");
+
+        final var berlin = sparkplugConfiguration.getRoute("berlin");
+        assertThat(berlin.getDatabase()).isEqualTo("berlin");
+        assertThat(berlin.getPort()).isEqualTo(8086);
+
+        final var munich = sparkplugConfiguration.getRoute("munich");
+        assertThat(munich.getDatabase()).isEqualTo("hivemq");
+        assertThat(munich.getBucket()).isEqualTo("munich");
+        assertThat(munich.getOrganization()).isEqualTo("plants");
+    }
+
+    @Test
+    void routes_override_target_of_sinks() throws Exception {
+        Files.write(file,
+                List.of("influxdb.host:localhost",
+                        "influxdb.port:8086",
+                        "influxdb.database:hivemq",
+                        "influxdb.sinks:onPrem,cloud",
+                        "influxdb.sink.onPrem.database:sparkplug",
+                        "influxdb.sink.cloud.mode:cloud",
+                        "influxdb.sink.cloud.bucket:sparkplug",
+                        "influxdb.routes:berlin",
+                        "influxdb.route.berlin.match:Berlin",
+                        "influxdb.route.berlin.database:berlin"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+
+        final var berlin = sparkplugConfiguration.getRoute("berlin");
+        assertThat(berlin.getSink("onPrem").getDatabase()).isEqualTo("berlin");
+        assertThat(berlin.getSink("cloud").getBucket()).isEqualTo("sparkplug");
+        assertThat(sparkplugConfiguration.getSink("onPrem").getDatabase()).isEqualTo("sparkplug");
+    }
+
+    @Test
+    void validateConfiguration_route_match_missing() throws Exception {
+        Files.write(file,
+                List.of("influxdb.host:localhost",
+                        "influxdb.port:8086",
+                        "influxdb.routes:berlin",
+                        "influxdb.route.berlin.database:berlin"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getRouteMatches("berlin")).isEmpty();
+        assertThat(sparkplugConfiguration.validateConfiguration()).isFalse();
+    }
+
+    @Test
+    void queueSize() throws Exception {
+        Files.write(file, List.of("influxdb.sinks:first"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getSinks()).containsExactly("first");
+        assertThat(sparkplugConfiguration.getQueueSize()).isEqualTo(16 * 1024 * 1024);
+
+        Files.write(file, List.of("influxdb.queueSize:1048576"));
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getSinks()).isEmpty();
+        assertThat(sparkplugConfiguration.getQueueSize()).isEqualTo(1048576);
+    }
+
+    @Test
+    void quantiles_patterns() throws Exception {
+        Files.write(file, List.of("sparkplug.quantiles:Motor/*/Vibration; Current*;;exact.name"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        final var patterns = sparkplugConfiguration.getQuantileMetrics();
+        assertThat(patterns).hasSize(3);
+        assertThat(patterns.get(0).matcher("Motor/1/Vibration").matches()).isTrue();
+        assertThat(patterns.get(0).matcher("Motor/1/Vibration/x").matches()).isFalse();
+        assertThat(patterns.get(1).matcher("CurrentL1").matches()).isTrue();
+        assertThat(patterns.get(2).matcher("exact.name").matches()).isTrue();
+        assertThat(patterns.get(2).matcher("exactXname").matches()).isFalse();
+    }
+
+    @Test
+    void rollups_resolutions() throws Exception {
+        Files.write(file, List.of("influxdb.rollups:30s; 1m;1h;;2d;5x;1", "influxdb.reportingInterval:10"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getRollups()).containsExactly(Duration.ofSeconds(30),
+                Duration.ofMinutes(1),
+                Duration.ofHours(1),
+                Duration.ofDays(2));
+    }
+
+    @Test
+    void rollups_shorter_than_reporting_interval_ignored() throws Exception {
+        Files.write(file, List.of("influxdb.rollups:5s;1m", "influxdb.reportingInterval:10"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.getRollups()).containsExactly(Duration.ofMinutes(1));
+    }
+
+    @Test
+    void pointFormat_multi() throws Exception {
+        Files.write(file, List.of("influxdb.pointFormat:multi"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.isMultiFieldPoints()).isTrue();
+    }
+
+    @Test
+    void pointFormat_invalid() throws Exception {
+        Files.write(file, List.of("influxdb.pointFormat:grouped"));
+
+        assertThat(sparkplugConfiguration.readPropertiesFromFile()).isTrue();
+        assertThat(sparkplugConfiguration.isMultiFieldPoints()).isFalse();
+    }
+
     @Test
     void tags_invalid_configured() throws Exception {
         Files.write(file, List.of("influxdb.tags:host=hivemq1;version=;use=monitoring"));
@@ -230,7 +577,7 @@ class SparkplugConfigurationTest {
 
         // default values because values in file are no valid (zero or negative number)
         assertThat(sparkplugConfiguration.getConnectTimeout()).isEqualTo(5000);
-        assertThat(sparkplugConfiguration.getReportingInterval()).isEqualTo(1);
+        assertThat(sparkplugConfiguration.getReportingInterval()).isEqualTo(Duration.ofSeconds(1));
     }
 
     @Test
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.lineprotocol;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FloatingPointFormatterTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "0.0, 0",
+            "-0.0, -0",
+            "1.0, 1",
+            "42.0, 42",
+            "-1.5, -1.5",
+            "3.14, 3.14",
+            "0.1, 0.1",
+            "0.3, 0.3",
+            "100.0, 100",
+            "123456.789, 123456.789",
+            "1.0E-6, 0.000001",
+            "1.0E-7, 1e-7",
+            "1.5E-9, 1.5e-9",
+            "1.0E20, 100000000000000000000",
+            "1.0E21, 1e21",
+            "1.7976931348623157E308, 1.7976931348623157e308",
+            "4.9E-324, 4.9e-324",
+            "2.2250738585072014E-308, 2.2250738585072014e-308",
+            "9007199254740993.0, 9007199254740992"})
+    void double_written_shortest(final double value, final @NotNull String expected) {
+        assertThat(formatDouble(value)).isEqualTo(expected);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "0.0, 0",
+            "1.5, 1.5",
+            "21.3, 21.3",
+            "-0.1, -0.1",
+            "16777216.0, 16777216",
+            "3.4028235E38, 3.4028235e38",
+            "1.4E-45, 1.4e-45",
+            "1.17549435E-38, 1.1754944e-38"})
+    void float_written_shortest(final float value, final @NotNull String expected) {
+        assertThat(formatFloat(value)).isEqualTo(expected);
+    }
+
+    @Test
+    void float_not_widened() {
+        assertThat(formatDouble(21.3f)).isEqualTo("21.299999237060547");
+        assertThat(formatFloat(21.3f)).isEqualTo("21.3");
+    }
+
+    @Test
+    void random_doubles_round_trip_with_shortest_length() {
+        final var random = new SplittableRandom(42);
+        for (var i = 0; i < 500_000; i++) {
+            final var value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            final var formatted = formatDouble(value);
+            assertThat(Double.parseDouble(formatted)).as(formatted).isEqualTo(value);
+            assertThat(digits(formatted)).as(formatted).isLessThanOrEqualTo(digits(Double.toString(value)));
+        }
+    }
+
+    @Test
+    void random_floats_round_trip_with_shortest_length() {
+        final var random = new SplittableRandom(42);
+        for (var i = 0; i < 500_000; i++) {
+            final var value = Float.intBitsToFloat(random.nextInt());
+            if (Float.isNaN(value) || Float.isInfinite(value)) {
+                continue;
+            }
+            final var formatted = formatFloat(value);
+            assertThat(Float.parseFloat(formatted)).as(formatted).isEqualTo(value);
+            assertThat(digits(formatted)).as(formatted).isLessThanOrEqualTo(digits(Float.toString(value)));
+        }
+    }
+
+    @Test
+    void decimal_values_written_as_typed() {
+        final var random = new SplittableRandom(7);
+        for (var i = 0; i < 100_000; i++) {
+            final var typed = BigDecimal.valueOf(random.nextLong(-1_000_000_000L, 1_000_000_000L), random.nextInt(10));
+            final var expected = typed.stripTrailingZeros();
+            assertThat(new BigDecimal(formatDouble(typed.doubleValue()))).isEqualByComparingTo(expected);
+        }
+    }
+
+    private static int digits(final @NotNull String formatted) {
+        return new BigDecimal(formatted).stripTrailingZeros().precision();
+    }
+
+    private static @NotNull String formatDouble(final double value) {
+        final var buffer = new byte[FloatingPointFormatter.MAX_LENGTH];
+        final var length = FloatingPointFormatter.writeDouble(value, buffer, 0);
+        return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private static @NotNull String formatFloat(final float value) {
+        final var buffer = new byte[FloatingPointFormatter.MAX_LENGTH];
+        final var length = FloatingPointFormatter.writeFloat(value, buffer, 0);
+        return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+    }
+}
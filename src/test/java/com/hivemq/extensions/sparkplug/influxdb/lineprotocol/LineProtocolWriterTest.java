@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.lineprotocol;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LineProtocolWriterTest {
+
+    private final @NotNull LineProtocolWriter writer = new LineProtocolWriter(64);
+
+    @Test
+    void measurement_appended_in_parts() {
+        writer.measurement("prefix.").appendMeasurement("sparkplug.edge node").appendMeasurement(".speed");
+        writer.field("value", 1L);
+
+        assertThat(writer.endLine(1000)).isTrue();
+        assertThat(content()).isEqualTo("prefix.sparkplug.edge\\ node.speed value=1 1000\n");
+    }
+
+    @Test
+    void series_key_copied() {
+        writer.measurement("sparkplug.edge node.speed").tag("host", "a=b");
+        final var key = writer.toByteArray();
+        writer.reset();
+
+        writer.seriesKey(key).field("value", 1L);
+        writer.endLine(1000);
+        writer.seriesKey(key);
+        assertThat(writer.endLine(2000)).isFalse();
+        writer.seriesKey(key).field("value", 2L);
+        writer.endLine(3000);
+        assertThat(content()).isEqualTo("sparkplug.edge\\ node.speed,host=a\\=b value=1 1000\n" +
+                "sparkplug.edge\\ node.speed,host=a\\=b value=2 3000\n");
+    }
+
+    @Test
+    void single_field_line() {
+        writer.measurement("sparkplug.edgeNode.temperature").tag("host", "localhost").field("value", 42L);
+
+        assertThat(writer.endLine(1000)).isTrue();
+        assertThat(content()).isEqualTo("sparkplug.edgeNode.temperature,host=localhost value=42 1000\n");
+    }
+
+    @Test
+    void multiple_fields_line() {
+        writer.measurement("sparkplug.edgeNode.device1")
+                .tags(new TreeMap<>(Map.of("b", "2", "a", "1")))
+                .field("speed", 100L)
+                .field("active", true)
+                .field("voltage", 3.14)
+                .field("name", "pump");
+        writer.endLine(5);
+
+        assertThat(content()).isEqualTo(
+                "sparkplug.edgeNode.device1,a=1,b=2 speed=100,active=true,voltage=3.14,name=\"pump\" 5\n");
+    }
+
+    @Test
+    void special_characters_escaped() {
+        writer.measurement("my measurement,1")
+                .tag("tag key", "a=b,c")
+                .field("field=key", "say \"hi\"")
+                .endLine(1);
+
+        assertThat(content()).isEqualTo("my\\ measurement\\,1,tag\\ key=a\\=b\\,c field\\=key=\"say \\\"hi\\\"\" 1\n");
+    }
+
+    @Test
+    void line_breaks_and_control_characters_replaced() {
+        writer.measurement("a\nb v=1 1\nc")
+                .tag("tag\rkey", "x\ty")
+                .field("field\n", "first\nsecond\u0000")
+                .endLine(1);
+
+        assertThat(content()).isEqualTo(
+                "a\\ b\\ v=1\\ 1\\ c,tag\\ key=x\\ y field\\ =\"first second \" 1\n");
+        assertThat(writer.lineCount()).isEqualTo(1);
+    }
+
+    @Test
+    void non_ascii_characters_encoded_as_utf8() {
+        writer.measurement("temp°C").field("😀", 1L).endLine(1);
+
+        assertThat(content()).isEqualTo("temp°C 😀=1 1\n");
+    }
+
+    @Test
+    void nan_and_infinite_skipped() {
+        writer.measurement("m").field("a", Double.NaN).field("b", Double.POSITIVE_INFINITY).field("c", 1.5);
+        writer.endLine(1);
+
+        assertThat(content()).isEqualTo("m c=1.5 1\n");
+    }
+
+    @Test
+    void line_without_fields_discarded() {
+        writer.measurement("first").field("value", 1L).endLine(1);
+        writer.measurement("second").tag("host", "localhost").field("value", Double.NaN);
+
+        assertThat(writer.endLine(2)).isFalse();
+        assertThat(content()).isEqualTo("first value=1 1\n");
+    }
+
+    @Test
+    void boxed_values_written_with_native_type() {
+        writer.measurement("m")
+                .field("int", (Object) 7)
+                .field("long", (Object) (-8L))
+                .field("float", (Object) 1.5f)
+                .field("bool", (Object) false)
+                .field("string", (Object) "text")
+                .endLine(1);
+
+        assertThat(content()).isEqualTo("m int=7,long=-8,float=1.5,bool=false,string=\"text\" 1\n");
+    }
+
+    @Test
+    void long_min_and_max_values() {
+        writer.measurement("m").field("min", Long.MIN_VALUE).field("max", Long.MAX_VALUE).endLine(0);
+
+        assertThat(content()).isEqualTo("m min=-9223372036854775808,max=9223372036854775807 0\n");
+    }
+
+    @Test
+    void buffer_grows_and_reset_reuses_it() {
+        for (var i = 0; i < 100; i++) {
+            writer.measurement("measurement" + i).field("value", i).endLine(i);
+        }
+        assertThat(content()).startsWith("measurement0 value=0 0\n").endsWith("measurement99 value=99 99\n");
+
+        writer.reset();
+        assertThat(writer.size()).isZero();
+        writer.measurement("m").field("value", 1L).endLine(1);
+        assertThat(content()).isEqualTo("m value=1 1\n");
+    }
+
+    private @NotNull String content() {
+        return new String(writer.buffer(), 0, writer.size(), StandardCharsets.UTF_8);
+    }
+}
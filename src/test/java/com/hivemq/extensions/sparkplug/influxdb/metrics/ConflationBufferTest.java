@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConflationBufferTest {
+
+    private final @NotNull ConflationBuffer buffer = new ConflationBuffer();
+
+    @Test
+    void nothing_written() {
+        assertThat(buffer.swap().size()).isZero();
+    }
+
+    @Test
+    void last_value_per_series_kept() {
+        buffer.put(0, 1, 100);
+        buffer.put(1, 5, 110);
+        buffer.put(0, 2, 120);
+        buffer.put(0, 3, 130);
+
+        final var conflated = buffer.swap();
+        assertThat(conflated.size()).isEqualTo(2);
+        assertThat(conflated.getValueBits(conflated.indexOf(0))).isEqualTo(3);
+        assertThat(conflated.getTimestamp(conflated.indexOf(0))).isEqualTo(130);
+        assertThat(conflated.getValueBits(conflated.indexOf(1))).isEqualTo(5);
+        assertThat(conflated.getHandle(conflated.indexOf(1))).isEqualTo(1);
+        assertThat(conflated.indexOf(2)).isEqualTo(-1);
+        assertThat(conflated.indexOf(-1)).isEqualTo(-1);
+    }
+
+    @Test
+    void swap_starts_new_window() {
+        buffer.put(0, 1, 100);
+        buffer.swap();
+        buffer.put(1, 2, 200);
+
+        final var conflated = buffer.swap();
+        assertThat(conflated.size()).isEqualTo(1);
+        assertThat(conflated.indexOf(0)).isEqualTo(-1);
+        assertThat(conflated.getValueBits(conflated.indexOf(1))).isEqualTo(2);
+
+        assertThat(buffer.swap().size()).isZero();
+    }
+
+    @Test
+    void values_kept_when_table_grows() {
+        buffer.ensureCapacity(10);
+        for (var handle = 0; handle < 10; handle++) {
+            buffer.put(handle, handle, 0);
+        }
+        buffer.ensureCapacity(1_000);
+        buffer.put(3, 33, 1);
+        for (var handle = 10; handle < 1_000; handle++) {
+            buffer.put(handle, handle, 0);
+        }
+
+        final var conflated = buffer.swap();
+        assertThat(conflated.size()).isEqualTo(1_000);
+        assertThat(conflated.getValueBits(conflated.indexOf(3))).isEqualTo(33);
+        for (var handle = 0; handle < 1_000; handle++) {
+            assertThat(conflated.indexOf(handle)).isNotNegative();
+        }
+        buffer.put(999, 1, 0);
+        assertThat(buffer.swap().size()).isEqualTo(1);
+    }
+
+    @Test
+    void concurrent_writes_not_lost_by_swap() throws Exception {
+        buffer.ensureCapacity(4);
+        final var running = new AtomicBoolean(true);
+        final var threads = new ArrayList<Thread>();
+        final var written = new long[4];
+        for (var t = 0; t < 4; t++) {
+            final var handle = t;
+            final var thread = new Thread(() -> {
+                var value = 0L;
+                while (running.get()) {
+                    buffer.put(handle, ++value, value);
+                }
+                written[handle] = value;
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        final var last = new long[4];
+        for (var i = 0; i < 1_000; i++) {
+            final var conflated = buffer.swap();
+            for (var index = 0; index < conflated.size(); index++) {
+                final var handle = conflated.getHandle(index);
+                // values of a series only increase, a stale value would mean a lost write
+                assertThat(conflated.getValueBits(index)).isGreaterThan(last[handle]);
+                last[handle] = conflated.getValueBits(index);
+            }
+        }
+        running.set(false);
+        for (final var thread : threads) {
+            thread.join();
+        }
+        final var conflated = buffer.swap();
+        for (var index = 0; index < conflated.size(); index++) {
+            last[conflated.getHandle(index)] = conflated.getValueBits(index);
+        }
+        assertThat(last).containsExactly(written);
+    }
+}
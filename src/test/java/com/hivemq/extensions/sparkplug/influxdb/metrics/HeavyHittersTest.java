@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeavyHittersTest {
+
+    private final @NotNull HeavyHitters heavyHitters = new HeavyHitters(3);
+
+    @Test
+    void keys_built_from_parts() {
+        heavyHitters.add("group", "edgeNode", null, null, 1);
+        heavyHitters.add("group", "edgeNode", "device", null, 2);
+        heavyHitters.add("group", "edgeNode", "device", "metric", 3);
+
+        assertThat(heavyHitters.drain()).extracting(HeavyHitters.Entry::getKey)
+                .containsExactly("group/edgeNode/device/metric", "group/edgeNode/device", "group/edgeNode");
+    }
+
+    @Test
+    void weights_summed_per_key() {
+        heavyHitters.add("group", "edgeNode1", null, null, 100);
+        heavyHitters.add("group", "edgeNode1", null, null, 50);
+        heavyHitters.add("group", "edgeNode2", null, null, 20);
+
+        assertThat(heavyHitters.drain()).extracting(HeavyHitters.Entry::toString)
+                .containsExactly("group/edgeNode1=150", "group/edgeNode2=20");
+    }
+
+    @Test
+    void heavy_keys_found_among_many_light_keys() {
+        final var random = ThreadLocalRandom.current();
+        for (var i = 0; i < 200_000; i++) {
+            final var roll = random.nextInt(100);
+            if (roll < 10) {
+                heavyHitters.add("group", "noisy1", null, null, 1);
+            } else if (roll < 18) {
+                heavyHitters.add("group", "noisy2", null, null, 1);
+            } else if (roll < 24) {
+                heavyHitters.add("group", "noisy3", null, null, 1);
+            } else {
+                heavyHitters.add("group", "edgeNode" + random.nextInt(100_000), null, null, 1);
+            }
+        }
+
+        final var top = heavyHitters.drain();
+        assertThat(top).extracting(HeavyHitters.Entry::getKey)
+                .containsExactly("group/noisy1", "group/noisy2", "group/noisy3");
+        // the error of the sketch is at most e / width of the total weight
+        assertThat(top.get(0).getWeight()).isBetween(19_000L, 21_000L + 200_000L * 3 / HeavyHitters.WIDTH);
+    }
+
+    @Test
+    void late_heavy_key_replaces_candidate() {
+        heavyHitters.add("group", "edgeNode1", null, null, 10);
+        heavyHitters.add("group", "edgeNode2", null, null, 10);
+        heavyHitters.add("group", "edgeNode3", null, null, 10);
+        heavyHitters.add("group", "edgeNode4", null, null, 5);
+        heavyHitters.add("group", "edgeNode4", null, null, 100);
+
+        assertThat(heavyHitters.drain()).extracting(HeavyHitters.Entry::getKey)
+                .hasSize(3)
+                .startsWith("group/edgeNode4");
+    }
+
+    @Test
+    void similar_key_does_not_replace_candidate() {
+        heavyHitters.add("group", "edgeNode1", null, null, 100);
+        heavyHitters.add("group", "edgeNode2", null, null, 100);
+        heavyHitters.add("group", "edgeNode3", null, null, 100);
+        heavyHitters.add("group", "edgeNode4", null, null, 105);
+
+        assertThat(heavyHitters.drain()).extracting(HeavyHitters.Entry::getKey)
+                .containsExactlyInAnyOrder("group/edgeNode1", "group/edgeNode2", "group/edgeNode3");
+    }
+
+    @Test
+    void drain_resets() {
+        heavyHitters.add("group", "edgeNode1", null, null, 100);
+        heavyHitters.drain();
+        heavyHitters.add("group", "edgeNode2", null, null, 1);
+
+        assertThat(heavyHitters.drain()).extracting(HeavyHitters.Entry::toString).containsExactly("group/edgeNode2=1");
+        assertThat(heavyHitters.drain()).isEmpty();
+    }
+
+    @Test
+    void concurrent_adds_not_lost() throws Exception {
+        final var threads = new ArrayList<Thread>();
+        for (var t = 0; t < 4; t++) {
+            final var thread = new Thread(() -> {
+                for (var i = 0; i < 50_000; i++) {
+                    heavyHitters.add("group", "edgeNode" + (i % 5), null, null, 1);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (final var thread : threads) {
+            thread.join();
+        }
+
+        final var top = heavyHitters.drain();
+        assertThat(top).hasSize(3);
+        assertThat(top).allSatisfy(entry -> assertThat(entry.getWeight()).isGreaterThanOrEqualTo(40_000));
+    }
+}
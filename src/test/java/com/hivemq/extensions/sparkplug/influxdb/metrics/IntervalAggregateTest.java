@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IntervalAggregateTest {
+
+    private final @NotNull IntervalAggregate aggregate = new IntervalAggregate();
+
+    @Test
+    void nothing_recorded() {
+        assertThat(aggregate.roll()).isFalse();
+        assertThat(aggregate.getCount()).isZero();
+        assertThat(aggregate.getMean()).isZero();
+    }
+
+    @Test
+    void values_of_interval_aggregated() {
+        aggregate.record(3);
+        aggregate.record(-1);
+        aggregate.record(10);
+        aggregate.record(4);
+
+        assertThat(aggregate.roll()).isTrue();
+        assertThat(aggregate.getCount()).isEqualTo(4);
+        assertThat(aggregate.getMin()).isEqualTo(-1);
+        assertThat(aggregate.getMax()).isEqualTo(10);
+        assertThat(aggregate.getMean()).isEqualTo(4);
+        assertThat(aggregate.getFirst()).isEqualTo(3);
+        assertThat(aggregate.getLast()).isEqualTo(4);
+    }
+
+    @Test
+    void roll_starts_new_interval() {
+        aggregate.record(100);
+        aggregate.roll();
+        aggregate.record(1);
+        aggregate.record(2);
+
+        // the completed interval stays readable while recording the next one
+        assertThat(aggregate.getMax()).isEqualTo(100);
+
+        assertThat(aggregate.roll()).isTrue();
+        assertThat(aggregate.getCount()).isEqualTo(2);
+        assertThat(aggregate.getMin()).isEqualTo(1);
+        assertThat(aggregate.getMax()).isEqualTo(2);
+        assertThat(aggregate.getFirst()).isEqualTo(1);
+
+        assertThat(aggregate.roll()).isFalse();
+        aggregate.record(7);
+        assertThat(aggregate.roll()).isTrue();
+        assertThat(aggregate.getCount()).isEqualTo(1);
+        assertThat(aggregate.getMin()).isEqualTo(7);
+        assertThat(aggregate.getMax()).isEqualTo(7);
+    }
+
+    @Test
+    void concurrent_records_not_lost() throws Exception {
+        final var threads = new ArrayList<Thread>();
+        for (var t = 0; t < 4; t++) {
+            final var offset = t * 100_000;
+            final var thread = new Thread(() -> {
+                for (var i = 1; i <= 100_000; i++) {
+                    aggregate.record(offset + i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (final var thread : threads) {
+            thread.join();
+        }
+
+        assertThat(aggregate.roll()).isTrue();
+        assertThat(aggregate.getCount()).isEqualTo(400_000);
+        assertThat(aggregate.getMin()).isEqualTo(1);
+        assertThat(aggregate.getMax()).isEqualTo(400_000);
+        assertThat(aggregate.getMean()).isEqualTo(200_000.5);
+    }
+
+    @Test
+    void concurrent_rolls_count_every_value_once() throws Exception {
+        final var running = new AtomicBoolean(true);
+        final var recorded = new AtomicLong();
+        final var threads = new ArrayList<Thread>();
+        for (var t = 0; t < 4; t++) {
+            final var thread = new Thread(() -> {
+                var count = 0L;
+                while (running.get()) {
+                    aggregate.record(1);
+                    count++;
+                }
+                recorded.addAndGet(count);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        var counted = 0L;
+        for (var i = 0; i < 100_000; i++) {
+            if (aggregate.roll()) {
+                // a value recorded into the completed interval would tear the sum from the count
+                assertThat(aggregate.getSum()).isEqualTo(aggregate.getCount());
+                assertThat(aggregate.getMin()).isEqualTo(1);
+                assertThat(aggregate.getMax()).isEqualTo(1);
+                counted += aggregate.getCount();
+            }
+        }
+        running.set(false);
+        for (final var thread : threads) {
+            thread.join();
+        }
+        aggregate.roll();
+        counted += aggregate.getCount();
+
+        assertThat(counted).isEqualTo(recorded.get());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class IntervalReservoirTest {
+
+    private final @NotNull IntervalReservoir reservoir = new IntervalReservoir();
+
+    @Test
+    void empty_snapshot_before_roll() {
+        reservoir.update(10);
+
+        assertThat(reservoir.size()).isZero();
+        assertThat(reservoir.getSnapshot().getMax()).isZero();
+        assertThat(reservoir.getSnapshot().get99thPercentile()).isZero();
+    }
+
+    @Test
+    void small_values_exact() {
+        for (var i = 1; i <= 100; i++) {
+            reservoir.update(i);
+        }
+        reservoir.roll();
+
+        final var snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(100);
+        assertThat(snapshot.getMin()).isEqualTo(1);
+        assertThat(snapshot.getMax()).isEqualTo(100);
+        assertThat(snapshot.getMean()).isEqualTo(50.5);
+        assertThat(snapshot.getMedian()).isEqualTo(50);
+        assertThat(snapshot.get99thPercentile()).isEqualTo(99);
+        assertThat(snapshot.getValues()).hasSize(100).startsWith(1, 2, 3).endsWith(99, 100);
+    }
+
+    @Test
+    void percentiles_within_one_percent() {
+        final var random = ThreadLocalRandom.current();
+        final var values = new long[100_000];
+        for (var i = 0; i < values.length; i++) {
+            values[i] = random.nextLong(1_000, 10_000_000_000L);
+            reservoir.update(values[i]);
+        }
+        reservoir.roll();
+        Arrays.sort(values);
+
+        final var snapshot = reservoir.getSnapshot();
+        for (final var quantile : new double[]{0.5, 0.75, 0.95, 0.99, 0.999}) {
+            final var expected = values[(int) Math.ceil(quantile * values.length) - 1];
+            assertThat(snapshot.getValue(quantile)).isCloseTo(expected, within(expected * 0.01));
+        }
+        assertThat(snapshot.getMin()).isEqualTo(values[0]);
+        assertThat(snapshot.getMax()).isEqualTo(values[values.length - 1]);
+    }
+
+    @Test
+    void roll_starts_new_interval() {
+        reservoir.update(1_000);
+        reservoir.roll();
+        reservoir.update(5);
+        reservoir.update(7);
+
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(1);
+        assertThat(reservoir.getSnapshot().getMax()).isEqualTo(1_000);
+
+        reservoir.roll();
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(2);
+        assertThat(reservoir.getSnapshot().getMin()).isEqualTo(5);
+        assertThat(reservoir.getSnapshot().getMax()).isEqualTo(7);
+
+        reservoir.roll();
+        assertThat(reservoir.getSnapshot().size()).isZero();
+    }
+
+    @Test
+    void negative_values_recorded_as_zero() {
+        reservoir.update(-5);
+        reservoir.roll();
+
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(1);
+        assertThat(reservoir.getSnapshot().getMin()).isZero();
+    }
+
+    @Test
+    void concurrent_updates_not_lost() throws Exception {
+        final var threads = new ArrayList<Thread>();
+        final var start = new CountDownLatch(1);
+        for (var t = 0; t < 4; t++) {
+            final var thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (var i = 0; i < 100_000; i++) {
+                    reservoir.update(i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        var total = 0L;
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            reservoir.roll();
+            total += reservoir.size();
+        }
+        for (final var thread : threads) {
+            thread.join();
+        }
+        reservoir.roll();
+        total += reservoir.size();
+
+        assertThat(total).isEqualTo(400_000);
+    }
+
+    @Test
+    void buckets_cover_all_values() {
+        for (final var value : new long[]{0, 127, 128, 129, 255, 256, 1_000_000, Long.MAX_VALUE / 3, Long.MAX_VALUE}) {
+            final var bucket = IntervalReservoir.bucket(value);
+            assertThat(bucket).isBetween(0, IntervalReservoir.BUCKETS - 1);
+            assertThat(value).isBetween(IntervalReservoir.lowestValue(bucket), IntervalReservoir.highestValue(bucket));
+        }
+        for (var bucket = 1; bucket < IntervalReservoir.BUCKETS; bucket++) {
+            assertThat(IntervalReservoir.lowestValue(bucket)).isEqualTo(IntervalReservoir.highestValue(bucket - 1) + 1);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class QuantileSketchTest {
+
+    private final @NotNull QuantileSketch sketch = new QuantileSketch();
+
+    @Test
+    void empty_sketch() {
+        assertThat(sketch.getCount()).isZero();
+        assertThat(sketch.getValue(0.5)).isNaN();
+        assertThat(sketch.roll(new double[]{0.5}, new double[1])).isZero();
+    }
+
+    @Test
+    void quantiles_within_relative_accuracy() {
+        final var random = ThreadLocalRandom.current();
+        final var values = new double[100_000];
+        for (var i = 0; i < values.length; i++) {
+            // log-normal, like the amplitude of a vibration sensor
+            values[i] = Math.exp(random.nextGaussian() * 2);
+            sketch.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (final var quantile : new double[]{0, 0.1, 0.5, 0.9, 0.99, 0.999, 1}) {
+            final var expected = values[(int) (quantile * (values.length - 1))];
+            assertThat(sketch.getValue(quantile)).isCloseTo(expected, within(expected * QuantileSketch.RELATIVE_ACCURACY));
+        }
+    }
+
+    @Test
+    void negative_and_zero_values() {
+        for (var i = -50; i <= 50; i++) {
+            sketch.record(i);
+        }
+        sketch.record(Double.NaN);
+
+        assertThat(sketch.getCount()).isEqualTo(101);
+        assertThat(sketch.getValue(0)).isEqualTo(-50);
+        assertThat(sketch.getValue(0.1)).isCloseTo(-40, within(0.4));
+        assertThat(sketch.getValue(0.5)).isZero();
+        assertThat(sketch.getValue(0.9)).isCloseTo(40, within(0.4));
+        assertThat(sketch.getValue(1)).isEqualTo(50);
+    }
+
+    @Test
+    void roll_reads_and_resets() {
+        for (var i = 1; i <= 100; i++) {
+            sketch.record(i);
+        }
+        final var values = new double[3];
+
+        assertThat(sketch.roll(new double[]{0.5, 0.9, 0.99}, values)).isEqualTo(100);
+        assertThat(values[0]).isCloseTo(50, within(0.5));
+        assertThat(values[1]).isCloseTo(90, within(0.9));
+        assertThat(values[2]).isCloseTo(99, within(1.0));
+        assertThat(sketch.getCount()).isZero();
+
+        sketch.record(1_000);
+        assertThat(sketch.getValue(0.5)).isCloseTo(1_000, within(10.0));
+    }
+
+    @Test
+    void merged_sketches_equal_single_sketch() {
+        final var other = new QuantileSketch();
+        final var all = new QuantileSketch();
+        final var random = ThreadLocalRandom.current();
+        for (var i = 0; i < 10_000; i++) {
+            final var value = random.nextDouble(-1_000, 1_000);
+            (i % 2 == 0 ? sketch : other).record(value);
+            all.record(value);
+        }
+        sketch.merge(other);
+
+        assertThat(sketch.getCount()).isEqualTo(10_000);
+        for (final var quantile : new double[]{0, 0.25, 0.5, 0.75, 1}) {
+            assertThat(sketch.getValue(quantile)).isEqualTo(all.getValue(quantile));
+        }
+    }
+
+    @Test
+    void bins_bounded_for_wide_range() {
+        // 1e-20 to 1e20 needs about 4600 bins, the 1024 bins cover about 9 orders of magnitude
+        for (var exponent = -20; exponent <= 20; exponent++) {
+            for (var i = 0; i < 10; i++) {
+                sketch.record(Math.pow(10, exponent));
+            }
+        }
+
+        assertThat(sketch.getCount()).isEqualTo(410);
+        assertThat(sketch.getValue(1)).isEqualTo(1e20);
+        assertThat(sketch.getValue(0.95)).isCloseTo(1e18, within(1e16));
+        // the lowest values are collapsed into the lowest kept bin
+        assertThat(sketch.getValue(0.5)).isBetween(1e11, 1e12);
+        assertThat(sketch.getValue(0)).isEqualTo(1e-20);
+    }
+
+    @Test
+    void bins_collapsed_for_growing_values() {
+        for (var exponent = 0; exponent <= 40; exponent++) {
+            sketch.record(Math.pow(10, exponent));
+        }
+        for (var exponent = -40; exponent < 0; exponent++) {
+            sketch.record(Math.pow(10, exponent));
+        }
+
+        assertThat(sketch.getCount()).isEqualTo(81);
+        assertThat(sketch.getValue(0.99)).isCloseTo(1e39, within(1e37));
+        assertThat(sketch.getValue(0.9)).isCloseTo(1e32, within(1e30));
+        assertThat(sketch.getValue(0.5)).isBetween(1e31, 1e32);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.hivemq.extensions.sparkplug.influxdb.metrics.RouteMatcher.DEFAULT_ROUTE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RouteMatcherTest {
+
+    @Test
+    void group_ids_matched() {
+        final var matcher = new RouteMatcher(List.of(List.of("Berlin"), List.of("Munich", "Hamburg")));
+
+        assertThat(matcher.size()).isEqualTo(3);
+        assertThat(matcher.route("Berlin", "line1")).isEqualTo(1);
+        assertThat(matcher.route("Munich", "line1")).isEqualTo(2);
+        assertThat(matcher.route("Hamburg", "line1")).isEqualTo(2);
+        assertThat(matcher.route("Paris", "line1")).isEqualTo(DEFAULT_ROUTE);
+        assertThat(matcher.route("Berlin2", "line1")).isEqualTo(DEFAULT_ROUTE);
+    }
+
+    @Test
+    void edge_node_ids_matched() {
+        final var matcher = new RouteMatcher(List.of(List.of("Berlin/line1"), List.of("Berlin")));
+
+        assertThat(matcher.route("Berlin", "line1")).isEqualTo(1);
+        assertThat(matcher.route("Berlin", "line2")).isEqualTo(2);
+        assertThat(matcher.route("Munich", "line1")).isEqualTo(DEFAULT_ROUTE);
+    }
+
+    @Test
+    void wildcards_matched_within_group_and_edge_node_id() {
+        final var matcher = new RouteMatcher(List.of(List.of("Plant*"), List.of("*/line*"), List.of("*")));
+
+        assertThat(matcher.route("PlantA", "line1")).isEqualTo(1);
+        assertThat(matcher.route("Plant", "node")).isEqualTo(1);
+        assertThat(matcher.route("Berlin", "line1")).isEqualTo(2);
+        assertThat(matcher.route("Berlin", "node")).isEqualTo(3);
+        assertThat(matcher.route("Berlin.*", "node")).isEqualTo(3);
+    }
+
+    @Test
+    void special_characters_matched_literally() {
+        final var matcher = new RouteMatcher(List.of(List.of("a.b*"), List.of("(x)/[y]")));
+
+        assertThat(matcher.route("a.bc", "node")).isEqualTo(1);
+        assertThat(matcher.route("axbc", "node")).isEqualTo(DEFAULT_ROUTE);
+        assertThat(matcher.route("(x)", "[y]")).isEqualTo(2);
+    }
+
+    @Test
+    void first_matching_route_wins() {
+        final var matcher = new RouteMatcher(List.of(List.of("Ber*"), List.of("Berlin"), List.of("Berlin/line1")));
+
+        assertThat(matcher.route("Berlin", "line1")).isEqualTo(1);
+
+        final var exactFirst = new RouteMatcher(List.of(List.of("Berlin/line1"), List.of("Ber*"), List.of("Berlin")));
+        assertThat(exactFirst.route("Berlin", "line1")).isEqualTo(1);
+        assertThat(exactFirst.route("Berlin", "line2")).isEqualTo(2);
+    }
+
+    @Test
+    void metrics_holder_assigns_route_to_new_devices() {
+        final var holder = MetricsHolder.forRegistry(new MetricRegistry())
+                .routeMatcher(new RouteMatcher(List.of(List.of("Berlin"))))
+                .build();
+        holder.getDeviceInformationMetricsInt("Berlin", "line1", "device1", "speed");
+        holder.getDeviceInformationMetricsInt("Munich", "line2", null, "speed");
+        holder.getDeviceInformationMetricsInt("line3", null, "speed");
+
+        final var table = holder.getSeriesTable();
+        assertThat(table.getDevice(0).getRoute()).isEqualTo(1);
+        assertThat(table.getDevice(1).getRoute()).isEqualTo(DEFAULT_ROUTE);
+        assertThat(table.getDevice(2).getRoute()).isEqualTo(DEFAULT_ROUTE);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SeriesColumnsTest {
+
+    private final @NotNull SeriesColumns columns = new SeriesColumns(6);
+
+    @Test
+    void columns_independent_per_series() {
+        columns.ensureCapacity(3);
+
+        columns.setValueBits(0, 10);
+        columns.setValueBits(1, -1);
+        columns.received(1, 100, 200, 300);
+
+        assertThat(columns.getValueBits(0)).isEqualTo(10);
+        assertThat(columns.getValueBits(1)).isEqualTo(-1);
+        assertThat(columns.getValueBits(2)).isZero();
+        assertThat(columns.getReceivedNanos(0)).isZero();
+        assertThat(columns.getReceivedNanos(1)).isEqualTo(100);
+        assertThat(columns.getBrokerTimestamp(1)).isEqualTo(200);
+        assertThat(columns.getSourceTimestamp(1)).isEqualTo(300);
+    }
+
+    @Test
+    void type_tag_per_series() {
+        columns.ensureCapacity(2);
+
+        columns.setType(1, ValueType.BOOLEAN);
+
+        assertThat(columns.getType(0)).isEqualTo(ValueType.DOUBLE);
+        assertThat(columns.getType(1)).isEqualTo(ValueType.BOOLEAN);
+    }
+
+    @Test
+    void dirty_until_reported() {
+        columns.ensureCapacity(64);
+
+        columns.received(63, 1, 0, 0);
+
+        assertThat(columns.isDirty(62)).isFalse();
+        assertThat(columns.isDirty(63)).isTrue();
+        assertThat(columns.markReported(62)).isFalse();
+        assertThat(columns.markReported(63)).isTrue();
+        assertThat(columns.markReported(63)).isFalse();
+
+        columns.received(63, 2, 0, 0);
+
+        assertThat(columns.markReported(63)).isTrue();
+    }
+
+    @Test
+    void dirty_series_drained() {
+        columns.ensureCapacity(1_000);
+        columns.received(3, 1, 0, 0);
+        columns.received(64, 1, 0, 0);
+        columns.received(999, 1, 0, 0);
+        final var dirty = new DirtySeries();
+
+        columns.drainDirty(1_000, dirty);
+
+        assertThat(dirty.size()).isEqualTo(3);
+        assertThat(new int[] {dirty.getHandle(0), dirty.getHandle(1), dirty.getHandle(2)}).containsExactly(3, 64, 999);
+        assertThat(dirty.contains(64)).isTrue();
+        assertThat(dirty.contains(65)).isFalse();
+        assertThat(columns.isDirty(3)).isFalse();
+        assertThat(columns.isDirty(999)).isFalse();
+
+        columns.received(64, 2, 0, 0);
+        columns.drainDirty(1_000, dirty);
+
+        assertThat(dirty.size()).isEqualTo(1);
+        assertThat(dirty.getHandle(0)).isEqualTo(64);
+        assertThat(dirty.contains(3)).isFalse();
+
+        columns.drainDirty(1_000, dirty);
+
+        assertThat(dirty.size()).isZero();
+    }
+
+    @Test
+    void series_beyond_count_kept_dirty() {
+        columns.ensureCapacity(200);
+        columns.received(10, 1, 0, 0);
+        columns.received(70, 1, 0, 0);
+        columns.received(150, 1, 0, 0);
+        final var dirty = new DirtySeries();
+
+        columns.drainDirty(65, dirty);
+
+        assertThat(dirty.size()).isEqualTo(1);
+        assertThat(dirty.getHandle(0)).isEqualTo(10);
+        assertThat(columns.isDirty(70)).isTrue();
+
+        columns.drainDirty(200, dirty);
+
+        assertThat(dirty.size()).isEqualTo(2);
+        assertThat(dirty.getHandle(0)).isEqualTo(70);
+        assertThat(dirty.getHandle(1)).isEqualTo(150);
+    }
+
+    @Test
+    void growing_keeps_values() {
+        columns.ensureCapacity(64);
+        columns.setValueBits(63, 63);
+        columns.received(63, 1, 0, 0);
+
+        columns.ensureCapacity(1_000);
+        for (var handle = 64; handle < 1_000; handle++) {
+            columns.setValueBits(handle, handle);
+        }
+
+        final var segmentBytes = 4 * 64 * Long.BYTES + 64 * Integer.BYTES + 2 * Long.BYTES;
+        assertThat(columns.getAllocatedBytes()).isEqualTo(16L * segmentBytes);
+        assertThat(columns.getValueBits(63)).isEqualTo(63);
+        assertThat(columns.isDirty(63)).isTrue();
+        assertThat(columns.getValueBits(999)).isEqualTo(999);
+        assertThat(columns.isDirty(999)).isFalse();
+    }
+
+    @Test
+    void single_series_segments() {
+        final var single = new SeriesColumns(0);
+        single.ensureCapacity(1);
+
+        single.setValueBits(0, 42);
+        single.received(0, 1, 0, 0);
+
+        assertThat(single.getValueBits(0)).isEqualTo(42);
+        assertThat(single.markReported(0)).isTrue();
+        assertThat(single.getAllocatedBytes()).isEqualTo(7 * Long.BYTES);
+    }
+
+    @Test
+    void concurrent_updates_of_same_word_not_lost() throws Exception {
+        columns.ensureCapacity(64);
+        final var start = new CountDownLatch(1);
+        final var threads = new ArrayList<Thread>();
+        for (var t = 0; t < 4; t++) {
+            final var first = t * 16;
+            final var thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                for (var handle = first; handle < first + 16; handle++) {
+                    columns.received(handle, 1, 0, 0);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (final var thread : threads) {
+            thread.join();
+        }
+
+        for (var handle = 0; handle < 64; handle++) {
+            assertThat(columns.markReported(handle)).isTrue();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SeriesTableTest {
+
+    private final @NotNull MetricsHolder metricsHolder = MetricsHolder.forRegistry(new MetricRegistry()).build();
+    private final @NotNull SeriesTable table = metricsHolder.getSeriesTable();
+
+    @Test
+    void series_addressed_by_dense_handles() {
+        final var speed = metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed");
+        final var voltage = metricsHolder.getDeviceInformationMetricsDouble("edgeNode", "device1", "voltage");
+        final var uptime = metricsHolder.getDeviceInformationMetricsLong("edgeNode", null, "uptime");
+
+        assertThat(table.getSeriesCount()).isEqualTo(3);
+        assertThat(speed.getHandle()).isZero();
+        assertThat(voltage.getHandle()).isEqualTo(1);
+        assertThat(uptime.getHandle()).isEqualTo(2);
+        assertThat(table.getSeries(1)).isSameAs(voltage);
+        assertThat(uptime.getField()).isEqualTo("uptime");
+
+        assertThat(table.getDeviceCount()).isEqualTo(2);
+        assertThat(table.getDevice(0).getMeasurement()).isEqualTo("sparkplug.edgeNode.device1");
+        assertThat(table.getDevice(0).getGauges()).containsExactly(speed, voltage);
+        assertThat(table.getDevice(1).getMeasurement()).isEqualTo("sparkplug.edgeNode");
+    }
+
+    @Test
+    void gauges_of_device_sorted_by_field() {
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "c");
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "a");
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "b");
+
+        assertThat(Arrays.stream(table.getDevice(0).getGauges()).map(SparkplugGauge::getField)).containsExactly("a",
+                "b",
+                "c");
+    }
+
+    @Test
+    void gauge_registered_once() {
+        final var speed = metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed");
+
+        assertThat(metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed")).isSameAs(speed);
+        assertThat(table.getSeriesCount()).isEqualTo(1);
+        assertThat(table.getDevice(0).getGauges()).hasSize(1);
+    }
+
+    @Test
+    void gauge_found_without_registering() {
+        final var registry = new MetricRegistry();
+        final var holder = MetricsHolder.forRegistry(registry).registerMetrics(false).build();
+        final var speed = holder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed");
+        speed.setValue(5);
+
+        assertThat(holder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed")).isSameAs(speed);
+        assertThat(registry.getGauges()).doesNotContainKey("sparkplug.edgeNode.device1.speed");
+        assertThat(holder.getSeriesTable().getDevice(0).getField("speed")).isSameAs(speed);
+        assertThat(holder.getSeriesTable().getDevice(0).getField("voltage")).isNull();
+
+        final var changed = holder.getDeviceInformationMetricsDouble("edgeNode", "device1", "speed");
+
+        assertThat(changed.getHandle()).isEqualTo(speed.getHandle());
+        assertThat(changed.getValue()).isEqualTo(5);
+        assertThat(registry.getGauges()).doesNotContainKey("sparkplug.edgeNode.device1.speed");
+    }
+
+    @Test
+    void table_grows() {
+        for (var i = 0; i < 1_000; i++) {
+            metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device" + (i % 100), "metric" + i);
+        }
+
+        assertThat(table.getSeriesCount()).isEqualTo(1_000);
+        assertThat(table.getDeviceCount()).isEqualTo(100);
+        for (var handle = 0; handle < 1_000; handle++) {
+            assertThat(table.getSeries(handle).getHandle()).isEqualTo(handle);
+        }
+    }
+
+    @Test
+    void status_metrics_not_part_of_table() {
+        final var status = metricsHolder.getStatusMetrics("edgeNode", null);
+
+        assertThat(MetricsHolder.isDeviceMetric(status)).isFalse();
+        assertThat(status.getHandle()).isEqualTo(-1);
+        assertThat(table.getSeriesCount()).isZero();
+    }
+
+    @Test
+    void status_metrics_share_detached_columns() {
+        final var device1 = metricsHolder.getStatusMetrics("edgeNode", "device1");
+        final var device2 = metricsHolder.getStatusMetrics("edgeNode", "device2");
+
+        device1.setValue(1).received(1, 2, 3);
+        device2.setValue(0).received(4, 5, 6);
+
+        assertThat(device1.getValue()).isEqualTo(1);
+        assertThat(device1.getReceivedNanos()).isEqualTo(1);
+        assertThat(device1.getSourceTimestamp()).isEqualTo(3);
+        assertThat(device2.getValue()).isZero();
+        assertThat(device2.getReceivedNanos()).isEqualTo(4);
+        assertThat(device2.getSourceTimestamp()).isEqualTo(6);
+    }
+
+    @Test
+    void values_kept_in_columns() {
+        final var speed = metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed");
+        final var voltage = metricsHolder.getDeviceInformationMetricsDouble("edgeNode", "device1", "voltage");
+
+        speed.setValue(-7).received(1, 2, 3);
+        voltage.setValue(3.5);
+
+        final var columns = table.getColumns();
+        assertThat((int) columns.getValueBits(speed.getHandle())).isEqualTo(-7);
+        assertThat(columns.getReceivedNanos(speed.getHandle())).isEqualTo(1);
+        assertThat(columns.getBrokerTimestamp(speed.getHandle())).isEqualTo(2);
+        assertThat(columns.getSourceTimestamp(speed.getHandle())).isEqualTo(3);
+        assertThat(columns.isDirty(speed.getHandle())).isTrue();
+        assertThat(Double.longBitsToDouble(columns.getValueBits(voltage.getHandle()))).isEqualTo(3.5);
+        assertThat(columns.isDirty(voltage.getHandle())).isFalse();
+    }
+
+    @Test
+    void type_change_replaces_gauge_of_series() {
+        final var registry = metricsHolder.getMetricRegistry();
+        final var speed = metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed");
+        speed.setValue(5).received(1, 0, 0);
+
+        final var changed = metricsHolder.getDeviceInformationMetricsDouble("edgeNode", "device1", "speed");
+
+        assertThat(changed.getHandle()).isEqualTo(speed.getHandle());
+        assertThat(changed.getField()).isSameAs(speed.getField());
+        assertThat(table.getSeriesCount()).isEqualTo(1);
+        assertThat(table.getSeries(0)).isSameAs(changed);
+        assertThat(table.getDevice(0).getGauges()).containsExactly(changed);
+        assertThat(table.getColumns().getType(0)).isEqualTo(ValueType.DOUBLE);
+        assertThat(registry.getMetrics()).containsEntry("sparkplug.edgeNode.device1.speed", changed);
+        assertThat(registry.counter(PipelineMetrics.PREFIX + ".schema.changes").getCount()).isEqualTo(1);
+        assertThat(metricsHolder.getDeviceInformationMetricsDouble("edgeNode", "device1", "speed")).isSameAs(changed);
+
+        // changing back is another schema change
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed").setValue(7);
+        assertThat(registry.counter(PipelineMetrics.PREFIX + ".schema.changes").getCount()).isEqualTo(2);
+        assertThat(table.getColumns().getType(0)).isEqualTo(ValueType.INT);
+        assertThat(table.getColumns().getValueBits(0)).isEqualTo(7);
+    }
+
+    @Test
+    void type_change_of_other_metric_rejected() {
+        metricsHolder.getStatusMetrics("edgeNode", null);
+
+        assertThatThrownBy(() -> metricsHolder.getDeviceInformationMetricsInt("edgeNode", null, "status")).isInstanceOf(
+                IllegalArgumentException.class);
+    }
+
+    @Test
+    void field_names_interned() {
+        final var speed1 = metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", new String("speed"));
+        final var speed2 = metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device2", new String("speed"));
+
+        assertThat(speed1.getField()).isSameAs(speed2.getField());
+    }
+
+    @Test
+    void series_with_other_handle_rejected() {
+        final var gauge = new SettableIntGauge(table.getColumns(), 1);
+        final var device = table.addDevice("sparkplug.edgeNode", "", RouteMatcher.DEFAULT_ROUTE);
+
+        assertThatThrownBy(() -> table.addSeries(gauge, device)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(table.getSeriesCount()).isZero();
+    }
+}
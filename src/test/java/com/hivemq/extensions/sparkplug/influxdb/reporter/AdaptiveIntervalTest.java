@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveIntervalTest {
+
+    private final @NotNull AdaptiveInterval interval = new AdaptiveInterval(100, 1_000);
+
+    @Test
+    void floor_kept_while_sink_keeps_up() {
+        for (var i = 0; i < 10; i++) {
+            assertThat(interval.update(millis(5), false)).isEqualTo(100);
+        }
+    }
+
+    @Test
+    void widened_up_to_ceiling_while_saturated() {
+        assertThat(interval.update(millis(300), false)).isEqualTo(200);
+        assertThat(interval.update(millis(300), false)).isEqualTo(400);
+        assertThat(interval.update(millis(800), false)).isEqualTo(800);
+        assertThat(interval.update(millis(800), false)).isEqualTo(1_000);
+        assertThat(interval.update(millis(800), false)).isEqualTo(1_000);
+    }
+
+    @Test
+    void widened_on_failure() {
+        assertThat(interval.update(millis(1), true)).isEqualTo(200);
+        assertThat(interval.update(millis(1), true)).isEqualTo(400);
+    }
+
+    @Test
+    void shrunk_back_to_floor_after_recovery() {
+        interval.update(0, true);
+        interval.update(0, true);
+        interval.update(0, true);
+        assertThat(interval.getMillis()).isEqualTo(800);
+
+        var previous = interval.getMillis();
+        while (interval.getMillis() > 100) {
+            interval.update(millis(1), false);
+            // shrinks slower than it widens
+            assertThat(interval.getMillis()).isGreaterThanOrEqualTo(previous * 3 / 4);
+            previous = interval.getMillis();
+        }
+        assertThat(interval.update(millis(1), false)).isEqualTo(100);
+    }
+
+    @Test
+    void single_slow_flush_smoothed() {
+        interval.update(millis(10), false);
+        // a single slow flush moves the average above a quarter, but not above half of the interval
+        assertThat(interval.update(millis(80), false)).isEqualTo(100);
+    }
+
+    private static long millis(final long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
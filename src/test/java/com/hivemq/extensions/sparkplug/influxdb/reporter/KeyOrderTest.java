@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeyOrderTest {
+
+    private final @NotNull KeyOrder order = new KeyOrder();
+    private final @NotNull List<byte[]> keys = new ArrayList<>();
+
+    @Test
+    void ids_ordered_by_key() {
+        add("b", "a,x", "c");
+        order.update(keys.size(), keys::get);
+
+        assertThat(ordered()).containsExactly(1, 0, 2);
+        assertThat(order.rank(0)).isEqualTo(1);
+        assertThat(order.rank(1)).isEqualTo(0);
+        assertThat(order.rank(2)).isEqualTo(2);
+    }
+
+    @Test
+    void added_ids_merged() {
+        add("d", "b");
+        order.update(keys.size(), keys::get);
+        add("e", "a", "c");
+        order.update(keys.size(), keys::get);
+
+        assertThat(ordered()).containsExactly(3, 1, 4, 0, 2);
+        for (var rank = 0; rank < order.size(); rank++) {
+            assertThat(order.rank(order.get(rank))).isEqualTo(rank);
+        }
+    }
+
+    @Test
+    void keys_compared_as_unsigned_bytes() {
+        add("ä", "z", "a.b", "a,b");
+        order.update(keys.size(), keys::get);
+
+        // ',' sorts before '.', and multi-byte UTF-8 after ASCII
+        assertThat(ordered()).containsExactly(3, 2, 1, 0);
+    }
+
+    private void add(final @NotNull String @NotNull ... added) {
+        for (final var key : added) {
+            keys.add(key.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private @NotNull List<Integer> ordered() {
+        final var ids = new ArrayList<Integer>();
+        for (var rank = 0; rank < order.size(); rank++) {
+            ids.add(order.get(rank));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,774 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.MetricsHolder;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.RouteMatcher;
+import com.hivemq.extensions.sparkplug.influxdb.sender.LineProtocolSender;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LineProtocolReporterTest {
+
+    private final @NotNull List<String> sent = new ArrayList<>();
+    private final @NotNull LineProtocolSender sender = new LineProtocolSender() {
+        @Override
+        public @NotNull TimeUnit getTimePrecision() {
+            return TimeUnit.SECONDS;
+        }
+
+        @Override
+        public void send(final byte @NotNull [] lines, final int length) {
+            sent.add(new String(lines, 0, length, StandardCharsets.UTF_8));
+        }
+    };
+
+    private @NotNull MetricRegistry metricRegistry;
+    private @NotNull MetricsHolder metricsHolder;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = new MetricRegistry();
+        metricsHolder = MetricsHolder.forRegistry(metricRegistry).build();
+        metricsHolder.getStatusMetrics("edgeNode", "device1").setValue(1);
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed").setValue(100);
+        metricsHolder.getDeviceInformationMetricsDouble("edgeNode", "device1", "voltage").setValue(3.5);
+        metricsHolder.getDeviceInformationMetricsBoolean("edgeNode", "device1", "active").setValue(true);
+        metricsHolder.getDeviceInformationMetricsLong("edgeNode", null, "uptime").setValue(12345L);
+        metricsHolder.getCurrentDeviceOnline().inc();
+    }
+
+    @Test
+    void single_field_points() {
+        report(false);
+
+        assertThat(sent).hasSize(1);
+        assertThat(lines()).containsExactlyInAnyOrder("sparkplug.edgeNode.device1.active,host=hivemq value=true",
+                "sparkplug.edgeNode.device1.speed,host=hivemq value=100",
+                "sparkplug.edgeNode.device1.status,host=hivemq value=1",
+                "sparkplug.edgeNode.device1.voltage,host=hivemq value=3.5",
+                "sparkplug.edgeNode.uptime,host=hivemq value=12345",
+                "sparkplug.devices.current.count,host=hivemq count=1");
+    }
+
+    @Test
+    void multi_field_points_grouped_by_device() {
+        report(true);
+
+        assertThat(sent).hasSize(1);
+        assertThat(lines()).containsExactlyInAnyOrder("sparkplug.edgeNode.device1.status,host=hivemq value=1",
+                "sparkplug.edgeNode.device1,host=hivemq active=true,speed=100,voltage=3.5",
+                "sparkplug.edgeNode,host=hivemq uptime=12345",
+                "sparkplug.devices.current.count,host=hivemq count=1");
+    }
+
+    @Test
+    void data_metrics_reported_without_registering() {
+        metricRegistry = new MetricRegistry();
+        final var holder = MetricsHolder.forRegistry(metricRegistry).registerMetrics(false).build();
+        holder.getDeviceInformationMetricsInt("edgeNode", "device2", "speed").setValue(7);
+        holder.getDeviceInformationMetricsDouble("edgeNode", "device2", "voltage").setValue(1.5);
+
+        reporter(holder, true, false, List.of()).report();
+
+        assertThat(metricRegistry.getGauges()).doesNotContainKeys("sparkplug.edgeNode.device2.speed",
+                "sparkplug.edgeNode.device2.voltage");
+        assertThat(lines()).contains("sparkplug.edgeNode.device2,host=hivemq speed=7,voltage=1.5");
+    }
+
+    @Test
+    void large_reports_sent_in_chunks() {
+        for (var i = 0; i < 2 * LineProtocolReporter.CHUNK_LINES; i++) {
+            metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device2", "metric" + i).setValue(i);
+        }
+        report(false);
+
+        assertThat(sent).hasSize(3);
+        assertThat(sent.get(0).split("\n")).hasSize(LineProtocolReporter.CHUNK_LINES);
+        assertThat(lines()).hasSize(2 * LineProtocolReporter.CHUNK_LINES + 6);
+        assertThat(counter("send.count")).isEqualTo(3);
+    }
+
+    @Test
+    void chunks_in_flight_awaited_at_end_of_report() {
+        for (var i = 0; i < 2 * LineProtocolReporter.CHUNK_LINES; i++) {
+            metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device2", "metric" + i).setValue(i);
+        }
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed")
+                .setValue(101)
+                .received(System.nanoTime(), System.currentTimeMillis(), 0);
+        final var inFlight = new ArrayList<CompletableFuture<Void>>();
+        final var reporter = LineProtocolReporter.forRegistry(metricRegistry)
+                .build(metricsHolder, new LineProtocolSender() {
+                    @Override
+                    public @NotNull TimeUnit getTimePrecision() {
+                        return TimeUnit.SECONDS;
+                    }
+
+                    @Override
+                    public void send(final byte @NotNull [] lines, final int length) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public @NotNull CompletableFuture<Void> sendAsync(final byte @NotNull [] lines, final int length) {
+                        // the chunks are only completed once all of them were sent, a timeout fails the report instead
+                        inFlight.add(new CompletableFuture<Void>().orTimeout(5, TimeUnit.SECONDS));
+                        if (inFlight.size() == 3) {
+                            inFlight.forEach(future -> future.complete(null));
+                        }
+                        return inFlight.get(inFlight.size() - 1);
+                    }
+                });
+        reporter.report();
+
+        assertThat(inFlight).hasSize(3);
+        assertThat(counter("send.count")).isEqualTo(3);
+        assertThat(counter("send.failures")).isZero();
+        assertThat(timer("broker").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void failed_chunk_in_flight_fails_report() {
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed")
+                .setValue(101)
+                .received(System.nanoTime(), System.currentTimeMillis(), 0);
+        final var reporter = LineProtocolReporter.forRegistry(metricRegistry)
+                .build(metricsHolder, new LineProtocolSender() {
+                    @Override
+                    public @NotNull TimeUnit getTimePrecision() {
+                        return TimeUnit.SECONDS;
+                    }
+
+                    @Override
+                    public void send(final byte @NotNull [] lines, final int length) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public @NotNull CompletableFuture<Void> sendAsync(final byte @NotNull [] lines, final int length) {
+                        return CompletableFuture.failedFuture(new IOException("unavailable"));
+                    }
+                });
+        reporter.report();
+
+        assertThat(counter("send.failures")).isEqualTo(1);
+        assertThat(counter("send.count")).isZero();
+        assertThat(timer("broker").getCount()).isZero();
+    }
+
+    @Test
+    void registry_changes_followed_without_snapshots() {
+        final var reporter = reporter(metricsHolder, false, false, List.of());
+        metricRegistry.counter("added").inc();
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device2", "added").setValue(5);
+        reporter.report();
+        assertThat(lines()).containsOnlyOnce("added,host=hivemq count=1",
+                "sparkplug.edgeNode.device2.added,host=hivemq value=5");
+
+        sent.clear();
+        metricRegistry.remove("added");
+        reporter.stop();
+        metricRegistry.counter("after.stop");
+        reporter.report();
+        assertThat(lines()).noneMatch(line -> line.startsWith("added,"))
+                .noneMatch(line -> line.startsWith("after.stop,"));
+    }
+
+    @Test
+    void prefix_added_to_measurements() {
+        final var reporter = LineProtocolReporter.forRegistry(new MetricRegistry())
+                .prefixedWith("prefix.")
+                .multiFieldPoints(true)
+                .build(metricsHolder, sender);
+        reporter.report();
+
+        assertThat(lines()).contains("prefix.sparkplug.edgeNode.device1 active=true,speed=100,voltage=3.5");
+    }
+
+    @Test
+    void nothing_sent_without_metrics() {
+        final var registry = new MetricRegistry();
+        final var reporter = LineProtocolReporter.forRegistry(registry)
+                .multiFieldPoints(true)
+                .build(MetricsHolder.forRegistry(new MetricRegistry()).build(), sender);
+        reporter.report();
+
+        assertThat(sent).isEmpty();
+    }
+
+    @Test
+    void encoded_and_sent_data_recorded() {
+        report(false);
+        final var bytes = sent.get(0).getBytes(StandardCharsets.UTF_8).length;
+
+        assertThat(counter("points.produced")).isEqualTo(sent.get(0).split("\n").length);
+        assertThat(counter("bytes.encoded")).isEqualTo(bytes);
+        assertThat(counter("bytes.sent")).isEqualTo(bytes);
+        assertThat(counter("send.count")).isEqualTo(1);
+        assertThat(counter("send.failures")).isZero();
+    }
+
+    @Test
+    void send_failure_recorded() {
+        final var reporter = LineProtocolReporter.forRegistry(metricRegistry)
+                .build(metricsHolder, new LineProtocolSender() {
+                    @Override
+                    public @NotNull TimeUnit getTimePrecision() {
+                        return TimeUnit.SECONDS;
+                    }
+
+                    @Override
+                    public void send(final byte @NotNull [] lines, final int length) throws Exception {
+                        throw new IOException("unavailable");
+                    }
+                });
+        reporter.report();
+
+        assertThat(counter("send.failures")).isEqualTo(1);
+        assertThat(counter("send.count")).isZero();
+        assertThat(counter("bytes.sent")).isZero();
+    }
+
+    @Test
+    void latencies_recorded_for_updated_values() {
+        final var now = System.currentTimeMillis();
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed")
+                .setValue(101)
+                .received(System.nanoTime(), now - 1_000, now - 2_000);
+        metricsHolder.getDeviceInformationMetricsDouble("edgeNode", "device1", "voltage")
+                .setValue(3.6)
+                .received(System.nanoTime(), now - 1_000, 0);
+        report(true);
+        // values which were not updated again are not recorded twice
+        report(true);
+        metricsHolder.getPipelineMetrics().rollLatencies();
+
+        assertThat(timer("queue").getCount()).isEqualTo(2);
+        assertThat(timer("encode").getCount()).isEqualTo(2);
+        assertThat(timer("network").getCount()).isEqualTo(2);
+        assertThat(timer("broker").getCount()).isEqualTo(2);
+        assertThat(timer("source").getCount()).isEqualTo(1);
+        // the snapshot only contains the second report
+        assertThat(timer("broker").getSnapshot().size()).isZero();
+        assertThat(timer("network").getSnapshot().size()).isEqualTo(1);
+    }
+
+    @Test
+    void latencies_snapshot_of_previous_interval() {
+        final var now = System.currentTimeMillis();
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed")
+                .setValue(101)
+                .received(System.nanoTime(), now - 1_000, now - 2_000);
+        report(true);
+        metricsHolder.getPipelineMetrics().rollLatencies();
+
+        final var source = timer("source").getSnapshot();
+        assertThat(source.size()).isEqualTo(1);
+        assertThat(source.getMin()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(2_000));
+        assertThat(source.getMax()).isLessThan(TimeUnit.MILLISECONDS.toNanos(60_000));
+        assertThat(timer("broker").getSnapshot().getMin()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(1_000));
+    }
+
+    @Test
+    void latencies_not_recorded_on_send_failure() {
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed")
+                .setValue(101)
+                .received(System.nanoTime(), System.currentTimeMillis(), 0);
+        final var reporter = LineProtocolReporter.forRegistry(metricRegistry)
+                .build(metricsHolder, new LineProtocolSender() {
+                    @Override
+                    public @NotNull TimeUnit getTimePrecision() {
+                        return TimeUnit.SECONDS;
+                    }
+
+                    @Override
+                    public void send(final byte @NotNull [] lines, final int length) throws Exception {
+                        throw new IOException("unavailable");
+                    }
+                });
+        reporter.report();
+
+        assertThat(timer("queue").getCount()).isEqualTo(1);
+        assertThat(timer("network").getCount()).isZero();
+        assertThat(timer("broker").getCount()).isZero();
+    }
+
+    @Test
+    void interval_aggregates_single_field_points() {
+        final var holder = MetricsHolder.forRegistry(metricRegistry).intervalAggregation(true).build();
+        holder.getDeviceInformationMetricsDouble("edgeNode", "device2", "current")
+                .setValue(2)
+                .setValue(8)
+                .setValue(5)
+                .received(1, 0, 0);
+        holder.getDeviceInformationMetricsBoolean("edgeNode", "device2", "on").setValue(true).received(1, 0, 0);
+        final var reporter = reporter(holder, false, true, List.of());
+        reporter.report();
+        reporter.report();
+
+        assertThat(lines()).contains(
+                "sparkplug.edgeNode.device2.current,host=hivemq value=5,min=2,max=8,mean=5,count=3,first=2",
+                "sparkplug.edgeNode.device2.on,host=hivemq value=true",
+                // without updates, only the last value is written
+                "sparkplug.edgeNode.device2.current,host=hivemq value=5");
+    }
+
+    @Test
+    void interval_aggregates_multi_field_points() {
+        final var holder = MetricsHolder.forRegistry(metricRegistry).intervalAggregation(true).build();
+        holder.getDeviceInformationMetricsInt("edgeNode", "device2", "speed")
+                .setValue(10)
+                .setValue(20)
+                .received(1, 0, 0);
+        holder.getDeviceInformationMetricsInt("edgeNode", "device2", "torque").setValue(3).received(1, 0, 0);
+        reporter(holder, true, true, List.of()).report();
+
+        assertThat(lines()).contains("sparkplug.edgeNode.device2,host=hivemq " +
+                "speed=20,speed_min=10,speed_max=20,speed_mean=15,speed_count=2,speed_first=10," +
+                "torque=3,torque_min=3,torque_max=3,torque_mean=3,torque_count=1,torque_first=3");
+    }
+
+    @Test
+    void interval_aggregates_not_written_for_rollups_only() {
+        final var holder = MetricsHolder.forRegistry(metricRegistry).intervalAggregation(true).build();
+        holder.getDeviceInformationMetricsDouble("edgeNode", "device2", "current")
+                .setValue(2)
+                .setValue(8)
+                .received(1, 0, 0);
+        reporter(holder, false, false, List.of(Duration.ofHours(1))).report();
+
+        assertThat(lines()).contains("sparkplug.edgeNode.device2.current,host=hivemq value=8")
+                .noneMatch(line -> line.startsWith("rollup."));
+    }
+
+    @Test
+    void rollups_written_when_window_closes() throws Exception {
+        final var holder = MetricsHolder.forRegistry(metricRegistry).intervalAggregation(true).build();
+        final var current = holder.getDeviceInformationMetricsDouble("edgeNode", "device2", "current");
+        final var voltage = holder.getDeviceInformationMetricsDouble("edgeNode", "device2", "voltage");
+        final var reporter = reporter(holder, true, false, List.of(Duration.ofSeconds(1), Duration.ofHours(1)));
+        // start right after a second boundary, so the next report is in the same 1s window
+        Thread.sleep(1_000 - System.currentTimeMillis() % 1_000);
+        current.setValue(2).setValue(8).received(1, 0, 0);
+        reporter.report();
+        current.setValue(5).received(1, 0, 0);
+        voltage.setValue(230).received(1, 0, 0);
+        reporter.report();
+        assertThat(lines()).noneMatch(line -> line.startsWith("rollup."));
+
+        Thread.sleep(1_000 - System.currentTimeMillis() % 1_000);
+        sent.clear();
+        reporter.report();
+        assertThat(lines()).contains("rollup.1s.sparkplug.edgeNode.device2,host=hivemq " +
+                "current_min=2,current_max=8,current_mean=5,current_count=3,current_first=2,current_last=5," +
+                "voltage_min=230,voltage_max=230,voltage_mean=230,voltage_count=1,voltage_first=230,voltage_last=230")
+                .noneMatch(line -> line.startsWith("rollup.1h."));
+        // the rollup points have the start of the closed window as timestamp
+        final var nowSeconds = System.currentTimeMillis() / 1_000;
+        final var rollupLine = sent.get(0).lines().filter(line -> line.startsWith("rollup.1s.")).findFirst();
+        assertThat(rollupLine).hasValueSatisfying(line -> assertThat(Long.parseLong(line.substring(
+                line.lastIndexOf(' ') + 1))).isBetween(nowSeconds - 2, nowSeconds - 1));
+
+        sent.clear();
+        reporter.report();
+        assertThat(lines()).noneMatch(line -> line.startsWith("rollup."));
+    }
+
+    @Test
+    void rollups_single_field_points() throws Exception {
+        final var holder = MetricsHolder.forRegistry(metricRegistry).intervalAggregation(true).build();
+        final var reporter = reporter(holder, false, false, List.of(Duration.ofSeconds(1)));
+        Thread.sleep(1_000 - System.currentTimeMillis() % 1_000);
+        holder.getDeviceInformationMetricsLong("edgeNode", "device2", "energy")
+                .setValue(7)
+                .setValue(9)
+                .received(1, 0, 0);
+        reporter.report();
+        Thread.sleep(1_000 - System.currentTimeMillis() % 1_000);
+        reporter.report();
+
+        assertThat(lines()).contains("rollup.1s.sparkplug.edgeNode.device2.energy,host=hivemq " +
+                "min=7,max=9,mean=8,count=2,first=7,last=9");
+    }
+
+    @Test
+    void quantiles_of_configured_metrics() {
+        final var holder = MetricsHolder.forRegistry(metricRegistry)
+                .quantileMetrics(List.of(Pattern.compile("vib.*")))
+                .build();
+        final var vibration = holder.getDeviceInformationMetricsDouble("edgeNode", "device2", "vibration");
+        for (var i = 1; i <= 100; i++) {
+            vibration.setValue(i);
+        }
+        holder.getDeviceInformationMetricsDouble("edgeNode", "device2", "temperature").setValue(20);
+        report(holder, true);
+        report(holder, true);
+
+        assertThat(lines()).containsSubsequence(
+                "sparkplug.edgeNode.device2,host=hivemq temperature=20,vibration=100," +
+                        "vibration_p50=49.90296094906653,vibration_p90=89.13032933635913,vibration_p99=98.50457626879137",
+                "sparkplug.edgeNode.device2,host=hivemq temperature=20,vibration=100");
+    }
+
+    @Test
+    void conflation_writes_last_received_values_with_their_timestamp() {
+        final var holder = MetricsHolder.forRegistry(metricRegistry).conflation(true).build();
+        final var speed = holder.getDeviceInformationMetricsInt("edgeNode", "device2", "speed");
+        final var current = holder.getDeviceInformationMetricsFloat("edgeNode", "device2", "current");
+        final var active = holder.getDeviceInformationMetricsBoolean("edgeNode", "device2", "active");
+        speed.setValue(10).received(System.nanoTime(), 0, 1_000_000L);
+        speed.setValue(20).received(System.nanoTime(), 0, 2_000_000L);
+        current.setValue(1.5f).received(System.nanoTime(), 3_000_000L, 0);
+        active.setValue(true);
+        report(holder, false);
+
+        assertThat(sent.get(0).split("\n")).contains("sparkplug.edgeNode.device2.speed,host=hivemq value=20 2000",
+                "sparkplug.edgeNode.device2.current,host=hivemq value=1.5 3000");
+        // values which were not received since the previous report are not written
+        assertThat(sent.get(0)).doesNotContain("device2.active");
+
+        speed.setValue(30).received(System.nanoTime(), 0, 4_000_000L);
+        sent.clear();
+        report(holder, false);
+        assertThat(lines()).containsOnlyOnce("sparkplug.edgeNode.device2.speed,host=hivemq value=30")
+                .noneMatch(line -> line.startsWith("sparkplug.edgeNode.device2.current"));
+    }
+
+    @Test
+    void conflation_multi_field_points_with_latest_timestamp() {
+        final var holder = MetricsHolder.forRegistry(metricRegistry).conflation(true).build();
+        holder.getDeviceInformationMetricsDouble("edgeNode", "device2", "voltage")
+                .setValue(230.5)
+                .received(System.nanoTime(), 0, 5_000_000L);
+        holder.getDeviceInformationMetricsLong("edgeNode", "device2", "energy")
+                .setValue(7)
+                .received(System.nanoTime(), 0, 6_000_000L);
+        holder.getDeviceInformationMetricsLong("edgeNode", "device3", "energy").setValue(8);
+        report(holder, true);
+
+        assertThat(sent.get(0).split("\n")).contains("sparkplug.edgeNode.device2,host=hivemq energy=7,voltage=230.5 6000")
+                .noneMatch(line -> line.startsWith("sparkplug.edgeNode.device3"));
+    }
+
+    @Test
+    void interval_widened_while_sender_is_slow() throws Exception {
+        final var reports = new CountDownLatch(6);
+        final var reporter = LineProtocolReporter.forRegistry(metricRegistry)
+                .build(metricsHolder, new LineProtocolSender() {
+                    @Override
+                    public @NotNull TimeUnit getTimePrecision() {
+                        return TimeUnit.SECONDS;
+                    }
+
+                    @Override
+                    public void send(final byte @NotNull [] lines, final int length) throws Exception {
+                        Thread.sleep(30);
+                        reports.countDown();
+                    }
+                });
+        final var interval = metricRegistry.getGauges().get(PipelineMetrics.PREFIX + ".report.interval");
+        reporter.start(Duration.ofMillis(10), Duration.ofMillis(200));
+        try {
+            assertThat(interval.getValue()).isEqualTo(10L);
+            assertThat(reports.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat((Long) interval.getValue()).isGreaterThanOrEqualTo(80L);
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    @Test
+    void heavy_hitters_written_per_rank() {
+        metricsHolder.getPipelineMetrics().traffic("group", "edgeNode1", null, 500, 5);
+        metricsHolder.getPipelineMetrics().traffic("group", "edgeNode2", "device1", 1_000, 2);
+        report(false);
+
+        final var top = PipelineMetrics.PREFIX + ".top.";
+        assertThat(sent.get(0)).contains(top + "edgenodes.bytes,host=hivemq,rank=1 key=\"group/edgeNode2\",weight=1000 ",
+                top + "edgenodes.bytes,host=hivemq,rank=2 key=\"group/edgeNode1\",weight=500 ",
+                top + "devices.updates,host=hivemq,rank=1 key=\"group/edgeNode2/device1\",weight=2 ");
+        assertThat(sent.get(0)).doesNotContain(".top.metrics.updates");
+
+        // the heavy hitters are reset with every report
+        report(false);
+        assertThat(sent.get(1)).doesNotContain(".top.");
+    }
+
+    @Test
+    void type_change_written_with_new_type() {
+        metricsHolder.getDeviceInformationMetricsDouble("edgeNode", "device1", "speed").setValue(99.5);
+        report(false);
+        report(true);
+
+        assertThat(lines()).contains("sparkplug.edgeNode.device1.speed,host=hivemq value=99.5",
+                "sparkplug.edgeNode.device1,host=hivemq active=true,speed=99.5,voltage=3.5");
+        assertThat(counter("schema.changes")).isEqualTo(1);
+    }
+
+    @Test
+    void type_change_reported_before_next_value_converted() {
+        metricsHolder.getDeviceInformationMetricsDouble("edgeNode", "device1", "speed");
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "voltage");
+        report(false);
+
+        assertThat(lines()).contains("sparkplug.edgeNode.device1.speed,host=hivemq value=100",
+                "sparkplug.edgeNode.device1.voltage,host=hivemq value=3");
+    }
+
+    @Test
+    void type_change_conflated_value_converted() {
+        final var holder = MetricsHolder.forRegistry(metricRegistry).conflation(true).build();
+        holder.getDeviceInformationMetricsInt("edgeNode", "device2", "speed")
+                .setValue(20)
+                .received(System.nanoTime(), 0, 2_000_000L);
+        holder.getDeviceInformationMetricsDouble("edgeNode", "device2", "speed");
+        report(holder, false);
+
+        assertThat(sent.get(0).split("\n")).contains("sparkplug.edgeNode.device2.speed,host=hivemq value=20 2000");
+    }
+
+    @Test
+    void heartbeat_writes_only_updated_series_between_sweeps() {
+        final var reporter = heartbeatReporter(false);
+        reporter.report();
+        assertThat(lines()).contains("sparkplug.edgeNode.device1.speed,host=hivemq value=100",
+                "sparkplug.edgeNode.uptime,host=hivemq value=12345");
+
+        sent.clear();
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device1", "speed")
+                .setValue(120)
+                .received(System.nanoTime(), 0, 0);
+        reporter.report();
+        assertThat(lines()).containsOnlyOnce("sparkplug.edgeNode.device1.speed,host=hivemq value=120")
+                .contains("sparkplug.edgeNode.device1.status,host=hivemq value=1")
+                .noneMatch(line -> line.startsWith("sparkplug.edgeNode.device1.voltage"))
+                .noneMatch(line -> line.startsWith("sparkplug.edgeNode.uptime"));
+
+        sent.clear();
+        reporter.report();
+        assertThat(lines()).noneMatch(line -> line.startsWith("sparkplug.edgeNode.device1.speed"));
+    }
+
+    @Test
+    void heartbeat_multi_field_points_of_updated_series() {
+        final var reporter = heartbeatReporter(true);
+        reporter.report();
+
+        sent.clear();
+        metricsHolder.getDeviceInformationMetricsDouble("edgeNode", "device1", "voltage")
+                .setValue(4.5)
+                .received(System.nanoTime(), 0, 0);
+        metricsHolder.getDeviceInformationMetricsLong("edgeNode", null, "uptime")
+                .setValue(12346L)
+                .received(System.nanoTime(), 0, 0);
+        reporter.report();
+        assertThat(lines()).contains("sparkplug.edgeNode.device1,host=hivemq voltage=4.5",
+                "sparkplug.edgeNode,host=hivemq uptime=12346");
+    }
+
+    @Test
+    void series_written_in_series_key_order() {
+        metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device0", "speed").setValue(1);
+        report(false);
+        report(true);
+
+        assertThat(lines()).filteredOn(line -> !line.contains(".status,"))
+                .containsSubsequence("sparkplug.edgeNode.device0.speed,host=hivemq value=1",
+                        "sparkplug.edgeNode.device1.active,host=hivemq value=true",
+                        "sparkplug.edgeNode.device1.speed,host=hivemq value=100",
+                        "sparkplug.edgeNode.device1.voltage,host=hivemq value=3.5",
+                        "sparkplug.edgeNode.uptime,host=hivemq value=12345",
+                        "sparkplug.edgeNode,host=hivemq uptime=12345",
+                        "sparkplug.edgeNode.device0,host=hivemq speed=1",
+                        "sparkplug.edgeNode.device1,host=hivemq active=true,speed=100,voltage=3.5");
+    }
+
+    @Test
+    void updated_series_written_in_series_key_order() {
+        final var reporter = heartbeatReporter(false);
+        reporter.report();
+        sent.clear();
+        for (var i = 0; i < 300; i++) {
+            metricsHolder.getDeviceInformationMetricsInt("edgeNode", "device" + (300 - i), "speed")
+                    .setValue(i)
+                    .received(System.nanoTime(), 0, 0);
+        }
+        reporter.report();
+
+        final var lines = lines().stream().filter(line -> line.contains(".speed,")).toList();
+        assertThat(lines).hasSize(300).isSorted();
+    }
+
+    @Test
+    void routed_devices_written_to_the_sender_of_their_route() {
+        final var routed = new ArrayList<String>();
+        final var routeSender = new LineProtocolSender() {
+            @Override
+            public @NotNull TimeUnit getTimePrecision() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public void send(final byte @NotNull [] lines, final int length) {
+                routed.add(new String(lines, 0, length, StandardCharsets.UTF_8));
+            }
+        };
+        final var holder = MetricsHolder.forRegistry(metricRegistry)
+                .routeMatcher(new RouteMatcher(List.of(List.of("Berlin"))))
+                .build();
+        holder.getDeviceInformationMetricsInt("Berlin", "line1", "device1", "speed").setValue(1);
+        holder.getDeviceInformationMetricsInt("Berlin", "line1", null, "uptime").setValue(2);
+        holder.getDeviceInformationMetricsInt("Munich", "line2", "device1", "speed").setValue(3);
+        for (final var multiFieldPoints : List.of(false, true)) {
+            LineProtocolReporter.forRegistry(metricRegistry)
+                    .withTags(Map.of("host", "hivemq"))
+                    .multiFieldPoints(multiFieldPoints)
+                    .withRouteSenders(List.of(routeSender))
+                    .build(holder, sender)
+                    .report();
+        }
+
+        assertThat(routed).hasSize(2);
+        assertThat(String.join("", routed)).contains("sparkplug.line1.device1.speed,group=Berlin,host=hivemq value=1 ",
+                "sparkplug.line1.uptime,group=Berlin,host=hivemq value=2 ",
+                "sparkplug.line1.device1,group=Berlin,host=hivemq speed=1 ",
+                "sparkplug.line1,group=Berlin,host=hivemq uptime=2 ").doesNotContain("line2", PipelineMetrics.PREFIX);
+        assertThat(lines()).contains("sparkplug.line2.device1.speed,group=Munich,host=hivemq value=3",
+                "sparkplug.line2.device1,group=Munich,host=hivemq speed=3",
+                "sparkplug.devices.current.count,host=hivemq count=1").noneMatch(line -> line.contains("line1"));
+    }
+
+    @Test
+    void same_edge_node_in_two_groups_kept_apart() {
+        final var routed = new ArrayList<String>();
+        final var routeSender = new LineProtocolSender() {
+            @Override
+            public @NotNull TimeUnit getTimePrecision() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public void send(final byte @NotNull [] lines, final int length) {
+                routed.add(new String(lines, 0, length, StandardCharsets.UTF_8));
+            }
+        };
+        final var holder = MetricsHolder.forRegistry(metricRegistry)
+                .routeMatcher(new RouteMatcher(List.of(List.of("Berlin"))))
+                .build();
+        holder.getDeviceInformationMetricsInt("Munich", "line1", "device1", "speed").setValue(3);
+        holder.getDeviceInformationMetricsInt("Berlin", "line1", "device1", "speed").setValue(1);
+        LineProtocolReporter.forRegistry(metricRegistry)
+                .withTags(Map.of("host", "hivemq"))
+                .withRouteSenders(List.of(routeSender))
+                .build(holder, sender)
+                .report();
+
+        assertThat(holder.getDeviceInformationMetricsInt("Berlin", "line1", "device1", "speed").getValue())
+                .isEqualTo(1);
+        assertThat(holder.getDeviceInformationMetricsInt("Munich", "line1", "device1", "speed").getValue())
+                .isEqualTo(3);
+        assertThat(String.join("", routed)).contains("sparkplug.line1.device1.speed,group=Berlin,host=hivemq value=1 ")
+                .doesNotContain("Munich");
+        assertThat(lines()).contains("sparkplug.line1.device1.speed,group=Munich,host=hivemq value=3")
+                .noneMatch(line -> line.contains("Berlin"));
+    }
+
+    @Test
+    void group_neither_tagged_nor_registered_without_routes() {
+        metricsHolder.getDeviceInformationMetricsInt("Berlin", "edgeNode", "device1", "speed").setValue(110);
+        report(false);
+
+        assertThat(metricRegistry.getMetrics()).containsKey("sparkplug.edgeNode.device1.speed")
+                .doesNotContainKey("sparkplug.Berlin/edgeNode.device1.speed");
+        assertThat(lines()).contains("sparkplug.edgeNode.device1.speed,host=hivemq value=110")
+                .noneMatch(line -> line.contains("group="));
+    }
+
+    private @NotNull Timer timer(final @NotNull String stage) {
+        return metricRegistry.timer(PipelineMetrics.PREFIX + ".latency." + stage);
+    }
+
+    private long counter(final @NotNull String name) {
+        return metricRegistry.counter(PipelineMetrics.PREFIX + "." + name).getCount();
+    }
+
+    private void report(final boolean multiFieldPoints) {
+        report(metricsHolder, multiFieldPoints);
+    }
+
+    private @NotNull LineProtocolReporter reporter(
+            final @NotNull MetricsHolder metricsHolder,
+            final boolean multiFieldPoints,
+            final boolean intervalAggregation,
+            final @NotNull List<Duration> rollups) {
+        return LineProtocolReporter.forRegistry(metricRegistry)
+                .withTags(Map.of("host", "hivemq"))
+                .multiFieldPoints(multiFieldPoints)
+                .intervalAggregation(intervalAggregation)
+                .withRollups(rollups)
+                .build(metricsHolder, sender);
+    }
+
+    private @NotNull LineProtocolReporter heartbeatReporter(final boolean multiFieldPoints) {
+        return LineProtocolReporter.forRegistry(metricRegistry)
+                .withTags(Map.of("host", "hivemq"))
+                .multiFieldPoints(multiFieldPoints)
+                .withHeartbeat(Duration.ofHours(1))
+                .build(metricsHolder, sender);
+    }
+
+    private void report(final @NotNull MetricsHolder metricsHolder, final boolean multiFieldPoints) {
+        final var reporter = LineProtocolReporter.forRegistry(metricRegistry)
+                .withTags(Map.of("host", "hivemq"))
+                .multiFieldPoints(multiFieldPoints)
+                .build(metricsHolder, sender);
+        reporter.report();
+    }
+
+    /**
+     * @return all sent lines without their timestamp, except the lines of the pipeline metrics
+     */
+    private @NotNull List<String> lines() {
+        final var lines = new ArrayList<String>();
+        for (final var data : sent) {
+            for (final var line : data.split("\n")) {
+                if (!line.startsWith(PipelineMetrics.PREFIX)) {
+                    lines.add(line.substring(0, line.lastIndexOf(' ')));
+                }
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RadixSortTest {
+
+    private final @NotNull RadixSort radixSort = new RadixSort();
+
+    @Test
+    void sorted_by_upper_bits() {
+        for (final var maxKey : new int[]{0, 1, 2_047, 2_048, 1 << 20, Integer.MAX_VALUE}) {
+            final var random = new Random(maxKey);
+            final var values = new long[10_000];
+            for (var i = 0; i < values.length; i++) {
+                values[i] = (long) random.nextInt(maxKey == Integer.MAX_VALUE ? maxKey : maxKey + 1) << 32 | i;
+            }
+            values[0] = (long) maxKey << 32;
+
+            radixSort.sort(values, values.length, maxKey);
+
+            final var keys = Arrays.stream(values).map(value -> value >>> 32).toArray();
+            assertThat(keys).isSorted();
+            // a stable sort keeps the lower bits in order for every key
+            for (var i = 1; i < values.length; i++) {
+                if (keys[i] == keys[i - 1]) {
+                    assertThat((int) values[i]).isGreaterThan((int) values[i - 1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void only_count_values_sorted() {
+        final var values = new long[1_000];
+        for (var i = 0; i < values.length; i++) {
+            values[i] = (long) (values.length - i) << 32;
+        }
+
+        radixSort.sort(values, 500, values.length);
+
+        assertThat(Arrays.copyOf(values, 500)).isSorted();
+        assertThat(values[500]).isEqualTo(500L << 32);
+        assertThat(values[999]).isEqualTo(1L << 32);
+    }
+
+    @Test
+    void small_arrays_sorted() {
+        final var values = new long[]{3L << 32, 1L << 32 | 7, 2L << 32, 1L << 32 | 5};
+
+        radixSort.sort(values, values.length, 3);
+
+        assertThat(values).containsExactly(1L << 32 | 5, 1L << 32 | 7, 2L << 32, 3L << 32);
+    }
+}
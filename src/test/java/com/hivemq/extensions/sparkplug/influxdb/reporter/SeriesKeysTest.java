@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.reporter;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.MetricsHolder;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SeriesKeysTest {
+
+    private final @NotNull MetricsHolder metricsHolder = MetricsHolder.forRegistry(new MetricRegistry()).build();
+    private final @NotNull SeriesKeys keys =
+            new SeriesKeys("prefix.", new TreeMap<>(Map.of("site", "plant 1", "host", "hivemq")));
+
+    @Test
+    void series_key_escaped_with_sorted_tags() {
+        metricsHolder.getDeviceInformationMetricsInt("edge node", "device1", "speed=max");
+        final var table = metricsHolder.getSeriesTable();
+
+        assertThat(string(keys.series(table.getDevice(0), table.getSeries(0)))).isEqualTo(
+                "prefix.sparkplug.edge\\ node.device1.speed=max,host=hivemq,site=plant\\ 1");
+        assertThat(string(keys.device(table.getDevice(0)))).isEqualTo(
+                "prefix.sparkplug.edge\\ node.device1,host=hivemq,site=plant\\ 1");
+    }
+
+    @Test
+    void keys_encoded_once() {
+        for (var i = 0; i < 100; i++) {
+            metricsHolder.getDeviceInformationMetricsLong("edgeNode", "device" + (i % 3), "metric" + i);
+        }
+        final var table = metricsHolder.getSeriesTable();
+        final var last = table.getSeries(99);
+        final var device = table.getDevice(table.getDeviceIndex(99));
+
+        final var key = keys.series(device, last);
+        assertThat(keys.series(device, last)).isSameAs(key);
+        assertThat(string(key)).isEqualTo("prefix.sparkplug.edgeNode.device0.metric99,host=hivemq,site=plant\\ 1");
+        assertThat(keys.device(device)).isSameAs(keys.device(device));
+    }
+
+    private static @NotNull String string(final byte @NotNull [] key) {
+        return new String(key, StandardCharsets.UTF_8);
+    }
+}
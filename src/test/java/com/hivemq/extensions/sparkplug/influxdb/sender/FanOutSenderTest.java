@@ -0,0 +1,266 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FanOutSenderTest {
+
+    private final @NotNull MetricRegistry registry = new MetricRegistry();
+    private final @NotNull PipelineMetrics pipelineMetrics = new PipelineMetrics(registry);
+    private @Nullable FanOutSender sender;
+
+    @AfterEach
+    void tearDown() {
+        if (sender != null) {
+            sender.close();
+        }
+    }
+
+    @Test
+    void chunks_written_to_all_sinks() throws Exception {
+        final var onPrem = new Sink(TimeUnit.SECONDS);
+        final var cloud = new Sink(TimeUnit.SECONDS);
+        final var sender = sender(onPrem, cloud, 1024);
+        send(sender, "a v=1 1\n");
+        send(sender, "b v=2 2\n");
+
+        assertThat(onPrem.next()).isEqualTo("a v=1 1\n");
+        assertThat(onPrem.next()).isEqualTo("b v=2 2\n");
+        assertThat(cloud.next()).isEqualTo("a v=1 1\n");
+        assertThat(cloud.next()).isEqualTo("b v=2 2\n");
+        assertThat(sender.getTimePrecision()).isEqualTo(TimeUnit.SECONDS);
+    }
+
+    @Test
+    void slow_sink_does_not_hold_back_others() throws Exception {
+        final var slow = new Sink(TimeUnit.SECONDS);
+        final var fast = new Sink(TimeUnit.SECONDS);
+        slow.blocked = new CountDownLatch(1);
+        // room for two chunks, one being written and one queued
+        final var sender = sender(slow, fast, 16);
+        for (var i = 0; i < 3; i++) {
+            send(sender, "a v=" + i + " 1\n");
+            assertThat(fast.next()).isEqualTo("a v=" + i + " 1\n");
+            await(() -> queuedBytes("fast") == 0);
+        }
+
+        assertThat(counter("sink.slow.bytes.dropped")).isEqualTo(8);
+        assertThat(queuedBytes("slow")).isEqualTo(16);
+
+        slow.blocked.countDown();
+        assertThat(slow.next()).isEqualTo("a v=0 1\n");
+        assertThat(slow.next()).isEqualTo("a v=1 1\n");
+        assertThat(counter("sink.fast.bytes.dropped")).isZero();
+        assertThat(counter("sink.fast.bytes.sent")).isEqualTo(24);
+    }
+
+    @Test
+    void dropped_chunks_logged_once_per_interval() throws Exception {
+        final var logger = (Logger) LoggerFactory.getLogger(FanOutSender.class);
+        final var logs = new ListAppender<ILoggingEvent>();
+        logs.start();
+        logger.addAppender(logs);
+        try {
+            final var slow = new Sink(TimeUnit.SECONDS);
+            final var fast = new Sink(TimeUnit.SECONDS);
+            slow.blocked = new CountDownLatch(1);
+            // room for the chunk being written only
+            final var sender = sender(slow, fast, 8);
+            for (var i = 0; i < 4; i++) {
+                send(sender, "a v=" + i + " 1\n");
+                assertThat(fast.next()).isEqualTo("a v=" + i + " 1\n");
+                await(() -> queuedBytes("fast") == 0);
+            }
+
+            assertThat(counter("sink.slow.bytes.dropped")).isEqualTo(24);
+            assertThat(logs.list).filteredOn(event -> event.getLevel() == Level.WARN).hasSize(1);
+            slow.blocked.countDown();
+        } finally {
+            logger.detachAppender(logs);
+        }
+    }
+
+    @Test
+    void send_completes_when_first_sink_wrote_chunk() throws Exception {
+        final var first = new Sink(TimeUnit.SECONDS);
+        final var second = new Sink(TimeUnit.SECONDS);
+        first.blocked = new CountDownLatch(1);
+        second.blocked = new CountDownLatch(1);
+        final var sender = sender(first, second, 1024);
+        final var bytes = "a v=1 1\n".getBytes(StandardCharsets.UTF_8);
+        final var written = sender.sendAsync(bytes, bytes.length);
+
+        Thread.sleep(50);
+        assertThat(written).isNotDone();
+        second.blocked.countDown();
+        assertThat(second.next()).isEqualTo("a v=1 1\n");
+        written.get(5, TimeUnit.SECONDS);
+        first.blocked.countDown();
+    }
+
+    @Test
+    void send_fails_when_all_queues_full() throws Exception {
+        final var first = new Sink(TimeUnit.SECONDS);
+        final var second = new Sink(TimeUnit.SECONDS);
+        first.blocked = new CountDownLatch(1);
+        second.blocked = first.blocked;
+        final var sender = sender(first, second, 8);
+        final var bytes = "a v=1 1\n".getBytes(StandardCharsets.UTF_8);
+        final var written = sender.sendAsync(bytes, bytes.length);
+
+        assertThatThrownBy(() -> send(sender, "b v=2 2\n")).isInstanceOf(IOException.class);
+        first.blocked.countDown();
+        written.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void send_fails_when_all_sinks_dropped_chunk() {
+        final var first = new Sink(TimeUnit.SECONDS);
+        final var second = new Sink(TimeUnit.SECONDS);
+        first.failingChunk = "a v=1 1\n";
+        second.failingChunk = "a v=1 1\n";
+        final var sender = sender(first, second, 1024);
+
+        assertThatThrownBy(() -> send(sender, "a v=1 1\n")).isInstanceOf(IOException.class)
+                .hasMessage("unavailable");
+        assertThat(counter("sink.failing.failures")).isEqualTo(FanOutSender.ATTEMPTS);
+        assertThat(counter("sink.healthy.failures")).isEqualTo(FanOutSender.ATTEMPTS);
+    }
+
+    @Test
+    void failed_write_retried_then_dropped() throws Exception {
+        final var failing = new Sink(TimeUnit.SECONDS);
+        final var healthy = new Sink(TimeUnit.SECONDS);
+        failing.failingChunk = "a v=1 1\n";
+        final var sender = sender(failing, healthy, 1024);
+        send(sender, "a v=1 1\n");
+        send(sender, "b v=2 2\n");
+
+        // the first chunk is attempted until it is dropped, the second one is written meanwhile
+        final var attempts = new ArrayList<String>();
+        for (var i = 0; i <= FanOutSender.ATTEMPTS; i++) {
+            attempts.add(failing.next());
+        }
+        assertThat(attempts).containsOnly("a v=1 1\n", "b v=2 2\n").containsOnlyOnce("b v=2 2\n");
+        assertThat(healthy.next()).isEqualTo("a v=1 1\n");
+        await(() -> counter("sink.failing.bytes.dropped") == 8);
+        assertThat(counter("sink.failing.failures")).isEqualTo(FanOutSender.ATTEMPTS);
+        await(() -> counter("sink.failing.bytes.sent") == 8);
+    }
+
+    @Test
+    void sinks_with_different_time_precisions_rejected() {
+        final var senders = new LinkedHashMap<String, LineProtocolSender>();
+        senders.put("http", new Sink(TimeUnit.SECONDS));
+        senders.put("udp", new Sink(TimeUnit.NANOSECONDS));
+
+        assertThatThrownBy(() -> new FanOutSender(senders, 1024, pipelineMetrics)).isInstanceOf(
+                IllegalArgumentException.class);
+    }
+
+    private @NotNull FanOutSender sender(
+            final @NotNull Sink first,
+            final @NotNull Sink second,
+            final long queueSize) {
+        final var names = first.blocked != null && second.blocked == null ? new String[]{"slow", "fast"} :
+                first.failingChunk != null ? new String[]{"failing", "healthy"} : new String[]{"onPrem", "cloud"};
+        final var senders = new LinkedHashMap<String, LineProtocolSender>();
+        senders.put(names[0], first);
+        senders.put(names[1], second);
+        sender = new FanOutSender(senders, queueSize, 10, pipelineMetrics);
+        return sender;
+    }
+
+    private static void send(final @NotNull LineProtocolSender sender, final @NotNull String lines) throws Exception {
+        final var bytes = lines.getBytes(StandardCharsets.UTF_8);
+        sender.send(bytes, bytes.length);
+    }
+
+    private static void await(final @NotNull BooleanSupplier condition) throws InterruptedException {
+        final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+    private long queuedBytes(final @NotNull String sink) {
+        return (long) registry.getGauges().get(PipelineMetrics.PREFIX + ".sink." + sink + ".queued.bytes").getValue();
+    }
+
+    private long counter(final @NotNull String name) {
+        return registry.counter(PipelineMetrics.PREFIX + "." + name).getCount();
+    }
+
+    private static class Sink implements LineProtocolSender {
+
+        private final @NotNull TimeUnit timePrecision;
+        private final @NotNull LinkedBlockingQueue<String> received = new LinkedBlockingQueue<>();
+        private volatile @Nullable CountDownLatch blocked;
+        private volatile @Nullable String failingChunk;
+
+        private Sink(final @NotNull TimeUnit timePrecision) {
+            this.timePrecision = timePrecision;
+        }
+
+        @Override
+        public @NotNull TimeUnit getTimePrecision() {
+            return timePrecision;
+        }
+
+        @Override
+        public void send(final byte @NotNull [] lines, final int length) throws Exception {
+            final var blocked = this.blocked;
+            if (blocked != null) {
+                blocked.await();
+            }
+            final var chunk = new String(lines, 0, length, StandardCharsets.UTF_8);
+            received.add(chunk);
+            if (chunk.equals(failingChunk)) {
+                throw new IOException("unavailable");
+            }
+        }
+
+        private @Nullable String next() throws InterruptedException {
+            return received.poll(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
+import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@WireMockTest
+class HttpLineProtocolSenderTest {
+
+    private final @NotNull MetricRegistry registry = new MetricRegistry();
+    private final @NotNull PipelineMetrics pipelineMetrics = new PipelineMetrics(registry);
+
+    @Test
+    void lines_written_with_basic_auth(final @NotNull WireMockRuntimeInfo wireMockRuntimeInfo) throws Exception {
+        stubFor(post(urlPathEqualTo("/write")).willReturn(aResponse().withStatus(204)));
+        final var sender = sender(wireMockRuntimeInfo, "user:password", 4);
+        final var lines = "a v=1 1\nb v=2 2\n".getBytes(StandardCharsets.UTF_8);
+        sender.send(lines, 8);
+
+        verify(postRequestedFor(urlEqualTo("/write?db=hive+mq&precision=s")).withHeader("Authorization",
+                equalTo("Basic dXNlcjpwYXNzd29yZA==")).withRequestBody(equalTo("a v=1 1\n")));
+        assertThat(gauge("http.window")).isEqualTo(4);
+        assertThat(gauge("http.inflight.requests")).isEqualTo(0L);
+        assertThat(gauge("http.inflight.bytes")).isEqualTo(0L);
+    }
+
+    @Test
+    void requests_kept_in_flight(final @NotNull WireMockRuntimeInfo wireMockRuntimeInfo) throws Exception {
+        stubFor(post(urlPathEqualTo("/write")).willReturn(aResponse().withStatus(204).withFixedDelay(500)));
+        final var sender = sender(wireMockRuntimeInfo, null, 4);
+        final var lines = "a v=1 1\n".getBytes(StandardCharsets.UTF_8);
+        final var futures = new ArrayList<CompletableFuture<Void>>();
+        for (var i = 0; i < 4; i++) {
+            futures.add(sender.sendAsync(lines, lines.length));
+        }
+
+        assertThat(gauge("http.inflight.requests")).isEqualTo(4L);
+        assertThat(gauge("http.inflight.bytes")).isEqualTo(32L);
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        assertThat(gauge("http.inflight.requests")).isEqualTo(0L);
+        assertThat(gauge("http.inflight.bytes")).isEqualTo(0L);
+        verify(4, postRequestedFor(urlPathEqualTo("/write")));
+    }
+
+    @Test
+    void error_response_fails_write(final @NotNull WireMockRuntimeInfo wireMockRuntimeInfo) throws Exception {
+        stubFor(post(urlPathEqualTo("/write")).willReturn(aResponse().withStatus(400).withBody("field type conflict")));
+        final var sender = sender(wireMockRuntimeInfo, null, 1);
+        final var lines = "a v=1 1\n".getBytes(StandardCharsets.UTF_8);
+
+        assertThatThrownBy(() -> sender.send(lines, lines.length)).isInstanceOf(IOException.class)
+                .hasMessageContaining("400")
+                .hasMessageContaining("field type conflict");
+        // the window is released for the next write
+        assertThatThrownBy(() -> sender.send(lines, lines.length)).isInstanceOf(IOException.class);
+        assertThat(gauge("http.inflight.requests")).isEqualTo(0L);
+    }
+
+    @Test
+    void close_cancels_requests_in_flight(final @NotNull WireMockRuntimeInfo wireMockRuntimeInfo) throws Exception {
+        stubFor(post(urlPathEqualTo("/write")).willReturn(aResponse().withStatus(204).withFixedDelay(2000)));
+        final var sender = sender(wireMockRuntimeInfo, null, 4);
+        final var lines = "a v=1 1\n".getBytes(StandardCharsets.UTF_8);
+        final var inFlight = sender.sendAsync(lines, lines.length);
+        sender.close();
+
+        assertThat(inFlight).isCompletedExceptionally();
+        assertThat(gauge("http.inflight.requests")).isEqualTo(0L);
+        assertThatThrownBy(() -> sender.send(lines, lines.length)).isInstanceOf(IOException.class)
+                .hasMessageContaining("closed");
+    }
+
+    private @NotNull HttpLineProtocolSender sender(
+            final @NotNull WireMockRuntimeInfo wireMockRuntimeInfo,
+            final @Nullable String authString,
+            final int maxInFlight) throws Exception {
+        return new HttpLineProtocolSender("http",
+                "localhost",
+                wireMockRuntimeInfo.getHttpPort(),
+                "hive mq",
+                authString,
+                TimeUnit.SECONDS,
+                3000,
+                3000,
+                maxInFlight,
+                pipelineMetrics);
+    }
+
+    private @NotNull Object gauge(final @NotNull String name) {
+        return registry.getGauges().get(PipelineMetrics.PREFIX + "." + name).getValue();
+    }
+}
@@ -14,10 +14,12 @@
  * limitations under the License.
  */
 
-package com.hivemq.extensions.sparkplug.influxdb;
+package com.hivemq.extensions.sparkplug.influxdb.sender;
 
+import com.codahale.metrics.MetricRegistry;
 import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
 import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 
@@ -44,12 +46,14 @@ class InfluxDbCloudSenderTest {
                 TimeUnit.MILLISECONDS,
                 3000,
                 3000,
-                "",
                 "testorg",
-                "testbucket");
+                "testbucket",
+                4,
+                new PipelineMetrics(new MetricRegistry()));
         stubFor(post(urlPathEqualTo("/api/v2/write")).willReturn(aResponse().withStatus(200).withBody("")));
 
-        sender.writeData("line=line".getBytes());
+        final var lines = "line=line".getBytes();
+        sender.send(lines, lines.length);
         verify(postRequestedFor(urlEqualTo("/api/v2/write?precision=ms&org=testorg&bucket=testbucket"))
                 .withHeader("Authorization", equalTo("Token token"))
                 .withRequestBody(equalTo("line=line")));
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LoadBalancingSenderTest {
+
+    private final @NotNull MetricRegistry registry = new MetricRegistry();
+    private final @NotNull PipelineMetrics pipelineMetrics = new PipelineMetrics(registry);
+
+    @Test
+    void endpoints_with_same_load_take_turns() {
+        final var first = new Endpoint();
+        final var second = new Endpoint();
+        // no write completes, so the latencies stay unknown and the loads are equal in every second turn
+        first.pending = true;
+        second.pending = true;
+        final var sender = sender(first, second);
+        for (var i = 0; i < 4; i++) {
+            sender.sendAsync(bytes("a v=" + i + " 1\n"), 8);
+        }
+
+        assertThat(first.lines).containsExactly("a v=0 1\n", "a v=2 1\n");
+        assertThat(second.lines).containsExactly("a v=1 1\n", "a v=3 1\n");
+    }
+
+    @Test
+    void least_bytes_in_flight_selected() throws Exception {
+        final var first = new Endpoint();
+        final var second = new Endpoint();
+        first.pending = true;
+        final var sender = sender(first, second);
+        final var inFlight = sender.sendAsync(bytes("large v=1 1\n"), 12);
+        for (var i = 0; i < 3; i++) {
+            send(sender, "a v=" + i + " 1\n");
+        }
+
+        // the first endpoint takes turns, but has more bytes in flight
+        assertThat(first.lines).containsExactly("large v=1 1\n");
+        assertThat(second.lines).hasSize(3);
+        assertThat(inFlight).isNotDone();
+        first.futures.get(0).complete(null);
+        assertThat(inFlight).isCompleted();
+    }
+
+    @Test
+    void failed_write_retried_and_endpoint_ejected() {
+        final var first = new Endpoint();
+        final var second = new Endpoint();
+        first.failing = true;
+        second.pending = true;
+        final var sender = sender(first, second);
+        final var futures = new ArrayList<CompletableFuture<Void>>();
+        for (var i = 0; i < 2 * LoadBalancingSender.EJECT_FAILURES; i++) {
+            futures.add(sender.sendAsync(bytes("a v=" + i + " 1\n"), 8));
+        }
+        second.futures.forEach(future -> future.complete(null));
+
+        assertThat(futures).allMatch(future -> future.isDone() && !future.isCompletedExceptionally());
+
+        // every write reached the healthy endpoint, the failing one is not used after its ejection
+        assertThat(second.lines).hasSize(2 * LoadBalancingSender.EJECT_FAILURES);
+        assertThat(first.lines).hasSize(LoadBalancingSender.EJECT_FAILURES);
+        assertThat(counter("endpoint.ejections")).isEqualTo(1);
+        assertThat(counter("endpoint.retries")).isEqualTo(LoadBalancingSender.EJECT_FAILURES);
+    }
+
+    @Test
+    void write_fails_when_all_endpoints_fail() {
+        final var first = new Endpoint();
+        final var second = new Endpoint();
+        first.failing = true;
+        second.failing = true;
+        final var sender = sender(first, second);
+
+        assertThatThrownBy(() -> send(sender, "a v=1 1\n")).isInstanceOf(IOException.class);
+        assertThat(first.lines).hasSize(1);
+        assertThat(second.lines).hasSize(1);
+    }
+
+    @Test
+    void ejected_endpoints_still_used_when_no_endpoint_is_healthy() {
+        final var first = new Endpoint();
+        final var second = new Endpoint();
+        first.failing = true;
+        second.failing = true;
+        final var sender = sender(first, second);
+        for (var i = 0; i < LoadBalancingSender.EJECT_FAILURES; i++) {
+            assertThatThrownBy(() -> send(sender, "a v=1 1\n")).isInstanceOf(IOException.class);
+        }
+        assertThat(counter("endpoint.ejections")).isEqualTo(2);
+
+        second.failing = false;
+        assertThatThrownBy(() -> send(sender, "a v=2 1\n")).isInstanceOf(IOException.class);
+        assertThat(first.lines).hasSize(LoadBalancingSender.EJECT_FAILURES + 1);
+    }
+
+    @Test
+    void rejected_write_fails_without_retry_or_ejection() {
+        final var first = new Endpoint();
+        final var second = new Endpoint();
+        first.statusCode = 400;
+        second.statusCode = 413;
+        final var sender = sender(first, second);
+        for (var i = 0; i < 2 * LoadBalancingSender.EJECT_FAILURES; i++) {
+            assertThatThrownBy(() -> send(sender, "a v=1 1\n")).isInstanceOf(HttpStatusException.class);
+        }
+
+        assertThat(first.lines).hasSize(LoadBalancingSender.EJECT_FAILURES);
+        assertThat(second.lines).hasSize(LoadBalancingSender.EJECT_FAILURES);
+        assertThat(counter("endpoint.retries")).isZero();
+        assertThat(counter("endpoint.ejections")).isZero();
+    }
+
+    @Test
+    void overloaded_endpoint_retried_and_ejected() throws Exception {
+        final var first = new Endpoint();
+        final var second = new Endpoint();
+        first.statusCode = 503;
+        second.statusCode = 429;
+        final var sender = sender(first, second);
+        assertThatThrownBy(() -> send(sender, "a v=1 1\n")).isInstanceOf(HttpStatusException.class);
+        assertThat(counter("endpoint.retries")).isEqualTo(1);
+
+        second.statusCode = 0;
+        for (var i = 0; i < 2 * LoadBalancingSender.EJECT_FAILURES; i++) {
+            send(sender, "a v=2 1\n");
+        }
+        assertThat(counter("endpoint.ejections")).isEqualTo(1);
+    }
+
+    private @NotNull LoadBalancingSender sender(final @NotNull Endpoint first, final @NotNull Endpoint second) {
+        final var senders = new LinkedHashMap<String, LineProtocolSender>();
+        senders.put("first", first);
+        senders.put("second", second);
+        return new LoadBalancingSender(senders, pipelineMetrics);
+    }
+
+    private static void send(final @NotNull LineProtocolSender sender, final @NotNull String lines) throws Exception {
+        final var bytes = bytes(lines);
+        sender.send(bytes, bytes.length);
+    }
+
+    private static byte @NotNull [] bytes(final @NotNull String lines) {
+        return lines.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private long counter(final @NotNull String name) {
+        return registry.counter(PipelineMetrics.PREFIX + "." + name).getCount();
+    }
+
+    private static class Endpoint implements LineProtocolSender {
+
+        private final @NotNull List<String> lines = new ArrayList<>();
+        private final @NotNull List<CompletableFuture<Void>> futures = new ArrayList<>();
+        private boolean failing;
+        private boolean pending;
+        // the status code the writes are answered with, 0 for success
+        private int statusCode;
+
+        @Override
+        public @NotNull TimeUnit getTimePrecision() {
+            return TimeUnit.SECONDS;
+        }
+
+        @Override
+        public void send(final byte @NotNull [] lines, final int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public @NotNull CompletableFuture<Void> sendAsync(final byte @NotNull [] lines, final int length) {
+            this.lines.add(new String(lines, 0, length, StandardCharsets.UTF_8));
+            if (failing) {
+                return CompletableFuture.failedFuture(new IOException("unavailable"));
+            }
+            if (statusCode != 0) {
+                return CompletableFuture.failedFuture(new HttpStatusException(statusCode, "status " + statusCode));
+            }
+            final var future = pending ? new CompletableFuture<Void>() : CompletableFuture.<Void>completedFuture(null);
+            futures.add(future);
+            return future;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TcpLineProtocolSenderTest {
+
+    private final @NotNull MetricRegistry registry = new MetricRegistry();
+    private final @NotNull PipelineMetrics pipelineMetrics = new PipelineMetrics(registry);
+    private @NotNull ServerSocketChannel listener;
+    private @Nullable TcpLineProtocolSender sender;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        listener = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (sender != null) {
+            sender.close();
+        }
+        listener.close();
+    }
+
+    @Test
+    void lines_written_in_order() throws Exception {
+        final var sender = sender(1024);
+        send(sender, "a v=1 1\n");
+        send(sender, "b v=2 2\nc v=3 3\n");
+        final var lines = "d v=4 4\ne v=5 5\n".getBytes(StandardCharsets.UTF_8);
+        sender.send(lines, 8);
+
+        try (final var connection = listener.accept()) {
+            assertThat(receive(connection, 32)).isEqualTo("a v=1 1\nb v=2 2\nc v=3 3\nd v=4 4\n");
+        }
+        assertThat(counter("tcp.connects")).isEqualTo(1);
+    }
+
+    @Test
+    void send_does_not_block_and_fails_when_buffer_full() throws Exception {
+        final var port = listener.socket().getLocalPort();
+        listener.close();
+        sender = new TcpLineProtocolSender(InetAddress.getLoopbackAddress().getHostAddress(),
+                port,
+                1000,
+                16,
+                pipelineMetrics);
+
+        send(sender, "a v=1 1\n");
+        send(sender, "b v=2 2\n");
+        assertThatThrownBy(() -> send(sender, "c v=3 3\n")).isInstanceOf(IOException.class);
+        assertThat(sender.getPendingBytes()).isEqualTo(16);
+        assertThat(counter("tcp.bytes.dropped")).isEqualTo(8);
+    }
+
+    @Test
+    void reconnects_after_connection_closed() throws Exception {
+        final var sender = sender(1024);
+        send(sender, "a v=1 1\n");
+        try (final var connection = listener.accept()) {
+            assertThat(receive(connection, 8)).isEqualTo("a v=1 1\n");
+            connection.setOption(StandardSocketOptions.SO_LINGER, 0);
+        }
+
+        // the lines are buffered until the connection is reestablished
+        send(sender, "b v=2 2\n");
+        try (final var connection = listener.accept()) {
+            assertThat(receive(connection, 8)).isEqualTo("b v=2 2\n");
+        }
+        assertThat(counter("tcp.connects")).isEqualTo(2);
+    }
+
+    @Test
+    void reconnects_after_host_unresolvable() throws Exception {
+        final var address = (InetSocketAddress) listener.getLocalAddress();
+        final var resolves = new AtomicInteger();
+        sender = new TcpLineProtocolSender("influxdb.invalid", address.getPort(), 1000, 1024, pipelineMetrics, () -> {
+            // the host is only resolvable from the third connect on
+            if (resolves.incrementAndGet() < 3) {
+                return InetSocketAddress.createUnresolved("influxdb.invalid", address.getPort());
+            }
+            return address;
+        });
+
+        send(sender, "a v=1 1\n");
+        try (final var connection = listener.accept()) {
+            assertThat(receive(connection, 8)).isEqualTo("a v=1 1\n");
+        }
+        assertThat(resolves).hasValue(3);
+        assertThat(counter("tcp.connects")).isEqualTo(1);
+    }
+
+    @Test
+    void closed_sender_rejects_lines() throws Exception {
+        final var sender = sender(1024);
+        sender.close();
+
+        assertThatThrownBy(() -> send(sender, "a v=1 1\n")).isInstanceOf(IOException.class);
+        assertThat(sender.getPendingBytes()).isZero();
+    }
+
+    private @NotNull TcpLineProtocolSender sender(final int bufferSize) throws Exception {
+        final var address = (InetSocketAddress) listener.getLocalAddress();
+        sender = new TcpLineProtocolSender(address.getHostString(),
+                address.getPort(),
+                1000,
+                bufferSize,
+                pipelineMetrics);
+        return sender;
+    }
+
+    private static void send(final @NotNull TcpLineProtocolSender sender, final @NotNull String lines)
+            throws Exception {
+        final var bytes = lines.getBytes(StandardCharsets.UTF_8);
+        sender.send(bytes, bytes.length);
+    }
+
+    private static @NotNull String receive(final @NotNull SocketChannel connection, final int length)
+            throws Exception {
+        final var buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && connection.read(buffer) >= 0) {
+            // a blocking read returns as soon as any data is available
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+
+    private long counter(final @NotNull String name) {
+        return registry.counter(PipelineMetrics.PREFIX + "." + name).getCount();
+    }
+}
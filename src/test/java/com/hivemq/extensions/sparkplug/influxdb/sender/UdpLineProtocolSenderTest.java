@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.sparkplug.influxdb.sender;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.sparkplug.influxdb.metrics.PipelineMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UdpLineProtocolSenderTest {
+
+    private final @NotNull MetricRegistry registry = new MetricRegistry();
+    private final @NotNull PipelineMetrics pipelineMetrics = new PipelineMetrics(registry);
+    private @NotNull DatagramChannel listener;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        listener = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        listener.close();
+    }
+
+    @Test
+    void complete_lines_packed_into_datagrams() throws Exception {
+        final var sender = sender(32);
+        // 16 bytes per line, so two lines fit into a datagram
+        send(sender, "a,host=x v=10 1\nb,host=x v=20 2\nc,host=x v=30 3\n");
+
+        assertThat(receive(2)).containsExactly("a,host=x v=10 1\nb,host=x v=20 2\n", "c,host=x v=30 3\n");
+        assertThat(counter("udp.datagrams.sent")).isEqualTo(2);
+        assertThat(counter("udp.lines.dropped")).isZero();
+    }
+
+    @Test
+    void lines_longer_than_datagram_dropped() throws Exception {
+        final var sender = sender(20);
+        send(sender, "a v=1 1\nmeasurement,host=x value=100 1\nb v=2 2\nc v=3 3");
+
+        assertThat(receive(2)).containsExactly("a v=1 1\n", "b v=2 2\nc v=3 3");
+        assertThat(counter("udp.datagrams.sent")).isEqualTo(2);
+        assertThat(counter("udp.lines.dropped")).isEqualTo(1);
+    }
+
+    @Test
+    void only_given_length_sent() throws Exception {
+        final var sender = sender(1400);
+        final var lines = "a v=1 1\nb v=2 2\n".getBytes(StandardCharsets.UTF_8);
+        sender.send(lines, 8);
+        sender.send(lines, lines.length);
+
+        assertThat(receive(2)).containsExactly("a v=1 1\n", "a v=1 1\nb v=2 2\n");
+        assertThat(counter("udp.datagrams.dropped")).isZero();
+    }
+
+    private @NotNull UdpLineProtocolSender sender(final int datagramSize) throws Exception {
+        final var address = (InetSocketAddress) listener.getLocalAddress();
+        return new UdpLineProtocolSender(address.getHostString(), address.getPort(), datagramSize, pipelineMetrics);
+    }
+
+    private static void send(final @NotNull UdpLineProtocolSender sender, final @NotNull String lines)
+            throws Exception {
+        final var bytes = lines.getBytes(StandardCharsets.UTF_8);
+        sender.send(bytes, bytes.length);
+    }
+
+    private @NotNull List<String> receive(final int count) throws Exception {
+        final var datagrams = new ArrayList<String>();
+        final var buffer = ByteBuffer.allocate(65536);
+        for (var i = 0; i < count; i++) {
+            buffer.clear();
+            listener.receive(buffer);
+            datagrams.add(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+        }
+        return datagrams;
+    }
+
+    private long counter(final @NotNull String name) {
+        return registry.counter(PipelineMetrics.PREFIX + "." + name).getCount();
+    }
+}